@@ -0,0 +1,290 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hironytic.moltonf.MoltonfException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HttpAccess と ExternalDataCache の HTTP のやりとりを、ローカルに立てたサーバーに対して確かめるプログラム。
+ *
+ * 次の場合を順に確かめ、期待と異なればメッセージを表示して終了コード 1 で終了します。
+ * <ul>
+ *   <li>200 : 取得したデータと ETag が返ること</li>
+ *   <li>304 : ETag を付けた確認で、変更されていないと判断されること</li>
+ *   <li>内容の変更 : 同じ ETag での確認で、新しいデータと ETag が返ること</li>
+ *   <li>404 : MoltonfException になること</li>
+ *   <li>ExternalDataCache : 一度取得したものは、サーバーに問い合わせずに保存したファイルから返すこと</li>
+ * </ul>
+ */
+public class HttpAccessCheck {
+
+    /** データを返すパス */
+    private static final String DATA_PATH = "/face.png";
+    
+    /** 404 を返すパス */
+    private static final String MISSING_PATH = "/missing.png";
+    
+    /** 文字コード名 */
+    private static final String CHARSET_UTF8 = "UTF-8";
+    
+    /** サーバーが返すデータの版。ETag とデータの内容に使う */
+    private static volatile String version = "v1";
+    
+    /** サーバーが受けたリクエストの数 */
+    private static final AtomicInteger requestCount = new AtomicInteger(0);
+    
+    /** 失敗した確認の数 */
+    private static int failureCount = 0;
+
+    /**
+     * エントリポイント
+     * @param args 使用しません
+     * @throws Exception エラーが発生した場合
+     */
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HttpAccessCheck-server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+        server.start();
+        
+        File dataFolder = File.createTempFile("moltonf-check", "");
+        try {
+            String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+            URL dataUrl = new URL(baseUrl + DATA_PATH);
+            URL missingUrl = new URL(baseUrl + MISSING_PATH);
+            
+            checkHttpAccess(dataUrl, missingUrl);
+            
+            version = "v1";
+            dataFolder.delete();
+            dataFolder.mkdirs();
+            checkExternalDataCache(dataFolder, dataUrl, missingUrl);
+        } finally {
+            server.stop(0);
+            deleteFolder(dataFolder);
+        }
+        
+        if (failureCount > 0) {
+            System.out.println(failureCount + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+    
+    /**
+     * HttpAccess で、200、304、内容の変更、404 の各場合を確かめます。
+     * @param dataUrl データを返す URL
+     * @param missingUrl 404 を返す URL
+     */
+    private static void checkHttpAccess(URL dataUrl, URL missingUrl) {
+        HttpAccess httpAccess = new HttpAccess();
+        
+        HttpAccess.Response response = httpAccess.doConditionalGet(dataUrl, null, 0);
+        String eTag = response.getETag();
+        check("200 status", response.getStatusCode() == HttpURLConnection.HTTP_OK);
+        check("200 body", ("v1" + DATA_PATH).equals(readString(response.getInputStream())));
+        check("200 ETag", makeETag("v1").equals(eTag));
+        
+        response = httpAccess.doConditionalGet(dataUrl, eTag, 0);
+        check("304 not modified", response.isNotModified());
+        check("304 no body", response.getInputStream() == null);
+        check("304 keeps ETag", eTag.equals(response.getETag()));
+        
+        version = "v2";
+        response = httpAccess.doConditionalGet(dataUrl, eTag, 0);
+        check("changed status", response.getStatusCode() == HttpURLConnection.HTTP_OK);
+        check("changed body", ("v2" + DATA_PATH).equals(readString(response.getInputStream())));
+        check("changed ETag", makeETag("v2").equals(response.getETag()));
+        
+        try {
+            httpAccess.doConditionalGet(missingUrl, null, 0);
+            check("404 throws", false);
+        } catch (MoltonfException ex) {
+            check("404 throws", true);
+        }
+    }
+    
+    /**
+     * ExternalDataCache で、取得したものが保存されて使い回されることと、404 が例外になることを確かめます。
+     * @param dataFolder 保存先のフォルダ
+     * @param dataUrl データを返す URL
+     * @param missingUrl 404 を返す URL
+     */
+    private static void checkExternalDataCache(File dataFolder, URL dataUrl, URL missingUrl) {
+        ExternalDataCache cache = new ExternalDataCache(dataFolder);
+        cache.load();
+        try {
+            int startCount = requestCount.get();
+            check("cache first open", ("v1" + DATA_PATH).equals(readString(cache.open(dataUrl))));
+            check("cache first open requests once", requestCount.get() - startCount == 1);
+            
+            startCount = requestCount.get();
+            check("cache second open", ("v1" + DATA_PATH).equals(readString(cache.open(dataUrl))));
+            check("cache second open uses stored file", requestCount.get() == startCount);
+            
+            try {
+                cache.open(missingUrl);
+                check("cache 404 throws", false);
+            } catch (MoltonfException ex) {
+                check("cache 404 throws", true);
+            }
+        } finally {
+            cache.close();
+        }
+    }
+    
+    /**
+     * サーバーでリクエストに応答します。
+     * MISSING_PATH には 404 を、それ以外には現在の版のデータを返します。
+     * If-None-Match が現在の版の ETag と一致すれば 304 を返します。
+     * @param exchange リクエストとレスポンス
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    private static void handleRequest(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (MISSING_PATH.equals(path)) {
+                sendBody(exchange, HttpURLConnection.HTTP_NOT_FOUND, "not found");
+                return;
+            }
+            
+            String currentVersion = version;
+            String eTag = makeETag(currentVersion);
+            exchange.getResponseHeaders().set("ETag", eTag);
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
+            sendBody(exchange, HttpURLConnection.HTTP_OK, currentVersion + path);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * 本文付きのレスポンスを返します。
+     * @param exchange リクエストとレスポンス
+     * @param statusCode ステータスコード
+     * @param body 本文
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    private static void sendBody(HttpExchange exchange, int statusCode, String body) throws IOException {
+        byte[] bytes = body.getBytes(CHARSET_UTF8);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream outStream = exchange.getResponseBody();
+        outStream.write(bytes);
+        outStream.close();
+    }
+    
+    /**
+     * 版から ETag を作ります。
+     * @param dataVersion 版
+     * @return ETag
+     */
+    private static String makeETag(String dataVersion) {
+        return "\"" + dataVersion + "\"";
+    }
+    
+    /**
+     * 確かめた結果を表示します。
+     * @param name 確かめた内容
+     * @param isPassed 期待どおりなら true
+     */
+    private static void check(String name, boolean isPassed) {
+        System.out.println((isPassed ? "ok     " : "FAILED ") + name);
+        if (!isPassed) {
+            ++failureCount;
+        }
+    }
+    
+    /**
+     * InputStream をすべて読み込んで文字列にし、閉じます。
+     * @param inStream 読み込む InputStream。null なら null を返す
+     * @return 読み込んだ文字列
+     */
+    private static String readString(InputStream inStream) {
+        if (inStream == null) {
+            return null;
+        }
+        try {
+            try {
+                ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int length;
+                while ((length = inStream.read(buffer)) >= 0) {
+                    outStream.write(buffer, 0, length);
+                }
+                return outStream.toString(CHARSET_UTF8);
+            } finally {
+                inStream.close();
+            }
+        } catch (IOException ex) {
+            throw new MoltonfException(ex);
+        }
+    }
+    
+    /**
+     * フォルダを中身ごと削除します。
+     * @param folder フォルダ
+     */
+    private static void deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteFolder(file);
+            }
+        }
+        folder.delete();
+    }
+}
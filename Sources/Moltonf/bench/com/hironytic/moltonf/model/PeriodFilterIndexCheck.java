@@ -0,0 +1,165 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.hironytic.moltonf.model.basic.BasicAvatar;
+import com.hironytic.moltonf.model.basic.BasicStoryEvent;
+import com.hironytic.moltonf.model.basic.BasicTalk;
+import com.hironytic.moltonf.model.columnar.ColumnarElementList;
+
+/**
+ * PeriodFilterIndex が、種別の分からない要素を含む period を分類できることを確かめるプログラム。
+ *
+ * 不明な発言種別を読み込むと発言種別が null の発言になり、イベント種別も同様に null になることがあります。
+ * そのような要素を含む要素のリストと、それを写し取った ColumnarElementList について索引を作り、
+ * 次のことを確かめます。期待と異なればメッセージを表示して終了コード 1 で終了します。
+ * <ul>
+ *   <li>索引の作成で例外にならないこと</li>
+ *   <li>種別で絞り込まなければ表示されること</li>
+ *   <li>種別で絞り込めば、どの種別を選んでも表示されないこと</li>
+ *   <li>種別ごとの数には含まれず、発言者ごとの数には含まれること</li>
+ * </ul>
+ */
+public class PeriodFilterIndexCheck {
+
+    /** 失敗した確認の数 */
+    private static int failureCount = 0;
+
+    /**
+     * エントリポイント
+     * @param args 使用しません
+     */
+    public static void main(String[] args) {
+        List<StoryElement> elements = createElements();
+        checkIndex("list", elements);
+        checkIndex("columnar", new ColumnarElementList(null, elements));
+        
+        if (failureCount > 0) {
+            System.out.println(failureCount + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+    
+    /**
+     * 確かめるための要素のリストを作成します。
+     * 0: 通常の発言、1: 発言種別が null の発言、2: 通常のイベント、3: イベント種別が null のイベント
+     * @return 要素のリスト
+     */
+    private static List<StoryElement> createElements() {
+        BasicAvatar avatar = new BasicAvatar();
+        avatar.setAvatarId("check");
+        avatar.setFullName("check avatar");
+        avatar.setShortName("check");
+        
+        List<StoryElement> elements = new ArrayList<StoryElement>();
+        elements.add(createTalk(avatar, TalkType.PUBLIC));
+        elements.add(createTalk(avatar, null));
+        elements.add(createEvent(EventFamily.ANNOUNCE));
+        elements.add(createEvent(null));
+        return elements;
+    }
+    
+    /**
+     * 発言を作成します。
+     * @param speaker 発言者
+     * @param talkType 発言種別
+     * @return 発言
+     */
+    private static Talk createTalk(Avatar speaker, TalkType talkType) {
+        BasicTalk talk = new BasicTalk();
+        talk.setSpeaker(speaker);
+        talk.setTalkType(talkType);
+        talk.setMessageLines(Arrays.asList("talk"));
+        return talk;
+    }
+    
+    /**
+     * イベントを作成します。
+     * @param eventFamily イベント種別
+     * @return イベント
+     */
+    private static StoryEvent createEvent(EventFamily eventFamily) {
+        BasicStoryEvent storyEvent = new BasicStoryEvent();
+        storyEvent.setEventFamily(eventFamily);
+        storyEvent.setMessageLines(Arrays.asList("event"));
+        return storyEvent;
+    }
+    
+    /**
+     * 要素のリストについて索引を作り、フィルタの評価結果を確かめます。
+     * @param name 表示に使う名前
+     * @param elements 要素のリスト
+     */
+    private static void checkIndex(String name, List<StoryElement> elements) {
+        PeriodFilterIndex filterIndex;
+        try {
+            filterIndex = new PeriodFilterIndex(elements);
+            check(name + ": build with unknown types", true);
+        } catch (RuntimeException ex) {
+            check(name + ": build with unknown types (" + ex + ")", false);
+            return;
+        }
+        
+        BitSet unfiltered = filterIndex.evaluate(null, null, null);
+        check(name + ": unknown talk type shown without filter", unfiltered.get(1));
+        check(name + ": unknown event family shown without filter", unfiltered.get(3));
+        
+        BitSet filtered = filterIndex.evaluate(EnumSet.allOf(TalkType.class), EnumSet.allOf(EventFamily.class), null);
+        check(name + ": known talk type shown with filter", filtered.get(0));
+        check(name + ": unknown talk type hidden with filter", !filtered.get(1));
+        check(name + ": known event family shown with filter", filtered.get(2));
+        check(name + ": unknown event family hidden with filter", !filtered.get(3));
+        
+        Avatar speaker = ((Talk)elements.get(0)).getSpeaker();
+        check(name + ": talk type count", filterIndex.getTalkTypeCount(TalkType.PUBLIC) == 1);
+        check(name + ": event family count", filterIndex.getEventFamilyCount(EventFamily.ANNOUNCE) == 1);
+        check(name + ": speaker count includes unknown talk type", filterIndex.getSpeakerCount(speaker) == 2);
+        
+        // 読み込み直したときの分類の引き継ぎでも同じになること
+        PeriodFilterIndex reloadedIndex = new PeriodFilterIndex(filterIndex, 2, elements);
+        check(name + ": same result after reload",
+                reloadedIndex.evaluate(EnumSet.allOf(TalkType.class), EnumSet.allOf(EventFamily.class), null).equals(filtered));
+    }
+    
+    /**
+     * 確かめた結果を表示します。
+     * @param name 確かめた内容
+     * @param isPassed 期待どおりなら true
+     */
+    private static void check(String name, boolean isPassed) {
+        System.out.println((isPassed ? "ok     " : "FAILED ") + name);
+        if (!isPassed) {
+            ++failureCount;
+        }
+    }
+}
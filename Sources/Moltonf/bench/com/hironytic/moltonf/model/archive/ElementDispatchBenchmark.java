@@ -0,0 +1,167 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * 要素名による分岐のコストを、QName の比較による方法と SchemaNameTable による方法とで比べるベンチマーク。
+ *
+ * 引数で指定したアーカイブに現れる要素名の列に対して、それぞれの方法で分岐を繰り返し、
+ * 1 要素あたりの時間を表示します。
+ */
+public class ElementDispatchBenchmark {
+
+    /** 計測前に空回しする回数 */
+    private static final int WARMUP_ROUNDS = 20;
+
+    /** 計測する回数 */
+    private static final int MEASURE_ROUNDS = 50;
+
+    /**
+     * エントリポイント
+     * @param args アーカイブファイルのパス
+     * @throws Exception エラーが発生した場合
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: ElementDispatchBenchmark <archive.xml>");
+            return;
+        }
+
+        // 要素名の列を集める
+        List<String> namespaceList = new ArrayList<String>();
+        List<String> localNameList = new ArrayList<String>();
+        InputStream inStream = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+            xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            XMLStreamReader staxReader = xmlInputFactory.createXMLStreamReader(inStream);
+            while (staxReader.hasNext()) {
+                if (staxReader.next() == XMLStreamReader.START_ELEMENT) {
+                    namespaceList.add(staxReader.getNamespaceURI());
+                    localNameList.add(staxReader.getLocalName());
+                }
+            }
+            staxReader.close();
+        } finally {
+            inStream.close();
+        }
+        String[] namespaces = namespaceList.toArray(new String[namespaceList.size()]);
+        String[] localNames = localNameList.toArray(new String[localNameList.size()]);
+
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; ++round) {
+            sink += dispatchByQName(namespaces, localNames);
+            sink += dispatchByTable(namespaces, localNames);
+        }
+
+        long qnameTime = 0;
+        long tableTime = 0;
+        for (int round = 0; round < MEASURE_ROUNDS; ++round) {
+            long start = System.nanoTime();
+            sink += dispatchByQName(namespaces, localNames);
+            long middle = System.nanoTime();
+            sink += dispatchByTable(namespaces, localNames);
+            long end = System.nanoTime();
+            qnameTime += middle - start;
+            tableTime += end - middle;
+        }
+
+        double count = (double)localNames.length * MEASURE_ROUNDS;
+        System.out.println("elements: " + localNames.length + " (checksum " + sink + ")");
+        System.out.printf("QName + List.contains : %8.2f ns/element%n", qnameTime / count);
+        System.out.printf("SchemaNameTable       : %8.2f ns/element%n", tableTime / count);
+    }
+
+    /**
+     * 要素ごとに QName を作って、period 要素の子要素の読み込みと同じ順に比較します。
+     * @param namespaces 名前空間 URI の列
+     * @param localNames ローカル名の列
+     * @return 結果のチェックサム
+     */
+    private static long dispatchByQName(String[] namespaces, String[] localNames) {
+        long sum = 0;
+        for (int ix = 0; ix < localNames.length; ++ix) {
+            QName elemName = new QName(namespaces[ix], localNames[ix]);
+            if (SchemaConstants.NAME_TALK.equals(elemName)) {
+                sum += 1;
+            } else if (ArchivedStoryLoader.EVENT_ANNOUNCE_GROUP.contains(elemName)) {
+                sum += 2;
+            } else if (ArchivedStoryLoader.EVENT_ORDER_GROUP.contains(elemName)) {
+                sum += 3;
+            } else if (ArchivedStoryLoader.EVENT_EXTRA_GROUP.contains(elemName)) {
+                sum += 4;
+            } else if (SchemaConstants.NAME_ASSAULT.equals(elemName)) {
+                sum += 5;
+            } else if (SchemaConstants.NAME_LI.equals(elemName)) {
+                sum += 6;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * SchemaNameTable でコードを引いて分岐します。
+     * @param namespaces 名前空間 URI の列
+     * @param localNames ローカル名の列
+     * @return 結果のチェックサム
+     */
+    private static long dispatchByTable(String[] namespaces, String[] localNames) {
+        long sum = 0;
+        for (int ix = 0; ix < localNames.length; ++ix) {
+            int elemCode = SchemaNameTable.elementCode(namespaces[ix], localNames[ix]);
+            if (elemCode == SchemaNameTable.ELEM_TALK) {
+                sum += 1;
+            } else if (SchemaNameTable.toEventFamily(elemCode) != null) {
+                switch (SchemaNameTable.toEventFamily(elemCode)) {
+                case ANNOUNCE:
+                    sum += 2;
+                    break;
+                case ORDER:
+                    sum += 3;
+                    break;
+                default:
+                    sum += 4;
+                    break;
+                }
+            } else if (elemCode == SchemaNameTable.ELEM_ASSAULT) {
+                sum += 5;
+            } else if (elemCode == SchemaNameTable.ELEM_LI) {
+                sum += 6;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryPeriod;
+
+/**
+ * プレイデータの読み込みの各方法について、処理速度を比べるベンチマーク。
+ *
+ * SyntheticArchiveWriter で指定した大きさの村を作成し、それぞれの方法で読み込みを繰り返して、
+ * 次の値の中央値を表示します。
+ * <ul>
+ *   <li>MB/s : ファイルの大きさを、すべての period の要素が揃うまでの時間で割った値</li>
+ *   <li>first : 最初の period の要素が得られるまでの時間</li>
+ *   <li>alloc : 1 回の読み込みで確保したメモリの量と、その速さ</li>
+ * </ul>
+ * メモリの確保量は読み込みを呼び出したスレッドの分だけを数えるので、
+ * 別のスレッドで読み込む方法では実際より少なく表示されます。
+ */
+public class LoaderBenchmark {
+
+    /** 計測前に空回しする回数 */
+    private static final int WARMUP_ROUNDS = 5;
+
+    /** 計測する回数 */
+    private static final int MEASURE_ROUNDS = 10;
+
+    /**
+     * 読み込みの方法
+     */
+    private static abstract class LoaderCase {
+
+        /** 表示名 */
+        final String name;
+
+        /** 確保量を呼び出したスレッドの分しか数えられないかどうか */
+        final boolean isMultiThreaded;
+
+        /**
+         * コンストラクタ
+         * @param name 表示名
+         * @param isMultiThreaded 別のスレッドで読み込むなら true
+         */
+        LoaderCase(String name, boolean isMultiThreaded) {
+            this.name = name;
+            this.isMultiThreaded = isMultiThreaded;
+        }
+
+        /**
+         * Story を得ます。遅延読み込みを行う方法では、period の要素はまだ読み込まなくてかまいません。
+         * @param archiveFile アーカイブファイル
+         * @param indexFile 索引ファイル
+         * @return Story
+         * @throws Exception エラーが発生した場合
+         */
+        abstract Story open(File archiveFile, File indexFile) throws Exception;
+    }
+
+    /**
+     * 1 つの方法の計測結果
+     */
+    private static class Result {
+
+        /** すべての period の要素が揃うまでの時間 (ナノ秒) */
+        final long[] totalTimes = new long[MEASURE_ROUNDS];
+
+        /** 最初の period の要素が得られるまでの時間 (ナノ秒) */
+        final long[] firstTimes = new long[MEASURE_ROUNDS];
+
+        /** 確保したメモリの量 (バイト)。数えられなければ -1 */
+        final long[] allocatedBytes = new long[MEASURE_ROUNDS];
+    }
+
+    /**
+     * エントリポイント
+     * @param args period の数、period あたりの発言の数、発言あたりの行の数 (いずれも省略可)
+     * @throws Exception エラーが発生した場合
+     */
+    public static void main(String[] args) throws Exception {
+        int periodCount = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+        int talkCount = (args.length > 1) ? Integer.parseInt(args[1]) : 400;
+        int lineCount = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+
+        File archiveFile = File.createTempFile("moltonf-bench", ".xml");
+        File indexFile = new File(archiveFile.getPath() + ".mtfidx");
+        archiveFile.deleteOnExit();
+        indexFile.deleteOnExit();
+        new SyntheticArchiveWriter(periodCount, talkCount, lineCount).write(archiveFile);
+
+        // 索引を使う方法のために、あらかじめ索引を作っておく
+        ArchivedStoryLoader.loadLazily(archiveFile, indexFile);
+
+        List<LoaderCase> caseList = Arrays.asList(new LoaderCase[] {
+            eagerCase(MessageLineStorage.STRING),
+            eagerCase(MessageLineStorage.POOLED_STRING),
+            eagerCase(MessageLineStorage.ARENA),
+            eagerCase(MessageLineStorage.COLUMNAR),
+            new LoaderCase("loadInParallel", true) {
+                @Override
+                Story open(File archiveFile, File indexFile) throws Exception {
+                    return ArchivedStoryLoader.loadInParallel(archiveFile);
+                }
+            },
+            new LoaderCase("MappedStoryLoader", false) {
+                @Override
+                Story open(File archiveFile, File indexFile) throws Exception {
+                    return MappedStoryLoader.load(archiveFile);
+                }
+            },
+            new LoaderCase("loadLazily (scan)", false) {
+                @Override
+                Story open(File archiveFile, File indexFile) throws Exception {
+                    return ArchivedStoryLoader.loadLazily(archiveFile);
+                }
+            },
+            new LoaderCase("loadLazily (index)", false) {
+                @Override
+                Story open(File archiveFile, File indexFile) throws Exception {
+                    return ArchivedStoryLoader.loadLazily(archiveFile, indexFile);
+                }
+            },
+        });
+
+        double megaBytes = archiveFile.length() / (1024.0 * 1024.0);
+        System.out.printf("archive: %d periods, %d talks/period, %d lines/talk, %.2f MB%n",
+                periodCount, talkCount, lineCount, megaBytes);
+        System.out.printf("%-26s %9s %10s %10s %12s %10s%n",
+                "loader", "MB/s", "total ms", "first ms", "alloc MB/op", "alloc MB/s");
+
+        long sink = 0;
+        for (LoaderCase loaderCase : caseList) {
+            Result result = new Result();
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURE_ROUNDS; ++round) {
+                int measureIndex = round - WARMUP_ROUNDS;
+                long startAllocated = getAllocatedBytes();
+                long startTime = System.nanoTime();
+
+                Story story = loaderCase.open(archiveFile, indexFile);
+                List<StoryPeriod> periodList = story.getPeriods();
+                sink += periodList.get(0).getStoryElements().size();
+                long firstTime = System.nanoTime();
+                for (StoryPeriod period : periodList) {
+                    List<StoryElement> elementList = period.getStoryElements();
+                    sink += elementList.size();
+                }
+                long endTime = System.nanoTime();
+                long endAllocated = getAllocatedBytes();
+
+                if (measureIndex >= 0) {
+                    result.totalTimes[measureIndex] = endTime - startTime;
+                    result.firstTimes[measureIndex] = firstTime - startTime;
+                    result.allocatedBytes[measureIndex] = (startAllocated >= 0) ? endAllocated - startAllocated : -1;
+                }
+            }
+
+            double totalSeconds = median(result.totalTimes) / 1e9;
+            double firstSeconds = median(result.firstTimes) / 1e9;
+            long allocated = median(result.allocatedBytes);
+            String name = loaderCase.name + (loaderCase.isMultiThreaded ? " *" : "");
+            if (allocated >= 0) {
+                double allocatedMegaBytes = allocated / (1024.0 * 1024.0);
+                System.out.printf("%-26s %9.2f %10.2f %10.2f %12.2f %10.2f%n", name,
+                        megaBytes / totalSeconds, totalSeconds * 1e3, firstSeconds * 1e3,
+                        allocatedMegaBytes, allocatedMegaBytes / totalSeconds);
+            } else {
+                System.out.printf("%-26s %9.2f %10.2f %10.2f %12s %10s%n", name,
+                        megaBytes / totalSeconds, totalSeconds * 1e3, firstSeconds * 1e3, "-", "-");
+            }
+        }
+        System.out.println("(* allocation counts the calling thread only; checksum " + sink + ")");
+
+        indexFile.delete();
+        archiveFile.delete();
+    }
+
+    /**
+     * メッセージの行の保持のしかたを指定して、全体を一度に読み込む方法を作成します。
+     * @param messageLineStorage メッセージの行の保持のしかた
+     * @return 読み込みの方法
+     */
+    private static LoaderCase eagerCase(final MessageLineStorage messageLineStorage) {
+        return new LoaderCase("load (" + messageLineStorage + ")", false) {
+            @Override
+            Story open(File archiveFile, File indexFile) throws Exception {
+                InputStream inStream = new BufferedInputStream(new FileInputStream(archiveFile));
+                try {
+                    return ArchivedStoryLoader.load(inStream, messageLineStorage);
+                } finally {
+                    inStream.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * 現在のスレッドがこれまでに確保したメモリの量を返します。
+     * @return 確保したメモリの量 (バイト)。JVM が対応していなければ -1
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean)threadBean;
+            if (sunThreadBean.isThreadAllocatedMemorySupported() && sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+                return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 中央値を返します。
+     * @param values 値の配列
+     * @return 中央値
+     */
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
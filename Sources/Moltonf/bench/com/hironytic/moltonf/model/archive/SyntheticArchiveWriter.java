@@ -0,0 +1,222 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * ベンチマーク用に、共通アーカイブ基盤用スキーマに沿った架空の村のプレイデータを作成するクラス。
+ *
+ * period の数、period あたりの発言の数、発言あたりの行の数を指定して、任意の大きさの村を作れます。
+ * 乱数の種を固定しているので、同じ指定なら毎回同じ内容になります。
+ */
+public class SyntheticArchiveWriter {
+
+    /** 名前空間 URI */
+    private static final String NS = "http://jindolf.sourceforge.jp/xml/ns/401";
+
+    /** 登場人物の数 */
+    private static final int AVATAR_COUNT = 16;
+
+    /** 乱数の種 */
+    private static final long SEED = 20100401L;
+
+    /** 発言の行に用いる文の断片 */
+    private static final String[] PHRASES = {
+        "おはよう。", "人狼なんているわけないじゃん。", "みんな大げさだなあ", "【占い師CO】",
+        "■１ 能力者ＣＯの方針", "●", "○", "▼", "今日の吊り先は", "について考えてみた。",
+        "&lt;発言の引用&gt;", "……", "ふぁーあ……ねむいな……", "まとめると", "ということで、",
+        "私は村人です。", "襲撃されたのは", "占い結果は人間でした。", "★", "☆",
+    };
+
+    /** 役職の値 */
+    private static final String[] ROLES = {
+        "innocent", "wolf", "seer", "shaman", "madman", "hunter", "frater", "hamster",
+    };
+
+    /** period の数 */
+    private final int periodCount;
+
+    /** period あたりの発言の数 */
+    private final int talkCount;
+
+    /** 発言あたりの行の数 */
+    private final int lineCount;
+
+    /** 乱数 */
+    private final Random random = new Random(SEED);
+
+    /** 発言の通し番号 */
+    private int serialNumber = 0;
+
+    /**
+     * コンストラクタ
+     * @param periodCount period の数 (2 以上)
+     * @param talkCount period あたりの発言の数
+     * @param lineCount 発言あたりの行の数
+     */
+    public SyntheticArchiveWriter(int periodCount, int talkCount, int lineCount) {
+        this.periodCount = Math.max(periodCount, 2);
+        this.talkCount = talkCount;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * プレイデータをファイルに書き出します。
+     * @param archiveFile 書き出すファイル
+     * @throws IOException 書き出しに失敗した場合
+     */
+    public void write(File archiveFile) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(archiveFile), "UTF-8"));
+        try {
+            write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * プレイデータを書き出します。
+     * @param writer 書き出し先
+     * @throws IOException 書き出しに失敗した場合
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n\n");
+        writer.write("<village xmlns=\"" + NS + "\"\n");
+        writer.write("  xml:lang=\"ja-JP\" xml:base=\"http://example.com/moltonf/\"\n");
+        writer.write("  fullName=\"S0 ベンチマーク用の村\" vid=\"0\" commitTime=\"08:15:00+09:00\"\n");
+        writer.write("  state=\"gameover\" isValid=\"true\" landName=\"人狼BBS:F国\" formalName=\"人狼BBS:F\"\n");
+        writer.write("  landId=\"wolff\" landPrefix=\"F\" locale=\"ja-JP\" origencoding=\"Shift_JIS\" timezone=\"GMT+09:00\"\n");
+        writer.write("  graveIconURI=\"plugin_wolf/img/face99.jpg\" generator=\"SyntheticArchiveWriter\"\n>\n\n");
+
+        writer.write("<avatarList>\n");
+        for (int ix = 0; ix < AVATAR_COUNT; ++ix) {
+            writer.write("<avatar avatarId=\"" + avatarId(ix) + "\" fullName=\"村人 " + ix + "\" shortName=\"" + ix
+                    + "\" faceIconURI=\"plugin_wolf/img/face" + (ix + 1) + ".jpg\" />\n");
+        }
+        writer.write("</avatarList>\n\n");
+
+        for (int day = 0; day < periodCount; ++day) {
+            writePeriod(writer, day);
+        }
+
+        writer.write("</village>\n");
+    }
+
+    /**
+     * period 要素を 1 つ書き出します。
+     * @param writer 書き出し先
+     * @param day 日
+     * @throws IOException 書き出しに失敗した場合
+     */
+    private void writePeriod(Writer writer, int day) throws IOException {
+        boolean isPrologue = (day == 0);
+        boolean isEpilogue = (day == periodCount - 1);
+        String type = isPrologue ? "prologue" : (isEpilogue ? "epilogue" : "progress");
+        writer.write("<period xml:lang=\"ja-JP\" type=\"" + type + "\" day=\"" + day + "\"\n");
+        writer.write("  nextCommitDay=\"--07-11+09:00\" commitTime=\"08:15:00+09:00\"\n");
+        writer.write("  sourceURI=\"index.rb?vid=0&amp;turn=" + day + "&amp;mes=all\"\n");
+        writer.write("  loadedTime=\"2010-04-01T12:00:00.000+09:00\"\n>\n\n");
+
+        if (isPrologue) {
+            writer.write("<startEntry>\n<li>昼間は人間のふりをして、夜に正体を現すという人狼。</li>\n<li/>\n</startEntry>\n\n");
+            for (int ix = 0; ix < AVATAR_COUNT; ++ix) {
+                writer.write("<onStage entryNo=\"" + (ix + 1) + "\" avatarId=\"" + avatarId(ix) + "\" >\n");
+                writer.write("<li>" + (ix + 1) + "人目、村人 " + ix + "。</li>\n</onStage>\n\n");
+            }
+        } else if (!isEpilogue) {
+            writer.write("<murdered>\n<li>次の日の朝、村人 " + (day % AVATAR_COUNT) + " が無残な姿で発見された。</li>\n");
+            writer.write("<avatarRef avatarId=\"" + avatarId(day % AVATAR_COUNT) + "\" />\n</murdered>\n\n");
+        }
+
+        int seconds = 8 * 3600 + 15 * 60;
+        for (int ix = 0; ix < talkCount; ++ix) {
+            seconds = (seconds + 1 + random.nextInt(90)) % (24 * 3600);
+            String time = String.format("%02d:%02d:%02d+09:00", seconds / 3600, seconds / 60 % 60, seconds % 60);
+            String speaker = avatarId(random.nextInt(AVATAR_COUNT));
+            int kind = random.nextInt(20);
+            if (kind == 0 && !isPrologue && !isEpilogue) {
+                writer.write("<assault byWhom=\"" + speaker + "\" target=\"" + avatarId(random.nextInt(AVATAR_COUNT))
+                        + "\"\n  xname=\"mes" + (++serialNumber) + "\" time=\"" + time + "\" >\n");
+                writeLines(writer);
+                writer.write("</assault>\n\n");
+            } else {
+                String talkType = (kind < 14) ? "public" : (kind < 17 ? "private" : (kind < 19 ? "wolf" : "grave"));
+                writer.write("<talk type=\"" + talkType + "\" avatarId=\"" + speaker
+                        + "\"\n  xname=\"mes" + (++serialNumber) + "\" time=\"" + time + "\" >\n");
+                writeLines(writer);
+                writer.write("</talk>\n\n");
+            }
+        }
+
+        if (isEpilogue) {
+            writer.write("<playerList>\n<li>村人 0 （player0）、死亡。村人だった。</li>\n");
+            for (int ix = 0; ix < AVATAR_COUNT; ++ix) {
+                writer.write("<playerInfo playerId=\"player" + ix + "\" avatarId=\"" + avatarId(ix)
+                        + "\" survive=\"" + (ix % 3 != 0) + "\" role=\"" + ROLES[ix % ROLES.length] + "\" />\n");
+            }
+            writer.write("</playerList>\n\n");
+        }
+
+        writer.write("</period>\n\n");
+    }
+
+    /**
+     * 発言の行を書き出します。
+     * @param writer 書き出し先
+     * @throws IOException 書き出しに失敗した場合
+     */
+    private void writeLines(Writer writer) throws IOException {
+        int count = 1 + random.nextInt(lineCount * 2);
+        for (int ix = 0; ix < count; ++ix) {
+            int phraseCount = random.nextInt(5);
+            if (phraseCount == 0) {
+                writer.write("<li/>\n");
+                continue;
+            }
+            writer.write("<li>");
+            for (int px = 0; px < phraseCount; ++px) {
+                writer.write(PHRASES[random.nextInt(PHRASES.length)]);
+            }
+            writer.write("</li>\n");
+        }
+    }
+
+    /**
+     * 登場人物の識別子を返します。
+     * @param index 登場人物のインデックス
+     * @return 識別子
+     */
+    private static String avatarId(int index) {
+        return String.format("a%02d", index);
+    }
+}
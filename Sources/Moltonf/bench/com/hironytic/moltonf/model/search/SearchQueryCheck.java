@@ -0,0 +1,104 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.search;
+
+/**
+ * SearchQuery が正規表現から取り出す、マッチする箇所が必ず含む文字列を確かめるプログラム。
+ *
+ * 取り出した文字列は索引で候補の行を絞り込むのに使うので、マッチする行が必ずそれを含んでいる必要があります。
+ * 英数字によるエスケープを含む正規表現について、取り出した文字列が期待どおりであることと、
+ * 例に挙げた行にマッチするならその行が取り出した文字列を含むことを確かめます。
+ * 期待と異なればメッセージを表示して終了コード 1 で終了します。
+ */
+public class SearchQueryCheck {
+
+    /** 正規表現にマッチするかどうかを調べる行。制御文字 (Ctrl-A) を含む */
+    private static final String LINE = "あいう ABC 123 " + (char)1 + " x{y}";
+
+    /** 失敗した確認の数 */
+    private static int failureCount = 0;
+
+    /**
+     * エントリポイント
+     * @param args 使用しません
+     */
+    public static void main(String[] args) {
+        // 英数字によるエスケープとその後続の部分は、文字の並びに含めない
+        checkLiteral("\\x41", null);
+        checkLiteral("\\x41BC", "BC");
+        checkLiteral("\\x{41}BC", "BC");
+        checkLiteral("\\" + "u3042い", "い");
+        checkLiteral("\\" + "u3042いう", "いう");
+        checkLiteral("\\0101", null);
+        checkLiteral("\\0101BC", "BC");
+        checkLiteral("\\cA", null);
+        checkLiteral("\\p{Lu}BC", "BC");
+        checkLiteral("\\pLBC", "BC");
+        checkLiteral("(A)\\1BC", "BC");
+        checkLiteral("\\d23", "23");
+
+        // 従来どおり取り出せるもの
+        checkLiteral("ABC", "ABC");
+        checkLiteral("あい.", "あい");
+        checkLiteral("AB*C", "A");
+        checkLiteral("\\QABC\\E", "ABC");
+        checkLiteral("\\{y\\}", "{y}");
+        checkLiteral("A|B", null);
+
+        if (failureCount > 0) {
+            System.out.println(failureCount + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    /**
+     * 正規表現から取り出す文字列を確かめます。
+     * @param regex 正規表現
+     * @param expected 取り出されるべき文字列。取り出されるべきでなければ null
+     */
+    private static void checkLiteral(String regex, String expected) {
+        SearchQuery query = new SearchQuery(regex, true);
+        String literal = query.getRequiredLiteral();
+        boolean isExpected = (expected == null) ? (literal == null) : expected.equals(literal);
+        check(regex + " -> " + literal, isExpected);
+        if (query.isValid() && query.getPattern().matcher(LINE).find()) {
+            check(regex + " : matching line contains it", literal == null || LINE.contains(literal));
+        }
+    }
+
+    /**
+     * 確かめた結果を表示します。
+     * @param name 確かめた内容
+     * @param isPassed 期待どおりなら true
+     */
+    private static void check(String name, boolean isPassed) {
+        System.out.println((isPassed ? "ok     " : "FAILED ") + name);
+        if (!isPassed) {
+            ++failureCount;
+        }
+    }
+}
@@ -41,6 +41,9 @@ public class Moltonf {
     /** 唯一のコントローラーインスタンス */
     private static MoltonfController controler;
     
+    /** ホストごとに再利用のため残しておく HTTP 接続の数 */
+    private static final String MAX_KEEP_ALIVE_CONNECTIONS = "8";
+    
     private Moltonf() {
     }
 
@@ -49,10 +52,22 @@ public class Moltonf {
      * @param args アプリケーションの引数
      */
     public static void main(String[] args) {
+        setUpNetworkProperties();
         controler = new MoltonfController();
         controler.run(args);
     }
 
+    /**
+     * ネットワークに関するシステムプロパティを設定します。
+     * HTTP の接続が作られる前に設定しないと効かないので、起動したらすぐに呼び出します。
+     */
+    private static void setUpNetworkProperties() {
+        // 顔アイコンは同じホストから並行して取得するので、残しておく接続を増やす
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", MAX_KEEP_ALIVE_CONNECTIONS);
+        }
+    }
+
     /**
      * コントローラーのインスタンスを得ます。
      * @return MoltonfController クラスのインスタンス
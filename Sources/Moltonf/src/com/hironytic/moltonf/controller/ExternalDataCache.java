@@ -0,0 +1,928 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.controller;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hironytic.moltonf.Moltonf;
+import com.hironytic.moltonf.MoltonfException;
+
+/**
+ * 取得した外部データをファイルに保存しておくキャッシュ。
+ *
+ * 外部データは内容の SHA-1 ハッシュ値をファイル名として保存するので、
+ * 異なる URL から同じ内容のデータを取得した場合はファイルを共有します。
+ * URL とファイル名の対応はジャーナルファイルに 1 行ずつ追記していき、
+ * 同じ URL の古い行がたまったら compact() で書き直します。
+ * 複数のスレッドから同時に使うことができ、同じ URL の取得が重なった場合は 1 回だけ取得します。
+ *
+ * 保存したファイルの合計サイズが上限を超えたら、最後に使われてから長いものから削除します。
+ * 最後に使われた時刻はファイルの更新日時で覚えておきます。
+ * 削除や、どこからも参照されなくなったファイルの片付けはバックグラウンドのスレッドで行います。
+ *
+ * 取得したときの ETag と Last-Modified もジャーナルに記録しておき、
+ * 前回の確認から REVALIDATE_INTERVAL 以上経ったものは、保存済みのファイルを返したうえで
+ * バックグラウンドで条件付き GET を送って変更を確認します。
+ */
+public class ExternalDataCache {
+    
+    /** ジャーナルファイルの名前 */
+    private static final String JOURNAL_FILE_NAME = "extdata.journal";
+    
+    /** ジャーナルファイルの文字セットの名前 */
+    private static final String CHARSET_UTF8 = "UTF-8";
+    
+    /** ジャーナルの 1 行の中でファイル名と URL を区切る文字 */
+    private static final char JOURNAL_SEPARATOR = '\t';
+    
+    /** 内容のハッシュ値を求めるアルゴリズム */
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    
+    /** ジャーナルで URL の対応を削除したことを表すファイル名 */
+    private static final String REMOVED_FILE_NAME = "-";
+    
+    /** ダウンロード中の一時ファイルの拡張子 */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    
+    /** 保存するファイルの合計サイズの上限のデフォルト値 */
+    public static final long DEFAULT_MAX_CACHE_BYTES = 64L * 1024 * 1024;
+    
+    /** 上限を超えて削除するときに、上限に対してどこまで減らすかの割合 */
+    private static final double EVICTION_TARGET_RATIO = 0.9;
+    
+    /** 使われたファイルの更新日時を次に更新するまでの間隔（ミリ秒） */
+    private static final long TOUCH_INTERVAL = 60 * 1000;
+    
+    /** 残っている一時ファイルを削除するまでの時間（ミリ秒） */
+    private static final long STALE_TEMP_FILE_AGE = 24 * 60 * 60 * 1000;
+    
+    /** 保存済みの外部データが変更されていないかをサーバーに確認し直すまでの時間（ミリ秒） */
+    private static final long REVALIDATE_INTERVAL = 24 * 60 * 60 * 1000;
+    
+    /** バックグラウンドで並行して取得するスレッドの数 */
+    private static final int PREFETCH_THREAD_COUNT = 4;
+    
+    /** 削除や片付けを行うスレッド */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ExternalDataCache");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    
+    /** バックグラウンドで取得や変更の確認を行うスレッド */
+    private static final ExecutorService prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREAD_COUNT, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ExternalDataPrefetch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
+    /** 外部データを保存するフォルダ */
+    private final File dataFolder;
+    
+    /** ジャーナルファイル */
+    private final File journalFile;
+    
+    /** URL から保存済みファイルの情報へのマップ */
+    private final ConcurrentHashMap<String, Entry> entryMap = new ConcurrentHashMap<String, Entry>();
+    
+    /** 取得中の URL から、その取得処理へのマップ */
+    private final ConcurrentHashMap<String, FutureTask<String>> fetchingMap = new ConcurrentHashMap<String, FutureTask<String>>();
+    
+    /** ジャーナルファイルに追記するライター。まだ開いていなければ null */
+    private Writer journalWriter;
+    
+    /** ジャーナルファイルの行数 */
+    private int journalRecordCount = 0;
+    
+    /** 保存するファイルの合計サイズの上限 */
+    private volatile long maxCacheBytes;
+    
+    /** 保存しているファイルの合計サイズ */
+    private final AtomicLong totalBytes = new AtomicLong();
+    
+    /** 保存済みのファイルを返した回数 */
+    private final AtomicLong hitCount = new AtomicLong();
+    
+    /** 取得しなければならなかった回数 */
+    private final AtomicLong missCount = new AtomicLong();
+    
+    /** 上限を超えたために削除したファイルの数 */
+    private final AtomicLong evictionCount = new AtomicLong();
+    
+    /** 削除や片付けの処理を依頼済みでまだ始まっていなければ true */
+    private final AtomicBoolean isMaintenanceRequested = new AtomicBoolean(false);
+    
+    /**
+     * 保存済みの外部データの情報
+     */
+    private static class Entry {
+        /** 保存したファイルのファイル名 */
+        private final String fileName;
+        
+        /** 取得したときの ETag ヘッダの値。なければ null */
+        private final String eTag;
+        
+        /** 取得したときの Last-Modified ヘッダの値。なければ 0 */
+        private final long lastModified;
+        
+        /** 最後に取得したか、変更されていないことを確認した時刻 */
+        private final long validatedTime;
+        
+        /**
+         * コンストラクタ
+         * @param fileName 保存したファイルのファイル名
+         * @param eTag 取得したときの ETag ヘッダの値。なければ null
+         * @param lastModified 取得したときの Last-Modified ヘッダの値。なければ 0
+         * @param validatedTime 最後に取得したか、変更されていないことを確認した時刻
+         */
+        public Entry(String fileName, String eTag, long lastModified, long validatedTime) {
+            this.fileName = fileName;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.validatedTime = validatedTime;
+        }
+        
+        /**
+         * 変更されていないかサーバーに確認する必要があるかどうかを返します。
+         * @param now 現在時刻
+         * @return 確認する必要があれば true
+         */
+        public boolean needsRevalidation(long now) {
+            return now - validatedTime >= REVALIDATE_INTERVAL;
+        }
+    }
+    
+    /**
+     * 外部データのキャッシュの統計情報
+     */
+    public static class Statistics {
+        /** 保存済みのファイルを返した回数 */
+        private final long hitCount;
+        
+        /** 取得しなければならなかった回数 */
+        private final long missCount;
+        
+        /** 上限を超えたために削除したファイルの数 */
+        private final long evictionCount;
+        
+        /** URL の対応の数 */
+        private final int entryCount;
+        
+        /** 保存しているファイルの合計サイズ */
+        private final long totalBytes;
+        
+        /** 保存するファイルの合計サイズの上限 */
+        private final long maxBytes;
+        
+        /**
+         * コンストラクタ
+         * @param hitCount 保存済みのファイルを返した回数
+         * @param missCount 取得しなければならなかった回数
+         * @param evictionCount 上限を超えたために削除したファイルの数
+         * @param entryCount URL の対応の数
+         * @param totalBytes 保存しているファイルの合計サイズ
+         * @param maxBytes 保存するファイルの合計サイズの上限
+         */
+        public Statistics(long hitCount, long missCount, long evictionCount, int entryCount, long totalBytes, long maxBytes) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.entryCount = entryCount;
+            this.totalBytes = totalBytes;
+            this.maxBytes = maxBytes;
+        }
+        
+        /**
+         * 保存済みのファイルを返した回数を返します。
+         * @return 保存済みのファイルを返した回数
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+        
+        /**
+         * 取得しなければならなかった回数を返します。
+         * @return 取得しなければならなかった回数
+         */
+        public long getMissCount() {
+            return missCount;
+        }
+        
+        /**
+         * 保存済みのファイルを返せた割合を返します。
+         * @return 0 以上 1 以下の割合。まだ一度も使われていなければ 0
+         */
+        public double getHitRate() {
+            long requestCount = hitCount + missCount;
+            return (requestCount > 0) ? (double)hitCount / requestCount : 0.0;
+        }
+        
+        /**
+         * 上限を超えたために削除したファイルの数を返します。
+         * @return 削除したファイルの数
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+        
+        /**
+         * URL の対応の数を返します。
+         * @return URL の対応の数
+         */
+        public int getEntryCount() {
+            return entryCount;
+        }
+        
+        /**
+         * 保存しているファイルの合計サイズを返します。
+         * @return 合計サイズ（バイト）
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+        
+        /**
+         * 保存するファイルの合計サイズの上限を返します。
+         * @return 上限（バイト）
+         */
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+        
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return String.format("entries=%d, bytes=%d/%d, hit=%d, miss=%d, hitRate=%.3f, evicted=%d",
+                    entryCount, totalBytes, maxBytes, hitCount, missCount, getHitRate(), evictionCount);
+        }
+    }
+    
+    /**
+     * コンストラクタ
+     * @param dataFolder 外部データを保存するフォルダ
+     */
+    public ExternalDataCache(File dataFolder) {
+        this(dataFolder, DEFAULT_MAX_CACHE_BYTES);
+    }
+    
+    /**
+     * コンストラクタ
+     * @param dataFolder 外部データを保存するフォルダ
+     * @param maxCacheBytes 保存するファイルの合計サイズの上限
+     */
+    public ExternalDataCache(File dataFolder, long maxCacheBytes) {
+        this.dataFolder = dataFolder;
+        this.journalFile = new File(dataFolder, JOURNAL_FILE_NAME);
+        this.maxCacheBytes = maxCacheBytes;
+    }
+    
+    /**
+     * 保存するファイルの合計サイズの上限を返します。
+     * @return 上限（バイト）
+     */
+    public long getMaxCacheBytes() {
+        return maxCacheBytes;
+    }
+    
+    /**
+     * 保存するファイルの合計サイズの上限を設定します。
+     * 現在の合計サイズが上限を超えていれば、バックグラウンドで削除を始めます。
+     * @param maxCacheBytes 上限（バイト）
+     */
+    public void setMaxCacheBytes(long maxCacheBytes) {
+        this.maxCacheBytes = maxCacheBytes;
+        if (totalBytes.get() > maxCacheBytes) {
+            requestMaintenance();
+        }
+    }
+    
+    /**
+     * 統計情報を返します。
+     * @return 現時点の統計情報
+     */
+    public Statistics getStatistics() {
+        return new Statistics(hitCount.get(), missCount.get(), evictionCount.get(),
+                entryMap.size(), totalBytes.get(), maxCacheBytes);
+    }
+    
+    /**
+     * ジャーナルファイルを読み込んで、URL とファイル名の対応を復元します。
+     * 書き込み途中で終わった行は無視します。
+     */
+    public synchronized void load() {
+        entryMap.clear();
+        journalRecordCount = 0;
+        if (!journalFile.exists()) {
+            return;
+        }
+        
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journalFile), Charset.forName(CHARSET_UTF8)));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // ファイル名, URL [, ETag, Last-Modified, 確認した時刻]
+                    String[] fields = line.split(String.valueOf(JOURNAL_SEPARATOR), -1);
+                    if (fields.length < 2 || fields[0].isEmpty() || fields[1].isEmpty()) {
+                        continue;
+                    }
+                    String fileName = fields[0];
+                    String urlString = fields[1];
+                    if (fileName.equals(REMOVED_FILE_NAME)) {
+                        entryMap.remove(urlString);
+                    } else if (fields.length < 5) {
+                        entryMap.put(urlString, new Entry(fileName, null, 0, 0));
+                    } else {
+                        try {
+                            String eTag = fields[2].isEmpty() ? null : fields[2];
+                            entryMap.put(urlString, new Entry(fileName, eTag,
+                                    Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+                        } catch (NumberFormatException ex) {
+                            continue;
+                        }
+                    }
+                    ++journalRecordCount;
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            Moltonf.getLogger().warning("failed to load external data journal", ex);
+        }
+    }
+    
+    /**
+     * URL とファイル名の対応をまとめて追加します。
+     * 以前の形式の対応表から移行するときに使います。
+     * キーか値が文字列でない対応は無視します。
+     * @param urlToFileNameMap URL からファイル名へのマップ
+     * @return 追加した対応をすべてジャーナルに書き出せたら true
+     */
+    public synchronized boolean importEntries(Map<?, ?> urlToFileNameMap) {
+        boolean isJournaled = true;
+        for (Map.Entry<?, ?> entry : urlToFileNameMap.entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) {
+                continue;
+            }
+            String urlString = (String)entry.getKey();
+            String fileName = (String)entry.getValue();
+            if (!entryMap.containsKey(urlString)) {
+                Entry dataEntry = new Entry(fileName, null, 0, 0);
+                entryMap.put(urlString, dataEntry);
+                if (!appendJournal(urlString, dataEntry)) {
+                    isJournaled = false;
+                }
+            }
+        }
+        return isJournaled;
+    }
+    
+    /**
+     * 外部データを取得します。
+     * 保存済みならそのファイルを開き、なければ取得して保存してから開きます。
+     * 取得は呼び出したスレッドで行いますが、同じ URL を他のスレッドが取得中ならその完了を待ちます。
+     * 保存済みのものが古ければ、そのまま返したうえで変更の確認をバックグラウンドで始めます。
+     * @param url 外部データの URL
+     * @return 保存したファイルを読み込む InputStream
+     * @throws MoltonfException 取得に失敗した場合
+     */
+    public InputStream open(URL url) throws MoltonfException {
+        String urlString = url.toString();
+        Entry dataEntry = entryMap.get(urlString);
+        if (dataEntry != null) {
+            File storedFile = new File(dataFolder, dataEntry.fileName);
+            try {
+                InputStream inStream = new FileInputStream(storedFile);
+                hitCount.incrementAndGet();
+                touch(storedFile);
+                if (dataEntry.needsRevalidation(System.currentTimeMillis())) {
+                    scheduleFetch(url);
+                }
+                return inStream;
+            } catch (FileNotFoundException ex) {
+                // 削除されていたら取得し直す
+            } catch (SecurityException ex) {
+                throw new MoltonfException("failed to load saved external data:" + urlString, ex);
+            }
+        }
+        
+        missCount.incrementAndGet();
+        String fileName = fetch(url);
+        File storedFile = new File(dataFolder, fileName);
+        try {
+            return new FileInputStream(storedFile);
+        } catch (FileNotFoundException ex) {
+            throw new MoltonfException("failed to load saved external data:" + urlString, ex);
+        } catch (SecurityException ex) {
+            throw new MoltonfException("failed to load saved external data:" + urlString, ex);
+        }
+    }
+    
+    /**
+     * 使われたファイルの更新日時を現在時刻にして、最後に使われた時刻として記録します。
+     * 書き込みを減らすため、前回の更新から TOUCH_INTERVAL 以上経っている場合だけ更新します。
+     * @param storedFile 使われたファイル
+     */
+    private static void touch(File storedFile) {
+        long now = System.currentTimeMillis();
+        if (now - storedFile.lastModified() >= TOUCH_INTERVAL) {
+            storedFile.setLastModified(now);
+        }
+    }
+    
+    /**
+     * 外部データを取得して保存します。
+     * 同じ URL を他のスレッドが取得中なら、新たには取得せずにその完了を待ちます。
+     * @param url 外部データの URL
+     * @return 保存したファイルのファイル名
+     * @throws MoltonfException 取得に失敗した場合
+     */
+    private String fetch(URL url) throws MoltonfException {
+        String urlString = url.toString();
+        FutureTask<String> task = createFetchTask(url);
+        FutureTask<String> runningTask = fetchingMap.putIfAbsent(urlString, task);
+        if (runningTask == null) {
+            runningTask = task;
+            runFetchTask(urlString, task);
+        }
+        
+        try {
+            return runningTask.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MoltonfException("interrupted while loading external data:" + urlString, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof MoltonfException) {
+                throw (MoltonfException)cause;
+            }
+            throw new MoltonfException("failed to load external data:" + urlString, cause);
+        }
+    }
+    
+    /**
+     * 外部データの取得や変更の確認を、バックグラウンドで始めます。
+     * 同じ URL を他のスレッドが取得中なら何もしません。
+     * @param url 外部データの URL
+     */
+    private void scheduleFetch(URL url) {
+        final String urlString = url.toString();
+        final FutureTask<String> task = createFetchTask(url);
+        if (fetchingMap.putIfAbsent(urlString, task) != null) {
+            return;
+        }
+        prefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runFetchTask(urlString, task);
+                try {
+                    task.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    Moltonf.getLogger().warning("failed to prefetch external data:" + urlString, ex.getCause());
+                }
+            }
+        });
+    }
+    
+    /**
+     * 外部データの一覧を、まだ保存していないものや古いものだけバックグラウンドで並行して取得します。
+     * 取得の完了は待ちません。取得中のものを open(URL) で開こうとした場合は、その完了を待ちます。
+     * @param urlList 外部データの URL の一覧
+     */
+    public void prefetch(Collection<URL> urlList) {
+        long now = System.currentTimeMillis();
+        for (URL url : urlList) {
+            Entry dataEntry = entryMap.get(url.toString());
+            if (dataEntry == null || dataEntry.needsRevalidation(now)
+                    || !new File(dataFolder, dataEntry.fileName).exists()) {
+                scheduleFetch(url);
+            }
+        }
+    }
+    
+    /**
+     * 外部データを取得する処理を作成します。
+     * @param url 外部データの URL
+     * @return 取得する処理
+     */
+    private FutureTask<String> createFetchTask(final URL url) {
+        return new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return download(url);
+            }
+        });
+    }
+    
+    /**
+     * 外部データを取得する処理を実行し、終わったら取得中の一覧から外します。
+     * @param urlString 外部データの URL
+     * @param task 取得する処理
+     */
+    private void runFetchTask(String urlString, FutureTask<String> task) {
+        try {
+            task.run();
+        } finally {
+            fetchingMap.remove(urlString, task);
+        }
+    }
+    
+    /**
+     * 外部データをダウンロードして、内容のハッシュ値をファイル名として保存します。
+     * 同じ内容のファイルが既にあれば、それを使います。
+     * 保存済みのものがあれば条件付き GET を送り、変更されていなければそのまま使います。
+     * @param url 外部データの URL
+     * @return 保存したファイルのファイル名
+     * @throws IOException 保存に失敗した場合
+     */
+    private String download(URL url) throws IOException {
+        String urlString = url.toString();
+        HttpAccess httpAccess = new HttpAccess();
+        Entry currentEntry = entryMap.get(urlString);
+        if (currentEntry != null && new File(dataFolder, currentEntry.fileName).exists()) {
+            HttpAccess.Response response = httpAccess.doConditionalGet(url, currentEntry.eTag, currentEntry.lastModified);
+            if (response.isNotModified()) {
+                synchronized (this) {
+                    File storedFile = new File(dataFolder, currentEntry.fileName);
+                    if (storedFile.exists()) {
+                        Entry dataEntry = new Entry(currentEntry.fileName, currentEntry.eTag,
+                                currentEntry.lastModified, System.currentTimeMillis());
+                        entryMap.put(urlString, dataEntry);
+                        appendJournal(urlString, dataEntry);
+                        return dataEntry.fileName;
+                    }
+                }
+                // 確認している間に削除されたので取得し直す
+                return store(url, httpAccess.doConditionalGet(url, null, 0));
+            }
+            return store(url, response);
+        }
+        return store(url, httpAccess.doConditionalGet(url, null, 0));
+    }
+    
+    /**
+     * GET リクエストのレスポンスのデータを、内容のハッシュ値をファイル名として保存します。
+     * @param url 外部データの URL
+     * @param response レスポンス
+     * @return 保存したファイルのファイル名
+     * @throws IOException 保存に失敗した場合
+     */
+    private String store(URL url, HttpAccess.Response response) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new MoltonfException("no digest algorithm : " + DIGEST_ALGORITHM, ex);
+        }
+        
+        InputStream externalInStream = response.getInputStream();
+        File tempFile;
+        try {
+            tempFile = File.createTempFile("download", TEMP_FILE_SUFFIX, dataFolder);
+        } catch (IOException ex) {
+            externalInStream.close();
+            throw ex;
+        }
+        try {
+            final int BUFFER_SIZE = 4096;
+            byte[] data = new byte[BUFFER_SIZE];
+            try {
+                OutputStream fileOutStream = new DigestOutputStream(new FileOutputStream(tempFile), digest);
+                try {
+                    int readSize = externalInStream.read(data);
+                    while (readSize >= 0) {
+                        fileOutStream.write(data, 0, readSize);
+                        readSize = externalInStream.read(data);
+                    }
+                } finally {
+                    fileOutStream.close();
+                }
+            } finally {
+                externalInStream.close();
+            }
+            
+            String fileName = toHexString(digest.digest());
+            File blobFile = new File(dataFolder, fileName);
+            synchronized (this) {
+                // 同じ内容のファイルがあればそれを共有する
+                if (blobFile.exists()) {
+                    touch(blobFile);
+                } else {
+                    long fileSize = tempFile.length();
+                    if (!tempFile.renameTo(blobFile)) {
+                        throw new IOException("failed to rename downloaded file : " + tempFile.getPath());
+                    }
+                    totalBytes.addAndGet(fileSize);
+                }
+                Entry dataEntry = new Entry(fileName, response.getETag(),
+                        response.getLastModified(), System.currentTimeMillis());
+                entryMap.put(url.toString(), dataEntry);
+                appendJournal(url.toString(), dataEntry);
+            }
+            if (totalBytes.get() > maxCacheBytes) {
+                requestMaintenance();
+            }
+            return fileName;
+        } finally {
+            tempFile.delete();
+        }
+    }
+    
+    /**
+     * ジャーナルファイルに 1 行追記します。
+     * 追記に失敗しても、メモリ上の対応は残るので処理は続けます。
+     * @param urlString URL
+     * @param dataEntry 保存済みの外部データの情報。対応を削除したことを記録するなら null
+     * @return 追記できたら true
+     */
+    private synchronized boolean appendJournal(String urlString, Entry dataEntry) {
+        try {
+            if (journalWriter == null) {
+                journalWriter = new OutputStreamWriter(new FileOutputStream(journalFile, true), Charset.forName(CHARSET_UTF8));
+            }
+            journalWriter.write(toJournalRecord(urlString, dataEntry));
+            journalWriter.flush();
+            ++journalRecordCount;
+            return true;
+        } catch (IOException ex) {
+            Moltonf.getLogger().warning("failed to append external data journal", ex);
+            return false;
+        }
+    }
+    
+    /**
+     * 保存したファイルの合計サイズの確認と、上限を超えた分の削除、
+     * どこからも参照されていないファイルの片付けをバックグラウンドで行うよう依頼します。
+     * 既に依頼済みでまだ始まっていなければ何もしません。
+     */
+    public void requestMaintenance() {
+        if (!isMaintenanceRequested.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                isMaintenanceRequested.set(false);
+                try {
+                    maintain();
+                } catch (RuntimeException ex) {
+                    Moltonf.getLogger().warning("failed to maintain external data cache", ex);
+                }
+            }
+        });
+    }
+    
+    /**
+     * 保存したファイルを調べて、参照されていないファイルを片付け、
+     * 合計サイズが上限を超えていれば最後に使われてから長いものから削除します。
+     */
+    private void maintain() {
+        File[] files = dataFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+        
+        Set<String> liveFileNameSet = new HashSet<String>();
+        for (Entry dataEntry : entryMap.values()) {
+            liveFileNameSet.add(dataEntry.fileName);
+        }
+        List<File> storedFileList = new ArrayList<File>();
+        long now = System.currentTimeMillis();
+        long total = 0;
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!file.isFile() || fileName.startsWith(JOURNAL_FILE_NAME)) {
+                continue;
+            }
+            
+            if (fileName.endsWith(TEMP_FILE_SUFFIX)) {
+                // ダウンロード中のものは残し、中断されて残ったものだけを削除する
+                if (now - file.lastModified() > STALE_TEMP_FILE_AGE) {
+                    file.delete();
+                }
+            } else if (liveFileNameSet.contains(fileName) || !deleteIfOrphaned(file)) {
+                storedFileList.add(file);
+                total += file.length();
+            }
+        }
+        totalBytes.set(total);
+        
+        long limit = maxCacheBytes;
+        if (total > limit) {
+            final Map<File, Long> lastModifiedMap = new HashMap<File, Long>();
+            for (File file : storedFileList) {
+                lastModifiedMap.put(file, file.lastModified());
+            }
+            Collections.sort(storedFileList, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    return lastModifiedMap.get(o1).compareTo(lastModifiedMap.get(o2));
+                }
+            });
+            
+            long target = (long)(limit * EVICTION_TARGET_RATIO);
+            for (File file : storedFileList) {
+                if (total <= target) {
+                    break;
+                }
+                long fileSize = file.length();
+                if (evict(file)) {
+                    total -= fileSize;
+                    totalBytes.addAndGet(-fileSize);
+                    evictionCount.incrementAndGet();
+                }
+            }
+        }
+        
+        compact();
+    }
+    
+    /**
+     * ファイルがどこからも参照されていなければ削除します。
+     * @param file ファイル
+     * @return 削除した場合は true
+     */
+    private synchronized boolean deleteIfOrphaned(File file) {
+        for (Entry dataEntry : entryMap.values()) {
+            if (dataEntry.fileName.equals(file.getName())) {
+                return false;
+            }
+        }
+        return file.delete();
+    }
+    
+    /**
+     * 上限を超えたためにファイルを削除し、そのファイルへの URL の対応も削除します。
+     * @param file ファイル
+     * @return 削除した場合は true
+     */
+    private synchronized boolean evict(File file) {
+        if (!file.delete()) {
+            return false;
+        }
+        
+        String fileName = file.getName();
+        List<String> urlStringList = new ArrayList<String>();
+        for (Map.Entry<String, Entry> entry : entryMap.entrySet()) {
+            if (entry.getValue().fileName.equals(fileName)) {
+                urlStringList.add(entry.getKey());
+            }
+        }
+        for (String urlString : urlStringList) {
+            entryMap.remove(urlString);
+            appendJournal(urlString, null);
+        }
+        return true;
+    }
+    
+    /**
+     * 同じ URL の古い行がたまっていれば、ジャーナルファイルを現在の対応だけで書き直します。
+     * いったん一時ファイルに書き込んでから置き換えます。
+     */
+    public synchronized void compact() {
+        if (journalRecordCount <= entryMap.size() * 2) {
+            return;
+        }
+        
+        File tempFile = new File(dataFolder, JOURNAL_FILE_NAME + TEMP_FILE_SUFFIX);
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), Charset.forName(CHARSET_UTF8));
+            try {
+                for (Map.Entry<String, Entry> entry : entryMap.entrySet()) {
+                    writer.write(toJournalRecord(entry.getKey(), entry.getValue()));
+                }
+            } finally {
+                writer.close();
+            }
+            
+            close();
+            if (journalFile.exists() && !journalFile.delete()) {
+                throw new IOException("failed to replace external data journal");
+            }
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("failed to rename external data journal");
+            }
+            journalRecordCount = entryMap.size();
+        } catch (IOException ex) {
+            tempFile.delete();
+            Moltonf.getLogger().warning("failed to compact external data journal", ex);
+        }
+    }
+    
+    /**
+     * ジャーナルファイルを閉じます。
+     * 次に追記するときには開き直します。
+     */
+    public synchronized void close() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException ex) {
+                Moltonf.getLogger().warning("failed to close external data journal", ex);
+            }
+            journalWriter = null;
+        }
+    }
+    
+    /**
+     * ジャーナルファイルの 1 行を作成します。
+     * @param urlString URL
+     * @param dataEntry 保存済みの外部データの情報。対応を削除したことを記録するなら null
+     * @return 改行までを含む 1 行
+     */
+    private static String toJournalRecord(String urlString, Entry dataEntry) {
+        if (dataEntry == null) {
+            return REMOVED_FILE_NAME + JOURNAL_SEPARATOR + urlString + "\n";
+        }
+        
+        // 区切り文字や改行を含む ETag は記録しない
+        String eTag = dataEntry.eTag;
+        if (eTag == null || eTag.indexOf(JOURNAL_SEPARATOR) >= 0 || eTag.indexOf('\n') >= 0 || eTag.indexOf('\r') >= 0) {
+            eTag = "";
+        }
+        return dataEntry.fileName + JOURNAL_SEPARATOR + urlString + JOURNAL_SEPARATOR + eTag
+                + JOURNAL_SEPARATOR + dataEntry.lastModified + JOURNAL_SEPARATOR + dataEntry.validatedTime + "\n";
+    }
+    
+    /**
+     * バイト列を 16 進数の文字列にします。
+     * @param bytes バイト列
+     * @return 16 進数の文字列
+     */
+    private static String toHexString(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            builder.append(Character.forDigit(b & 0x0f, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -25,6 +25,7 @@
 
 package com.hironytic.moltonf.controller;
 
+import java.util.List;
 import java.util.Set;
 
 import com.hironytic.moltonf.model.Avatar;
@@ -55,16 +56,16 @@ public class FilterManager implements FilterChangeListener {
      */
     @Override
     public void filterChanged(FilterChangedEvent e) {
-        PeriodView periodView = controller.getCurrentPeriodView();
+        // 表示していないタブの PeriodView にも同じフィルタを設定する
+        List<PeriodView> periodViewList = controller.getPeriodViewList();
         FilterSideBar filterSideBar = controller.getFilterSideBar();
-        boolean isDoWithPeriodView = (periodView != null);
         boolean isDoWithFilterSideBar = (!(e.getSource() instanceof FilterSideBar) && filterSideBar != null);
         
         switch (e.getFilterType()) {
         case TALK_TYPE:
             {
                 Set<TalkType> filterValue = e.getTalkTypeFilterValue();
-                if (isDoWithPeriodView) {
+                for (PeriodView periodView : periodViewList) {
                     if (filterValue.isEmpty()) {
                         periodView.setTalkTypeFilter(null);
                     } else {
@@ -79,7 +80,7 @@ public class FilterManager implements FilterChangeListener {
         case EVENT_FAMILY:
             {
                 Set<EventFamily> filterValue = e.getEventFamilyFilterValue();
-                if (isDoWithPeriodView) {
+                for (PeriodView periodView : periodViewList) {
                     if (filterValue.isEmpty()) {
                         periodView.setEventFamilyFilter(null);
                     } else {
@@ -94,7 +95,7 @@ public class FilterManager implements FilterChangeListener {
         case SPEAKER:
             {
                 Set<Avatar> filterValue = e.getSpeakerFilterValue();
-                if (isDoWithPeriodView) {
+                for (PeriodView periodView : periodViewList) {
                     if (filterValue.isEmpty()) {
                         periodView.setSpeakerFilter(null);
                     } else {
@@ -107,7 +108,7 @@ public class FilterManager implements FilterChangeListener {
             }
             break;
         }
-        if (isDoWithPeriodView) {
+        for (PeriodView periodView : periodViewList) {
             periodView.updateView();
         }
         if (isDoWithFilterSideBar) {
@@ -34,11 +34,91 @@ import com.hironytic.moltonf.MoltonfException;
 
 /**
  * HTTP プロトコルでデータにアクセスするためのクラス。
+ * 
+ * 接続は HttpURLConnection が持つ keep-alive の仕組みでホストごとに再利用されます。
+ * 再利用されるように、レスポンスのストリームは最後まで読んで閉じてください。
  */
 public class HttpAccess {
 
     private static final String USER_AGENT = "Moltonf/0.0.0";   // TODO:
     
+    /** 接続のタイムアウト（ミリ秒） */
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    
+    /** 読み込みのタイムアウト（ミリ秒） */
+    private static final int READ_TIMEOUT = 30 * 1000;
+    
+    /**
+     * GET リクエストのレスポンス
+     */
+    public static class Response {
+        /** ステータスコード */
+        private final int statusCode;
+        
+        /** データを読み込む InputStream。データがなければ null */
+        private final InputStream inputStream;
+        
+        /** ETag ヘッダの値。なければ null */
+        private final String eTag;
+        
+        /** Last-Modified ヘッダの値。なければ 0 */
+        private final long lastModified;
+        
+        /**
+         * コンストラクタ
+         * @param statusCode ステータスコード
+         * @param inputStream データを読み込む InputStream。データがなければ null
+         * @param eTag ETag ヘッダの値。なければ null
+         * @param lastModified Last-Modified ヘッダの値。なければ 0
+         */
+        public Response(int statusCode, InputStream inputStream, String eTag, long lastModified) {
+            this.statusCode = statusCode;
+            this.inputStream = inputStream;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+        
+        /**
+         * ステータスコードを返します。
+         * @return ステータスコード
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+        
+        /**
+         * 以前取得したものから変更されていないかどうかを返します。
+         * @return 変更されていない (304 Not Modified) なら true
+         */
+        public boolean isNotModified() {
+            return statusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+        
+        /**
+         * データを読み込む InputStream を返します。
+         * @return データを読み込む InputStream。変更されていない場合は null
+         */
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+        
+        /**
+         * ETag ヘッダの値を返します。
+         * @return ETag ヘッダの値。なければ null
+         */
+        public String getETag() {
+            return eTag;
+        }
+        
+        /**
+         * Last-Modified ヘッダの値を返します。
+         * @return Last-Modified ヘッダの値（1970 年 1 月 1 日からのミリ秒）。なければ 0
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+    
     /**
      * コンストラクタ
      */
@@ -52,6 +132,19 @@ public class HttpAccess {
      * @throws MoltonfException エラー発生時
      */
     public InputStream doGet(URL url) throws MoltonfException {
+        return doConditionalGet(url, null, 0).getInputStream();
+    }
+    
+    /**
+     * 以前取得したときの ETag や Last-Modified を付けて、指定した URL のデータを GET メソッドで取得します。
+     * 変更されていなければ、データを持たない 304 Not Modified のレスポンスを返します。
+     * @param url データの URL
+     * @param eTag 以前取得したときの ETag ヘッダの値。なければ null
+     * @param lastModified 以前取得したときの Last-Modified ヘッダの値。なければ 0
+     * @return レスポンス
+     * @throws MoltonfException エラー発生時
+     */
+    public Response doConditionalGet(URL url, String eTag, long lastModified) throws MoltonfException {
         HttpURLConnection connection;
         try {
             connection = (HttpURLConnection)url.openConnection();
@@ -64,12 +157,56 @@ public class HttpAccess {
         try {
             connection.setRequestMethod("GET");
             connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setUseCaches(false);
             connection.setDoInput(true);
+            if (eTag != null) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified > 0) {
+                connection.setIfModifiedSince(lastModified);
+            }
             
             connection.connect();
-            return connection.getInputStream();
+            int statusCode = connection.getResponseCode();
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // 接続を再利用できるようにレスポンスを読み終えておく
+                connection.getInputStream().close();
+                return new Response(statusCode, null, eTag, lastModified);
+            }
+            if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                discardErrorStream(connection);
+                throw new MoltonfException("failed to GET request : " + url.toString() + " (" + statusCode + ")");
+            }
+            return new Response(statusCode, connection.getInputStream(),
+                    connection.getHeaderField("ETag"), connection.getLastModified());
         } catch (IOException ex) {
+            discardErrorStream(connection);
             throw new MoltonfException("failed to GET request : " + url.toString(), ex);
         }
     }
+    
+    /**
+     * エラーのレスポンスを読み捨てて、接続を再利用できるようにします。
+     * @param connection 接続
+     */
+    private static void discardErrorStream(HttpURLConnection connection) {
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return;
+        }
+        try {
+            try {
+                byte[] data = new byte[4096];
+                while (errorStream.read(data) >= 0) {
+                    // 読み捨てる
+                }
+            } finally {
+                errorStream.close();
+            }
+        } catch (IOException ex) {
+            // 再利用できないだけなので無視する
+        }
+    }
 }
@@ -0,0 +1,303 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.controller;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import com.hironytic.moltonf.Moltonf;
+import com.hironytic.moltonf.MoltonfException;
+
+/**
+ * 顔アイコンなどの画像を、バックグラウンドのスレッドで取得するクラス。
+ *
+ * 複数の画像を決まった数のスレッドで並行して取得し、デコードした画像は
+ * 表示に適した形式の BufferedImage にしてから、URI をキーにしてメモリ上にキャッシュします。
+ * キャッシュは画素のバイト数の合計が上限を超えたら、最も長く使われていないものから捨てます。
+ * 同じ URI の取得が重なった場合は、取得は 1 回だけ行います。
+ */
+public class ImageService {
+    
+    /** 画像を取得した結果を受け取るコールバック */
+    public interface Callback {
+        
+        /**
+         * 画像を取得し終えたときに、イベントディスパッチスレッドで呼ばれます。
+         * @param uri 画像の URI
+         * @param image 画像。取得できなかった場合は null
+         */
+        void imageLoaded(URI uri, BufferedImage image);
+    }
+    
+    /** 画像を取得するスレッドの数 */
+    private static final int THREAD_COUNT = 4;
+    
+    /** キャッシュする画像のバイト数の合計の既定の上限 */
+    public static final long DEFAULT_MAX_CACHE_BYTES = 16L * 1024 * 1024;
+    
+    /** この大きさを超える画像は縮小する */
+    private static final int MAX_IMAGE_SIZE = 256;
+    
+    /** 外部データを取得するオブジェクト */
+    private final ProfileManager profileManager;
+    
+    /** キャッシュする画像のバイト数の合計の上限 */
+    private final long maxCacheBytes;
+    
+    /** 画像を取得するスレッド */
+    private final ExecutorService executor;
+    
+    /** 画像のキャッシュ。最近使ったものほど後ろ */
+    private final LinkedHashMap<URI, BufferedImage> cache = new LinkedHashMap<URI, BufferedImage>(16, 0.75f, true);
+    
+    /** キャッシュしている画像のバイト数の合計 */
+    private long cachedBytes = 0;
+    
+    /** 取得中の画像の URI から、取得し終えたら呼ぶコールバックへのマップ */
+    private final Map<URI, List<Callback>> pendingCallbackMap = new HashMap<URI, List<Callback>>();
+    
+    /**
+     * 既定の上限でキャッシュするオブジェクトを構築します。
+     * @param profileManager 外部データを取得するオブジェクト
+     */
+    public ImageService(ProfileManager profileManager) {
+        this(profileManager, DEFAULT_MAX_CACHE_BYTES);
+    }
+    
+    /**
+     * キャッシュの上限を指定して構築します。
+     * @param profileManager 外部データを取得するオブジェクト
+     * @param maxCacheBytes キャッシュする画像のバイト数の合計の上限
+     */
+    public ImageService(ProfileManager profileManager, long maxCacheBytes) {
+        this.profileManager = profileManager;
+        this.maxCacheBytes = maxCacheBytes;
+        executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ImageService-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * キャッシュにある画像を返します。
+     * @param uri 画像の URI
+     * @return 画像。キャッシュになければ null
+     */
+    public synchronized BufferedImage getCachedImage(URI uri) {
+        return cache.get(uri);
+    }
+    
+    /**
+     * 画像の取得を要求します。
+     * キャッシュにあれば、その場でコールバックを呼びます。
+     * なければバックグラウンドのスレッドで取得し、取得し終えたらイベントディスパッチスレッドでコールバックを呼びます。
+     * @param uri 画像の URI
+     * @param callback 取得した画像を受け取るコールバック
+     */
+    public void requestImage(final URI uri, Callback callback) {
+        BufferedImage image;
+        synchronized (this) {
+            image = cache.get(uri);
+            if (image == null) {
+                List<Callback> callbackList = pendingCallbackMap.get(uri);
+                if (callbackList != null) {
+                    // 取得中なので、終わったら一緒に呼んでもらう
+                    callbackList.add(callback);
+                    return;
+                }
+                callbackList = new ArrayList<Callback>();
+                callbackList.add(callback);
+                pendingCallbackMap.put(uri, callbackList);
+            }
+        }
+        
+        if (image != null) {
+            callback.imageLoaded(uri, image);
+            return;
+        }
+        
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BufferedImage loadedImage = null;
+                try {
+                    loadedImage = loadImage(uri);
+                } finally {
+                    // 想定外の例外で終わっても、待っているコールバックは必ず呼ぶ
+                    deliverImage(uri, loadedImage);
+                }
+            }
+        });
+    }
+    
+    /**
+     * 取得し終えた画像をキャッシュに入れ、待っていたコールバックをイベントディスパッチスレッドで呼びます。
+     * @param uri 画像の URI
+     * @param loadedImage 取得した画像。取得できなかった場合は null
+     */
+    private void deliverImage(final URI uri, final BufferedImage loadedImage) {
+        final List<Callback> callbackList;
+        synchronized (this) {
+            if (loadedImage != null) {
+                putCache(uri, loadedImage);
+            }
+            callbackList = pendingCallbackMap.remove(uri);
+        }
+        if (callbackList == null) {
+            return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : callbackList) {
+                    callback.imageLoaded(uri, loadedImage);
+                }
+            }
+        });
+    }
+    
+    /**
+     * キャッシュに画像を追加し、上限を超えたら古いものから捨てます。
+     * @param uri 画像の URI
+     * @param image 画像
+     */
+    private void putCache(URI uri, BufferedImage image) {
+        BufferedImage oldImage = cache.put(uri, image);
+        if (oldImage != null) {
+            cachedBytes -= getImageBytes(oldImage);
+        }
+        cachedBytes += getImageBytes(image);
+        
+        Iterator<BufferedImage> it = cache.values().iterator();
+        while (cachedBytes > maxCacheBytes && cache.size() > 1 && it.hasNext()) {
+            BufferedImage eldestImage = it.next();
+            if (eldestImage == image) {
+                continue;
+            }
+            cachedBytes -= getImageBytes(eldestImage);
+            it.remove();
+        }
+    }
+    
+    /**
+     * 画像のおおよそのバイト数を返します。
+     * @param image 画像
+     * @return バイト数
+     */
+    private static long getImageBytes(BufferedImage image) {
+        return (long)image.getWidth() * image.getHeight() * 4;
+    }
+    
+    /**
+     * 画像を取得してデコードし、表示に適した形式にします。
+     * @param uri 画像の URI
+     * @return 画像。取得できなかった場合は null
+     */
+    private BufferedImage loadImage(URI uri) {
+        try {
+            InputStream inStream = profileManager.getExternalData(uri.toURL());
+            if (inStream == null) {
+                return null;
+            }
+            BufferedImage image;
+            try {
+                image = ImageIO.read(inStream);
+            } finally {
+                inStream.close();
+            }
+            return (image != null) ? toDisplayImage(image) : null;
+        } catch (IllegalArgumentException ex) {
+            Moltonf.getLogger().warning("failed to load image : " + uri, ex);
+        } catch (IOException ex) {
+            Moltonf.getLogger().warning("failed to load image : " + uri, ex);
+        } catch (MoltonfException ex) {
+            Moltonf.getLogger().warning("failed to load image : " + uri, ex);
+        }
+        return null;
+    }
+    
+    /**
+     * 画像を、画面に描画しやすい形式の BufferedImage に変換します。
+     * 大きすぎる画像は縦横比を保って縮小します。
+     * @param image 元の画像
+     * @return 変換した画像
+     */
+    private static BufferedImage toDisplayImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width > MAX_IMAGE_SIZE || height > MAX_IMAGE_SIZE) {
+            double scale = Math.min((double)MAX_IMAGE_SIZE / width, (double)MAX_IMAGE_SIZE / height);
+            width = Math.max(1, (int)Math.round(width * scale));
+            height = Math.max(1, (int)Math.round(height * scale));
+        }
+        
+        BufferedImage displayImage;
+        int transparency = image.getColorModel().getTransparency();
+        if (GraphicsEnvironment.isHeadless()) {
+            int imageType = (transparency == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+            displayImage = new BufferedImage(width, height, imageType);
+        } else {
+            GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            displayImage = config.createCompatibleImage(width, height, transparency);
+        }
+        
+        Graphics2D g2 = displayImage.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g2.dispose();
+        }
+        return displayImage;
+    }
+}
@@ -27,15 +27,10 @@ package com.hironytic.moltonf.controller;
 
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedInputStream;
+import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
@@ -43,11 +38,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
 
-import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -55,14 +50,23 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import com.hironytic.moltonf.Moltonf;
 import com.hironytic.moltonf.MoltonfException;
 import com.hironytic.moltonf.model.Avatar;
+import com.hironytic.moltonf.model.HighlightEngine;
+import com.hironytic.moltonf.model.HighlightIndex;
 import com.hironytic.moltonf.model.HighlightSetting;
 import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryPeriod;
+import com.hironytic.moltonf.model.StoryStatistics;
 import com.hironytic.moltonf.model.Workspace;
 import com.hironytic.moltonf.model.archive.ArchivedStoryLoader;
+import com.hironytic.moltonf.model.archive.LazyStoryPeriod;
+import com.hironytic.moltonf.model.archive.MessageLineStorage;
+import com.hironytic.moltonf.model.archive.StoryUpdate;
+import com.hironytic.moltonf.model.search.SearchIndex;
 import com.hironytic.moltonf.view.MainFrame;
 import com.hironytic.moltonf.view.PeriodView;
 import com.hironytic.moltonf.view.dialog.NewWorkspaceDialog;
 import com.hironytic.moltonf.view.sidebar.FilterSideBar;
+import com.hironytic.moltonf.view.sidebar.SearchSideBar;
 
 /**
  * Moltonf アプリケーションのコントローラ
@@ -74,14 +78,23 @@ public class MoltonfController {
     /** ワークスペースファイルの拡張子 */
     private static final String WORKSPACE_FILE_EXTENSION = "mtfws";
     
+    /** 顔アイコンが届いてからビューに反映するまでの待ち時間 (ミリ秒)。続けて届いたものはまとめて反映する */
+    private static final int FACE_ICON_REFRESH_DELAY = 100;
+    
     /** ユーザー設定等の管理を行うオブジェクト */
     private ProfileManager profileManager;
     
+    /** 顔アイコンなどの画像を取得するオブジェクト */
+    private ImageService imageService;
+    
+    /** 届いた顔アイコンをまとめてビューに反映するためのタイマー */
+    private Timer faceIconRefreshTimer;
+    
     /** メインウィンドウ */
     private MainFrame mainFrame;
 
-    /** ストーリーを表示している部分のタブペイン */
-    private JTabbedPane periodTabbedPane;
+    /** period ごとのタブと PeriodView を管理するオブジェクト */
+    private PeriodNavigator periodNavigator;
     
     /** サイドバーを表示している部分のタブペイン */
     private JTabbedPane sideBarTabbedPane;
@@ -92,6 +105,12 @@ public class MoltonfController {
     /** フィルターを管理するオブジェクト */
     private FilterManager filterManager;
     
+    /** 検索サイドバー */
+    private SearchSideBar searchSideBar;
+    
+    /** 全文検索を管理するオブジェクト */
+    private SearchManager searchManager;
+    
     /** 現在開いているワークスペースのファイルパス */
     private File currentWorkspaceFile;
     
@@ -101,6 +120,15 @@ public class MoltonfController {
     /** 最後に保存したとき以降にワークスペースが変更されたかどうか */
     private boolean isCurrentWorkspaceModified = false;
     
+    /** 強調表示範囲の索引 */
+    private HighlightIndex highlightIndex;
+    
+    /** 発言の集計結果 */
+    private StoryStatistics storyStatistics;
+    
+    /** 全文検索の索引 */
+    private SearchIndex searchIndex;
+    
     /** MoltonfController のコマンドハンドラとして用いる ActionListener */
     private abstract class CommandActionListener implements ActionListener {
         /**
@@ -128,6 +156,7 @@ public class MoltonfController {
      */
     public MoltonfController() {
         filterManager = new FilterManager(this);        
+        searchManager = new SearchManager(this);
     }
     
     /**
@@ -137,6 +166,14 @@ public class MoltonfController {
     public void run(String[] args) {
         try {
             createProfileManager();
+            imageService = new ImageService(getProfileManager());
+            faceIconRefreshTimer = new Timer(FACE_ICON_REFRESH_DELAY, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    faceIconsLoaded();
+                }
+            });
+            faceIconRefreshTimer.setRepeats(false);
             
             // TODO:
             // システムのルックアンドフィールにしておく
@@ -155,6 +192,12 @@ public class MoltonfController {
                     performOpenWorkspace();
                 }
             });
+            mainFrame.getCommandActionReloadStory().addCommandListener(new CommandActionListener() {
+                @Override
+                protected void commandExecuted(ActionEvent e) {
+                    performReloadStory();
+                }
+            });
             mainFrame.getCommandActionExit().addCommandListener(new CommandActionListener() {
                 @Override
                 public void commandExecuted(ActionEvent e) {
@@ -180,36 +223,79 @@ public class MoltonfController {
         }        
     }
 
-    private void fillUpAvatar(Avatar avatar) {
-        // 顔画像
-        Image faceIconImage = loadFaceIconImage(avatar.getFaceIconUri());
-        avatar.setFaceIconImage(faceIconImage);
-    }
-    
     /**
-     * 顔画像を読み込みます。
-     * @param faceIconUri 顔画像の URI
-     * @return 読み込んだ顔画像
+     * 墓下の顔アイコンと、顔アイコンの画像がまだない人物の顔アイコンの取得を要求します。
+     * 画像はバックグラウンドで並行して取得し、届いたものから表示に反映します。
+     * @param story ストーリー
      */
-    private Image loadFaceIconImage(URI faceIconUri) {
-        Image faceIconImage = null;
-        try {
-            URL faceIconUrl = faceIconUri.toURL();
-            InputStream inStream = getProfileManager().getExternalData(faceIconUrl);
+    private void requestFaceIcons(final Story story) {
+        // 顔アイコンの取得や変更の確認をまとめて並行で始めておく
+        List<URL> iconUrlList = new ArrayList<URL>();
+        List<URI> iconUriList = new ArrayList<URI>();
+        iconUriList.add(story.getGraveIconUri());
+        for (Avatar avatar : story.getAvatarList()) {
+            iconUriList.add(avatar.getFaceIconUri());
+        }
+        for (URI iconUri : iconUriList) {
+            if (iconUri == null) {
+                continue;
+            }
             try {
-                faceIconImage = ImageIO.read(inStream);
-            } finally {
-                inStream.close();
+                iconUrlList.add(iconUri.toURL());
+            } catch (MalformedURLException ex) {
+                // 取得できないものは ImageService に任せる
+            } catch (IllegalArgumentException ex) {
+                // 取得できないものは ImageService に任せる
             }
-        } catch (IllegalArgumentException ex) {
-        } catch (MalformedURLException ex) {
-        } catch (IOException ex) {
-        } catch (MoltonfException ex) {
         }
+        profileManager.prefetchExternalData(iconUrlList);
         
-        // TODO: faceIconImage が null なら代替画像
-        
-        return faceIconImage;
+        if (story.getGraveIconUri() != null) {
+            imageService.requestImage(story.getGraveIconUri(), new ImageService.Callback() {
+                @Override
+                public void imageLoaded(URI uri, BufferedImage image) {
+                    if (image != null && isCurrentStory(story)) {
+                        story.setGraveIconImage(image);
+                        faceIconRefreshTimer.restart();
+                    }
+                }
+            });
+        }
+        for (final Avatar avatar : story.getAvatarList()) {
+            if (avatar.getFaceIconUri() == null || avatar.getFaceIconImage() != null) {
+                continue;
+            }
+            imageService.requestImage(avatar.getFaceIconUri(), new ImageService.Callback() {
+                @Override
+                public void imageLoaded(URI uri, BufferedImage image) {
+                    if (image != null && isCurrentStory(story)) {
+                        avatar.setFaceIconImage(image);
+                        faceIconRefreshTimer.restart();
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * 指定したストーリーが、現在開いているワークスペースのものかどうかを返します。
+     * @param story ストーリー
+     * @return 現在開いているワークスペースのものなら true
+     */
+    private boolean isCurrentStory(Story story) {
+        return currentWorkspace != null && currentWorkspace.getStory() == story;
+    }
+    
+    /**
+     * 届いた顔アイコンをビューに反映します。
+     * 発言の高さが変わるので、作成してある PeriodView の要素の高さを測り直します。
+     */
+    private void faceIconsLoaded() {
+        for (PeriodView periodView : getPeriodViewList()) {
+            periodView.faceIconsChanged();
+            periodView.updateView();
+        }
+        getProfileManager().save(); // 画像キャッシュが変わったかもしれないので
     }
     
     /**
@@ -305,28 +391,23 @@ public class MoltonfController {
         Workspace workspace = WorkspaceArchiver.load(workspaceFile);
         
         // プレイデータ読み込み
-        Story story;
-        try {
-            File playDataFile = workspace.getArchivedStoryFile();
-            InputStream inStream = new BufferedInputStream(new FileInputStream(playDataFile));
-            story = ArchivedStoryLoader.load(inStream);
-        } catch (FileNotFoundException ex) {
-            throw new MoltonfException("Failed to open workspace file", ex);
-        }
+        // 各 period の中身は表示するときに読み込まれる
+        // 索引ファイルが有効ならそれを使い、なければ作成する
+        // 各 period の要素は項目ごとの配列にまとめて保持する
+        File playDataFile = workspace.getArchivedStoryFile();
+        File indexFile = WorkspaceArchiver.getArchiveIndexFile(workspaceFile);
+        Story story = ArchivedStoryLoader.loadLazily(playDataFile, indexFile, MessageLineStorage.COLUMNAR);
         workspace.setStory(story);
+        storyStatistics = new StoryStatistics(story);
         
-        // プレイデータの補完
-        story.setGraveIconImage(loadFaceIconImage(story.getGraveIconUri()));
-        List<Avatar> avatarList = story.getAvatarList();
-        for (Avatar avatar : avatarList) {
-            fillUpAvatar(avatar);
-        }
-        getProfileManager().save(); // 画像キャッシュが変わったかもしれないので
-
         currentWorkspaceFile = workspaceFile;
         currentWorkspace = workspace;
         isCurrentWorkspaceModified = false;
         
+        // プレイデータの補完
+        // 顔アイコンは待たずに表示を始め、届いたものから反映する
+        requestFaceIcons(story);
+        
         // サイドバー作成
         sideBarTabbedPane = new JTabbedPane();
         filterSideBar = new FilterSideBar();
@@ -334,20 +415,22 @@ public class MoltonfController {
         filterSideBar.setSpeakerList(currentWorkspace.getStory().getAvatarList());
         sideBarTabbedPane.addTab("フィルター", filterSideBar);   // TODO:
         filterSideBar.updateView();
+        searchSideBar = new SearchSideBar();
+        searchSideBar.addSearchListener(searchManager);
+        sideBarTabbedPane.addTab("検索", searchSideBar);   // TODO:
+        searchSideBar.updateView();
         
-        // ピリオドビュー作成
-        PeriodView periodView = new PeriodView();
-        periodTabbedPane = new JTabbedPane();
-        
-        periodTabbedPane.addTab("てすと", periodView.getScrollPane()); // TODO:
+        // ピリオドビューのタブ作成
+        // 各 period の PeriodView はタブが選ばれたときに作成する
+        periodNavigator = new PeriodNavigator(this, story);
         
-        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, sideBarTabbedPane, periodTabbedPane);
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, sideBarTabbedPane, periodNavigator.getTabbedPane());
         splitPane.setOneTouchExpandable(true);
         splitPane.setDividerLocation(100);  // TODO:
         mainFrame.setMainPane(splitPane);
         
         Font font = new Font("ＭＳ Ｐゴシック", Font.PLAIN, 16);   // TODO: これはアプリ設定から
-        periodView.setFont(font);
+        periodNavigator.setFont(font);
         // TODO: 強調表示設定はアプリ設定か
         List<HighlightSetting> highlightSettingList = new ArrayList<HighlightSetting>();
         HighlightSetting hlSetting;
@@ -360,14 +443,94 @@ public class MoltonfController {
         hlSetting = new HighlightSetting(); hlSetting.setPatternString("▽");    hlSetting.setHighlightColor(Color.CYAN);   highlightSettingList.add(hlSetting);
         hlSetting = new HighlightSetting(); hlSetting.setPatternString("■");    hlSetting.setHighlightColor(Color.ORANGE);   highlightSettingList.add(hlSetting);
         hlSetting = new HighlightSetting(); hlSetting.setPatternString("□");    hlSetting.setHighlightColor(Color.ORANGE);   highlightSettingList.add(hlSetting);
-        periodView.setHighlightSettingList(highlightSettingList);
         
-        periodView.setStoryPeriod(currentWorkspace.getStory().getPeriods().get(3));
-        periodView.updateView();
+        // 強調表示範囲は強調表示設定が変わるまで使い回せるので、読み込み済みの period の分をあらかじめ求めておく
+        highlightIndex = new HighlightIndex(HighlightEngine.getInstance(highlightSettingList));
+        periodNavigator.setHighlightSettingList(highlightSettingList, highlightIndex);
+        for (StoryPeriod storyPeriod : currentWorkspace.getStory().getPeriods()) {
+            if (!(storyPeriod instanceof LazyStoryPeriod) || ((LazyStoryPeriod)storyPeriod).isLoaded()) {
+                highlightIndex.requestBuild(storyPeriod);
+            }
+        }
+        
+        // 全文検索の索引は、保存してあるものを読み込んで足りない period の分だけ作成する
+        searchIndex = new SearchIndex(story, WorkspaceArchiver.getSearchIndexFile(workspaceFile));
+        searchIndex.requestBuild();
+        searchManager.setSearchIndex(searchIndex);
+        
+        periodNavigator.showPeriod(0);
         
         mainFrame.validate();
     }
     
+    /**
+     * ユーザーが最新の状態に更新を選択したときの処理
+     * 進行中の村のプレイデータは取り直すたびに伸びていくので、
+     * 全体を読み込み直すのではなく、変わった period と増えた period だけを反映します。
+     */
+    private void performReloadStory() {
+        if (currentWorkspace == null) {
+            return;
+        }
+        
+        Story story = currentWorkspace.getStory();
+        File indexFile = WorkspaceArchiver.getArchiveIndexFile(currentWorkspaceFile);
+        StoryUpdate update = ArchivedStoryLoader.reloadIncrementally(story, indexFile);
+        if (update == null) {
+            // 差分として扱えないので開き直す
+            openWorkspace(currentWorkspaceFile);
+            return;
+        }
+        if (!update.isModified()) {
+            return;
+        }
+        
+        if (update.isVillageChanged()) {
+            requestFaceIcons(story);
+            // 登場人物が変わったかもしれないので集計し直す
+            storyStatistics = new StoryStatistics(story);
+        }
+        
+        // 増えた period のタブを追加し、内容が変わった period を表示しているビューだけを更新
+        periodNavigator.periodsReloaded();
+        List<StoryPeriod> periodList = story.getPeriods();
+        for (PeriodView periodView : periodNavigator.getPeriodViewList()) {
+            int periodIndex = periodList.indexOf(periodView.getStoryPeriod());
+            if (periodIndex >= 0 && update.isPeriodChanged(periodIndex)) {
+                periodView.storyElementsReloaded();
+                periodView.updateView();
+            }
+        }
+        updateFilterHitCount();
+        
+        // 変わった period の分だけ索引を作成し直して、検索し直す
+        searchIndex.requestBuild();
+        searchManager.refresh();
+    }
+    
+    /**
+     * フィルターサイドバーに、表示中の period の人物ごと、発言種別ごとの発言の数を反映します。
+     * 集計は period の要素のリストが変わったときだけ行われます。
+     */
+    void updateFilterHitCount() {
+        if (filterSideBar == null) {
+            return;
+        }
+        
+        PeriodView periodView = getCurrentPeriodView();
+        int periodIndex = -1;
+        if (periodView != null && periodView.getStoryPeriod() != null) {
+            periodIndex = currentWorkspace.getStory().getPeriods().indexOf(periodView.getStoryPeriod());
+        }
+        if (periodIndex >= 0) {
+            storyStatistics.update(periodIndex);
+            filterSideBar.setStatistics(storyStatistics, periodIndex);
+        } else {
+            filterSideBar.setStatistics(null, -1);
+        }
+        filterSideBar.updateView();
+    }
+    
     /**
      * ワークスペースを閉じます。
      */
@@ -381,36 +544,67 @@ public class MoltonfController {
         currentWorkspace = null;
         isCurrentWorkspaceModified = false;
         
+        if (highlightIndex != null) {
+            highlightIndex.cancel();
+        }
+        highlightIndex = null;
+        storyStatistics = null;
+        if (searchIndex != null) {
+            searchIndex.cancel();
+        }
+        searchIndex = null;
+        searchManager.setSearchIndex(null);
+        
         mainFrame.setMainPane(null);
-        periodTabbedPane = null;
+        if (periodNavigator != null) {
+            periodNavigator.dispose();
+        }
+        periodNavigator = null;
         if (filterSideBar != null) {
             filterSideBar.removeFilterChangeListener(filterManager);
         }
         filterSideBar = null;
+        if (searchSideBar != null) {
+            searchSideBar.removeSearchListener(searchManager);
+        }
+        searchSideBar = null;
         sideBarTabbedPane = null;
     }
     
     /**
-     * 指定されたインデックスのタブの PeriodView を返します。
-     * @param tabIndex タブのインデックス
-     * @return 指定したタブの PeriodView オブジェクトを返します。
+     * 現在表示しているタブの PeriodView を返します。
+     * @return 現在表示しているタブの PeriodView を返します。
      */
-    private PeriodView getPeriodViewAt(int tabIndex) {
-        PeriodView.ScrollPane scrollPane = (PeriodView.ScrollPane)periodTabbedPane.getComponent(tabIndex);
-        return scrollPane.getPeriodView();
+    public PeriodView getCurrentPeriodView() {
+        return (periodNavigator != null) ? periodNavigator.getCurrentPeriodView() : null;
     }
     
     /**
-     * 現在表示しているタブの PeriodView を返します。
-     * @return 現在表示しているタブの PeriodView を返します。
+     * 作成してあるすべての PeriodView を返します。
+     * 表示していないタブのものも含みます。
+     * @return PeriodView のリスト
      */
-    public PeriodView getCurrentPeriodView() {
-        int tabIndex = periodTabbedPane.getSelectedIndex();
-        if (tabIndex >= 0) {
-            return getPeriodViewAt(tabIndex);
-        } else {
-            return null;
-        }
+    public List<PeriodView> getPeriodViewList() {
+        return (periodNavigator != null) ? periodNavigator.getPeriodViewList() : new ArrayList<PeriodView>();
+    }
+    
+    /**
+     * 指定した period のタブを表示します。
+     * @param periodIndex period のインデックス
+     * @return その period を表示している PeriodView。表示できなければ null
+     */
+    public PeriodView showPeriod(int periodIndex) {
+        return (periodNavigator != null) ? periodNavigator.showPeriod(periodIndex) : null;
+    }
+    
+    /**
+     * period のタブが表示されたときに呼ばれます。
+     * サイドバーの発言の数と、検索で見つかった箇所を表示中の period に合わせます。
+     * @param periodView 表示された PeriodView
+     */
+    void periodViewShown(PeriodView periodView) {
+        updateFilterHitCount();
+        searchManager.showHitsInCurrentPeriod();
     }
     
     /**
@@ -421,6 +615,14 @@ public class MoltonfController {
         return filterSideBar;
     }
     
+    /**
+     * 検索サイドバーを返します。
+     * @return 検索サイドバー
+     */
+    public SearchSideBar getSearchSideBar() {
+        return searchSideBar;
+    }
+    
     /**
      * ユーザーが終了を選択したときの処理
      */
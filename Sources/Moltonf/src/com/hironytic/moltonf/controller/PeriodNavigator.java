@@ -0,0 +1,387 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.controller;
+
+import java.awt.Component;
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.JPanel;
+import javax.swing.JTabbedPane;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import com.hironytic.moltonf.Moltonf;
+import com.hironytic.moltonf.model.HighlightIndex;
+import com.hironytic.moltonf.model.HighlightSetting;
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryPeriod;
+import com.hironytic.moltonf.model.VillageState;
+import com.hironytic.moltonf.model.archive.LazyStoryPeriod;
+import com.hironytic.moltonf.view.PeriodView;
+import com.hironytic.moltonf.view.event.LinkClickListener;
+import com.hironytic.moltonf.view.event.LinkClickedEvent;
+import com.hironytic.moltonf.view.sidebar.FilterSideBar;
+
+/**
+ * period ごとのタブと、そこに表示する PeriodView を管理するクラス
+ * 
+ * PeriodView はタブが初めて選ばれたときに作成し、最近表示したものを一定数だけ残しておきます。
+ * 表示している period の前後の period は、バックグラウンドのスレッドで読み込んでから
+ * PeriodView を作成しておくので、次の日へ移ったときにすぐに表示できます。
+ */
+public class PeriodNavigator {
+    
+    /** 作成したまま残しておく PeriodView の数の上限 */
+    private static final int MAX_BUILT_VIEW_COUNT = 5;
+    
+    /** 前後の period を読み込むスレッド */
+    private static final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PeriodNavigator");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    
+    /** コントローラー */
+    private final MoltonfController controller;
+    
+    /** 表示するストーリー */
+    private final Story story;
+    
+    /** period ごとのタブを持つタブペイン */
+    private final JTabbedPane tabbedPane = new JTabbedPane();
+    
+    /** period のインデックスから、作成した PeriodView へのマップ。最近表示したものほど後ろ */
+    private final LinkedHashMap<Integer, PeriodView> builtViewMap = new LinkedHashMap<Integer, PeriodView>(16, 0.75f, true);
+    
+    /** PeriodView のフォント */
+    private Font font;
+    
+    /** 発言の強調表示設定 */
+    private List<HighlightSetting> highlightSettingList;
+    
+    /** 強調表示範囲の索引 */
+    private HighlightIndex highlightIndex;
+    
+    /** 破棄されたかどうか */
+    private boolean isDisposed = false;
+    
+    /** タブが選ばれたときのリスナー */
+    private final ChangeListener tabChangeListener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            int periodIndex = tabbedPane.getSelectedIndex();
+            if (periodIndex >= 0) {
+                periodSelected(periodIndex);
+            }
+        }
+    };
+    
+    /** 次の日へのリンクがクリックされたときのリスナー */
+    private final LinkClickListener linkClickListener = new LinkClickListener() {
+        @Override
+        public void linkClicked(LinkClickedEvent e) {
+            if (!(e.getLink() instanceof PeriodView.NextDayLink)) {
+                return;
+            }
+            int periodIndex = tabbedPane.getSelectedIndex() + 1;
+            if (periodIndex > 0 && periodIndex < tabbedPane.getTabCount()) {
+                showPeriod(periodIndex);
+            }
+        }
+    };
+    
+    /**
+     * コンストラクタ
+     * @param controller コントローラー
+     * @param story 表示するストーリー
+     */
+    public PeriodNavigator(MoltonfController controller, Story story) {
+        this.controller = controller;
+        this.story = story;
+        addPeriodTabs();
+        tabbedPane.addChangeListener(tabChangeListener);
+    }
+    
+    /**
+     * period ごとのタブを持つタブペインを返します。
+     * @return タブペイン
+     */
+    public JTabbedPane getTabbedPane() {
+        return tabbedPane;
+    }
+    
+    /**
+     * PeriodView のフォントをセットします。
+     * @param font フォント
+     */
+    public void setFont(Font font) {
+        this.font = font;
+        for (PeriodView periodView : builtViewMap.values()) {
+            periodView.setFont(font);
+            periodView.updateView();
+        }
+    }
+    
+    /**
+     * 発言の強調表示設定と、その強調表示範囲の索引をセットします。
+     * @param highlightSettingList 強調表示設定のリスト
+     * @param highlightIndex 強調表示範囲の索引。使わないなら null
+     */
+    public void setHighlightSettingList(List<HighlightSetting> highlightSettingList, HighlightIndex highlightIndex) {
+        this.highlightSettingList = highlightSettingList;
+        this.highlightIndex = highlightIndex;
+        for (PeriodView periodView : builtViewMap.values()) {
+            periodView.setHighlightSettingList(highlightSettingList);
+            periodView.setHighlightIndex(highlightIndex);
+            periodView.updateView();
+        }
+    }
+    
+    /**
+     * 指定した period のタブを表示します。
+     * @param periodIndex period のインデックス
+     * @return その period を表示している PeriodView
+     */
+    public PeriodView showPeriod(int periodIndex) {
+        if (tabbedPane.getSelectedIndex() != periodIndex) {
+            tabbedPane.setSelectedIndex(periodIndex);
+        } else {
+            periodSelected(periodIndex);
+        }
+        return getCurrentPeriodView();
+    }
+    
+    /**
+     * 表示しているタブの PeriodView を返します。
+     * @return 表示している PeriodView。なければ null
+     */
+    public PeriodView getCurrentPeriodView() {
+        int tabIndex = tabbedPane.getSelectedIndex();
+        if (tabIndex < 0) {
+            return null;
+        }
+        Component component = tabbedPane.getComponentAt(tabIndex);
+        if (component instanceof PeriodView.ScrollPane) {
+            return ((PeriodView.ScrollPane)component).getPeriodView();
+        } else {
+            return null;
+        }
+    }
+    
+    /**
+     * 作成してある PeriodView のリストを返します。
+     * @return PeriodView のリスト
+     */
+    public List<PeriodView> getPeriodViewList() {
+        return new ArrayList<PeriodView>(builtViewMap.values());
+    }
+    
+    /**
+     * ストーリーが読み込み直されて period が増えていれば、そのタブを追加します。
+     * タブのタイトルも付け直します。
+     */
+    public void periodsReloaded() {
+        addPeriodTabs();
+        for (int periodIndex = 0; periodIndex < tabbedPane.getTabCount(); ++periodIndex) {
+            tabbedPane.setTitleAt(periodIndex, getTabTitle(periodIndex));
+        }
+    }
+    
+    /**
+     * 破棄します。
+     * 予約してある前後の period の準備は行われなくなります。
+     * 作成した PeriodView はすべて破棄するので、要素の高さの測定は中止され、period の pin も外れます。
+     */
+    public void dispose() {
+        isDisposed = true;
+        tabbedPane.removeChangeListener(tabChangeListener);
+        for (Map.Entry<Integer, PeriodView> entry : builtViewMap.entrySet()) {
+            releaseView(entry.getKey(), entry.getValue());
+        }
+        builtViewMap.clear();
+    }
+    
+    /**
+     * まだタブのない period のタブを追加します。
+     * タブの中身は、選ばれるか前後の period として準備されるまでは空のままにします。
+     */
+    private void addPeriodTabs() {
+        List<StoryPeriod> periodList = story.getPeriods();
+        for (int periodIndex = tabbedPane.getTabCount(); periodIndex < periodList.size(); ++periodIndex) {
+            tabbedPane.addTab(getTabTitle(periodIndex), new JPanel());
+        }
+    }
+    
+    /**
+     * タブのタイトルを返します。
+     * @param periodIndex period のインデックス
+     * @return タブのタイトル
+     */
+    private String getTabTitle(int periodIndex) {
+        ResourceBundle res = Moltonf.getResource();
+        VillageState villageState = story.getVillageState();
+        if (periodIndex == 0) {
+            return res.getString("periodTab.prologue");
+        } else if (periodIndex == story.getPeriods().size() - 1
+                && (villageState == VillageState.EPILOGUE || villageState == VillageState.GAMEOVER)) {
+            return res.getString("periodTab.epilogue");
+        } else {
+            return String.format(res.getString("periodTab.progress"), periodIndex);
+        }
+    }
+    
+    /**
+     * タブが選ばれたときの処理
+     * @param periodIndex period のインデックス
+     */
+    private void periodSelected(int periodIndex) {
+        PeriodView periodView = prepareView(periodIndex);
+        periodView.updateView();
+        controller.periodViewShown(periodView);
+        
+        // 前後の period を準備しておく
+        prefetch(periodIndex + 1);
+        prefetch(periodIndex - 1);
+    }
+    
+    /**
+     * period を表示する PeriodView を返します。
+     * まだなければ作成してタブに入れ、残しておく数を超えたら古いものを破棄します。
+     * @param periodIndex period のインデックス
+     * @return PeriodView
+     */
+    private PeriodView prepareView(int periodIndex) {
+        PeriodView periodView = builtViewMap.get(periodIndex);
+        if (periodView != null) {
+            return periodView;
+        }
+        
+        periodView = new PeriodView();
+        periodView.setFont(font);
+        periodView.setHighlightSettingList(highlightSettingList);
+        periodView.setHighlightIndex(highlightIndex);
+        FilterSideBar filterSideBar = controller.getFilterSideBar();
+        if (filterSideBar != null) {
+            periodView.setTalkTypeFilter(emptyToNull(filterSideBar.getTalkTypeFilter()));
+            periodView.setEventFamilyFilter(emptyToNull(filterSideBar.getEventFamilyFilter()));
+            periodView.setSpeakerFilter(emptyToNull(filterSideBar.getSpeakerFilter()));
+        }
+        periodView.addLinkClickListener(linkClickListener);
+        periodView.setStoryPeriod(story.getPeriods().get(periodIndex));
+        tabbedPane.setComponentAt(periodIndex, periodView.getScrollPane());
+        builtViewMap.put(periodIndex, periodView);
+        
+        // 表示しているもの以外の、最も長く表示していないものから破棄する
+        int selectedIndex = tabbedPane.getSelectedIndex();
+        Iterator<Map.Entry<Integer, PeriodView>> it = builtViewMap.entrySet().iterator();
+        while (builtViewMap.size() > MAX_BUILT_VIEW_COUNT && it.hasNext()) {
+            Map.Entry<Integer, PeriodView> entry = it.next();
+            int index = entry.getKey();
+            if (index != selectedIndex && index != periodIndex) {
+                it.remove();
+                releaseView(index, entry.getValue());
+            }
+        }
+        return periodView;
+    }
+    
+    /**
+     * PeriodView を破棄して、タブを空にします。
+     * 遅延読み込みしている period は、他で pin されていなければ要素も解放します。
+     * @param periodIndex period のインデックス
+     * @param periodView 破棄する PeriodView
+     */
+    private void releaseView(int periodIndex, PeriodView periodView) {
+        periodView.removeLinkClickListener(linkClickListener);
+        tabbedPane.setComponentAt(periodIndex, new JPanel());
+        StoryPeriod storyPeriod = periodView.getStoryPeriod();
+        periodView.setStoryPeriod(null);
+        periodView.updateView();
+        if (storyPeriod instanceof LazyStoryPeriod) {
+            ((LazyStoryPeriod)storyPeriod).evict();
+        }
+    }
+    
+    /**
+     * バックグラウンドのスレッドで period を読み込んでから、PeriodView を作成しておきます。
+     * PeriodView を作成すると、要素の高さもバックグラウンドで測られます。
+     * @param periodIndex period のインデックス
+     */
+    private void prefetch(final int periodIndex) {
+        if (periodIndex < 0 || periodIndex >= tabbedPane.getTabCount() || builtViewMap.containsKey(periodIndex)) {
+            return;
+        }
+        
+        final StoryPeriod storyPeriod = story.getPeriods().get(periodIndex);
+        prefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (isDisposed) {
+                    return;
+                }
+                storyPeriod.getStoryElements();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isDisposed || builtViewMap.containsKey(periodIndex)) {
+                            return;
+                        }
+                        // 表示しているものから離れていたら、もう要らない
+                        if (Math.abs(tabbedPane.getSelectedIndex() - periodIndex) != 1) {
+                            return;
+                        }
+                        prepareView(periodIndex).updateView();
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * 空の Set を null に置き換えます。
+     * フィルターサイドバーでは空の Set が、PeriodView では null がフィルタしないことを表します。
+     * @param filter フィルタの設定値
+     * @return 空なら null、そうでなければ filter そのもの
+     */
+    private static <T> Set<T> emptyToNull(Set<T> filter) {
+        return (filter == null || filter.isEmpty()) ? null : filter;
+    }
+}
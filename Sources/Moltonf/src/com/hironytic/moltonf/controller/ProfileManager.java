@@ -28,16 +28,12 @@ package com.hironytic.moltonf.controller;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.Date;
-import java.util.LinkedHashMap;
+import java.util.Collection;
 import java.util.Map;
 
 import net.arnx.jsonic.JSON;
@@ -54,7 +50,7 @@ public class ProfileManager {
     /** 取得した外部データを保存するフォルダの名前 */
     private static final String EXTERNAL_DATA_FOLDER_NAME = "extdata";
     
-    /** 取得済み外部データの URL とファイル名の対応を保存するファイルの名前 */
+    /** 以前の形式で、取得済み外部データの URL とファイル名の対応を保存していたファイルの名前 */
     private static final String EXTERNAL_DATA_MAP_FILE_NAME = "extdata.json";
     
     /** UTF-8 文字セットの名前 */
@@ -66,11 +62,8 @@ public class ProfileManager {
     /** 取得した外部データを保存するフォルダ */
     private File externalDataFolder;
     
-    /** 取得した外部データの URL から保存済みファイルのファイル名を得るマップ */
-    private Map<String, String> externalDataMap;
-    
-    /** externalDataMap が変更されているかどうか */
-    private boolean externalDataMapModified = false;
+    /** 取得した外部データのキャッシュ */
+    private ExternalDataCache externalDataCache;
     
     /**
      * コンストラクタ
@@ -100,7 +93,7 @@ public class ProfileManager {
         }
         
         if (externalDataFolder != null) {
-            externalDataMap = new LinkedHashMap<String, String>();
+            externalDataCache = new ExternalDataCache(externalDataFolder);
         }
     }
     
@@ -109,100 +102,91 @@ public class ProfileManager {
      * 一度取得された外部データはプロファイルフォルダ内に保存されます。
      * 次に同じ URL の外部データを求められた場合、保存したプロファイルフォルダ内の
      * ファイルデータを返します。
+     * 複数のスレッドから同時に呼び出すことができます。取得中は他の URL の取得を妨げません。
      * @param url 外部データの URL
      * @return 読み込んだ InputStream。データがない場合に null を返すことがあります。
      */
     public InputStream getExternalData(URL url) {
-        try {
-            // プロファイルフォルダに取得しない場合はそのまま返す
-            if (externalDataFolder == null || externalDataMap == null) {
+        // プロファイルフォルダに取得しない場合はそのまま返す
+        if (externalDataCache == null) {
+            try {
                 return url.openStream();
+            } catch (IOException ex) {
+                throw new MoltonfException("failed to load external data", ex);
             }
-            
-            String urlString = url.toString();
-            String fileName = externalDataMap.get(urlString);
-            if (fileName == null) {
-                // 未取得の場合。保存するファイル名を作成
-                fileName = url.getPath();
-                if (!fileName.isEmpty()) {
-                    int dirSepIndex = fileName.lastIndexOf('/');
-                    if (dirSepIndex > 0) {
-                        fileName = fileName.substring(dirSepIndex + 1);
-                    }
-                }
-                File saveFile = new File(externalDataFolder, fileName);
-                if (saveFile.exists()) {
-                    String baseName = fileName;
-                    String extName = "";
-                    int extSepIndex = fileName.lastIndexOf('.');
-                    if (extSepIndex > 0) {
-                        baseName = fileName.substring(0, extSepIndex);
-                        extName = fileName.substring(extSepIndex + 1);
-                    }
-                    
-                    long seqNum = new Date().getTime();
-                    do {
-                        fileName = baseName + "." + String.format("%x", seqNum) + "." + extName;
-                        saveFile = new File(externalDataFolder, fileName);
-                        ++seqNum;
-                    } while (saveFile.exists());
-                }
+        }
         
-                // ファイルに保存
-                HttpAccess httpAccess = new HttpAccess();
-                final int BUFFER_SIZE = 4096;
-                byte[] data = new byte[BUFFER_SIZE];
-                InputStream externalInStream = httpAccess.doGet(url);
-                try {
-                    OutputStream fileOutStream = new FileOutputStream(saveFile);
-                    try {
-                        int readSize = externalInStream.read(data);
-                        while (readSize > 0) {
-                            fileOutStream.write(data, 0, readSize);
-                            readSize = externalInStream.read(data);
-                        }
-                    } finally {
-                        fileOutStream.close();
-                    }
-                } finally {
-                    externalInStream.close();
-                }
-                
-                // 保存したファイルを記憶
-                externalDataMap.put(urlString, fileName);
-                externalDataMapModified = true;
-            }
-            
-            File storedFile = new File(externalDataFolder, fileName);
-            try {
-                return new FileInputStream(storedFile);
-            } catch (FileNotFoundException ex) {
-                throw new MoltonfException("failed to load saved external data:" + urlString, ex);
-            } catch (SecurityException ex) {
-                throw new MoltonfException("failed to load saved external data:" + urlString, ex);
-            }
-        } catch (IOException ex) {
-            throw new MoltonfException("failed to load external data", ex);
+        return externalDataCache.open(url);
+    }
+    
+    /**
+     * 外部データの一覧を、まだ保存していないものや古いものだけバックグラウンドで並行して取得します。
+     * 取得の完了は待ちません。
+     * @param urlList 外部データの URL の一覧
+     */
+    public void prefetchExternalData(Collection<URL> urlList) {
+        if (externalDataCache != null) {
+            externalDataCache.prefetch(urlList);
         }
     }
-
+    
+    /**
+     * 保存する外部データの合計サイズの上限を設定します。
+     * @param maxBytes 上限（バイト）
+     */
+    public void setMaxExternalDataBytes(long maxBytes) {
+        if (externalDataCache != null) {
+            externalDataCache.setMaxCacheBytes(maxBytes);
+        }
+    }
+    
+    /**
+     * 保存した外部データの統計情報を返します。
+     * @return 統計情報。外部データを保存していない場合は null
+     */
+    public ExternalDataCache.Statistics getExternalDataStatistics() {
+        if (externalDataCache == null) {
+            return null;
+        }
+        return externalDataCache.getStatistics();
+    }
+    
     /**
      * 設定を読み込みます。
+     * 以前の形式の外部データの対応表があれば、外部データのキャッシュに移します。
      */
-    @SuppressWarnings("unchecked")
-    public void load() {
+    public synchronized void load() {
         if (profileFolder == null) {
             return;
         }
         
-        try {
+        if (externalDataCache != null) {
+            externalDataCache.load();
+            
             File extMapFile = new File(profileFolder, EXTERNAL_DATA_MAP_FILE_NAME);
+            Map<?, ?> legacyMap = loadLegacyExternalDataMap(extMapFile);
+            if (legacyMap != null) {
+                // ジャーナルに移せなかった対応を失わないよう、書き出せたときだけ消す
+                if (externalDataCache.importEntries(legacyMap)) {
+                    extMapFile.delete();
+                }
+            }
+            externalDataCache.requestMaintenance();
+        }
+    }
+    
+    /**
+     * 以前の形式の、外部データの URL とファイル名の対応表を読み込みます。
+     * @param extMapFile 対応表のファイル
+     * @return 読み込んだ対応表。ファイルがないか読み込めなかった場合は null
+     */
+    private Map<?, ?> loadLegacyExternalDataMap(File extMapFile) {
+        try {
             if (extMapFile.exists()) {
                 InputStream inStream = new FileInputStream(extMapFile);
                 InputStreamReader inStreamReader = new InputStreamReader(inStream, Charset.forName(CHARSET_UTF8));
                 try {
-                    externalDataMap = (Map<String, String>)JSON.decode(inStreamReader, Map.class);
-                    externalDataMapModified = false;
+                    return JSON.decode(inStreamReader, Map.class);
                 } finally {
                     inStreamReader.close();
                 }
@@ -218,36 +202,20 @@ public class ProfileManager {
         } catch (ClassCastException ex) {
             Moltonf.getLogger().warning("failed to load external data map file", ex);
         }
+        return null;
     }
     
     /**
      * 設定を必要に応じて書き出します。
+     * 外部データの対応は取得のたびにジャーナルへ追記済みなので、ここではジャーナルの整理だけを行います。
      */
-    public void save() {
+    public synchronized void save() {
         if (profileFolder == null) {
             return;
         }
 
-        if (externalDataMapModified) {
-            try {
-                File extMapFile = new File(profileFolder, EXTERNAL_DATA_MAP_FILE_NAME);
-                OutputStream outStream = new FileOutputStream(extMapFile);
-                OutputStreamWriter outStreamWriter = new OutputStreamWriter(outStream, Charset.forName(CHARSET_UTF8));
-                try {
-                    JSON.encode(externalDataMap, outStreamWriter, true);
-                } finally {
-                    outStreamWriter.close();
-                }
-            } catch (FileNotFoundException ex) {
-                Moltonf.getLogger().warning("failed to save external data map file", ex);
-            } catch (SecurityException ex) {
-                Moltonf.getLogger().warning("failed to save external data map file", ex);
-            } catch (IOException ex) {
-                Moltonf.getLogger().warning("failed to save external data map file", ex);
-            } catch (JSONException ex) {
-                Moltonf.getLogger().warning("failed to save external data map file", ex);
-            }
-            externalDataMapModified = false;
+        if (externalDataCache != null) {
+            externalDataCache.compact();
         }
     }
 }
@@ -0,0 +1,202 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+import com.hironytic.moltonf.Moltonf;
+import com.hironytic.moltonf.model.search.SearchHit;
+import com.hironytic.moltonf.model.search.SearchIndex;
+import com.hironytic.moltonf.model.search.SearchQuery;
+import com.hironytic.moltonf.model.search.SearchResult;
+import com.hironytic.moltonf.view.PeriodView;
+import com.hironytic.moltonf.view.event.SearchEvent;
+import com.hironytic.moltonf.view.event.SearchListener;
+import com.hironytic.moltonf.view.sidebar.SearchSideBar;
+
+/**
+ * 全文検索の状態を管理するクラス
+ * 検索はバックグラウンドのスレッドで行い、条件が変わったら実行中のものは中止します。
+ */
+public class SearchManager implements SearchListener {
+    
+    /** コントローラー */
+    private MoltonfController controller;
+    
+    /** 全文検索の索引 */
+    private SearchIndex searchIndex;
+    
+    /** 最後に得られた検索結果 */
+    private SearchResult lastResult;
+    
+    /** 実行中の検索 */
+    private SwingWorker<SearchResult, Void> searchWorker;
+    
+    /**
+     * コンストラクタ
+     */
+    public SearchManager(MoltonfController controller) {
+        this.controller = controller;
+    }
+    
+    /**
+     * 全文検索の索引をセットします。
+     * 実行中の検索は中止し、それまでの検索結果は破棄します。
+     * @param searchIndex 全文検索の索引。なければ null
+     */
+    public void setSearchIndex(SearchIndex searchIndex) {
+        cancelSearch();
+        this.searchIndex = searchIndex;
+        lastResult = null;
+    }
+    
+    /**
+     * ストーリーが読み込み直されたときに、現在の条件で検索し直します。
+     */
+    public void refresh() {
+        SearchSideBar searchSideBar = controller.getSearchSideBar();
+        if (searchSideBar != null) {
+            lastResult = null;
+            startSearch(searchSideBar.getQuery());
+        }
+    }
+    
+    /**
+     * @see com.hironytic.moltonf.view.event.SearchListener#searchQueryChanged(com.hironytic.moltonf.view.event.SearchEvent)
+     */
+    @Override
+    public void searchQueryChanged(SearchEvent e) {
+        startSearch(e.getQuery());
+    }
+
+    /**
+     * @see com.hironytic.moltonf.view.event.SearchListener#searchHitSelected(com.hironytic.moltonf.view.event.SearchEvent)
+     */
+    @Override
+    public void searchHitSelected(SearchEvent e) {
+        SearchHit hit = e.getHit();
+        if (searchIndex == null || hit.getPeriodIndex() >= searchIndex.getStory().getPeriods().size()) {
+            return;
+        }
+        
+        PeriodView periodView = controller.showPeriod(hit.getPeriodIndex());
+        if (periodView != null) {
+            periodView.setSearchHitList(getHitListOfPeriod(hit.getPeriodIndex()));
+            periodView.scrollToStoryElement(hit.getElementIndex());
+        }
+    }
+    
+    /**
+     * 検索を開始します。
+     * 前回の結果があれば、それを使って絞り込みます。
+     * @param query 検索の条件
+     */
+    private void startSearch(final SearchQuery query) {
+        cancelSearch();
+        final SearchSideBar searchSideBar = controller.getSearchSideBar();
+        if (searchIndex == null || searchSideBar == null) {
+            return;
+        }
+        
+        final SearchIndex index = searchIndex;
+        final SearchResult previousResult = lastResult;
+        searchSideBar.setSearching(true);
+        searchSideBar.updateView();
+        searchWorker = new SwingWorker<SearchResult, Void>() {
+            @Override
+            protected SearchResult doInBackground() throws Exception {
+                return index.search(query, previousResult);
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled() || searchWorker != this) {
+                    return;
+                }
+                searchWorker = null;
+                
+                SearchResult result;
+                try {
+                    result = get();
+                } catch (InterruptedException ex) {
+                    return;
+                } catch (ExecutionException ex) {
+                    Moltonf.getLogger().warning("failed to search", ex.getCause());
+                    result = null;
+                }
+                lastResult = result;
+                searchSideBar.setSearching(false);
+                searchSideBar.setSearchResult(result);
+                searchSideBar.updateView();
+                showHitsInCurrentPeriod();
+            }
+        };
+        searchWorker.execute();
+    }
+    
+    /**
+     * 実行中の検索を中止します。
+     */
+    private void cancelSearch() {
+        if (searchWorker != null) {
+            searchWorker.cancel(true);
+            searchWorker = null;
+        }
+    }
+    
+    /**
+     * 表示中の period の中で見つかった箇所を、ピリオドビューに反映します。
+     */
+    void showHitsInCurrentPeriod() {
+        PeriodView periodView = controller.getCurrentPeriodView();
+        if (periodView == null || searchIndex == null) {
+            return;
+        }
+        int periodIndex = searchIndex.getStory().getPeriods().indexOf(periodView.getStoryPeriod());
+        periodView.setSearchHitList(getHitListOfPeriod(periodIndex));
+    }
+    
+    /**
+     * 最後に得られた検索結果のうち、指定した period の中で見つかった箇所を返します。
+     * @param periodIndex period のインデックス
+     * @return 見つかった箇所のリスト
+     */
+    private List<SearchHit> getHitListOfPeriod(int periodIndex) {
+        List<SearchHit> hitList = new ArrayList<SearchHit>();
+        if (lastResult != null) {
+            for (SearchHit hit : lastResult.getHitList()) {
+                if (hit.getPeriodIndex() == periodIndex) {
+                    hitList.add(hit);
+                }
+            }
+        }
+        return hitList;
+    }
+}
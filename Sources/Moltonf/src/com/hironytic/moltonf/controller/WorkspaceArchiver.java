@@ -61,6 +61,47 @@ public class WorkspaceArchiver {
     /** プレイデータアーカイブのファイルを示すキー */
     private static final String KEY_ARCHIVE_FILE = "archiveFile";
     
+    /** アーカイブの索引ファイルの拡張子 */
+    private static final String INDEX_FILE_EXTENSION = ".mtfidx";
+    
+    /** 全文検索の索引ファイルの拡張子 */
+    private static final String SEARCH_INDEX_FILE_EXTENSION = ".mtfsidx";
+    
+    /**
+     * ワークスペースファイルに対応するアーカイブの索引ファイルを返します。
+     * 索引ファイルはワークスペースファイルと同じフォルダに置かれます。
+     * @param workspaceFile ワークスペースファイル
+     * @return 索引ファイル
+     */
+    public static File getArchiveIndexFile(File workspaceFile) {
+        return getSiblingFile(workspaceFile, INDEX_FILE_EXTENSION);
+    }
+    
+    /**
+     * ワークスペースファイルに対応する全文検索の索引ファイルを返します。
+     * 索引ファイルはワークスペースファイルと同じフォルダに置かれます。
+     * @param workspaceFile ワークスペースファイル
+     * @return 索引ファイル
+     */
+    public static File getSearchIndexFile(File workspaceFile) {
+        return getSiblingFile(workspaceFile, SEARCH_INDEX_FILE_EXTENSION);
+    }
+    
+    /**
+     * ワークスペースファイルと同じフォルダにある、拡張子だけを替えたファイルを返します。
+     * @param workspaceFile ワークスペースファイル
+     * @param extension 替える拡張子 (. を含む)
+     * @return ファイル
+     */
+    private static File getSiblingFile(File workspaceFile, String extension) {
+        String name = workspaceFile.getName();
+        int extSepIndex = name.lastIndexOf('.');
+        if (extSepIndex > 0) {
+            name = name.substring(0, extSepIndex);
+        }
+        return new File(workspaceFile.getParentFile(), name + extension);
+    }
+    
     /**
      * 指定されたファイルにワークスペースの内容を保存します。
      * @param archiveFile 保存するファイル
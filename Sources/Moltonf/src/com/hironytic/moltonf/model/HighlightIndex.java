@@ -0,0 +1,320 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ストーリー中の発言の強調表示範囲を、period ごとにあらかじめ求めて保持するクラス。
+ *
+ * 1 つの強調表示設定の組に対して作成し、設定が変わったら作り直します。
+ * 各 period の強調表示範囲はバックグラウンドのスレッドで求め、
+ * 要素・行ごとの範囲を int の配列にまとめて保持します。
+ * 求めたときと period の要素のリストが変わっていれば (読み込み直した場合など)、その結果は使いません。
+ * 複数のスレッドから同時に使うことができます。
+ */
+public class HighlightIndex {
+
+    /** 強調表示範囲を求めるスレッド */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "HighlightIndex");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    
+    /** 強調表示範囲を求めるのに用いるオブジェクト */
+    private final HighlightEngine highlightEngine;
+    
+    /** period ごとの強調表示範囲 */
+    private final Map<StoryPeriod, PeriodHighlights> periodHighlightsMap = new IdentityHashMap<StoryPeriod, PeriodHighlights>();
+    
+    /** 強調表示範囲を求めることを要求済みの period */
+    private final Set<StoryPeriod> pendingPeriodSet = Collections.newSetFromMap(new IdentityHashMap<StoryPeriod, Boolean>());
+    
+    /** 中止されたかどうか */
+    private volatile boolean isCancelled = false;
+    
+    /**
+     * 1 つの period の強調表示範囲。
+     * 要素ごとの行の開始位置、行ごとの範囲の開始位置、範囲の配列の 3 つの int の配列で保持します。
+     */
+    public static class PeriodHighlights {
+        /**
+         * 強調表示範囲を求めたときの要素のリストへの弱参照。
+         * 遅延読み込みの period の要素を解放できるように、リストそのものは保持しない
+         */
+        private final WeakReference<List<StoryElement>> storyElementsRef;
+        
+        /** 各要素の最初の行の、lineSpanStarts 中のインデックス。最後に全体の行の数が入る */
+        private final int[] elementLineStarts;
+        
+        /** 各行の最初の範囲の、spans 中の位置。最後に spans の長さが入る */
+        private final int[] lineSpanStarts;
+        
+        /** 各範囲の開始位置、終了位置、強調表示設定のインデックスを順に並べた配列 */
+        private final int[] spans;
+        
+        /**
+         * コンストラクタ
+         * @param storyElements 強調表示範囲を求めたときの要素のリスト
+         * @param elementLineStarts 各要素の最初の行の、lineSpanStarts 中のインデックス
+         * @param lineSpanStarts 各行の最初の範囲の、spans 中の位置
+         * @param spans 範囲の配列
+         */
+        PeriodHighlights(List<StoryElement> storyElements, int[] elementLineStarts, int[] lineSpanStarts, int[] spans) {
+            this.storyElementsRef = new WeakReference<List<StoryElement>>(storyElements);
+            this.elementLineStarts = elementLineStarts;
+            this.lineSpanStarts = lineSpanStarts;
+            this.spans = spans;
+        }
+        
+        /**
+         * 強調表示範囲を求めたときの要素のリストを返します。
+         * @return 要素のリスト。既に解放されていれば null
+         */
+        public List<StoryElement> getStoryElements() {
+            return storyElementsRef.get();
+        }
+        
+        /**
+         * 1 行の強調表示範囲を返します。
+         * @param elementIndex 要素のインデックス
+         * @param lineIndex 要素の中の行のインデックス
+         * @return 強調表示範囲のリスト
+         */
+        public HighlightEngine.SpanList getLineSpans(int elementIndex, int lineIndex) {
+            int line = elementLineStarts[elementIndex] + lineIndex;
+            if (line >= elementLineStarts[elementIndex + 1]) {
+                return HighlightEngine.SpanList.EMPTY;
+            }
+            int start = lineSpanStarts[line];
+            int end = lineSpanStarts[line + 1];
+            return (start == end) ? HighlightEngine.SpanList.EMPTY
+                                  : new HighlightEngine.SpanList(spans, start, (end - start) / 3);
+        }
+        
+        /**
+         * 強調表示範囲の総数を返します。
+         * @return 範囲の数
+         */
+        public int getSpanCount() {
+            return spans.length / 3;
+        }
+    }
+    
+    /**
+     * 1 つの要素の強調表示範囲
+     */
+    public static class ElementHighlights {
+        /** 強調表示範囲を求めるのに用いたオブジェクト */
+        private final HighlightEngine highlightEngine;
+        
+        /** 要素が含まれる period の強調表示範囲 */
+        private final PeriodHighlights periodHighlights;
+        
+        /** 要素のインデックス */
+        private final int elementIndex;
+        
+        /**
+         * コンストラクタ
+         * @param highlightEngine 強調表示範囲を求めるのに用いたオブジェクト
+         * @param periodHighlights 要素が含まれる period の強調表示範囲
+         * @param elementIndex 要素のインデックス
+         */
+        public ElementHighlights(HighlightEngine highlightEngine, PeriodHighlights periodHighlights, int elementIndex) {
+            this.highlightEngine = highlightEngine;
+            this.periodHighlights = periodHighlights;
+            this.elementIndex = elementIndex;
+        }
+        
+        /**
+         * 強調表示範囲を求めるのに用いたオブジェクトを返します。
+         * SpanList#getSettingIndex(int) が返すインデックスから強調表示設定を得るのに用います。
+         * @return HighlightEngine
+         */
+        public HighlightEngine getHighlightEngine() {
+            return highlightEngine;
+        }
+        
+        /**
+         * 1 行の強調表示範囲を返します。
+         * @param lineIndex 行のインデックス
+         * @return 強調表示範囲のリスト
+         */
+        public HighlightEngine.SpanList getLineSpans(int lineIndex) {
+            return periodHighlights.getLineSpans(elementIndex, lineIndex);
+        }
+    }
+    
+    /**
+     * コンストラクタ
+     * @param highlightEngine 強調表示範囲を求めるのに用いるオブジェクト
+     */
+    public HighlightIndex(HighlightEngine highlightEngine) {
+        this.highlightEngine = highlightEngine;
+    }
+    
+    /**
+     * 強調表示範囲を求めるのに用いるオブジェクトを返します。
+     * @return HighlightEngine
+     */
+    public HighlightEngine getHighlightEngine() {
+        return highlightEngine;
+    }
+    
+    /**
+     * 強調表示設定のリストが、この索引を作成したときの設定と同じ内容かどうかを調べます。
+     * @param highlightSettingList 強調表示設定のリスト
+     * @return 同じ内容なら true
+     */
+    public boolean isFor(List<HighlightSetting> highlightSettingList) {
+        return highlightEngine.isSameSettings(highlightSettingList);
+    }
+    
+    /**
+     * period の強調表示範囲を返します。
+     * @param storyPeriod period
+     * @param storyElements period の要素のリスト
+     * @return 強調表示範囲。まだ求めていないか、求めたときと要素のリストが異なれば null
+     */
+    public synchronized PeriodHighlights getPeriodHighlights(StoryPeriod storyPeriod, List<StoryElement> storyElements) {
+        PeriodHighlights periodHighlights = periodHighlightsMap.get(storyPeriod);
+        if (periodHighlights == null || periodHighlights.getStoryElements() != storyElements) {
+            return null;
+        }
+        return periodHighlights;
+    }
+    
+    /**
+     * バックグラウンドのスレッドで period の強調表示範囲を求めるよう要求します。
+     * 既に現在の要素のリストに対して求めてあれば何もしません。
+     * @param storyPeriod period
+     */
+    public void requestBuild(final StoryPeriod storyPeriod) {
+        synchronized (this) {
+            if (isCancelled || pendingPeriodSet.contains(storyPeriod)) {
+                return;
+            }
+            PeriodHighlights periodHighlights = periodHighlightsMap.get(storyPeriod);
+            if (periodHighlights != null && periodHighlights.getStoryElements() == storyPeriod.getStoryElements()) {
+                return;
+            }
+            pendingPeriodSet.add(storyPeriod);
+        }
+        
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (isCancelled) {
+                        return;
+                    }
+                    List<StoryElement> storyElements = storyPeriod.getStoryElements();
+                    PeriodHighlights periodHighlights = build(storyElements);
+                    if (periodHighlights != null) {
+                        synchronized (HighlightIndex.this) {
+                            periodHighlightsMap.put(storyPeriod, periodHighlights);
+                        }
+                    }
+                } finally {
+                    synchronized (HighlightIndex.this) {
+                        pendingPeriodSet.remove(storyPeriod);
+                    }
+                }
+            }
+        });
+    }
+    
+    /**
+     * 要求済みで、まだ始まっていない処理を取りやめます。
+     * 以降、この索引に対する要求は無視されます。
+     */
+    public synchronized void cancel() {
+        isCancelled = true;
+    }
+    
+    /**
+     * 要素のリストの強調表示範囲を求めます。
+     * @param storyElements 要素のリスト
+     * @return 強調表示範囲。途中で中止されたら null
+     */
+    PeriodHighlights build(List<StoryElement> storyElements) {
+        int elementsCount = storyElements.size();
+        int[] elementLineStarts = new int[elementsCount + 1];
+        int[] lineSpanStarts = new int[256];
+        int[] spans = new int[256];
+        int lineCount = 0;
+        int spansLength = 0;
+        for (int elementIndex = 0; elementIndex < elementsCount; ++elementIndex) {
+            if (isCancelled) {
+                return null;
+            }
+            
+            elementLineStarts[elementIndex] = lineCount;
+            StoryElement element = storyElements.get(elementIndex);
+            if (!(element instanceof Talk)) {
+                // 強調表示するのは発言だけ
+                continue;
+            }
+            
+            List<String> messageLines = element.getMessageLines();
+            for (int lineIndex = 0; lineIndex < messageLines.size(); ++lineIndex) {
+                if (lineCount + 2 > lineSpanStarts.length) {
+                    lineSpanStarts = Arrays.copyOf(lineSpanStarts, lineSpanStarts.length * 2);
+                }
+                lineSpanStarts[lineCount++] = spansLength;
+                
+                HighlightEngine.SpanList spanList = highlightEngine.match(messageLines.get(lineIndex));
+                if (spansLength + spanList.size() * 3 > spans.length) {
+                    spans = Arrays.copyOf(spans, Math.max(spans.length * 2, spansLength + spanList.size() * 3));
+                }
+                for (int ix = 0; ix < spanList.size(); ++ix) {
+                    spans[spansLength++] = spanList.getStart(ix);
+                    spans[spansLength++] = spanList.getEnd(ix);
+                    spans[spansLength++] = spanList.getSettingIndex(ix);
+                }
+            }
+        }
+        elementLineStarts[elementsCount] = lineCount;
+        lineSpanStarts[lineCount] = spansLength;
+        
+        return new PeriodHighlights(storyElements, elementLineStarts,
+                Arrays.copyOf(lineSpanStarts, lineCount + 1), Arrays.copyOf(spans, spansLength));
+    }
+}
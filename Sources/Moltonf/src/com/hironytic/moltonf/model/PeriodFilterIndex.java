@@ -0,0 +1,253 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.hironytic.moltonf.model.columnar.ColumnarElementList;
+
+/**
+ * 1 つの period の要素を、フィルタの条件ごとに分類しておくクラス。
+ *
+ * 発言種別、イベント種別、発言者ごとに、該当する要素のインデックスを BitSet で保持します。
+ * フィルタの評価はこれらの BitSet の論理和と論理積だけで行うので、
+ * 要素を 1 つずつ調べ直す必要がありません。
+ * 作成した後は内容が変わらないので、複数のスレッドから同時に使うことができます。
+ */
+public class PeriodFilterIndex {
+
+    /** 分類した要素のリスト */
+    private final List<StoryElement> storyElements;
+    
+    /** 発言である要素 */
+    private final BitSet talkBits;
+    
+    /** イベントである要素 */
+    private final BitSet eventBits;
+    
+    /** 発言種別ごとの要素 */
+    private final Map<TalkType, BitSet> talkTypeBitsMap = new EnumMap<TalkType, BitSet>(TalkType.class);
+    
+    /** イベント種別ごとの要素 */
+    private final Map<EventFamily, BitSet> eventFamilyBitsMap = new EnumMap<EventFamily, BitSet>(EventFamily.class);
+    
+    /** 発言者ごとの要素 */
+    private final Map<Avatar, BitSet> speakerBitsMap = new HashMap<Avatar, BitSet>();
+    
+    /**
+     * 要素のリストを分類して、索引を構築します。
+     * @param storyElements 要素のリスト
+     */
+    public PeriodFilterIndex(List<StoryElement> storyElements) {
+        this(null, 0, storyElements);
+    }
+    
+    /**
+     * 読み込み直した要素のリストについて、索引を構築します。
+     * 先頭から keepCount 個の要素は内容が変わっていないものとして、元の索引の分類をそのまま使います。
+     * @param baseIndex 元の索引
+     * @param keepCount 分類をそのまま使う要素の数
+     * @param storyElements 読み込み直した要素のリスト
+     */
+    public PeriodFilterIndex(PeriodFilterIndex baseIndex, int keepCount, List<StoryElement> storyElements) {
+        this.storyElements = storyElements;
+        int elementsCount = storyElements.size();
+        if (baseIndex == null) {
+            keepCount = 0;
+        }
+        keepCount = Math.min(keepCount, elementsCount);
+        
+        if (keepCount > 0) {
+            talkBits = baseIndex.talkBits.get(0, keepCount);
+            eventBits = baseIndex.eventBits.get(0, keepCount);
+            copyBits(baseIndex.talkTypeBitsMap, talkTypeBitsMap, keepCount);
+            copyBits(baseIndex.eventFamilyBitsMap, eventFamilyBitsMap, keepCount);
+            copyBits(baseIndex.speakerBitsMap, speakerBitsMap, keepCount);
+        } else {
+            talkBits = new BitSet(elementsCount);
+            eventBits = new BitSet(elementsCount);
+        }
+        
+        if (storyElements instanceof ColumnarElementList) {
+            // 要素のオブジェクトを作らずに、配列から直接分類する
+            ColumnarElementList columns = (ColumnarElementList)storyElements;
+            for (int index = keepCount; index < elementsCount; ++index) {
+                if (columns.isTalk(index)) {
+                    addTalk(index, columns.getTalkType(index), columns.getSpeaker(index));
+                } else {
+                    addEvent(index, columns.getEventFamily(index));
+                }
+            }
+        } else {
+            for (int index = keepCount; index < elementsCount; ++index) {
+                StoryElement element = storyElements.get(index);
+                if (element instanceof Talk) {
+                    Talk talk = (Talk)element;
+                    addTalk(index, talk.getTalkType(), talk.getSpeaker());
+                } else if (element instanceof StoryEvent) {
+                    addEvent(index, ((StoryEvent)element).getEventFamily());
+                }
+            }
+        }
+    }
+    
+    /**
+     * 分類の先頭部分を別のマップにコピーします。
+     * @param <K> 分類のキーの型
+     * @param source コピー元
+     * @param dest コピー先
+     * @param count コピーする要素の数
+     */
+    private static <K> void copyBits(Map<K, BitSet> source, Map<K, BitSet> dest, int count) {
+        for (Map.Entry<K, BitSet> entry : source.entrySet()) {
+            BitSet bits = entry.getValue().get(0, count);
+            if (!bits.isEmpty()) {
+                dest.put(entry.getKey(), bits);
+            }
+        }
+    }
+    
+    /**
+     * 発言を分類に加えます。
+     * 発言種別が分からない発言は、どの発言種別にも分類しません。
+     * @param index 要素のインデックス
+     * @param talkType 発言種別。分からなければ null
+     * @param speaker 発言者
+     */
+    private void addTalk(int index, TalkType talkType, Avatar speaker) {
+        talkBits.set(index);
+        if (talkType != null) {
+            getBits(talkTypeBitsMap, talkType).set(index);
+        }
+        getBits(speakerBitsMap, speaker).set(index);
+    }
+    
+    /**
+     * イベントを分類に加えます。
+     * イベント種別が分からないイベントは、どのイベント種別にも分類しません。
+     * @param index 要素のインデックス
+     * @param eventFamily イベント種別。分からなければ null
+     */
+    private void addEvent(int index, EventFamily eventFamily) {
+        eventBits.set(index);
+        if (eventFamily != null) {
+            getBits(eventFamilyBitsMap, eventFamily).set(index);
+        }
+    }
+    
+    /**
+     * 分類のキーに対応する BitSet を返します。なければ作成します。
+     * @param <K> 分類のキーの型
+     * @param bitsMap 分類のマップ
+     * @param key 分類のキー
+     * @return BitSet
+     */
+    private static <K> BitSet getBits(Map<K, BitSet> bitsMap, K key) {
+        BitSet bits = bitsMap.get(key);
+        if (bits == null) {
+            bits = new BitSet();
+            bitsMap.put(key, bits);
+        }
+        return bits;
+    }
+    
+    /**
+     * 分類のキーの組み合わせに対応する BitSet の論理和を求めます。
+     * @param <K> 分類のキーの型
+     * @param bitsMap 分類のマップ
+     * @param keys 分類のキーの組み合わせ
+     * @return 論理和
+     */
+    private static <K> BitSet unionBits(Map<K, BitSet> bitsMap, Set<K> keys) {
+        BitSet result = new BitSet();
+        for (K key : keys) {
+            BitSet bits = bitsMap.get(key);
+            if (bits != null) {
+                result.or(bits);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 分類した要素のリストを返します。
+     * @return 要素のリスト
+     */
+    public List<StoryElement> getStoryElements() {
+        return storyElements;
+    }
+    
+    /**
+     * フィルタにマッチする要素を求めます。
+     * @param talkTypeFilter 表示する発言種別の組み合わせ。発言種別によるフィルタを行わないなら null
+     * @param eventFamilyFilter 表示するイベント種別の組み合わせ。イベント種別によるフィルタを行わないなら null
+     * @param speakerFilter 表示する発言者の組み合わせ。発言者によるフィルタを行わないなら null
+     * @return マッチする要素のインデックスのビットを立てた BitSet
+     */
+    public BitSet evaluate(Set<TalkType> talkTypeFilter, Set<EventFamily> eventFamilyFilter, Set<Avatar> speakerFilter) {
+        BitSet result = (talkTypeFilter != null) ? unionBits(talkTypeBitsMap, talkTypeFilter) : (BitSet)talkBits.clone();
+        if (speakerFilter != null) {
+            result.and(unionBits(speakerBitsMap, speakerFilter));
+        }
+        result.or((eventFamilyFilter != null) ? unionBits(eventFamilyBitsMap, eventFamilyFilter) : eventBits);
+        return result;
+    }
+    
+    /**
+     * 発言種別に該当する要素の数を返します。
+     * @param talkType 発言種別
+     * @return 要素の数
+     */
+    public int getTalkTypeCount(TalkType talkType) {
+        BitSet bits = talkTypeBitsMap.get(talkType);
+        return (bits != null) ? bits.cardinality() : 0;
+    }
+    
+    /**
+     * イベント種別に該当する要素の数を返します。
+     * @param eventFamily イベント種別
+     * @return 要素の数
+     */
+    public int getEventFamilyCount(EventFamily eventFamily) {
+        BitSet bits = eventFamilyBitsMap.get(eventFamily);
+        return (bits != null) ? bits.cardinality() : 0;
+    }
+    
+    /**
+     * 発言者の発言の数を返します。
+     * @param speaker 発言者
+     * @return 発言の数
+     */
+    public int getSpeakerCount(Avatar speaker) {
+        BitSet bits = speakerBitsMap.get(speaker);
+        return (bits != null) ? bits.cardinality() : 0;
+    }
+}
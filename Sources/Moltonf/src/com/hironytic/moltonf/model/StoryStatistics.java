@@ -0,0 +1,250 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hironytic.moltonf.model.columnar.ColumnarElementList;
+
+/**
+ * ストーリーの発言を、period ごと、人物ごと、発言種別ごとに集計するクラス。
+ *
+ * 集計結果は period ごとに int の配列で保持するので、
+ * 一度集計した period の値は要素のリストをたどらずに取得できます。
+ * period の要素のリストが読み込み直されたら、update() を呼び出したときに集計し直します。
+ * 複数のスレッドから同時に使うことができます。
+ */
+public class StoryStatistics {
+
+    /** 発言種別の数 */
+    private static final int TALK_TYPE_COUNT = TalkType.values().length;
+    
+    /** 集計するストーリー */
+    private final Story story;
+    
+    /** 人物から、人物ごとの配列でのインデックスを得るためのマップ */
+    private final Map<Avatar, Integer> avatarIndexMap = new IdentityHashMap<Avatar, Integer>();
+    
+    /** 人物の数 */
+    private final int avatarCount;
+    
+    /**
+     * 各 period を集計したときの要素のリストへの弱参照。集計していなければ null。
+     * 遅延読み込みの period の要素を解放できるように、リストそのものは保持しない
+     */
+    private WeakReference<?>[] countedElementRefs = new WeakReference<?>[0];
+    
+    /** 各 period の発言の数 */
+    private int[] periodTalkCounts = new int[0];
+    
+    /** 各 period の発言の文字数 */
+    private int[] periodCharCounts = new int[0];
+    
+    /** 各 period の人物ごとの発言の数 */
+    private int[][] avatarTalkCounts = new int[0][];
+    
+    /** 各 period の人物ごとの発言の文字数 */
+    private int[][] avatarCharCounts = new int[0][];
+    
+    /** 各 period の発言種別ごとの発言の数 */
+    private int[][] talkTypeCounts = new int[0][];
+    
+    /**
+     * コンストラクタ
+     * @param story 集計するストーリー
+     */
+    public StoryStatistics(Story story) {
+        this.story = story;
+        List<Avatar> avatarList = story.getAvatarList();
+        avatarCount = avatarList.size();
+        for (int ix = 0; ix < avatarCount; ++ix) {
+            avatarIndexMap.put(avatarList.get(ix), ix);
+        }
+    }
+    
+    /**
+     * period を集計します。
+     * 既に現在の要素のリストを集計してあれば何もしません。
+     * @param periodIndex period のインデックス
+     */
+    public synchronized void update(int periodIndex) {
+        List<StoryElement> storyElements = story.getPeriods().get(periodIndex).getStoryElements();
+        ensureCapacity(periodIndex + 1);
+        if (countedElementRefs[periodIndex] != null && countedElementRefs[periodIndex].get() == storyElements) {
+            return;
+        }
+        
+        int talkCount = 0;
+        int charCount = 0;
+        int[] avatarTalks = new int[avatarCount];
+        int[] avatarChars = new int[avatarCount];
+        int[] talkTypes = new int[TALK_TYPE_COUNT];
+        int elementsCount = storyElements.size();
+        ColumnarElementList columns = (storyElements instanceof ColumnarElementList) ? (ColumnarElementList)storyElements : null;
+        for (int index = 0; index < elementsCount; ++index) {
+            TalkType talkType;
+            Avatar speaker;
+            int messageCharCount;
+            if (columns != null) {
+                // 要素のオブジェクトを作らずに、配列から直接集計する
+                if (!columns.isTalk(index)) {
+                    continue;
+                }
+                talkType = columns.getTalkType(index);
+                speaker = columns.getSpeaker(index);
+                messageCharCount = columns.getMessageCharCount(index);
+            } else {
+                StoryElement element = storyElements.get(index);
+                if (!(element instanceof Talk)) {
+                    continue;
+                }
+                Talk talk = (Talk)element;
+                talkType = talk.getTalkType();
+                speaker = talk.getSpeaker();
+                messageCharCount = 0;
+                for (String line : talk.getMessageLines()) {
+                    messageCharCount += line.length();
+                }
+            }
+            
+            ++talkCount;
+            charCount += messageCharCount;
+            if (talkType != null) {
+                ++talkTypes[talkType.ordinal()];
+            }
+            Integer avatarIndex = avatarIndexMap.get(speaker);
+            if (avatarIndex != null) {
+                ++avatarTalks[avatarIndex];
+                avatarChars[avatarIndex] += messageCharCount;
+            }
+        }
+        
+        countedElementRefs[periodIndex] = new WeakReference<List<StoryElement>>(storyElements);
+        periodTalkCounts[periodIndex] = talkCount;
+        periodCharCounts[periodIndex] = charCount;
+        avatarTalkCounts[periodIndex] = avatarTalks;
+        avatarCharCounts[periodIndex] = avatarChars;
+        talkTypeCounts[periodIndex] = talkTypes;
+    }
+    
+    /**
+     * 集計結果を保持する配列を、period の数に合わせて広げます。
+     * @param periodCount period の数
+     */
+    private void ensureCapacity(int periodCount) {
+        if (countedElementRefs.length >= periodCount) {
+            return;
+        }
+        countedElementRefs = Arrays.copyOf(countedElementRefs, periodCount);
+        periodTalkCounts = Arrays.copyOf(periodTalkCounts, periodCount);
+        periodCharCounts = Arrays.copyOf(periodCharCounts, periodCount);
+        avatarTalkCounts = Arrays.copyOf(avatarTalkCounts, periodCount);
+        avatarCharCounts = Arrays.copyOf(avatarCharCounts, periodCount);
+        talkTypeCounts = Arrays.copyOf(talkTypeCounts, periodCount);
+    }
+    
+    /**
+     * period を集計してあるかどうかを返します。
+     * @param periodIndex period のインデックス
+     * @return 集計してあれば true
+     */
+    public synchronized boolean isCounted(int periodIndex) {
+        return periodIndex < avatarTalkCounts.length && avatarTalkCounts[periodIndex] != null;
+    }
+    
+    /**
+     * period の発言の数を返します。
+     * @param periodIndex period のインデックス
+     * @return 発言の数。集計していなければ 0
+     */
+    public synchronized int getTalkCount(int periodIndex) {
+        return isCounted(periodIndex) ? periodTalkCounts[periodIndex] : 0;
+    }
+    
+    /**
+     * period の発言の文字数を返します。
+     * @param periodIndex period のインデックス
+     * @return 文字数。集計していなければ 0
+     */
+    public synchronized int getCharCount(int periodIndex) {
+        return isCounted(periodIndex) ? periodCharCounts[periodIndex] : 0;
+    }
+    
+    /**
+     * period の人物の発言の数を返します。
+     * @param periodIndex period のインデックス
+     * @param avatar 人物
+     * @return 発言の数。集計していなければ 0
+     */
+    public synchronized int getTalkCount(int periodIndex, Avatar avatar) {
+        Integer avatarIndex = avatarIndexMap.get(avatar);
+        return (avatarIndex != null && isCounted(periodIndex)) ? avatarTalkCounts[periodIndex][avatarIndex] : 0;
+    }
+    
+    /**
+     * period の人物の発言の文字数を返します。
+     * @param periodIndex period のインデックス
+     * @param avatar 人物
+     * @return 文字数。集計していなければ 0
+     */
+    public synchronized int getCharCount(int periodIndex, Avatar avatar) {
+        Integer avatarIndex = avatarIndexMap.get(avatar);
+        return (avatarIndex != null && isCounted(periodIndex)) ? avatarCharCounts[periodIndex][avatarIndex] : 0;
+    }
+    
+    /**
+     * period の発言種別ごとの発言の数を返します。
+     * @param periodIndex period のインデックス
+     * @param talkType 発言種別
+     * @return 発言の数。集計していなければ 0
+     */
+    public synchronized int getTalkCount(int periodIndex, TalkType talkType) {
+        return isCounted(periodIndex) ? talkTypeCounts[periodIndex][talkType.ordinal()] : 0;
+    }
+    
+    /**
+     * 集計済みのすべての period での、人物の発言の数を返します。
+     * @param avatar 人物
+     * @return 発言の数
+     */
+    public synchronized int getTotalTalkCount(Avatar avatar) {
+        Integer avatarIndex = avatarIndexMap.get(avatar);
+        if (avatarIndex == null) {
+            return 0;
+        }
+        int total = 0;
+        for (int periodIndex = 0; periodIndex < avatarTalkCounts.length; ++periodIndex) {
+            if (avatarTalkCounts[periodIndex] != null) {
+                total += avatarTalkCounts[periodIndex][avatarIndex];
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,619 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hironytic.moltonf.model.Avatar;
+import com.hironytic.moltonf.model.EventFamily;
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.TalkType;
+import com.hironytic.moltonf.model.VillageState;
+import com.hironytic.moltonf.util.TimeParser;
+import com.hironytic.moltonf.util.TimePart;
+
+/**
+ * プレイデータアーカイブの索引。
+ * village 要素の属性、登場人物の一覧、各 period と各要素の位置、
+ * および発言の種別・発言者・時刻をコンパクトなバイナリ形式で保持します。
+ * ファイルに保存しておけば、次回以降は XML を解析せずにストーリーを開くことができます。
+ * period 中の要素のインデックスは、StoryPeriod#getStoryElements() で得られるリストのものと一致します。
+ */
+public class ArchiveIndex {
+
+    /** 索引ファイルの先頭を示す値 ("MTFI") */
+    private static final int MAGIC = 0x4d544649;
+
+    /** 索引ファイルの形式のバージョン */
+    private static final int FORMAT_VERSION = 2;
+
+    /** 要素の種類: 発言 */
+    public static final int KIND_TALK = 0;
+
+    /** 要素の種類: 襲撃 */
+    public static final int KIND_ASSAULT = 1;
+
+    /** 要素の種類: イベント */
+    public static final int KIND_EVENT = 2;
+
+    /** 発言者がいないことを示すインデックス */
+    public static final int NO_SPEAKER = -1;
+
+    /** 時刻がないことを示す値 */
+    private static final int NO_TIME = -1;
+
+    /** 種別がないことを示す値 */
+    private static final byte NO_CODE = -1;
+
+    /** 各要素の位置 */
+    private ArchiveLayout layout;
+
+    /** アーカイブファイルの先頭から最初の period までのチェックサム */
+    private long headerChecksum;
+
+    /** ドキュメントのベース URI */
+    private String baseUri;
+
+    /** 村のフルネーム */
+    private String villageFullName;
+
+    /** 村の状態 (VillageState の名前) */
+    private String villageState;
+
+    /** 墓アイコン画像の URI */
+    private String graveIconUri;
+
+    /** 登場人物の識別子 */
+    private String[] avatarIds;
+
+    /** 登場人物のフルネーム */
+    private String[] avatarFullNames;
+
+    /** 登場人物の短い名前 */
+    private String[] avatarShortNames;
+
+    /** 登場人物の顔画像の URI */
+    private String[] avatarFaceIconUris;
+
+    /** 各 period の最初の要素のインデックス。最後に要素の総数が入ります。 */
+    private int[] periodFirstElements;
+
+    /** 各要素の開始バイト位置 */
+    private long[] elementStarts;
+
+    /** 各要素の種類 */
+    private byte[] elementKinds;
+
+    /** 各要素の発言種別またはイベント種別の序数 */
+    private byte[] elementCodes;
+
+    /** 各要素の発言者のインデックス */
+    private short[] elementSpeakers;
+
+    /** 各要素の時刻 (午前 0 時からの経過ミリ秒) */
+    private int[] elementTimes;
+
+    /**
+     * コンストラクタ
+     */
+    private ArchiveIndex() {
+    }
+
+    /**
+     * 索引に含まれる period の数を返します。
+     * @return period の数
+     */
+    public int getPeriodCount() {
+        return periodFirstElements.length - 1;
+    }
+
+    /**
+     * period に含まれる要素の数を返します。
+     * @param periodIndex period のインデックス
+     * @return 要素の数
+     */
+    public int getElementCount(int periodIndex) {
+        return periodFirstElements[periodIndex + 1] - periodFirstElements[periodIndex];
+    }
+
+    /**
+     * 要素の種類を返します。
+     * @param periodIndex period のインデックス
+     * @param elementIndex period 中での要素のインデックス
+     * @return KIND_TALK, KIND_ASSAULT, KIND_EVENT のいずれか
+     */
+    public int getElementKind(int periodIndex, int elementIndex) {
+        return elementKinds[periodFirstElements[periodIndex] + elementIndex];
+    }
+
+    /**
+     * 要素のアーカイブファイル中での開始バイト位置を返します。
+     * @param periodIndex period のインデックス
+     * @param elementIndex period 中での要素のインデックス
+     * @return 開始バイト位置
+     */
+    public long getElementStart(int periodIndex, int elementIndex) {
+        return elementStarts[periodFirstElements[periodIndex] + elementIndex];
+    }
+
+    /**
+     * 発言の種別を返します。
+     * @param periodIndex period のインデックス
+     * @param elementIndex period 中での要素のインデックス
+     * @return 発言の種別。発言でなければ null。
+     */
+    public TalkType getTalkType(int periodIndex, int elementIndex) {
+        int ix = periodFirstElements[periodIndex] + elementIndex;
+        if ((elementKinds[ix] != KIND_TALK && elementKinds[ix] != KIND_ASSAULT) || elementCodes[ix] == NO_CODE) {
+            return null;
+        }
+        return TalkType.values()[elementCodes[ix]];
+    }
+
+    /**
+     * イベントの種別を返します。
+     * @param periodIndex period のインデックス
+     * @param elementIndex period 中での要素のインデックス
+     * @return イベントの種別。イベントでなければ null。
+     */
+    public EventFamily getEventFamily(int periodIndex, int elementIndex) {
+        int ix = periodFirstElements[periodIndex] + elementIndex;
+        if (elementKinds[ix] != KIND_EVENT || elementCodes[ix] == NO_CODE) {
+            return null;
+        }
+        return EventFamily.values()[elementCodes[ix]];
+    }
+
+    /**
+     * 発言者の、登場人物リスト中でのインデックスを返します。
+     * @param periodIndex period のインデックス
+     * @param elementIndex period 中での要素のインデックス
+     * @return 発言者のインデックス。発言者がいなければ NO_SPEAKER。
+     */
+    public int getSpeakerIndex(int periodIndex, int elementIndex) {
+        return elementSpeakers[periodFirstElements[periodIndex] + elementIndex];
+    }
+
+    /**
+     * 発言の時刻を返します。
+     * @param periodIndex period のインデックス
+     * @param elementIndex period 中での要素のインデックス
+     * @return 時刻。時刻を持たない要素なら null。
+     */
+    public TimePart getTime(int periodIndex, int elementIndex) {
+        int time = elementTimes[periodFirstElements[periodIndex] + elementIndex];
+        return (time == NO_TIME) ? null : TimePart.valueOf(time);
+    }
+
+    /**
+     * 各要素の位置を返します。
+     * @return 各要素の位置
+     */
+    ArchiveLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * アーカイブファイルの先頭から最初の period までのチェックサムを返します。
+     * @return チェックサム
+     */
+    long getHeaderChecksum() {
+        return headerChecksum;
+    }
+
+    /**
+     * ドキュメントのベース URI を返します。
+     * @return ベース URI。なければ null。
+     */
+    String getBaseUri() {
+        return baseUri;
+    }
+
+    /**
+     * 村のフルネームを返します。
+     * @return 村のフルネーム
+     */
+    String getVillageFullName() {
+        return villageFullName;
+    }
+
+    /**
+     * 村の状態を返します。
+     * @return 村の状態。なければ null。
+     */
+    VillageState getVillageState() {
+        return (villageState == null) ? null : VillageState.valueOf(villageState);
+    }
+
+    /**
+     * 墓アイコン画像の URI を返します。
+     * @return 墓アイコン画像の URI。なければ null。
+     */
+    String getGraveIconUri() {
+        return graveIconUri;
+    }
+
+    /**
+     * 登場人物の数を返します。
+     * @return 登場人物の数
+     */
+    int getAvatarCount() {
+        return avatarIds.length;
+    }
+
+    /**
+     * 登場人物の識別子を返します。
+     * @param avatarIndex 登場人物のインデックス
+     * @return 識別子
+     */
+    String getAvatarId(int avatarIndex) {
+        return avatarIds[avatarIndex];
+    }
+
+    /**
+     * 登場人物のフルネームを返します。
+     * @param avatarIndex 登場人物のインデックス
+     * @return フルネーム
+     */
+    String getAvatarFullName(int avatarIndex) {
+        return avatarFullNames[avatarIndex];
+    }
+
+    /**
+     * 登場人物の短い名前を返します。
+     * @param avatarIndex 登場人物のインデックス
+     * @return 短い名前
+     */
+    String getAvatarShortName(int avatarIndex) {
+        return avatarShortNames[avatarIndex];
+    }
+
+    /**
+     * 登場人物の顔画像の URI を返します。
+     * @param avatarIndex 登場人物のインデックス
+     * @return 顔画像の URI。なければ null。
+     */
+    String getAvatarFaceIconUri(int avatarIndex) {
+        return avatarFaceIconUris[avatarIndex];
+    }
+
+    /**
+     * 索引ファイルを読み込みます。
+     * @param indexFile 索引ファイル
+     * @return 読み込んだ索引。形式が異なるファイルであれば null。
+     * @throws IOException 読み込みに失敗した場合
+     */
+    public static ArchiveIndex read(File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            ArchiveIndex index = new ArchiveIndex();
+            ArchiveLayout layout = new ArchiveLayout();
+            layout.setFileLength(in.readLong());
+            layout.setLastModified(in.readLong());
+            index.headerChecksum = in.readLong();
+            layout.setVillageTagName(readString(in));
+            layout.setVillageStartTagEnd(in.readLong());
+            layout.setVillageEndTagStart(in.readLong());
+            index.layout = layout;
+
+            index.baseUri = readString(in);
+            index.villageFullName = readString(in);
+            index.villageState = readString(in);
+            index.graveIconUri = readString(in);
+
+            int avatarCount = in.readInt();
+            index.avatarIds = new String[avatarCount];
+            index.avatarFullNames = new String[avatarCount];
+            index.avatarShortNames = new String[avatarCount];
+            index.avatarFaceIconUris = new String[avatarCount];
+            for (int ix = 0; ix < avatarCount; ++ix) {
+                index.avatarIds[ix] = readString(in);
+                index.avatarFullNames[ix] = readString(in);
+                index.avatarShortNames[ix] = readString(in);
+                index.avatarFaceIconUris[ix] = readString(in);
+            }
+
+            int periodCount = in.readInt();
+            index.periodFirstElements = new int[periodCount + 1];
+            for (int ix = 0; ix < periodCount; ++ix) {
+                long start = in.readLong();
+                long end = in.readLong();
+                long checksum = in.readLong();
+                layout.addPeriod(start, end, checksum);
+                index.periodFirstElements[ix] = in.readInt();
+            }
+
+            int elementCount = in.readInt();
+            index.periodFirstElements[periodCount] = elementCount;
+            index.elementStarts = new long[elementCount];
+            index.elementKinds = new byte[elementCount];
+            index.elementCodes = new byte[elementCount];
+            index.elementSpeakers = new short[elementCount];
+            index.elementTimes = new int[elementCount];
+            for (int ix = 0; ix < elementCount; ++ix) {
+                index.elementStarts[ix] = in.readLong();
+                index.elementKinds[ix] = in.readByte();
+                index.elementCodes[ix] = in.readByte();
+                index.elementSpeakers[ix] = in.readShort();
+                index.elementTimes[ix] = in.readInt();
+            }
+            return index;
+        } catch (EOFException ex) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 索引をファイルに書き込みます。
+     * いったん一時ファイルに書き込んでから置き換えるので、途中で失敗しても壊れた索引は残りません。
+     * @param indexFile 索引ファイル
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void write(File indexFile) throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(layout.getFileLength());
+            out.writeLong(layout.getLastModified());
+            out.writeLong(headerChecksum);
+            writeString(out, layout.getVillageTagName());
+            out.writeLong(layout.getVillageStartTagEnd());
+            out.writeLong(layout.getVillageEndTagStart());
+
+            writeString(out, baseUri);
+            writeString(out, villageFullName);
+            writeString(out, villageState);
+            writeString(out, graveIconUri);
+
+            out.writeInt(avatarIds.length);
+            for (int ix = 0; ix < avatarIds.length; ++ix) {
+                writeString(out, avatarIds[ix]);
+                writeString(out, avatarFullNames[ix]);
+                writeString(out, avatarShortNames[ix]);
+                writeString(out, avatarFaceIconUris[ix]);
+            }
+
+            int periodCount = getPeriodCount();
+            out.writeInt(periodCount);
+            for (int ix = 0; ix < periodCount; ++ix) {
+                out.writeLong(layout.getPeriodStart(ix));
+                out.writeLong(layout.getPeriodEnd(ix));
+                out.writeLong(layout.getPeriodChecksum(ix));
+                out.writeInt(periodFirstElements[ix]);
+            }
+
+            int elementCount = periodFirstElements[periodCount];
+            out.writeInt(elementCount);
+            for (int ix = 0; ix < elementCount; ++ix) {
+                out.writeLong(elementStarts[ix]);
+                out.writeByte(elementKinds[ix]);
+                out.writeByte(elementCodes[ix]);
+                out.writeShort(elementSpeakers[ix]);
+                out.writeInt(elementTimes[ix]);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (indexFile.exists() && !indexFile.delete()) {
+            tempFile.delete();
+            throw new IOException("failed to replace index file : " + indexFile.getPath());
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            tempFile.delete();
+            throw new IOException("failed to rename index file : " + tempFile.getPath());
+        }
+    }
+
+    /**
+     * null を許す文字列を書き込みます。
+     * @param out 出力先
+     * @param value 文字列
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * writeString() で書き込んだ文字列を読み込みます。
+     * @param in 入力元
+     * @return 文字列
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * アーカイブファイルを走査しながら索引を作成するクラス
+     */
+    static class Builder implements ArchiveScanner.ElementListener {
+
+        /** 要素の数 */
+        private int elementCount = 0;
+
+        /** 各要素が含まれる period のインデックス */
+        private int[] periodIndices = new int[256];
+
+        /** 各要素の開始バイト位置 */
+        private long[] starts = new long[256];
+
+        /** 各要素の種類 */
+        private byte[] kinds = new byte[256];
+
+        /** 各要素の発言種別またはイベント種別の序数 */
+        private byte[] codes = new byte[256];
+
+        /** 各要素の発言者の識別子 */
+        private String[] speakerIds = new String[256];
+
+        /** 各要素の時刻 */
+        private int[] times = new int[256];
+
+        /**
+         * @see com.hironytic.moltonf.model.archive.ArchiveScanner.ElementListener#elementFound(int, long, java.lang.String, java.util.Map)
+         */
+        @Override
+        public void elementFound(int periodIndex, long start, String localName, Map<String, String> attributes) {
+            byte kind;
+            byte code = NO_CODE;
+            String speakerId = null;
+            String timeString = null;
+            int elemCode = SchemaNameTable.elementCode(SchemaConstants.NS_ARCHIVE, localName);
+            if (elemCode == SchemaNameTable.ELEM_TALK) {
+                kind = KIND_TALK;
+                TalkType talkType = ArchivedStoryLoader.toTalkType(attributes.get(SchemaConstants.NAME_TYPE.getLocalPart()));
+                if (talkType != null) {
+                    code = (byte)talkType.ordinal();
+                }
+                speakerId = attributes.get(SchemaConstants.NAME_AVATAR_ID.getLocalPart());
+                timeString = attributes.get(SchemaConstants.NAME_TIME.getLocalPart());
+            } else if (elemCode == SchemaNameTable.ELEM_ASSAULT) {
+                kind = KIND_ASSAULT;
+                code = (byte)TalkType.WOLF.ordinal();
+                speakerId = attributes.get(SchemaConstants.NAME_BY_WHOM.getLocalPart());
+                timeString = attributes.get(SchemaConstants.NAME_TIME.getLocalPart());
+            } else {
+                EventFamily eventFamily = SchemaNameTable.toEventFamily(elemCode);
+                if (eventFamily == null) {
+                    return;     // StoryElement として読み込まれない要素
+                }
+                kind = KIND_EVENT;
+                code = (byte)eventFamily.ordinal();
+            }
+
+            int time = NO_TIME;
+            if (timeString != null) {
+                TimePart timePart = TimeParser.parse(timeString);
+                if (timePart != null) {
+                    time = timePart.getMilliseconds();
+                }
+            }
+
+            if (elementCount == starts.length) {
+                int newLength = elementCount * 2;
+                periodIndices = Arrays.copyOf(periodIndices, newLength);
+                starts = Arrays.copyOf(starts, newLength);
+                kinds = Arrays.copyOf(kinds, newLength);
+                codes = Arrays.copyOf(codes, newLength);
+                speakerIds = Arrays.copyOf(speakerIds, newLength);
+                times = Arrays.copyOf(times, newLength);
+            }
+
+            periodIndices[elementCount] = periodIndex;
+            starts[elementCount] = start;
+            kinds[elementCount] = kind;
+            codes[elementCount] = code;
+            speakerIds[elementCount] = speakerId;
+            times[elementCount] = time;
+            ++elementCount;
+        }
+
+        /**
+         * 走査と village 要素の読み込みの結果から索引を作成します。
+         * @param layout 走査の結果
+         * @param headerChecksum アーカイブファイルの先頭から最初の period までのチェックサム
+         * @param story village 要素の属性と登場人物を読み込んだ Story
+         * @param baseUri ドキュメントのベース URI
+         * @return 作成した索引
+         */
+        ArchiveIndex build(ArchiveLayout layout, long headerChecksum, Story story, URI baseUri) {
+            ArchiveIndex index = new ArchiveIndex();
+            index.layout = layout;
+            index.headerChecksum = headerChecksum;
+            index.baseUri = (baseUri != null) ? baseUri.toString() : null;
+            index.villageFullName = story.getVillageFullName();
+            index.villageState = (story.getVillageState() != null) ? story.getVillageState().name() : null;
+            index.graveIconUri = (story.getGraveIconUri() != null) ? story.getGraveIconUri().toString() : null;
+
+            List<Avatar> avatarList = story.getAvatarList();
+            int avatarCount = (avatarList != null) ? avatarList.size() : 0;
+            index.avatarIds = new String[avatarCount];
+            index.avatarFullNames = new String[avatarCount];
+            index.avatarShortNames = new String[avatarCount];
+            index.avatarFaceIconUris = new String[avatarCount];
+            Map<String, Integer> avatarIndexMap = new HashMap<String, Integer>();
+            for (int ix = 0; ix < avatarCount; ++ix) {
+                Avatar avatar = avatarList.get(ix);
+                index.avatarIds[ix] = avatar.getAvatarId();
+                index.avatarFullNames[ix] = avatar.getFullName();
+                index.avatarShortNames[ix] = avatar.getShortName();
+                index.avatarFaceIconUris[ix] = (avatar.getFaceIconUri() != null) ? avatar.getFaceIconUri().toString() : null;
+                avatarIndexMap.put(avatar.getAvatarId(), ix);
+            }
+
+            int periodCount = layout.getPeriodCount();
+            index.periodFirstElements = new int[periodCount + 1];
+            int periodIndex = 0;
+            for (int ix = 0; ix < elementCount; ++ix) {
+                while (periodIndex < periodIndices[ix]) {
+                    ++periodIndex;
+                    index.periodFirstElements[periodIndex] = ix;
+                }
+            }
+            while (periodIndex < periodCount) {
+                ++periodIndex;
+                index.periodFirstElements[periodIndex] = elementCount;
+            }
+
+            index.elementStarts = Arrays.copyOf(starts, elementCount);
+            index.elementKinds = Arrays.copyOf(kinds, elementCount);
+            index.elementCodes = Arrays.copyOf(codes, elementCount);
+            index.elementTimes = Arrays.copyOf(times, elementCount);
+            index.elementSpeakers = new short[elementCount];
+            for (int ix = 0; ix < elementCount; ++ix) {
+                Integer speakerIndex = (speakerIds[ix] != null) ? avatarIndexMap.get(speakerIds[ix]) : null;
+                index.elementSpeakers[ix] = (short)((speakerIndex != null) ? speakerIndex.intValue() : NO_SPEAKER);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.util.Arrays;
+
+/**
+ * プレイデータアーカイブのファイル中で、各要素がどのバイト位置にあるかを保持するクラス
+ */
+class ArchiveLayout {
+
+    /** 解析したときのファイルサイズ */
+    private long fileLength;
+
+    /** 解析したときのファイルの最終更新日時 */
+    private long lastModified;
+
+    /** village 要素の (接頭辞付きの) 要素名 */
+    private String villageTagName;
+
+    /** village 要素の開始タグの直後のバイト位置 */
+    private long villageStartTagEnd = -1;
+
+    /** village 要素の終了タグの開始バイト位置 */
+    private long villageEndTagStart = -1;
+
+    /** period 要素の数 */
+    private int periodCount = 0;
+
+    /** 各 period 要素の開始バイト位置 */
+    private long[] periodStarts = new long[16];
+
+    /** 各 period 要素の終了バイト位置 (終了タグの直後) */
+    private long[] periodEnds = new long[16];
+
+    /** 各 period 要素のバイト列の CRC32 */
+    private long[] periodChecksums = new long[16];
+
+    /**
+     * コンストラクタ
+     */
+    ArchiveLayout() {
+    }
+
+    /**
+     * 解析したときのファイルサイズを返します。
+     * @return ファイルサイズ
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * 解析したときのファイルサイズをセットします。
+     * @param fileLength ファイルサイズ
+     */
+    public void setFileLength(long fileLength) {
+        this.fileLength = fileLength;
+    }
+
+    /**
+     * 解析したときのファイルの最終更新日時を返します。
+     * @return 最終更新日時
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * 解析したときのファイルの最終更新日時をセットします。
+     * @param lastModified 最終更新日時
+     */
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * village 要素の (接頭辞付きの) 要素名を返します。
+     * @return village 要素の要素名。見つからなかった場合は null。
+     */
+    public String getVillageTagName() {
+        return villageTagName;
+    }
+
+    /**
+     * village 要素の (接頭辞付きの) 要素名をセットします。
+     * @param villageTagName village 要素の要素名
+     */
+    public void setVillageTagName(String villageTagName) {
+        this.villageTagName = villageTagName;
+    }
+
+    /**
+     * village 要素の開始タグの直後のバイト位置を返します。
+     * @return village 要素の開始タグの直後のバイト位置
+     */
+    public long getVillageStartTagEnd() {
+        return villageStartTagEnd;
+    }
+
+    /**
+     * village 要素の開始タグの直後のバイト位置をセットします。
+     * @param villageStartTagEnd village 要素の開始タグの直後のバイト位置
+     */
+    public void setVillageStartTagEnd(long villageStartTagEnd) {
+        this.villageStartTagEnd = villageStartTagEnd;
+    }
+
+    /**
+     * village 要素の終了タグの開始バイト位置を返します。
+     * @return village 要素の終了タグの開始バイト位置。見つからなかった場合は -1。
+     */
+    public long getVillageEndTagStart() {
+        return villageEndTagStart;
+    }
+
+    /**
+     * village 要素の終了タグの開始バイト位置をセットします。
+     * @param villageEndTagStart village 要素の終了タグの開始バイト位置
+     */
+    public void setVillageEndTagStart(long villageEndTagStart) {
+        this.villageEndTagStart = villageEndTagStart;
+    }
+
+    /**
+     * period 要素の数を返します。
+     * @return period 要素の数
+     */
+    public int getPeriodCount() {
+        return periodCount;
+    }
+
+    /**
+     * period 要素の開始バイト位置を返します。
+     * @param index period のインデックス
+     * @return 開始バイト位置
+     */
+    public long getPeriodStart(int index) {
+        return periodStarts[index];
+    }
+
+    /**
+     * period 要素の終了バイト位置 (終了タグの直後) を返します。
+     * @param index period のインデックス
+     * @return 終了バイト位置
+     */
+    public long getPeriodEnd(int index) {
+        return periodEnds[index];
+    }
+
+    /**
+     * period 要素のバイト列 (開始位置から終了位置まで) の CRC32 を返します。
+     * ファイルが更新されたときに、内容の変わっていない period を見分けるのに用います。
+     * @param index period のインデックス
+     * @return CRC32 の値
+     */
+    public long getPeriodChecksum(int index) {
+        return periodChecksums[index];
+    }
+
+    /**
+     * period 要素の位置を追加します。
+     * @param start 開始バイト位置
+     * @param end 終了バイト位置 (終了タグの直後)
+     * @param checksum 開始位置から終了位置までのバイト列の CRC32
+     */
+    public void addPeriod(long start, long end, long checksum) {
+        if (periodCount == periodStarts.length) {
+            periodStarts = Arrays.copyOf(periodStarts, periodCount * 2);
+            periodEnds = Arrays.copyOf(periodEnds, periodCount * 2);
+            periodChecksums = Arrays.copyOf(periodChecksums, periodCount * 2);
+        }
+        periodStarts[periodCount] = start;
+        periodEnds[periodCount] = end;
+        periodChecksums[periodCount] = checksum;
+        ++periodCount;
+    }
+
+    /**
+     * village 要素の開始タグと終了タグが揃っていて、部分的な読み込みに使えるかどうかを返します。
+     * @return 部分的な読み込みに使えるなら true
+     */
+    public boolean isComplete() {
+        return villageTagName != null && villageStartTagEnd >= 0 && villageEndTagStart >= 0;
+    }
+
+    /**
+     * 指定した period 要素のバイト列が、別の走査結果のものと同じかどうかを調べます。
+     * 長さと CRC32 で比べるので、位置がずれていても内容が同じなら同じとみなします。
+     * @param index period のインデックス
+     * @param other 比べる走査結果
+     * @param otherIndex 比べる走査結果での period のインデックス
+     * @return 同じなら true
+     */
+    public boolean isSamePeriod(int index, ArchiveLayout other, int otherIndex) {
+        return periodEnds[index] - periodStarts[index] == other.periodEnds[otherIndex] - other.periodStarts[otherIndex]
+                && periodChecksums[index] == other.periodChecksums[otherIndex];
+    }
+}
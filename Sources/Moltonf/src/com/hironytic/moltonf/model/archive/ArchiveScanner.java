@@ -0,0 +1,543 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * プレイデータアーカイブのファイルをバイト列のまま走査して、
+ * village 要素直下の period 要素の位置を調べるクラス。
+ *
+ * XML としての解析は行わず、タグの区切りだけを見て要素の入れ子を追跡します。
+ * 名前空間の確認は、得られた範囲を後で StAX で読み込むときに行われます。
+ * 各 period 要素のバイト列の CRC32 も、走査しながらあわせて計算します。
+ * UTF-8 (または US-ASCII) 以外のエンコーディングのファイルは扱いません。
+ */
+class ArchiveScanner {
+
+    /**
+     * period 要素直下の要素が見つかったことを受け取るインタフェース
+     */
+    public interface ElementListener {
+        /**
+         * period 要素直下の要素が見つかったときに呼び出されます。
+         * @param periodIndex 要素を含む period のインデックス
+         * @param start 要素の開始バイト位置
+         * @param localName 要素のローカル名
+         * @param attributes 接頭辞のない属性の名前と値のマップ
+         */
+        public void elementFound(int periodIndex, long start, String localName, Map<String, String> attributes);
+    }
+
+    /** 読み込みバッファのサイズ */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** XML 宣言からエンコーディングを取り出すためのパターン */
+    private static final Pattern ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+
+    /** 入力ストリーム */
+    private final InputStream inStream;
+
+    /** 読み込みバッファ */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /** バッファ中の有効なバイト数 */
+    private int bufferLength = 0;
+
+    /** バッファ中の次に読むバイトの位置 */
+    private int bufferPos = 0;
+
+    /** バッファの先頭のファイル中でのバイト位置 */
+    private long bufferBase = 0;
+
+    /** 直前に読んだバイト */
+    private int lastByte = -1;
+
+    /** period 要素直下の要素を通知する先。通知しないなら null */
+    private final ElementListener elementListener;
+
+    /** period 要素のバイト列の CRC32 */
+    private final CRC32 periodCrc = new CRC32();
+
+    /** バッファ中で、まだ CRC32 に加えていない部分の先頭の位置。計算していなければ -1 */
+    private int crcPos = -1;
+
+    /**
+     * ファイルを走査して、period 要素の位置を調べます。
+     * @param archiveFile プレイデータアーカイブのファイル
+     * @return 走査結果。扱えないエンコーディングの場合は null。
+     * @throws IOException 読み込みに失敗した場合
+     */
+    public static ArchiveLayout scan(File archiveFile) throws IOException {
+        return scan(archiveFile, null);
+    }
+
+    /**
+     * ファイルを走査して、period 要素の位置を調べます。
+     * period 要素直下の各要素は、その属性とともに elementListener に通知されます。
+     * @param archiveFile プレイデータアーカイブのファイル
+     * @param elementListener period 要素直下の要素を通知する先。通知しないなら null
+     * @return 走査結果。扱えないエンコーディングの場合は null。
+     * @throws IOException 読み込みに失敗した場合
+     */
+    public static ArchiveLayout scan(File archiveFile, ElementListener elementListener) throws IOException {
+        long fileLength = archiveFile.length();
+        long lastModified = archiveFile.lastModified();
+        InputStream inStream = new FileInputStream(archiveFile);
+        try {
+            ArchiveLayout layout = new ArchiveScanner(inStream, elementListener).doScan();
+            if (layout != null) {
+                layout.setFileLength(fileLength);
+                layout.setLastModified(lastModified);
+            }
+            return layout;
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * コンストラクタ
+     * @param inStream 入力ストリーム
+     * @param elementListener period 要素直下の要素を通知する先
+     */
+    private ArchiveScanner(InputStream inStream, ElementListener elementListener) {
+        this.inStream = inStream;
+        this.elementListener = elementListener;
+    }
+
+    /**
+     * 走査を行います。(内部メソッド)
+     * @return 走査結果。扱えないエンコーディングの場合は null。
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private ArchiveLayout doScan() throws IOException {
+        ArchiveLayout layout = new ArchiveLayout();
+
+        // UTF-16 や UTF-32 は扱わない
+        int firstByte = read();
+        if (firstByte == 0x00 || firstByte == 0xfe || firstByte == 0xff) {
+            return null;
+        }
+
+        int depth = 0;
+        long periodStart = -1;
+        int c = firstByte;
+        while (c >= 0) {
+            if (c != '<') {
+                c = read();
+                continue;
+            }
+
+            long tagStart = getPosition() - 1;
+            if (depth == 1 && periodStart < 0) {
+                // period 要素かもしれないので、タグの先頭から CRC32 を計算しておく
+                startChecksum();
+            }
+            c = read();
+            if (c == '?') {
+                String pi = readUntil("?>");
+                if (depth == 0 && pi.startsWith("xml") && !isSupportedEncoding(pi)) {
+                    return null;
+                }
+            } else if (c == '!') {
+                c = read();
+                if (c == '-') {
+                    skipUntil("-->");
+                } else if (c == '[') {
+                    skipUntil("]]>");
+                } else {
+                    skipDeclaration();
+                }
+            } else if (c == '/') {
+                skipTag();
+                --depth;
+                if (depth == 1 && periodStart >= 0) {
+                    layout.addPeriod(periodStart, getPosition(), finishChecksum());
+                    periodStart = -1;
+                } else if (depth == 0) {
+                    layout.setVillageEndTagStart(tagStart);
+                    break;
+                }
+            } else {
+                String tagName = readName(c);
+                boolean isEmptyElement;
+                if (depth == 2 && periodStart >= 0 && elementListener != null) {
+                    Map<String, String> attributes = new HashMap<String, String>();
+                    isEmptyElement = readAttributes(attributes);
+                    elementListener.elementFound(layout.getPeriodCount(), tagStart,
+                            tagName.substring(tagName.indexOf(':') + 1), attributes);
+                } else {
+                    isEmptyElement = skipTag();
+                }
+                if (depth == 0) {
+                    layout.setVillageTagName(tagName);
+                    layout.setVillageStartTagEnd(getPosition());
+                    if (isEmptyElement) {
+                        break;
+                    }
+                } else if (depth == 1 && isPeriodTagName(tagName)) {
+                    if (isEmptyElement) {
+                        layout.addPeriod(tagStart, getPosition(), finishChecksum());
+                    } else {
+                        periodStart = tagStart;
+                    }
+                }
+                if (!isEmptyElement) {
+                    ++depth;
+                }
+            }
+            if (periodStart < 0) {
+                crcPos = -1;
+            }
+            c = read();
+        }
+
+        return layout;
+    }
+
+    /**
+     * 次のバイトを読み込みます。
+     * @return 読み込んだバイト。終端に達していれば -1。
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private int read() throws IOException {
+        if (bufferPos >= bufferLength) {
+            if (crcPos >= 0) {
+                periodCrc.update(buffer, crcPos, bufferLength - crcPos);
+                crcPos = 0;
+            }
+            bufferBase += bufferLength;
+            bufferPos = 0;
+            bufferLength = inStream.read(buffer);
+            if (bufferLength <= 0) {
+                bufferLength = 0;
+                lastByte = -1;
+                return -1;
+            }
+        }
+        lastByte = buffer[bufferPos++] & 0xff;
+        return lastByte;
+    }
+
+    /**
+     * 直前に読んだバイトから、period 要素のバイト列の CRC32 の計算を始めます。
+     */
+    private void startChecksum() {
+        periodCrc.reset();
+        crcPos = bufferPos - 1;
+    }
+
+    /**
+     * 次に読むバイトの手前までで CRC32 の計算を終えて、その値を返します。
+     * @return CRC32 の値
+     */
+    private long finishChecksum() {
+        periodCrc.update(buffer, crcPos, bufferPos - crcPos);
+        crcPos = -1;
+        return periodCrc.getValue();
+    }
+
+    /**
+     * 次に読むバイトのファイル中での位置を返します。
+     * @return バイト位置
+     */
+    private long getPosition() {
+        return bufferBase + bufferPos;
+    }
+
+    /**
+     * 指定したターミネータが現れるまで読み進めて、その手前までを文字列として返します。
+     * @param terminator ターミネータ (ASCII 文字のみ)
+     * @return ターミネータの手前までの文字列
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private String readUntil(String terminator) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        int c = read();
+        while (c >= 0) {
+            buf.append((char)c);
+            if (buf.length() >= terminator.length()
+                    && buf.lastIndexOf(terminator) == buf.length() - terminator.length()) {
+                buf.setLength(buf.length() - terminator.length());
+                break;
+            }
+            c = read();
+        }
+        return buf.toString();
+    }
+
+    /**
+     * 指定したターミネータが現れるまで読み飛ばします。
+     * @param terminator ターミネータ (ASCII 文字のみ)
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private void skipUntil(String terminator) throws IOException {
+        // 直近に読んだバイトをターミネータの長さ分だけ保持して比較する
+        final int length = terminator.length();
+        int[] window = new int[length];
+        int readCount = 0;
+        int c = read();
+        while (c >= 0) {
+            System.arraycopy(window, 1, window, 0, length - 1);
+            window[length - 1] = c;
+            ++readCount;
+            if (readCount >= length) {
+                boolean isMatched = true;
+                for (int ix = 0; ix < length; ++ix) {
+                    if (window[ix] != terminator.charAt(ix)) {
+                        isMatched = false;
+                        break;
+                    }
+                }
+                if (isMatched) {
+                    return;
+                }
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * DOCTYPE などの宣言を読み飛ばします。内部サブセットの [ ] を考慮します。
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private void skipDeclaration() throws IOException {
+        int bracketDepth = 0;
+        int quote = -1;
+        int c = lastByte;
+        while (c >= 0) {
+            if (quote >= 0) {
+                if (c == quote) {
+                    quote = -1;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '[') {
+                ++bracketDepth;
+            } else if (c == ']') {
+                --bracketDepth;
+            } else if (c == '>' && bracketDepth <= 0) {
+                return;
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * 要素名を読み込みます。
+     * @param firstByte 要素名の最初のバイト
+     * @return 要素名
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private String readName(int firstByte) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        int c = firstByte;
+        while (c >= 0 && c != '>' && c != '/' && !isWhitespace(c)) {
+            buf.append((char)c);
+            c = read();
+        }
+        return buf.toString();
+    }
+
+    /**
+     * タグの残りを読み飛ばします。属性値の引用符を考慮します。
+     * 直前に読んだバイトがタグの途中であることが前提です。
+     * @return 空要素タグ (/&gt; で終わるタグ) であれば true
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private boolean skipTag() throws IOException {
+        int quote = -1;
+        int prev = -1;
+        int c = lastByte;
+        while (c >= 0) {
+            if (quote >= 0) {
+                if (c == quote) {
+                    quote = -1;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return prev == '/';
+            }
+            prev = c;
+            c = read();
+        }
+        return false;
+    }
+
+    /**
+     * タグの残りから属性を読み込みます。
+     * 直前に読んだバイトが要素名の直後であることが前提です。
+     * 接頭辞の付いた属性は読み込みません。
+     * @param attributes 読み込んだ属性の名前と値をここに追加します。
+     * @return 空要素タグ (/&gt; で終わるタグ) であれば true
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private boolean readAttributes(Map<String, String> attributes) throws IOException {
+        int c = lastByte;
+        while (c >= 0) {
+            if (c == '>') {
+                return false;
+            } else if (c == '/') {
+                c = read();
+                if (c == '>') {
+                    return true;
+                }
+            } else if (isWhitespace(c)) {
+                c = read();
+            } else {
+                // 属性名
+                StringBuilder nameBuf = new StringBuilder();
+                while (c >= 0 && c != '=' && c != '>' && !isWhitespace(c)) {
+                    nameBuf.append((char)c);
+                    c = read();
+                }
+                while (isWhitespace(c)) {
+                    c = read();
+                }
+                if (c != '=') {
+                    continue;
+                }
+                c = read();
+                while (isWhitespace(c)) {
+                    c = read();
+                }
+                if (c != '"' && c != '\'') {
+                    continue;
+                }
+
+                // 属性値
+                int quote = c;
+                ByteArrayOutputStream valueBuf = new ByteArrayOutputStream();
+                c = read();
+                while (c >= 0 && c != quote) {
+                    valueBuf.write(c);
+                    c = read();
+                }
+                String name = nameBuf.toString();
+                if (name.indexOf(':') < 0) {
+                    attributes.put(name, unescape(valueBuf.toString("UTF-8")));
+                }
+                c = read();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 属性値中の定義済み実体参照と文字参照を展開します。
+     * @param value 属性値
+     * @return 展開した文字列
+     */
+    static String unescape(String value) {
+        int ampIndex = value.indexOf('&');
+        if (ampIndex < 0) {
+            return value;
+        }
+
+        StringBuilder buf = new StringBuilder(value.length());
+        int ix = 0;
+        while (ampIndex >= 0) {
+            int semicolonIndex = value.indexOf(';', ampIndex);
+            if (semicolonIndex < 0) {
+                break;
+            }
+            buf.append(value, ix, ampIndex);
+            String ref = value.substring(ampIndex + 1, semicolonIndex);
+            if (ref.equals("amp")) {
+                buf.append('&');
+            } else if (ref.equals("lt")) {
+                buf.append('<');
+            } else if (ref.equals("gt")) {
+                buf.append('>');
+            } else if (ref.equals("quot")) {
+                buf.append('"');
+            } else if (ref.equals("apos")) {
+                buf.append('\'');
+            } else if (ref.startsWith("#")) {
+                try {
+                    if (ref.startsWith("#x")) {
+                        buf.appendCodePoint(Integer.parseInt(ref.substring(2), 16));
+                    } else {
+                        buf.appendCodePoint(Integer.parseInt(ref.substring(1)));
+                    }
+                } catch (IllegalArgumentException ex) {
+                    buf.append(value, ampIndex, semicolonIndex + 1);
+                }
+            } else {
+                buf.append(value, ampIndex, semicolonIndex + 1);
+            }
+            ix = semicolonIndex + 1;
+            ampIndex = value.indexOf('&', ix);
+        }
+        buf.append(value, ix, value.length());
+        return buf.toString();
+    }
+
+    /**
+     * 要素名が period 要素のものかどうかを調べます。
+     * @param tagName 接頭辞付きの要素名
+     * @return period 要素であれば true
+     */
+    private static boolean isPeriodTagName(String tagName) {
+        String localName = tagName.substring(tagName.indexOf(':') + 1);
+        return SchemaConstants.NAME_PERIOD.getLocalPart().equals(localName);
+    }
+
+    /**
+     * XML 宣言で指定されたエンコーディングが扱えるものかどうかを調べます。
+     * @param xmlDecl XML 宣言の内容
+     * @return 扱えるエンコーディングなら true
+     */
+    static boolean isSupportedEncoding(String xmlDecl) {
+        Matcher matcher = ENCODING_PATTERN.matcher(xmlDecl);
+        if (!matcher.find()) {
+            return true;    // 省略時は UTF-8
+        }
+        String encoding = matcher.group(1);
+        return "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding)
+                || "US-ASCII".equalsIgnoreCase(encoding);
+    }
+
+    /**
+     * XML の空白文字かどうかを調べます。
+     * @param c 調べるバイト
+     * @return 空白文字なら true
+     */
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+}
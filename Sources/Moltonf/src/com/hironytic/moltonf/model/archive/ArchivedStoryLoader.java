@@ -25,19 +25,31 @@
 
 package com.hironytic.moltonf.model.archive;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
-import javax.xml.datatype.DatatypeConfigurationException;
-import javax.xml.datatype.DatatypeConstants;
-import javax.xml.datatype.DatatypeFactory;
-import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -61,6 +73,9 @@ import com.hironytic.moltonf.model.basic.BasicStoryEvent;
 import com.hironytic.moltonf.model.basic.BasicStoryPeriod;
 import com.hironytic.moltonf.model.basic.BasicTalk;
 import com.hironytic.moltonf.model.basic.BasicWolfAttackTalk;
+import com.hironytic.moltonf.model.columnar.ColumnarElementList;
+import com.hironytic.moltonf.model.columnar.ColumnarStoryPeriod;
+import com.hironytic.moltonf.util.TimeParser;
 import com.hironytic.moltonf.util.TimePart;
 
 /**
@@ -70,6 +85,30 @@ import com.hironytic.moltonf.util.TimePart;
  */
 public class ArchivedStoryLoader {
 
+    /** ANNOUNCE 種別のイベントを表す要素の QName */
+    static final List<QName> EVENT_ANNOUNCE_GROUP = Arrays.asList(new QName[] {
+        SchemaConstants.NAME_START_ENTRY, SchemaConstants.NAME_ON_STAGE,
+        SchemaConstants.NAME_START_MIRROR, SchemaConstants.NAME_OPEN_ROLE,
+        SchemaConstants.NAME_MURDERED, SchemaConstants.NAME_START_ASSAULT,
+        SchemaConstants.NAME_SURVIVOR, SchemaConstants.NAME_COUNTING,
+        SchemaConstants.NAME_SUDDEN_DEATH, SchemaConstants.NAME_NO_MURDER,
+        SchemaConstants.NAME_WIN_VILLAGE, SchemaConstants.NAME_WIN_WOLF,
+        SchemaConstants.NAME_WIN_HAMSTER, SchemaConstants.NAME_PLAYER_LIST,
+        SchemaConstants.NAME_PANIC,
+    });
+    
+    /** ORDER 種別のイベントを表す要素の QName */
+    static final List<QName> EVENT_ORDER_GROUP = Arrays.asList(new QName[] {
+        SchemaConstants.NAME_ASK_ENTRY, SchemaConstants.NAME_ASK_COMMIT,
+        SchemaConstants.NAME_NO_COMMENT, SchemaConstants.NAME_STAY_EPILOGUE,
+        SchemaConstants.NAME_GAME_OVER,
+    });
+    
+    /** EXTRA 種別のイベントを表す要素の QName */
+    static final List<QName> EVENT_EXTRA_GROUP = Arrays.asList(new QName[] {
+        SchemaConstants.NAME_JUDGE, SchemaConstants.NAME_GUARD,
+    });
+    
     /** 読み込みに用いる StAX リーダー */
     private XMLStreamReader staxReader;
     
@@ -79,8 +118,32 @@ public class ArchivedStoryLoader {
     /** 登場人物の識別子から Avatar オブジェクトを得るマップ */
     private Map<String, Avatar> avatarMap;
     
-    /** DatatypeFactory インスタンス */
-    private DatatypeFactory datatypeFactory = null;
+    /** 遅延読み込みの対象となるアーカイブファイル */
+    private File archiveFile;
+    
+    /** 遅延読み込みの対象となるアーカイブファイル中の各要素の位置 */
+    private ArchiveLayout archiveLayout;
+    
+    /** アーカイブファイルの先頭から village 要素の開始タグまでのバイト列 */
+    private byte[] prologBytes;
+    
+    /** village 要素の終了タグのバイト列 */
+    private byte[] epilogBytes;
+    
+    /** アーカイブファイルの先頭から最初の period までのチェックサム */
+    private long headerChecksum;
+    
+    /** アーカイブの索引。作成していなければ null */
+    private ArchiveIndex archiveIndex;
+    
+    /** メッセージの行の保持のしかた */
+    private final MessageLineStorage messageLineStorage;
+    
+    /** 短い行を共有するための文字列プール。POOLED_STRING でなければ null */
+    private StringPool stringPool;
+    
+    /** 読み込み中の period のメッセージの行を保持する MessageLineArena。ARENA でなければ null */
+    private MessageLineArena messageLineArena;
     
     /**
      * 共通アーカイブ基盤用スキーマの XML を読み込む入力ストリームから Story を得ます。
@@ -89,13 +152,218 @@ public class ArchivedStoryLoader {
      * @return MoltonfException 読み込みに失敗した場合
      */
     public static Story load(InputStream inStream) throws MoltonfException {
-        return new ArchivedStoryLoader().doload(inStream);
+        return load(inStream, MessageLineStorage.STRING);
     }
+    
     /**
-     * コンストラクタ
+     * 共通アーカイブ基盤用スキーマの XML を読み込む入力ストリームから Story を得ます。
+     * @param inStream 共通アーカイブ基盤用スキーマで記述された XML の入力ストリーム
+     * @param messageLineStorage メッセージの行の保持のしかた
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    public static Story load(InputStream inStream, MessageLineStorage messageLineStorage) throws MoltonfException {
+        return new ArchivedStoryLoader(messageLineStorage).doload(inStream);
+    }
+    
+    /**
+     * 共通アーカイブ基盤用スキーマの XML ファイルから、period 単位で遅延読み込みを行う Story を得ます。
+     * village 要素の属性と avatarList はここで読み込みますが、各 period の要素は
+     * StoryPeriod#getStoryElements() が呼ばれたときに初めて読み込まれます。
+     * 読み込まれた要素はメモリが不足すると解放され、必要になれば再度読み込まれます。
+     * なお、playerInfo による役職の情報は、それを含む period が読み込まれたときに反映されます。
+     * @param archiveFile 共通アーカイブ基盤用スキーマで記述された XML ファイル
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    public static Story loadLazily(File archiveFile) throws MoltonfException {
+        return loadLazily(archiveFile, null);
+    }
+    
+    /**
+     * 共通アーカイブ基盤用スキーマの XML ファイルから、period 単位で遅延読み込みを行う Story を得ます。
+     * 索引ファイルが有効であれば、XML を解析せずに索引ファイルの内容から Story を構築します。
+     * 索引ファイルが存在しないか、アーカイブファイルが変更されていれば、
+     * XML を走査したうえで索引ファイルを作成し直します。
+     * @param archiveFile 共通アーカイブ基盤用スキーマで記述された XML ファイル
+     * @param indexFile 索引ファイル。索引を使わないなら null
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    public static Story loadLazily(File archiveFile, File indexFile) throws MoltonfException {
+        return loadLazily(archiveFile, indexFile, MessageLineStorage.STRING);
+    }
+    
+    /**
+     * 共通アーカイブ基盤用スキーマの XML ファイルから、period 単位で遅延読み込みを行う Story を得ます。
+     * 索引ファイルの扱いは loadLazily(File, File) と同じです。
+     * @param archiveFile 共通アーカイブ基盤用スキーマで記述された XML ファイル
+     * @param indexFile 索引ファイル。索引を使わないなら null
+     * @param messageLineStorage メッセージの行の保持のしかた
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    public static Story loadLazily(File archiveFile, File indexFile, MessageLineStorage messageLineStorage) throws MoltonfException {
+        // 索引ファイルから
+        if (indexFile != null && indexFile.exists()) {
+            ArchiveIndex index = null;
+            try {
+                index = ArchiveIndex.read(indexFile);
+            } catch (IOException ex) {
+                Moltonf.getLogger().warning("failed to read archive index : " + indexFile.getPath(), ex);
+            }
+            if (index != null) {
+                Story story = new ArchivedStoryLoader(messageLineStorage).doLoadFromIndex(archiveFile, index);
+                if (story != null) {
+                    return story;
+                }
+            }
+        }
+        
+        ArchivedStoryLoader loader = new ArchivedStoryLoader(messageLineStorage);
+        ArchiveIndex.Builder indexBuilder = (indexFile != null) ? new ArchiveIndex.Builder() : null;
+        ArchiveLayout layout;
+        try {
+            layout = ArchiveScanner.scan(archiveFile, indexBuilder);
+        } catch (FileNotFoundException ex) {
+            throw new MoltonfException("Failed to open archive file", ex);
+        } catch (IOException ex) {
+            throw new MoltonfException(ex);
+        }
+        
+        if (layout == null || !layout.isComplete() || layout.getPeriodCount() == 0) {
+            // 部分的に読み込めない場合は全体を読み込む
+            try {
+                InputStream inStream = new FileInputStream(archiveFile);
+                try {
+                    return load(new BufferedInputStream(inStream), messageLineStorage);
+                } finally {
+                    inStream.close();
+                }
+            } catch (IOException ex) {
+                throw new MoltonfException(ex);
+            }
+        }
+        
+        Story story = loader.doLoadLazily(archiveFile, layout);
+        
+        // 次回のために索引ファイルを作成
+        if (indexBuilder != null) {
+            ArchiveIndex index = indexBuilder.build(layout, loader.headerChecksum, story, loader.baseUri);
+            try {
+                index.write(indexFile);
+                loader.archiveIndex = index;
+            } catch (IOException ex) {
+                Moltonf.getLogger().warning("failed to write archive index : " + indexFile.getPath(), ex);
+            }
+        }
+        return story;
+    }
+    
+    /**
+     * 共通アーカイブ基盤用スキーマの XML ファイルから Story を得ます。
+     * 各 period を、利用可能なプロセッサの数のスレッドで並行して読み込みます。
+     * @param archiveFile 共通アーカイブ基盤用スキーマで記述された XML ファイル
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    public static Story loadInParallel(File archiveFile) throws MoltonfException {
+        return loadInParallel(archiveFile, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * 共通アーカイブ基盤用スキーマの XML ファイルから Story を得ます。
+     * まずファイルを走査して period 要素の境界を調べ、village 要素の属性と avatarList を読み込んだあと、
+     * 各 period を指定した数のスレッドで並行して読み込みます。
+     * 得られる Story は load() で読み込んだものと同じ内容になります。
+     * @param archiveFile 共通アーカイブ基盤用スキーマで記述された XML ファイル
+     * @param threadCount 読み込みに用いるスレッドの数
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    public static Story loadInParallel(File archiveFile, int threadCount) throws MoltonfException {
+        return loadInParallel(archiveFile, threadCount, MessageLineStorage.STRING);
+    }
+    
+    /**
+     * 共通アーカイブ基盤用スキーマの XML ファイルから、各 period を指定した数のスレッドで並行して読み込んだ Story を得ます。
+     * @param archiveFile 共通アーカイブ基盤用スキーマで記述された XML ファイル
+     * @param threadCount 読み込みに用いるスレッドの数
+     * @param messageLineStorage メッセージの行の保持のしかた
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
      */
-    private ArchivedStoryLoader() {
+    public static Story loadInParallel(File archiveFile, int threadCount, MessageLineStorage messageLineStorage) throws MoltonfException {
+        ArchiveLayout layout;
+        try {
+            layout = ArchiveScanner.scan(archiveFile);
+        } catch (FileNotFoundException ex) {
+            throw new MoltonfException("Failed to open archive file", ex);
+        } catch (IOException ex) {
+            throw new MoltonfException(ex);
+        }
+        
+        if (layout == null || !layout.isComplete() || layout.getPeriodCount() < 2 || threadCount < 2) {
+            // 分割できない場合は全体を読み込む
+            try {
+                InputStream inStream = new FileInputStream(archiveFile);
+                try {
+                    return load(new BufferedInputStream(inStream), messageLineStorage);
+                } finally {
+                    inStream.close();
+                }
+            } catch (IOException ex) {
+                throw new MoltonfException(ex);
+            }
+        }
+        
+        return new ArchivedStoryLoader(messageLineStorage).doLoadInParallel(archiveFile, layout, threadCount);
+    }
+    
+    /**
+     * loadLazily() で得た Story を、ファイルが更新されたアーカイブの内容に合わせて差分更新します。
+     * 進行中の村のアーカイブは取得し直すたびに伸びていくので、各 period のバイト列の CRC32 を
+     * 前回と比べて、内容が変わった period と新たに追加された period だけを読み込みます。
+     * 内容が変わった period は、読み込み済みであればここで読み込み直し、
+     * そうでなければ必要になったときに読み込まれます。追加された period も同様です。
+     * village 要素の属性が変わっていればそれも反映しますが、登場人物が変わった場合や
+     * period が減った場合など差分として扱えない場合は、Story を変更せずに null を返します。
+     * @param story loadLazily() で得た Story
+     * @param indexFile 索引ファイル。索引を使わないなら null
+     * @return 更新の内容。差分更新できない場合は null で、その場合は全体を読み込み直してください。
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    public static StoryUpdate reloadIncrementally(Story story, File indexFile) throws MoltonfException {
+        List<StoryPeriod> periodList = story.getPeriods();
+        if (periodList == null || periodList.isEmpty() || !(periodList.get(0) instanceof LazyStoryPeriod)) {
+            return null;
+        }
+        
+        ArchivedStoryLoader loader = ((LazyStoryPeriod)periodList.get(0)).getLoader();
+        StoryUpdate update = loader.doReload(story, indexFile);
+        if (update == null) {
+            return null;
+        }
         
+        // StoryPeriod のロックはローダーのロックより先に取るので、ローダーのロックを外してから行う
+        for (int periodIndex : update.getChangedPeriodIndexList()) {
+            StoryPeriod period = story.getPeriods().get(periodIndex);
+            if (period instanceof LazyStoryPeriod) {
+                ((LazyStoryPeriod)period).reload();
+            }
+        }
+        return update;
+    }
+    
+    /**
+     * コンストラクタ
+     * @param messageLineStorage メッセージの行の保持のしかた
+     */
+    private ArchivedStoryLoader(MessageLineStorage messageLineStorage) {
+        this.messageLineStorage = messageLineStorage;
+        if (messageLineStorage == MessageLineStorage.POOLED_STRING) {
+            stringPool = new StringPool();
+        }
     }
 
     /**
@@ -108,17 +376,13 @@ public class ArchivedStoryLoader {
         Story story = null;
         
         try {
-            XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
-            xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
-            xmlInputFactory.setProperty(XMLInputFactory.IS_VALIDATING, false);
-            xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
-            staxReader = xmlInputFactory.createXMLStreamReader(inStream);
+            staxReader = createStaxReader(inStream);
             
             while (staxReader.hasNext()) {
                 int eventType = staxReader.next();
                 if (eventType == XMLStreamReader.START_ELEMENT) {
-                    QName elemName = staxReader.getName();
-                    if (SchemaConstants.NAME_VILLAGE.equals(elemName)) {
+                    int elemCode = elementCode();
+                    if (elemCode == SchemaNameTable.ELEM_VILLAGE) {
                         story = loadVillageElement();
                     } else {
                         throw new MoltonfException("Not a bbs play-data archive.");
@@ -132,6 +396,440 @@ public class ArchivedStoryLoader {
         return story;
     }
     
+    /**
+     * StAX リーダーを生成します。
+     * @param inStream 入力ストリーム
+     * @return StAX リーダー
+     * @throws XMLStreamException 生成に失敗した場合
+     */
+    private XMLStreamReader createStaxReader(InputStream inStream) throws XMLStreamException {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return xmlInputFactory.createXMLStreamReader(inStream);
+    }
+    
+    /**
+     * period 単位で遅延読み込みを行う Story を得ます。(内部メソッド)
+     * @param archiveFile アーカイブファイル
+     * @param layout アーカイブファイル中の各要素の位置
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    private Story doLoadLazily(File archiveFile, ArchiveLayout layout) throws MoltonfException {
+        this.archiveFile = archiveFile;
+        this.archiveLayout = layout;
+        
+        // 最初の period の手前までを読み込めば、village 要素の属性と avatarList が得られる
+        byte[] headerBytes = readArchiveBytes(0, layout.getPeriodStart(0));
+        prepareFragments(headerBytes);
+        Story story = doload(new SequenceInputStream(new ByteArrayInputStream(headerBytes),
+                new ByteArrayInputStream(epilogBytes)));
+        if (story == null) {
+            throw new MoltonfException("Not a bbs play-data archive.");
+        }
+        
+        List<StoryPeriod> periodList = new ArrayList<StoryPeriod>();
+        for (int ix = 0; ix < layout.getPeriodCount(); ++ix) {
+            StoryPeriod period = new LazyStoryPeriod(this, ix);
+            period.setStory(story);
+            periodList.add(period);
+        }
+        story.setPeriods(periodList);
+        return story;
+    }
+    
+    /**
+     * 各 period を並行して読み込んだ Story を得ます。(内部メソッド)
+     * @param archiveFile アーカイブファイル
+     * @param layout アーカイブファイル中の各要素の位置
+     * @param threadCount 読み込みに用いるスレッドの数
+     * @return Story オブジェクト
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    private Story doLoadInParallel(File archiveFile, ArchiveLayout layout, int threadCount) throws MoltonfException {
+        this.archiveFile = archiveFile;
+        this.archiveLayout = layout;
+        
+        // village 要素の属性と avatarList は先に読み込んでおき、avatarMap は以降読み取り専用として共有する
+        byte[] headerBytes = readArchiveBytes(0, layout.getPeriodStart(0));
+        prepareFragments(headerBytes);
+        final Story story = doload(new SequenceInputStream(new ByteArrayInputStream(headerBytes),
+                new ByteArrayInputStream(epilogBytes)));
+        if (story == null) {
+            throw new MoltonfException("Not a bbs play-data archive.");
+        }
+        
+        int periodCount = layout.getPeriodCount();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, periodCount));
+        try {
+            List<Future<StoryPeriod>> futureList = new ArrayList<Future<StoryPeriod>>(periodCount);
+            for (int ix = 0; ix < periodCount; ++ix) {
+                final int periodIndex = ix;
+                futureList.add(executor.submit(new Callable<StoryPeriod>() {
+                    @Override
+                    public StoryPeriod call() throws Exception {
+                        ArchivedStoryLoader worker = createWorker();
+                        StoryPeriod period = worker.createStoryPeriod();
+                        period.setStory(story);
+                        period.setStoryElements(worker.parsePeriodElements(period, periodIndex));
+                        return period;
+                    }
+                }));
+            }
+            
+            List<StoryPeriod> periodList = new ArrayList<StoryPeriod>(periodCount);
+            for (Future<StoryPeriod> future : futureList) {
+                periodList.add(future.get());
+            }
+            story.setPeriods(periodList);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MoltonfException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof MoltonfException) {
+                throw (MoltonfException)cause;
+            }
+            throw new MoltonfException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return story;
+    }
+    
+    /**
+     * 別のスレッドで period を読み込むためのローダーを作成します。
+     * アーカイブファイルの情報と avatarMap を共有し、StAX リーダーなどの状態は共有しません。
+     * @return 作成したローダー
+     */
+    private ArchivedStoryLoader createWorker() {
+        ArchivedStoryLoader worker = new ArchivedStoryLoader(messageLineStorage);
+        worker.archiveFile = archiveFile;
+        worker.archiveLayout = archiveLayout;
+        worker.prologBytes = prologBytes;
+        worker.epilogBytes = epilogBytes;
+        worker.baseUri = baseUri;
+        worker.avatarMap = avatarMap;
+        worker.stringPool = stringPool;
+        return worker;
+    }
+    
+    /**
+     * 索引から、period 単位で遅延読み込みを行う Story を得ます。(内部メソッド)
+     * @param archiveFile アーカイブファイル
+     * @param index 索引
+     * @return Story オブジェクト。索引がアーカイブファイルの内容と一致しなければ null。
+     * @return MoltonfException 読み込みに失敗した場合
+     */
+    private Story doLoadFromIndex(File archiveFile, ArchiveIndex index) throws MoltonfException {
+        ArchiveLayout layout = index.getLayout();
+        if (archiveFile.length() != layout.getFileLength()
+                || archiveFile.lastModified() != layout.getLastModified()
+                || layout.getPeriodCount() == 0) {
+            return null;
+        }
+        
+        this.archiveFile = archiveFile;
+        this.archiveLayout = layout;
+        byte[] headerBytes = readArchiveBytes(0, layout.getPeriodStart(0));
+        prepareFragments(headerBytes);
+        if (headerChecksum != index.getHeaderChecksum()) {
+            return null;
+        }
+        
+        Story story = new BasicStory();
+        story.setVillageFullName(index.getVillageFullName());
+        story.setVillageState(index.getVillageState());
+        baseUri = toUri(index.getBaseUri());
+        story.setGraveIconUri(toUri(index.getGraveIconUri()));
+        
+        avatarMap = new HashMap<String, Avatar>();
+        List<Avatar> avatarList = new ArrayList<Avatar>();
+        for (int ix = 0; ix < index.getAvatarCount(); ++ix) {
+            Avatar avatar = new BasicAvatar();
+            avatar.setStory(story);
+            avatar.setAvatarId(index.getAvatarId(ix));
+            avatar.setFullName(index.getAvatarFullName(ix));
+            avatar.setShortName(index.getAvatarShortName(ix));
+            avatar.setFaceIconUri(toUri(index.getAvatarFaceIconUri(ix)));
+            avatarList.add(avatar);
+            avatarMap.put(avatar.getAvatarId(), avatar);
+        }
+        story.setAvatarList(avatarList);
+        
+        List<StoryPeriod> periodList = new ArrayList<StoryPeriod>();
+        for (int ix = 0; ix < layout.getPeriodCount(); ++ix) {
+            StoryPeriod period = new LazyStoryPeriod(this, ix);
+            period.setStory(story);
+            periodList.add(period);
+        }
+        story.setPeriods(periodList);
+        
+        archiveIndex = index;
+        return story;
+    }
+    
+    /**
+     * 遅延読み込みを行っている Story を、アーカイブファイルの内容に合わせて差分更新します。(内部メソッド)
+     * 内容が変わった period を読み込み直すことはせず、結果に記録するだけです。
+     * @param story このローダーで読み込んだ Story
+     * @param indexFile 索引ファイル。索引を使わないなら null
+     * @return 更新の内容。差分更新できない場合は null。
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    private synchronized StoryUpdate doReload(Story story, File indexFile) throws MoltonfException {
+        StoryUpdate update = new StoryUpdate();
+        if (archiveFile.length() == archiveLayout.getFileLength()
+                && archiveFile.lastModified() == archiveLayout.getLastModified()) {
+            return update;
+        }
+        
+        ArchiveIndex.Builder indexBuilder = (indexFile != null) ? new ArchiveIndex.Builder() : null;
+        ArchiveLayout layout;
+        try {
+            layout = ArchiveScanner.scan(archiveFile, indexBuilder);
+        } catch (FileNotFoundException ex) {
+            throw new MoltonfException("Failed to open archive file", ex);
+        } catch (IOException ex) {
+            throw new MoltonfException(ex);
+        }
+        
+        int oldPeriodCount = archiveLayout.getPeriodCount();
+        if (layout == null || !layout.isComplete() || layout.getPeriodCount() < oldPeriodCount) {
+            return null;
+        }
+        
+        // 最初の period の手前までが変わっていれば、village 要素の属性と avatarList を読み込み直す
+        ArchivedStoryLoader headerLoader = new ArchivedStoryLoader(messageLineStorage);
+        headerLoader.archiveFile = archiveFile;
+        headerLoader.archiveLayout = layout;
+        byte[] headerBytes = headerLoader.readArchiveBytes(0, layout.getPeriodStart(0));
+        headerLoader.prepareFragments(headerBytes);
+        if (headerLoader.headerChecksum != headerChecksum) {
+            Story header = headerLoader.doload(new SequenceInputStream(new ByteArrayInputStream(headerBytes),
+                    new ByteArrayInputStream(headerLoader.epilogBytes)));
+            if (header == null || !isSameAvatarList(story.getAvatarList(), header.getAvatarList())) {
+                return null;
+            }
+            story.setVillageFullName(header.getVillageFullName());
+            story.setVillageState(header.getVillageState());
+            story.setGraveIconUri(header.getGraveIconUri());
+            baseUri = headerLoader.baseUri;
+            update.setVillageChanged(true);
+        }
+        
+        for (int ix = 0; ix < oldPeriodCount; ++ix) {
+            if (!archiveLayout.isSamePeriod(ix, layout, ix)) {
+                update.addChangedPeriod(ix);
+            }
+        }
+        update.setAddedPeriods(oldPeriodCount, layout.getPeriodCount() - oldPeriodCount);
+        
+        // 以降は新しい位置から読み込む
+        archiveLayout = layout;
+        prologBytes = headerLoader.prologBytes;
+        epilogBytes = headerLoader.epilogBytes;
+        headerChecksum = headerLoader.headerChecksum;
+        
+        if (update.getAddedPeriodCount() > 0) {
+            List<StoryPeriod> periodList = new ArrayList<StoryPeriod>(story.getPeriods());
+            for (int ix = oldPeriodCount; ix < layout.getPeriodCount(); ++ix) {
+                StoryPeriod period = new LazyStoryPeriod(this, ix);
+                period.setStory(story);
+                periodList.add(period);
+            }
+            story.setPeriods(periodList);
+        }
+        
+        // 索引も作り直す
+        archiveIndex = null;
+        if (indexBuilder != null) {
+            ArchiveIndex index = indexBuilder.build(layout, headerChecksum, story, baseUri);
+            try {
+                index.write(indexFile);
+                archiveIndex = index;
+            } catch (IOException ex) {
+                Moltonf.getLogger().warning("failed to write archive index : " + indexFile.getPath(), ex);
+            }
+        }
+        return update;
+    }
+    
+    /**
+     * 2 つの登場人物のリストが同じ内容かどうかを調べます。
+     * @param avatarList1 登場人物のリスト
+     * @param avatarList2 比べる登場人物のリスト
+     * @return 同じ内容なら true
+     */
+    private static boolean isSameAvatarList(List<Avatar> avatarList1, List<Avatar> avatarList2) {
+        if (avatarList1 == null || avatarList2 == null) {
+            return avatarList1 == avatarList2;
+        }
+        if (avatarList1.size() != avatarList2.size()) {
+            return false;
+        }
+        for (int ix = 0; ix < avatarList1.size(); ++ix) {
+            Avatar avatar1 = avatarList1.get(ix);
+            Avatar avatar2 = avatarList2.get(ix);
+            if (!isEqual(avatar1.getAvatarId(), avatar2.getAvatarId())
+                    || !isEqual(avatar1.getFullName(), avatar2.getFullName())
+                    || !isEqual(avatar1.getShortName(), avatar2.getShortName())
+                    || !isEqual(avatar1.getFaceIconUri(), avatar2.getFaceIconUri())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * null を考慮して 2 つのオブジェクトが等しいかどうかを調べます。
+     * @param obj1 オブジェクト
+     * @param obj2 比べるオブジェクト
+     * @return 等しければ true
+     */
+    private static boolean isEqual(Object obj1, Object obj2) {
+        return (obj1 == null) ? (obj2 == null) : obj1.equals(obj2);
+    }
+    
+    /**
+     * 索引に保存しておいた URI 文字列を URI に変換します。
+     * @param uriString URI 文字列
+     * @return URI。変換できなければ null。
+     */
+    private URI toUri(String uriString) {
+        if (uriString == null) {
+            return null;
+        }
+        try {
+            return new URI(uriString);
+        } catch (URISyntaxException ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * アーカイブファイルの先頭から最初の period までのバイト列から、
+     * 部分的な読み込みに用いる village 要素の開始タグと終了タグを用意します。
+     * あわせて、そのチェックサムを計算します。
+     * @param headerBytes アーカイブファイルの先頭から最初の period までのバイト列
+     */
+    private void prepareFragments(byte[] headerBytes) {
+        prologBytes = Arrays.copyOf(headerBytes, (int)archiveLayout.getVillageStartTagEnd());
+        try {
+            epilogBytes = ("</" + archiveLayout.getVillageTagName() + ">").getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new MoltonfException(ex);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(headerBytes);
+        headerChecksum = crc.getValue();
+    }
+    
+    /**
+     * アーカイブの索引を返します。
+     * @return 索引。作成していなければ null。
+     */
+    ArchiveIndex getArchiveIndex() {
+        return archiveIndex;
+    }
+    
+    /**
+     * period の内容を識別する値を返します。
+     * period 要素のバイト列の長さと CRC32 を組み合わせたものです。
+     * @param periodIndex period のインデックス
+     * @return 内容を識別する値
+     */
+    long getPeriodContentKey(int periodIndex) {
+        ArchiveLayout layout = archiveLayout;
+        return ((layout.getPeriodEnd(periodIndex) - layout.getPeriodStart(periodIndex)) << 32)
+                | layout.getPeriodChecksum(periodIndex);
+    }
+    
+    /**
+     * 遅延読み込みを行う StoryPeriod の要素を読み込みます。
+     * @param period 読み込んだ要素が所属する StoryPeriod
+     * @param periodIndex アーカイブ中での period のインデックス
+     * @return 読み込んだ要素のリスト
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    synchronized List<StoryElement> loadLazyPeriodElements(StoryPeriod period, int periodIndex) throws MoltonfException {
+        if (archiveFile.length() != archiveLayout.getFileLength()
+                || archiveFile.lastModified() != archiveLayout.getLastModified()) {
+            throw new MoltonfException("Archive file has been modified.");
+        }
+        
+        return parsePeriodElements(period, periodIndex);
+    }
+    
+    /**
+     * アーカイブファイルから period 要素を 1 つ読み込んで、その子要素を解析します。
+     * @param period 読み込んだ要素が所属する StoryPeriod
+     * @param periodIndex アーカイブ中での period のインデックス
+     * @return 読み込んだ要素のリスト
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    private List<StoryElement> parsePeriodElements(StoryPeriod period, int periodIndex) throws MoltonfException {
+        // village 要素の開始タグ + period 要素 + village 要素の終了タグ という形で読み込ませる
+        byte[] periodBytes = readArchiveBytes(archiveLayout.getPeriodStart(periodIndex),
+                archiveLayout.getPeriodEnd(periodIndex));
+        InputStream inStream = new SequenceInputStream(Collections.enumeration(Arrays.asList(new InputStream[] {
+            new ByteArrayInputStream(prologBytes),
+            new ByteArrayInputStream(periodBytes),
+            new ByteArrayInputStream(epilogBytes),
+        })));
+        
+        List<StoryElement> elementList = null;
+        try {
+            staxReader = createStaxReader(inStream);
+            while (staxReader.hasNext()) {
+                int eventType = staxReader.next();
+                if (eventType == XMLStreamReader.START_ELEMENT) {
+                    int elemCode = elementCode();
+                    if (elemCode == SchemaNameTable.ELEM_PERIOD) {
+                        elementList = loadPeriodElements(period);
+                    } else if (elemCode != SchemaNameTable.ELEM_VILLAGE) {
+                        skipElement();
+                    }
+                }
+            }
+            staxReader.close();
+        } catch (XMLStreamException ex) {
+            throw new MoltonfException(ex);
+        } finally {
+            staxReader = null;
+        }
+        
+        if (elementList == null) {
+            throw new MoltonfException("Failed to load period " + periodIndex);
+        }
+        return elementList;
+    }
+    
+    /**
+     * アーカイブファイルの指定範囲のバイト列を読み込みます。
+     * @param start 開始位置
+     * @param end 終了位置
+     * @return 読み込んだバイト列
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    private byte[] readArchiveBytes(long start, long end) throws MoltonfException {
+        byte[] bytes = new byte[(int)(end - start)];
+        try {
+            RandomAccessFile file = new RandomAccessFile(archiveFile, "r");
+            try {
+                file.seek(start);
+                file.readFully(bytes);
+            } finally {
+                file.close();
+            }
+        } catch (IOException ex) {
+            throw new MoltonfException(ex);
+        }
+        return bytes;
+    }
+    
     /**
      * village 要素以下を読み込みます。
      * このメソッドが呼ばれたとき staxReader は village 要素の START_ELEMENT にいることが前提です。
@@ -143,8 +841,8 @@ public class ArchivedStoryLoader {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = staxReader.getAttributeName(ix);
-            if (SchemaConstants.NAME_BASE.equals(attrName)) {
+            int attrCode = attributeCode(ix);
+            if (attrCode == SchemaNameTable.ATTR_BASE) {
                 String baseUriString = staxReader.getAttributeValue(ix);
                 if (!baseUriString.isEmpty()) {
                     try {
@@ -153,13 +851,13 @@ public class ArchivedStoryLoader {
                         baseUri = null;
                     }
                 }
-            } else if (SchemaConstants.NAME_STATE.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_STATE) {
                 String villageStateString = staxReader.getAttributeValue(ix);
                 story.setVillageState(toVillageState(villageStateString));
-            } else if (SchemaConstants.NAME_FULL_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FULL_NAME) {
                 String villageFullName = staxReader.getAttributeValue(ix);
                 story.setVillageFullName(villageFullName);
-            } else if (SchemaConstants.NAME_GRAVE_ICON_URI.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_GRAVE_ICON_URI) {
                 String graveIconUriString = staxReader.getAttributeValue(ix);
                 URI graveIconUri;
                 try {
@@ -184,10 +882,10 @@ public class ArchivedStoryLoader {
             if (eventType == XMLStreamReader.END_ELEMENT) {
                 break;
             } else if (eventType == XMLStreamReader.START_ELEMENT) {
-                QName elemName = staxReader.getName();
-                if (SchemaConstants.NAME_AVATAR_LIST.equals(elemName)) {
+                int elemCode = elementCode();
+                if (elemCode == SchemaNameTable.ELEM_AVATAR_LIST) {
                     story.setAvatarList(loadAvatarList(story));
-                } else if (SchemaConstants.NAME_PERIOD.equals(elemName)) {
+                } else if (elemCode == SchemaNameTable.ELEM_PERIOD) {
                     periodList.add(loadPeriod(story));
                 } else {
                     skipElement();
@@ -204,7 +902,7 @@ public class ArchivedStoryLoader {
      * @param villageStateString 村の状態の値文字列 (state属性の値)
      * @return VillageState。該当するものがなければ null。
      */
-    private VillageState toVillageState(String villageStateString) {
+    static VillageState toVillageState(String villageStateString) {
         VillageState state = null;
         if (SchemaConstants.VAL_VILLAGE_STATE_GAMEOVER.equals(villageStateString)) {
             state = VillageState.GAMEOVER;
@@ -237,8 +935,8 @@ public class ArchivedStoryLoader {
             if (eventType == XMLStreamReader.END_ELEMENT) {
                 break;
             } else if (eventType == XMLStreamReader.START_ELEMENT) {
-                QName elemName = staxReader.getName();
-                if (SchemaConstants.NAME_AVATAR.equals(elemName)) {
+                int elemCode = elementCode();
+                if (elemCode == SchemaNameTable.ELEM_AVATAR) {
                     avatarList.add(loadAvatar(story));
                 } else {
                     skipElement();
@@ -261,14 +959,14 @@ public class ArchivedStoryLoader {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = staxReader.getAttributeName(ix);
-            if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            int attrCode = attributeCode(ix);
+            if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 avatar.setAvatarId(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_FULL_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FULL_NAME) {
                 avatar.setFullName(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_SHORT_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_SHORT_NAME) {
                 avatar.setShortName(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_FACE_ICON_URI.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FACE_ICON_URI) {
                 String faceIconUriString = staxReader.getAttributeValue(ix);
                 URI faceIconUri;
                 try {
@@ -307,48 +1005,40 @@ public class ArchivedStoryLoader {
      * @throws XMLStreamException 読み込み時にエラーが発生した場合
      */
     private StoryPeriod loadPeriod(Story story) throws XMLStreamException {
-        StoryPeriod period = new BasicStoryPeriod();
+        StoryPeriod period = createStoryPeriod();
         period.setStory(story);
+        period.setStoryElements(loadPeriodElements(period));
+        return period;
+    }
+    
+    /**
+     * period 要素以下の子要素を読み込みます。
+     * このメソッドが呼ばれたとき staxReader は period 要素の START_ELEMENT にいることが前提です。
+     * @param period 読み込んだ要素が所属する StoryPeriod
+     * @return 読み込んだ結果の要素のリスト
+     * @throws XMLStreamException 読み込み時にエラーが発生した場合
+     */
+    private List<StoryElement> loadPeriodElements(StoryPeriod period) throws XMLStreamException {
         List<StoryElement> elementList = new ArrayList<StoryElement>();
+        if (messageLineStorage == MessageLineStorage.ARENA) {
+            messageLineArena = new MessageLineArena();
+        }
         
         // 属性
         // TODO:
         
-        final List<QName> eventAnnounceGroup = Arrays.asList(new QName[] {
-            SchemaConstants.NAME_START_ENTRY, SchemaConstants.NAME_ON_STAGE,
-            SchemaConstants.NAME_START_MIRROR, SchemaConstants.NAME_OPEN_ROLE,
-            SchemaConstants.NAME_MURDERED, SchemaConstants.NAME_START_ASSAULT,
-            SchemaConstants.NAME_SURVIVOR, SchemaConstants.NAME_COUNTING,
-            SchemaConstants.NAME_SUDDEN_DEATH, SchemaConstants.NAME_NO_MURDER,
-            SchemaConstants.NAME_WIN_VILLAGE, SchemaConstants.NAME_WIN_WOLF,
-            SchemaConstants.NAME_WIN_HAMSTER, SchemaConstants.NAME_PLAYER_LIST,
-            SchemaConstants.NAME_PANIC,
-        });
-        final List<QName> eventOrderGroup = Arrays.asList(new QName[] {
-            SchemaConstants.NAME_ASK_ENTRY, SchemaConstants.NAME_ASK_COMMIT,
-            SchemaConstants.NAME_NO_COMMENT, SchemaConstants.NAME_STAY_EPILOGUE,
-            SchemaConstants.NAME_GAME_OVER,
-        });
-        final List<QName> eventExtraGroup = Arrays.asList(new QName[] {
-            SchemaConstants.NAME_JUDGE, SchemaConstants.NAME_GUARD,
-        });
-        
         // 子ノード
         while (staxReader.hasNext()) {
             int eventType = staxReader.next();
             if (eventType == XMLStreamReader.END_ELEMENT) {
                 break;
             } else if (eventType == XMLStreamReader.START_ELEMENT) {
-                QName elemName = staxReader.getName();
-                if (SchemaConstants.NAME_TALK.equals(elemName)) {
+                int elemCode = elementCode();
+                if (elemCode == SchemaNameTable.ELEM_TALK) {
                     elementList.add(loadTalk(period));
-                } else if (eventAnnounceGroup.contains(elemName)) {
-                    elementList.add(loadStoryEvent(period, EventFamily.ANNOUNCE));
-                } else if (eventOrderGroup.contains(elemName)) {
-                    elementList.add(loadStoryEvent(period, EventFamily.ORDER));
-                } else if (eventExtraGroup.contains(elemName)) {
-                    elementList.add(loadStoryEvent(period, EventFamily.EXTRA));
-                } else if (SchemaConstants.NAME_ASSAULT.equals(elemName)) {
+                } else if (SchemaNameTable.toEventFamily(elemCode) != null) {
+                    elementList.add(loadStoryEvent(period, SchemaNameTable.toEventFamily(elemCode)));
+                } else if (elemCode == SchemaNameTable.ELEM_ASSAULT) {
                     elementList.add(loadAssault(period));
                 } else {
                     skipElement();
@@ -356,8 +1046,25 @@ public class ArchivedStoryLoader {
             }
         }
         
-        period.setStoryElements(elementList);
-        return period;
+        if (messageLineArena != null) {
+            messageLineArena.trim();
+            messageLineArena = null;
+        }
+        if (messageLineStorage == MessageLineStorage.COLUMNAR) {
+            return new ColumnarElementList(period, elementList);
+        }
+        return elementList;
+    }
+    
+    /**
+     * 読み込んだ要素を保持する StoryPeriod を作成します。
+     * @return StoryPeriod オブジェクト
+     */
+    private StoryPeriod createStoryPeriod() {
+        if (messageLineStorage == MessageLineStorage.COLUMNAR) {
+            return new ColumnarStoryPeriod();
+        }
+        return new BasicStoryPeriod();
     }
     
     /**
@@ -373,19 +1080,19 @@ public class ArchivedStoryLoader {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = staxReader.getAttributeName(ix);
-            if (SchemaConstants.NAME_TYPE.equals(attrName)) {
+            int attrCode = attributeCode(ix);
+            if (attrCode == SchemaNameTable.ATTR_TYPE) {
                 String talkTypeString = staxReader.getAttributeValue(ix);
                 talk.setTalkType(toTalkType(talkTypeString));
-            } else if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 // スキーマとして avatarList が先に登場することが保証されているので
                 // 正しいデータならこの時点で avatarMap は作成済み。
                 String avatarId = staxReader.getAttributeValue(ix);
                 Avatar avatar = avatarMap.get(avatarId);
                 talk.setSpeaker(avatar);
-            } else if (SchemaConstants.NAME_TIME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_TIME) {
                 String timeString = staxReader.getAttributeValue(ix);
-                TimePart timePart = parseTime(timeString);
+                TimePart timePart = TimeParser.parse(timeString);
                 talk.setTime(timePart);
             }
         }
@@ -398,8 +1105,8 @@ public class ArchivedStoryLoader {
             if (eventType == XMLStreamReader.END_ELEMENT) {
                 break;
             } else if (eventType == XMLStreamReader.START_ELEMENT) {
-                QName elemName = staxReader.getName();
-                if (SchemaConstants.NAME_LI.equals(elemName)) {
+                int elemCode = elementCode();
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi());
                 } else {
                     skipElement();
@@ -407,7 +1114,7 @@ public class ArchivedStoryLoader {
             }
         }
         
-        talk.setMessageLines(messageLines);
+        talk.setMessageLines(toMessageLines(messageLines));
         return talk;
     }
 
@@ -416,7 +1123,7 @@ public class ArchivedStoryLoader {
      * @param talkTypeString 発言種別の文字列 (type属性の値)
      * @return TalkType。該当するものがなければ null。
      */
-    private TalkType toTalkType(String talkTypeString) {
+    static TalkType toTalkType(String talkTypeString) {
         TalkType talkType = null;
         if (SchemaConstants.VAL_TALK_TYPE_PUBLIC.equals(talkTypeString)) {
             talkType = TalkType.PUBLIC;
@@ -446,7 +1153,7 @@ public class ArchivedStoryLoader {
         storyEvent.setEventFamily(eventFamily);
 
         List<String> messageLines = new ArrayList<String>();
-        QName storyEventElemName = staxReader.getName();
+        boolean isPlayerList = (elementCode() == SchemaNameTable.ELEM_PLAYER_LIST);
         
         // 子ノード
         while (staxReader.hasNext()) {
@@ -454,11 +1161,10 @@ public class ArchivedStoryLoader {
             if (eventType == XMLStreamReader.END_ELEMENT) {
                 break;
             } else if (eventType == XMLStreamReader.START_ELEMENT) {
-                QName elemName = staxReader.getName();
-                if (SchemaConstants.NAME_LI.equals(elemName)) {
+                int elemCode = elementCode();
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi());
-                } else if (SchemaConstants.NAME_PLAYER_LIST.equals(storyEventElemName) &&
-                        SchemaConstants.NAME_PLAYER_INFO.equals(elemName)) {
+                } else if (isPlayerList && elemCode == SchemaNameTable.ELEM_PLAYER_INFO) {
                     loadPlayerInfo();
                 } else {
                     skipElement();
@@ -466,7 +1172,7 @@ public class ArchivedStoryLoader {
             }
         }
         
-        storyEvent.setMessageLines(messageLines);
+        storyEvent.setMessageLines(toMessageLines(messageLines));
         return storyEvent;
     }
     
@@ -484,10 +1190,10 @@ public class ArchivedStoryLoader {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = staxReader.getAttributeName(ix);
-            if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            int attrCode = attributeCode(ix);
+            if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 avatarId = staxReader.getAttributeValue(ix);
-            } else if (SchemaConstants.NAME_ROLE.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_ROLE) {
                 roleString = staxReader.getAttributeValue(ix);
             }
             if (avatarId != null && roleString != null) {
@@ -512,7 +1218,7 @@ public class ArchivedStoryLoader {
      * @param roleString 役職の値文字列 (role 属性の値)
      * @return Role。該当するものがなければ null。
      */
-    private Role toRole(String roleString) {
+    static Role toRole(String roleString) {
         Role role = null;
         if (SchemaConstants.VAL_ROLE_INNOCENT.equals(roleString)) {
             role = Role.INNOCENT;
@@ -550,16 +1256,16 @@ public class ArchivedStoryLoader {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = staxReader.getAttributeName(ix);
-            if (SchemaConstants.NAME_BY_WHOM.equals(attrName)) {
+            int attrCode = attributeCode(ix);
+            if (attrCode == SchemaNameTable.ATTR_BY_WHOM) {
                 // スキーマとして avatarList が先に登場することが保証されているので
                 // 正しいデータならこの時点で avatarMap は作成済み。
                 String avatarId = staxReader.getAttributeValue(ix);
                 Avatar avatar = avatarMap.get(avatarId);
                 talk.setSpeaker(avatar);
-            } else if (SchemaConstants.NAME_TIME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_TIME) {
                 String timeString = staxReader.getAttributeValue(ix);
-                TimePart timePart = parseTime(timeString);
+                TimePart timePart = TimeParser.parse(timeString);
                 talk.setTime(timePart);
             }
         }
@@ -572,8 +1278,8 @@ public class ArchivedStoryLoader {
             if (eventType == XMLStreamReader.END_ELEMENT) {
                 break;
             } else if (eventType == XMLStreamReader.START_ELEMENT) {
-                QName elemName = staxReader.getName();
-                if (SchemaConstants.NAME_LI.equals(elemName)) {
+                int elemCode = elementCode();
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi());
                 } else {
                     skipElement();
@@ -581,7 +1287,7 @@ public class ArchivedStoryLoader {
             }
         }
         
-        talk.setMessageLines(messageLines);
+        talk.setMessageLines(toMessageLines(messageLines));
         return talk;
     }
     
@@ -600,8 +1306,8 @@ public class ArchivedStoryLoader {
             if (eventType == XMLStreamReader.END_ELEMENT) {
                 break;
             } else if (eventType == XMLStreamReader.START_ELEMENT) {
-                QName elemName = staxReader.getName();
-                if (SchemaConstants.NAME_RAWDATA.equals(elemName)) {
+                int elemCode = elementCode();
+                if (elemCode == SchemaNameTable.ELEM_RAWDATA) {
                     loadRawdata(buf);
                 } else {
                     skipElement();
@@ -615,7 +1321,23 @@ public class ArchivedStoryLoader {
             }
         }
         
-        return buf.toString();
+        String line = buf.toString();
+        if (stringPool != null) {
+            line = stringPool.intern(line);
+        }
+        return line;
+    }
+    
+    /**
+     * 読み込んだメッセージの行のリストを、保持のしかたに合わせたリストに変換します。
+     * @param messageLines 読み込んだメッセージの行のリスト
+     * @return 要素にセットする行のリスト
+     */
+    private List<String> toMessageLines(List<String> messageLines) {
+        if (messageLineArena != null) {
+            return messageLineArena.addLines(messageLines);
+        }
+        return messageLines;
     }
 
     /**
@@ -641,45 +1363,23 @@ public class ArchivedStoryLoader {
         }
     }
     
+    
     /**
-     * 時刻文字列を解析します。
-     * @param timeString 時刻文字列
-     * @return 解析結果を格納した TimePart オブジェクト
+     * 現在の要素の要素名のコードを得ます。
+     * @return 要素のコード
      */
-    private TimePart parseTime(String timeString) {
-        if (datatypeFactory == null) {
-            try {
-                datatypeFactory = DatatypeFactory.newInstance();
-            } catch (DatatypeConfigurationException ex) {
-                throw new MoltonfException(ex);
-            }
-        }
-        
-        XMLGregorianCalendar xmlCalendar;
-        try {
-            xmlCalendar = datatypeFactory.newXMLGregorianCalendar(timeString);
-        } catch (IllegalArgumentException ex) {
-            return null;
-        }
-        
-        int hour = xmlCalendar.getHour();
-        if (hour == DatatypeConstants.FIELD_UNDEFINED) {
-            hour = 0;
-        }
-        int minute = xmlCalendar.getMinute();
-        if (minute == DatatypeConstants.FIELD_UNDEFINED) {
-            minute = 0;
-        }
-        int second = xmlCalendar.getSecond();
-        if (second == DatatypeConstants.FIELD_UNDEFINED) {
-            second = 0;
-        }
-        int millisecond = xmlCalendar.getMillisecond();
-        if (millisecond == DatatypeConstants.FIELD_UNDEFINED) {
-            millisecond = 0;
-        }
-        return new TimePart(hour, minute, second, millisecond);
-    }    
+    private int elementCode() {
+        return SchemaNameTable.elementCode(staxReader.getNamespaceURI(), staxReader.getLocalName());
+    }
+    
+    /**
+     * 現在の要素の属性名のコードを得ます。
+     * @param ix 属性のインデックス
+     * @return 属性のコード
+     */
+    private int attributeCode(int ix) {
+        return SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeLocalName(ix));
+    }
     
     /**
      * 現在の要素以下をスキップします
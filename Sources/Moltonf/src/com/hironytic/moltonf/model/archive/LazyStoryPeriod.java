@@ -0,0 +1,235 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.lang.ref.SoftReference;
+import java.util.List;
+
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryPeriod;
+
+/**
+ * 要素が必要になったときに初めてアーカイブから読み込む StoryPeriod。
+ * 読み込んだ要素はソフト参照で保持するので、メモリが不足すると解放され、
+ * 次に必要になったときに再び読み込まれます。
+ * 表示しているなど、要素を使い続けている間は pin() しておくと、その間は解放されません。
+ */
+public class LazyStoryPeriod implements StoryPeriod {
+
+    /** このオブジェクトが属する Story */
+    private Story story;
+
+    /** 要素を読み込むためのローダー */
+    private final ArchivedStoryLoader loader;
+
+    /** アーカイブ中でのこの period のインデックス */
+    private final int periodIndex;
+
+    /** 読み込んだ要素のリストへのソフト参照 */
+    private SoftReference<List<StoryElement>> storyElementsRef = null;
+
+    /** 明示的にセットされた要素のリスト。セットされていれば解放の対象にならない */
+    private List<StoryElement> fixedStoryElements = null;
+
+    /** pin() された回数から unpin() された回数を引いたもの */
+    private int pinCount = 0;
+
+    /** pin されている間、読み込んだ要素が解放されないように保持しておくためのリスト */
+    private List<StoryElement> pinnedStoryElements = null;
+
+    /**
+     * コンストラクタ
+     * @param loader 要素を読み込むためのローダー
+     * @param periodIndex アーカイブ中でのこの period のインデックス
+     */
+    LazyStoryPeriod(ArchivedStoryLoader loader, int periodIndex) {
+        this.loader = loader;
+        this.periodIndex = periodIndex;
+    }
+
+    /**
+     * アーカイブ中でのこの period のインデックスを返します。
+     * @return インデックス
+     */
+    public int getPeriodIndex() {
+        return periodIndex;
+    }
+
+    /**
+     * アーカイブの索引を返します。
+     * 索引を用いれば、要素を読み込まずに発言の種別や発言者を調べることができます。
+     * @return 索引。索引を使わずに読み込んだ場合は null。
+     */
+    public ArchiveIndex getArchiveIndex() {
+        return loader.getArchiveIndex();
+    }
+
+    /**
+     * この period の内容を識別する値を返します。
+     * アーカイブファイルが更新されても、この period の内容が変わっていなければ同じ値を返します。
+     * 要素から作成したデータをファイルに保存しておき、後で使えるかどうかを判断するのに用います。
+     * @return 内容を識別する値
+     */
+    public long getContentKey() {
+        return loader.getPeriodContentKey(periodIndex);
+    }
+
+    /**
+     * 要素が読み込まれて、メモリ上に存在しているかどうかを返します。
+     * @return 要素がメモリ上に存在していれば true
+     */
+    public synchronized boolean isLoaded() {
+        return fixedStoryElements != null
+                || (storyElementsRef != null && storyElementsRef.get() != null);
+    }
+
+    /**
+     * メモリ上に存在している要素のリストを返します。
+     * getStoryElements() と異なり、読み込まれていなくてもここで読み込むことはしません。
+     * @return 要素のリスト。メモリ上に存在していなければ null。
+     */
+    public synchronized List<StoryElement> getLoadedStoryElements() {
+        if (fixedStoryElements != null) {
+            return fixedStoryElements;
+        }
+        return (storyElementsRef != null) ? storyElementsRef.get() : null;
+    }
+
+    /**
+     * 要素を読み込むためのローダーを返します。
+     * @return ローダー
+     */
+    ArchivedStoryLoader getLoader() {
+        return loader;
+    }
+
+    /**
+     * アーカイブファイルの内容が変わったときに呼び出されます。
+     * 読み込み済みの要素があれば、変わった内容で読み込み直します。
+     * 読み込まれていなければ、次に必要になったときに読み込まれるので何もしません。
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    synchronized void reload() {
+        List<StoryElement> storyElements = (storyElementsRef != null) ? storyElementsRef.get() : null;
+        if (storyElements != null) {
+            storyElements = loader.loadLazyPeriodElements(this, periodIndex);
+            storyElementsRef = new SoftReference<List<StoryElement>>(storyElements);
+        } else {
+            storyElementsRef = null;
+        }
+        pinnedStoryElements = (pinCount > 0) ? storyElements : null;
+    }
+
+    /**
+     * 要素を使い続けることを宣言します。
+     * unpin() されるまで、読み込んだ要素は evict() でもメモリ不足でも解放されません。
+     * 要素のリストが入れ替わらないので、リストの同一性で判断するキャッシュも有効なままになります。
+     */
+    public synchronized void pin() {
+        ++pinCount;
+        if (storyElementsRef != null) {
+            pinnedStoryElements = storyElementsRef.get();
+        }
+    }
+
+    /**
+     * pin() で宣言した要素の使用を終えます。
+     */
+    public synchronized void unpin() {
+        if (pinCount > 0) {
+            --pinCount;
+        }
+        if (pinCount == 0) {
+            pinnedStoryElements = null;
+        }
+    }
+
+    /**
+     * 読み込んだ要素を解放します。
+     * 明示的にセットされた要素や、pin されている要素は解放されません。
+     * 調べてから解放するまでを一度に行うので、他のスレッドが pin() した要素を解放してしまうことはありません。
+     * @return 解放した (あるいは読み込まれていなかった) 場合は true、pin されていて解放しなかった場合は false
+     */
+    public synchronized boolean evict() {
+        if (pinCount > 0) {
+            return false;
+        }
+        storyElementsRef = null;
+        return true;
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryPeriod#getStory()
+     */
+    @Override
+    public Story getStory() {
+        return story;
+    }
+
+    /**
+     * ストーリーを構成する要素のリストを取得します。
+     * まだ読み込まれていなければ (あるいは解放されていれば) ここで読み込みます。
+     * @return ストーリーを構成している要素たち
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    @Override
+    public synchronized List<StoryElement> getStoryElements() {
+        if (fixedStoryElements != null) {
+            return fixedStoryElements;
+        }
+
+        List<StoryElement> storyElements = (storyElementsRef != null) ? storyElementsRef.get() : null;
+        if (storyElements == null) {
+            storyElements = loader.loadLazyPeriodElements(this, periodIndex);
+            storyElementsRef = new SoftReference<List<StoryElement>>(storyElements);
+        }
+        if (pinCount > 0) {
+            pinnedStoryElements = storyElements;
+        }
+        return storyElements;
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryPeriod#setStory(com.hironytic.moltonf.model.Story)
+     */
+    @Override
+    public void setStory(Story story) {
+        this.story = story;
+    }
+
+    /**
+     * ストーリーを構成する要素のリストをセットします。
+     * セットした要素はアーカイブから読み込んだものに優先し、解放されることもありません。
+     * @param storyElements StoryElement のリスト
+     */
+    @Override
+    public synchronized void setStoryElements(List<StoryElement> storyElements) {
+        fixedStoryElements = storyElements;
+        storyElementsRef = null;
+        pinnedStoryElements = null;
+    }
+}
@@ -0,0 +1,692 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import com.hironytic.moltonf.Moltonf;
+import com.hironytic.moltonf.MoltonfException;
+import com.hironytic.moltonf.model.Avatar;
+import com.hironytic.moltonf.model.EventFamily;
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryEvent;
+import com.hironytic.moltonf.model.StoryPeriod;
+import com.hironytic.moltonf.model.Talk;
+import com.hironytic.moltonf.model.TalkType;
+import com.hironytic.moltonf.model.basic.BasicAvatar;
+import com.hironytic.moltonf.model.basic.BasicStory;
+import com.hironytic.moltonf.model.basic.BasicStoryEvent;
+import com.hironytic.moltonf.model.basic.BasicStoryPeriod;
+import com.hironytic.moltonf.model.basic.BasicTalk;
+import com.hironytic.moltonf.model.basic.BasicWolfAttackTalk;
+import com.hironytic.moltonf.util.TimeParser;
+
+/**
+ * プレイデータアーカイブのファイルをメモリにマップし、その上を直接走査して Story を得るためのクラス。
+ *
+ * StAX を経由しないので、要素名や属性名のための文字列を生成しません。
+ * また、発言などの本文はバイト位置だけを記録しておき、最初に参照されたときにデコードします。
+ * そのため、得られた Story が参照されている間はファイルがマップされたままになります。
+ *
+ * UTF-8 以外のエンコーディングのファイルや、2GB を超えるファイルの場合は
+ * ArchivedStoryLoader.load() と同じ方法で読み込みます。
+ */
+public class MappedStoryLoader {
+
+    /** ANNOUNCE 種別のイベントを表す要素のローカル名 */
+    private static final byte[][] EVENT_ANNOUNCE_NAMES = toLocalNameBytes(ArchivedStoryLoader.EVENT_ANNOUNCE_GROUP);
+
+    /** ORDER 種別のイベントを表す要素のローカル名 */
+    private static final byte[][] EVENT_ORDER_NAMES = toLocalNameBytes(ArchivedStoryLoader.EVENT_ORDER_GROUP);
+
+    /** EXTRA 種別のイベントを表す要素のローカル名 */
+    private static final byte[][] EVENT_EXTRA_NAMES = toLocalNameBytes(ArchivedStoryLoader.EVENT_EXTRA_GROUP);
+
+    private static final byte[] ELEM_VILLAGE = toLocalNameBytes(SchemaConstants.NAME_VILLAGE);
+    private static final byte[] ELEM_AVATAR_LIST = toLocalNameBytes(SchemaConstants.NAME_AVATAR_LIST);
+    private static final byte[] ELEM_AVATAR = toLocalNameBytes(SchemaConstants.NAME_AVATAR);
+    private static final byte[] ELEM_PERIOD = toLocalNameBytes(SchemaConstants.NAME_PERIOD);
+    private static final byte[] ELEM_TALK = toLocalNameBytes(SchemaConstants.NAME_TALK);
+    private static final byte[] ELEM_ASSAULT = toLocalNameBytes(SchemaConstants.NAME_ASSAULT);
+    private static final byte[] ELEM_LI = toLocalNameBytes(SchemaConstants.NAME_LI);
+    private static final byte[] ELEM_RAWDATA = toLocalNameBytes(SchemaConstants.NAME_RAWDATA);
+    private static final byte[] ELEM_PLAYER_LIST = toLocalNameBytes(SchemaConstants.NAME_PLAYER_LIST);
+    private static final byte[] ELEM_PLAYER_INFO = toLocalNameBytes(SchemaConstants.NAME_PLAYER_INFO);
+
+    private static final byte[] ATTR_BASE = toAttributeNameBytes(SchemaConstants.NAME_BASE);
+    private static final byte[] ATTR_STATE = toAttributeNameBytes(SchemaConstants.NAME_STATE);
+    private static final byte[] ATTR_FULL_NAME = toAttributeNameBytes(SchemaConstants.NAME_FULL_NAME);
+    private static final byte[] ATTR_GRAVE_ICON_URI = toAttributeNameBytes(SchemaConstants.NAME_GRAVE_ICON_URI);
+    private static final byte[] ATTR_AVATAR_ID = toAttributeNameBytes(SchemaConstants.NAME_AVATAR_ID);
+    private static final byte[] ATTR_SHORT_NAME = toAttributeNameBytes(SchemaConstants.NAME_SHORT_NAME);
+    private static final byte[] ATTR_FACE_ICON_URI = toAttributeNameBytes(SchemaConstants.NAME_FACE_ICON_URI);
+    private static final byte[] ATTR_TYPE = toAttributeNameBytes(SchemaConstants.NAME_TYPE);
+    private static final byte[] ATTR_TIME = toAttributeNameBytes(SchemaConstants.NAME_TIME);
+    private static final byte[] ATTR_BY_WHOM = toAttributeNameBytes(SchemaConstants.NAME_BY_WHOM);
+    private static final byte[] ATTR_ROLE = toAttributeNameBytes(SchemaConstants.NAME_ROLE);
+
+    /** マップしたファイルの内容 */
+    private final ByteBuffer buffer;
+
+    /** 走査に用いるカーソル */
+    private final MappedXmlCursor cursor;
+
+    /** xml:base 属性で指定されたベース URI */
+    private URI baseUri;
+
+    /** アバター ID と Avatar オブジェクトのマップ */
+    private Map<String, Avatar> avatarMap = new HashMap<String, Avatar>();
+
+    /** li 要素の内容の開始位置の作業領域 */
+    private int[] lineStarts = new int[16];
+
+    /** li 要素の内容の終了位置の作業領域 */
+    private int[] lineEnds = new int[16];
+
+    /**
+     * プレイデータアーカイブのファイルを読み込みます。
+     * @param archiveFile プレイデータアーカイブのファイル
+     * @return 読み込んだ結果の Story
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    public static Story load(File archiveFile) throws MoltonfException {
+        MappedByteBuffer buffer = null;
+        try {
+            FileInputStream inStream = new FileInputStream(archiveFile);
+            try {
+                FileChannel channel = inStream.getChannel();
+                if (channel.size() <= Integer.MAX_VALUE) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            } finally {
+                inStream.close();
+            }
+        } catch (IOException ex) {
+            throw new MoltonfException(ex);
+        }
+
+        if (buffer == null || !isSupportedEncoding(buffer)) {
+            return loadByStax(archiveFile);
+        }
+        return new MappedStoryLoader(buffer).doLoad();
+    }
+
+    /**
+     * ArchivedStoryLoader を用いてファイルを読み込みます。
+     * @param archiveFile プレイデータアーカイブのファイル
+     * @return 読み込んだ結果の Story
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    private static Story loadByStax(File archiveFile) throws MoltonfException {
+        try {
+            InputStream inStream = new BufferedInputStream(new FileInputStream(archiveFile));
+            try {
+                return ArchivedStoryLoader.load(inStream);
+            } finally {
+                inStream.close();
+            }
+        } catch (IOException ex) {
+            throw new MoltonfException(ex);
+        }
+    }
+
+    /**
+     * マップしたファイルの内容が、このクラスで扱えるエンコーディングかどうかを調べます。
+     * @param buffer マップしたファイルの内容
+     * @return 扱えるエンコーディングなら true
+     */
+    private static boolean isSupportedEncoding(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        if (limit == 0) {
+            return true;
+        }
+
+        // UTF-16 や UTF-32 は扱わない
+        int firstByte = buffer.get(0) & 0xff;
+        if (firstByte == 0x00 || firstByte == 0xfe || firstByte == 0xff) {
+            return false;
+        }
+
+        int start = (limit >= 3 && firstByte == 0xef && (buffer.get(1) & 0xff) == 0xbb
+                && (buffer.get(2) & 0xff) == 0xbf) ? 3 : 0;
+        if (limit < start + 5 || buffer.get(start) != '<' || buffer.get(start + 1) != '?') {
+            return true;
+        }
+        StringBuilder xmlDecl = new StringBuilder();
+        for (int ix = start + 2; ix < limit; ++ix) {
+            byte b = buffer.get(ix);
+            if (b == '>') {
+                break;
+            }
+            xmlDecl.append((char) b);
+        }
+        return !xmlDecl.toString().startsWith("xml") || ArchiveScanner.isSupportedEncoding(xmlDecl.toString());
+    }
+
+    /**
+     * コンストラクタ
+     * @param buffer マップしたファイルの内容
+     */
+    private MappedStoryLoader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.cursor = new MappedXmlCursor(buffer, 0, buffer.limit());
+    }
+
+    /**
+     * 読み込みを行います。(内部メソッド)
+     * @return 読み込んだ結果の Story
+     * @throws MoltonfException 読み込みに失敗した場合
+     */
+    private Story doLoad() throws MoltonfException {
+        int token;
+        while ((token = cursor.next()) != MappedXmlCursor.END_OF_INPUT) {
+            if (token == MappedXmlCursor.START_ELEMENT) {
+                if (cursor.isLocalName(ELEM_VILLAGE)) {
+                    return loadVillageElement();
+                } else {
+                    cursor.skipElement();
+                }
+            }
+        }
+        throw new MoltonfException("village element is not found.");
+    }
+
+    /**
+     * village 要素以下を読み込みます。
+     * このメソッドが呼ばれたとき cursor は village 要素の開始タグにいることが前提です。
+     * @return 読み込んだ結果の Story
+     */
+    private Story loadVillageElement() {
+        Story story = new BasicStory();
+
+        // 属性
+        String baseUriString = cursor.getAttributeValue(ATTR_BASE);
+        if (baseUriString != null && !baseUriString.isEmpty()) {
+            try {
+                baseUri = new URI(baseUriString);
+            } catch (URISyntaxException ex) {
+                baseUri = null;
+            }
+        }
+        String villageStateString = cursor.getAttributeValue(ATTR_STATE);
+        if (villageStateString != null) {
+            story.setVillageState(ArchivedStoryLoader.toVillageState(villageStateString));
+        }
+        String villageFullName = cursor.getAttributeValue(ATTR_FULL_NAME);
+        if (villageFullName != null) {
+            story.setVillageFullName(villageFullName);
+        }
+        String graveIconUriString = cursor.getAttributeValue(ATTR_GRAVE_ICON_URI);
+        if (graveIconUriString != null) {
+            story.setGraveIconUri(resolveUri(graveIconUriString, "graveIconUri"));
+        }
+
+        List<StoryPeriod> periodList = new ArrayList<StoryPeriod>();
+
+        // 子ノード
+        if (!cursor.isEmptyElement()) {
+            int token;
+            while ((token = cursor.next()) != MappedXmlCursor.END_OF_INPUT) {
+                if (token == MappedXmlCursor.END_ELEMENT) {
+                    break;
+                } else if (token == MappedXmlCursor.START_ELEMENT) {
+                    if (cursor.isLocalName(ELEM_AVATAR_LIST)) {
+                        story.setAvatarList(loadAvatarList(story));
+                    } else if (cursor.isLocalName(ELEM_PERIOD)) {
+                        periodList.add(loadPeriod(story));
+                    } else {
+                        cursor.skipElement();
+                    }
+                }
+            }
+        }
+
+        story.setPeriods(periodList);
+        return story;
+    }
+
+    /**
+     * avatarList 要素以下を読み込みます。
+     * このメソッドが呼ばれたとき cursor は avatarList 要素の開始タグにいることが前提です。
+     * @param story 読み込む Avatar たちが所属する Story
+     * @return 読み込んだ結果の Avatar のリスト
+     */
+    private List<Avatar> loadAvatarList(Story story) {
+        List<Avatar> avatarList = new ArrayList<Avatar>();
+        if (cursor.isEmptyElement()) {
+            return avatarList;
+        }
+
+        // 子ノード
+        int token;
+        while ((token = cursor.next()) != MappedXmlCursor.END_OF_INPUT) {
+            if (token == MappedXmlCursor.END_ELEMENT) {
+                break;
+            } else if (token == MappedXmlCursor.START_ELEMENT) {
+                if (cursor.isLocalName(ELEM_AVATAR)) {
+                    avatarList.add(loadAvatar(story));
+                } else {
+                    cursor.skipElement();
+                }
+            }
+        }
+        return avatarList;
+    }
+
+    /**
+     * avatar 要素以下を読み込みます。
+     * このメソッドが呼ばれたとき cursor は avatar 要素の開始タグにいることが前提です。
+     * @param story 読み込む Avatar が所属する Story
+     * @return 読み込んだ結果の Avatar
+     */
+    private Avatar loadAvatar(Story story) {
+        Avatar avatar = new BasicAvatar();
+        avatar.setStory(story);
+
+        // 属性
+        avatar.setAvatarId(cursor.getAttributeValue(ATTR_AVATAR_ID));
+        avatar.setFullName(cursor.getAttributeValue(ATTR_FULL_NAME));
+        avatar.setShortName(cursor.getAttributeValue(ATTR_SHORT_NAME));
+        String faceIconUriString = cursor.getAttributeValue(ATTR_FACE_ICON_URI);
+        if (faceIconUriString != null) {
+            avatar.setFaceIconUri(resolveUri(faceIconUriString, "faceIconUri"));
+        }
+
+        // 子ノード
+        cursor.skipElement();
+
+        avatarMap.put(avatar.getAvatarId(), avatar);
+        return avatar;
+    }
+
+    /**
+     * period 要素以下を読み込みます。
+     * このメソッドが呼ばれたとき cursor は period 要素の開始タグにいることが前提です。
+     * @param story 読み込んだ StoryPeriod が所属する Story
+     * @return 読み込んだ結果の StoryPeriod
+     */
+    private StoryPeriod loadPeriod(Story story) {
+        StoryPeriod period = new BasicStoryPeriod();
+        period.setStory(story);
+
+        List<StoryElement> elementList = new ArrayList<StoryElement>();
+        if (!cursor.isEmptyElement()) {
+            int token;
+            while ((token = cursor.next()) != MappedXmlCursor.END_OF_INPUT) {
+                if (token == MappedXmlCursor.END_ELEMENT) {
+                    break;
+                } else if (token == MappedXmlCursor.START_ELEMENT) {
+                    EventFamily eventFamily;
+                    if (cursor.isLocalName(ELEM_TALK)) {
+                        elementList.add(loadTalk(period));
+                    } else if ((eventFamily = toEventFamily()) != null) {
+                        elementList.add(loadStoryEvent(period, eventFamily));
+                    } else if (cursor.isLocalName(ELEM_ASSAULT)) {
+                        elementList.add(loadAssault(period));
+                    } else {
+                        cursor.skipElement();
+                    }
+                }
+            }
+        }
+
+        period.setStoryElements(elementList);
+        return period;
+    }
+
+    /**
+     * 現在の要素の要素名から、その要素が表すイベントの種別を得ます。
+     * @return イベントの種別。イベントを表す要素でなければ null。
+     */
+    private EventFamily toEventFamily() {
+        if (matchesAny(EVENT_ANNOUNCE_NAMES)) {
+            return EventFamily.ANNOUNCE;
+        } else if (matchesAny(EVENT_ORDER_NAMES)) {
+            return EventFamily.ORDER;
+        } else if (matchesAny(EVENT_EXTRA_NAMES)) {
+            return EventFamily.EXTRA;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * 現在の要素のローカル名が、指定したもののいずれかと一致するかどうかを調べます。
+     * @param localNames ローカル名の配列
+     * @return いずれかと一致すれば true
+     */
+    private boolean matchesAny(byte[][] localNames) {
+        for (byte[] localName : localNames) {
+            if (cursor.isLocalName(localName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * talk 要素以下を読み込みます。
+     * このメソッドが呼ばれたとき cursor は talk 要素の開始タグにいることが前提です。
+     * @param period 読み込んだ Talk が所属する StoryPeriod。
+     * @return 読み込んだ結果の Talk
+     */
+    private Talk loadTalk(StoryPeriod period) {
+        Talk talk = new BasicTalk();
+        talk.setStoryPeriod(period);
+
+        // 属性
+        String talkTypeString = cursor.getAttributeValue(ATTR_TYPE);
+        if (talkTypeString != null) {
+            talk.setTalkType(ArchivedStoryLoader.toTalkType(talkTypeString));
+        }
+        String avatarId = cursor.getAttributeValue(ATTR_AVATAR_ID);
+        if (avatarId != null) {
+            // スキーマとして avatarList が先に登場することが保証されているので
+            // 正しいデータならこの時点で avatarMap は作成済み。
+            talk.setSpeaker(avatarMap.get(avatarId));
+        }
+        String timeString = cursor.getAttributeValue(ATTR_TIME);
+        if (timeString != null) {
+            talk.setTime(TimeParser.parse(timeString));
+        }
+
+        talk.setMessageLines(loadMessageLines(false));
+        return talk;
+    }
+
+    /**
+     * assault 要素以下を読み込みます。
+     * このメソッドが呼ばれたとき cursor は assault 要素の開始タグにいることが前提です。
+     * @param period 読み込んだ WolfAttackTalk が所属する StoryPeriod。
+     * @return 読み込んだ結果の WolfAttackTalk
+     */
+    private Talk loadAssault(StoryPeriod period) {
+        Talk talk = new BasicWolfAttackTalk();
+        talk.setStoryPeriod(period);
+        talk.setTalkType(TalkType.WOLF);
+
+        // 属性
+        String avatarId = cursor.getAttributeValue(ATTR_BY_WHOM);
+        if (avatarId != null) {
+            // スキーマとして avatarList が先に登場することが保証されているので
+            // 正しいデータならこの時点で avatarMap は作成済み。
+            talk.setSpeaker(avatarMap.get(avatarId));
+        }
+        String timeString = cursor.getAttributeValue(ATTR_TIME);
+        if (timeString != null) {
+            talk.setTime(TimeParser.parse(timeString));
+        }
+
+        talk.setMessageLines(loadMessageLines(false));
+        return talk;
+    }
+
+    /**
+     * イベント系の要素以下を読み込みます。
+     * このメソッドが呼ばれたとき cursor は対象要素の開始タグにいることが前提です。
+     * @param period 読み込んだ StoryEvent が所属する StoryPeriod。
+     * @param eventFamily イベントの種別
+     * @return 読み込んだ結果の StoryEvent
+     */
+    private StoryEvent loadStoryEvent(StoryPeriod period, EventFamily eventFamily) {
+        StoryEvent storyEvent = new BasicStoryEvent();
+        storyEvent.setStoryPeriod(period);
+        storyEvent.setEventFamily(eventFamily);
+
+        storyEvent.setMessageLines(loadMessageLines(cursor.isLocalName(ELEM_PLAYER_LIST)));
+        return storyEvent;
+    }
+
+    /**
+     * 現在の要素の子である li 要素の位置を記録して、本文の行のリストを作成します。
+     * このメソッドが呼ばれたとき cursor は対象要素の開始タグにいることが前提です。
+     * @param isPlayerList 対象要素が playerList 要素なら true
+     * @return 本文の行のリスト。各行は最初に参照されたときにデコードされます。
+     */
+    private List<String> loadMessageLines(boolean isPlayerList) {
+        int lineCount = 0;
+        if (!cursor.isEmptyElement()) {
+            int token;
+            while ((token = cursor.next()) != MappedXmlCursor.END_OF_INPUT) {
+                if (token == MappedXmlCursor.END_ELEMENT) {
+                    break;
+                } else if (token == MappedXmlCursor.START_ELEMENT) {
+                    if (cursor.isLocalName(ELEM_LI)) {
+                        if (lineCount == lineStarts.length) {
+                            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+                        }
+                        int contentStart = cursor.getPosition();
+                        cursor.skipElement();
+                        lineStarts[lineCount] = contentStart;
+                        lineEnds[lineCount] = cursor.isEmptyElement() ? contentStart : cursor.getMarkupStart();
+                        ++lineCount;
+                    } else if (isPlayerList && cursor.isLocalName(ELEM_PLAYER_INFO)) {
+                        loadPlayerInfo();
+                    } else {
+                        cursor.skipElement();
+                    }
+                }
+            }
+        }
+        return new MappedMessageLines(buffer, Arrays.copyOf(lineStarts, lineCount),
+                Arrays.copyOf(lineEnds, lineCount));
+    }
+
+    /**
+     * playerInfo 要素以下を読み込みます。
+     * このメソッドが呼ばれたとき cursor は playerInfo 要素の開始タグにいることが前提です。
+     */
+    private void loadPlayerInfo() {
+        // playerInfo のうち、role 属性で示される役職を読み込んで
+        // avatarId 属性で示されるアバターの Avatar オブジェクトに役職をセットする
+        String avatarId = cursor.getAttributeValue(ATTR_AVATAR_ID);
+        String roleString = cursor.getAttributeValue(ATTR_ROLE);
+        if (avatarId != null && roleString != null) {
+            // スキーマとして avatarList が先に登場することが保証されているので
+            // 正しいデータならこの時点で avatarMap は作成済み。
+            Avatar avatar = avatarMap.get(avatarId);
+            if (avatar != null) {
+                avatar.setRole(ArchivedStoryLoader.toRole(roleString));
+            }
+        }
+
+        cursor.skipElement();
+    }
+
+    /**
+     * URI 文字列をベース URI に対して解決します。
+     * @param uriString URI 文字列
+     * @param description 警告メッセージに用いる説明
+     * @return 解決した URI。不正な URI の場合は null。
+     */
+    private URI resolveUri(String uriString, String description) {
+        try {
+            if (baseUri != null) {
+                return baseUri.resolve(new URI(uriString));
+            } else {
+                return new URI(uriString);
+            }
+        } catch (URISyntaxException ex) {
+            Moltonf.getLogger().warning(description + " is not valid : " + uriString, ex);
+            return null;
+        }
+    }
+
+    /**
+     * 要素の QName のリストから、ローカル名の UTF-8 バイト列の配列を作成します。
+     * @param names QName のリスト
+     * @return ローカル名のバイト列の配列
+     */
+    private static byte[][] toLocalNameBytes(List<QName> names) {
+        byte[][] result = new byte[names.size()][];
+        for (int ix = 0; ix < result.length; ++ix) {
+            result[ix] = toLocalNameBytes(names.get(ix));
+        }
+        return result;
+    }
+
+    /**
+     * 要素の QName から、ローカル名の UTF-8 バイト列を作成します。
+     * @param name QName
+     * @return ローカル名のバイト列
+     */
+    private static byte[] toLocalNameBytes(QName name) {
+        return toUtf8Bytes(name.getLocalPart());
+    }
+
+    /**
+     * 属性の QName から、接頭辞付きの属性名の UTF-8 バイト列を作成します。
+     * @param name QName
+     * @return 属性名のバイト列
+     */
+    private static byte[] toAttributeNameBytes(QName name) {
+        String prefix = name.getPrefix();
+        if (prefix == null || prefix.isEmpty()) {
+            return toUtf8Bytes(name.getLocalPart());
+        } else {
+            return toUtf8Bytes(prefix + ":" + name.getLocalPart());
+        }
+    }
+
+    /**
+     * 文字列を UTF-8 のバイト列にします。
+     * @param str 文字列
+     * @return バイト列
+     */
+    private static byte[] toUtf8Bytes(String str) {
+        try {
+            return str.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new MoltonfException(ex);
+        }
+    }
+
+    /**
+     * マップしたファイル中の li 要素の位置を保持し、
+     * 各行を最初に参照されたときにデコードする本文の行のリスト
+     */
+    private static class MappedMessageLines extends AbstractList<String> {
+
+        /** マップしたファイルの内容 */
+        private final ByteBuffer buffer;
+
+        /** 各 li 要素の内容の開始位置 */
+        private final int[] starts;
+
+        /** 各 li 要素の内容の終了位置 */
+        private final int[] ends;
+
+        /** デコードした行 */
+        private final String[] lines;
+
+        /**
+         * コンストラクタ
+         * @param buffer マップしたファイルの内容
+         * @param starts 各 li 要素の内容の開始位置
+         * @param ends 各 li 要素の内容の終了位置
+         */
+        public MappedMessageLines(ByteBuffer buffer, int[] starts, int[] ends) {
+            this.buffer = buffer;
+            this.starts = starts;
+            this.ends = ends;
+            this.lines = new String[starts.length];
+        }
+
+        /**
+         * @see java.util.AbstractList#get(int)
+         */
+        @Override
+        public synchronized String get(int index) {
+            String line = lines[index];
+            if (line == null) {
+                line = decodeLine(starts[index], ends[index]);
+                lines[index] = line;
+            }
+            return line;
+        }
+
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+            return lines.length;
+        }
+
+        /**
+         * li 要素の内容をデコードします。
+         * rawdata 要素の中の文字データは含め、それ以外の子要素は読み飛ばします。
+         * @param start li 要素の内容の開始位置
+         * @param end li 要素の内容の終了位置
+         * @return 1 行分の文字列
+         */
+        private String decodeLine(int start, int end) {
+            StringBuilder buf = new StringBuilder(end - start);
+            MappedXmlCursor lineCursor = new MappedXmlCursor(buffer, start, end);
+            int rawdataDepth = 0;
+            int token;
+            while ((token = lineCursor.next()) != MappedXmlCursor.END_OF_INPUT) {
+                if (token == MappedXmlCursor.TEXT) {
+                    // 全角チルダ(U+FF5E, FULLWIDTH TILDE)と波ダッシュ(U+301C, WAVE DASH)の変換。やるならここ
+                    lineCursor.appendText(buf);
+                } else if (token == MappedXmlCursor.CDATA) {
+                    lineCursor.appendCdata(buf);
+                } else if (token == MappedXmlCursor.START_ELEMENT) {
+                    if (rawdataDepth == 0 && lineCursor.isLocalName(ELEM_RAWDATA)) {
+                        if (!lineCursor.isEmptyElement()) {
+                            rawdataDepth = 1;
+                        }
+                    } else {
+                        lineCursor.skipElement();
+                    }
+                } else if (token == MappedXmlCursor.END_ELEMENT) {
+                    rawdataDepth = 0;
+                }
+            }
+            return buf.toString();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * UTF-8 で書かれた XML のバイト列 (メモリマップしたファイルなど) の上を、
+ * 文字列を生成せずに移動していくためのカーソル。
+ *
+ * 要素名や属性名はバイト位置で保持し、文字列が必要になったときにだけデコードします。
+ * 名前空間の解決は行わず、要素はローカル名で、属性は接頭辞付きの名前で比較します。
+ * コメント、処理命令、DOCTYPE 宣言は読み飛ばします。
+ */
+class MappedXmlCursor {
+
+    /** トークン: 入力の終わり */
+    public static final int END_OF_INPUT = 0;
+
+    /** トークン: 開始タグ (空要素タグを含む) */
+    public static final int START_ELEMENT = 1;
+
+    /** トークン: 終了タグ */
+    public static final int END_ELEMENT = 2;
+
+    /** トークン: 文字データ */
+    public static final int TEXT = 3;
+
+    /** トークン: CDATA セクション */
+    public static final int CDATA = 4;
+
+    /** UTF-8 文字セット */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** 対象となるバイト列 */
+    private final ByteBuffer buffer;
+
+    /** 次に読むバイトの位置 */
+    private int pos;
+
+    /** 読み込む範囲の終わり */
+    private final int limit;
+
+    /** 直前のトークンのマークアップの開始位置 */
+    private int markupStart;
+
+    /** 直前の TEXT または CDATA トークンの内容の開始位置 */
+    private int contentStart;
+
+    /** 直前の TEXT または CDATA トークンの内容の終了位置 */
+    private int contentEnd;
+
+    /** 直前の開始タグまたは終了タグの要素名の開始位置 */
+    private int nameStart;
+
+    /** 直前の開始タグまたは終了タグの要素名の終了位置 */
+    private int nameEnd;
+
+    /** 直前の開始タグが空要素タグかどうか */
+    private boolean isEmptyElement;
+
+    /** 直前の開始タグの属性の数 */
+    private int attributeCount;
+
+    /** 各属性の属性名の開始位置と終了位置、属性値の開始位置と終了位置 */
+    private int[] attributePositions = new int[4 * 8];
+
+    /** デコード用の作業バッファ */
+    private byte[] workBytes = new byte[256];
+
+    /**
+     * コンストラクタ
+     * @param buffer 対象となるバイト列
+     * @param start 読み込む範囲の開始位置
+     * @param limit 読み込む範囲の終わり
+     */
+    public MappedXmlCursor(ByteBuffer buffer, int start, int limit) {
+        this.buffer = buffer;
+        this.pos = start;
+        this.limit = limit;
+    }
+
+    /**
+     * 次のトークンへ進みます。
+     * @return トークンの種類
+     */
+    public int next() {
+        while (pos < limit) {
+            markupStart = pos;
+            if (buffer.get(pos) != '<') {
+                contentStart = pos;
+                pos = indexOf('<', pos);
+                contentEnd = pos;
+                return TEXT;
+            }
+
+            if (startsWith(pos, "<!--")) {
+                pos = indexOf("-->", pos + 4) + 3;
+            } else if (startsWith(pos, "<![CDATA[")) {
+                contentStart = pos + 9;
+                contentEnd = indexOf("]]>", contentStart);
+                pos = Math.min(contentEnd + 3, limit);
+                return CDATA;
+            } else if (startsWith(pos, "<!")) {
+                skipDeclaration();
+            } else if (startsWith(pos, "<?")) {
+                pos = indexOf("?>", pos + 2) + 2;
+            } else if (startsWith(pos, "</")) {
+                nameStart = pos + 2;
+                nameEnd = scanName(nameStart);
+                pos = Math.min(indexOf('>', nameEnd) + 1, limit);
+                return END_ELEMENT;
+            } else {
+                nameStart = pos + 1;
+                nameEnd = scanName(nameStart);
+                pos = nameEnd;
+                scanAttributes();
+                return START_ELEMENT;
+            }
+        }
+        pos = limit;
+        return END_OF_INPUT;
+    }
+
+    /**
+     * 直前の開始タグの要素を、その終了タグまで読み飛ばします。
+     * 空要素タグの場合は何もしません。
+     * このメソッドから戻ったとき、getMarkupStart() は終了タグの位置を返します。
+     */
+    public void skipElement() {
+        if (isEmptyElement) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            int token = next();
+            if (token == START_ELEMENT) {
+                if (!isEmptyElement) {
+                    ++depth;
+                }
+            } else if (token == END_ELEMENT) {
+                --depth;
+            } else if (token == END_OF_INPUT) {
+                break;
+            }
+        }
+        isEmptyElement = false;
+    }
+
+    /**
+     * 次に読むバイトの位置を返します。
+     * @return バイト位置
+     */
+    public int getPosition() {
+        return pos;
+    }
+
+    /**
+     * 直前のトークンのマークアップの開始位置を返します。
+     * @return バイト位置
+     */
+    public int getMarkupStart() {
+        return markupStart;
+    }
+
+    /**
+     * 直前の開始タグが空要素タグかどうかを返します。
+     * @return 空要素タグなら true
+     */
+    public boolean isEmptyElement() {
+        return isEmptyElement;
+    }
+
+    /**
+     * 直前の開始タグまたは終了タグの要素のローカル名が、指定したものと一致するかどうかを調べます。
+     * @param localName ローカル名の UTF-8 バイト列
+     * @return 一致すれば true
+     */
+    public boolean isLocalName(byte[] localName) {
+        int start = nameStart;
+        for (int ix = nameStart; ix < nameEnd; ++ix) {
+            if (buffer.get(ix) == ':') {
+                start = ix + 1;
+                break;
+            }
+        }
+        return regionEquals(start, nameEnd, localName);
+    }
+
+    /**
+     * 直前の開始タグから、指定した名前の属性値を得ます。
+     * @param attrName 属性名 (接頭辞付きの場合はそれを含む) の UTF-8 バイト列
+     * @return 属性値。属性がなければ null。
+     */
+    public String getAttributeValue(byte[] attrName) {
+        for (int ix = 0; ix < attributeCount; ++ix) {
+            int base = ix * 4;
+            if (regionEquals(attributePositions[base], attributePositions[base + 1], attrName)) {
+                String value = decode(attributePositions[base + 2], attributePositions[base + 3]);
+                // 属性値の正規化
+                value = value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+                return ArchiveScanner.unescape(value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 直前の TEXT トークンの内容を、実体参照を展開し、改行を正規化して追加します。
+     * @param buf 追加先
+     */
+    public void appendText(StringBuilder buf) {
+        String text = decode(contentStart, contentEnd);
+        if (text.indexOf('\r') >= 0) {
+            text = text.replace("\r\n", "\n").replace('\r', '\n');
+        }
+        buf.append(ArchiveScanner.unescape(text));
+    }
+
+    /**
+     * 直前の CDATA トークンの内容を、改行を正規化して追加します。
+     * @param buf 追加先
+     */
+    public void appendCdata(StringBuilder buf) {
+        String text = decode(contentStart, contentEnd);
+        if (text.indexOf('\r') >= 0) {
+            text = text.replace("\r\n", "\n").replace('\r', '\n');
+        }
+        buf.append(text);
+    }
+
+    /**
+     * 指定した範囲のバイト列を UTF-8 としてデコードします。
+     * @param start 開始位置
+     * @param end 終了位置
+     * @return デコードした文字列
+     */
+    private String decode(int start, int end) {
+        int length = end - start;
+        if (workBytes.length < length) {
+            workBytes = new byte[Math.max(length, workBytes.length * 2)];
+        }
+        for (int ix = 0; ix < length; ++ix) {
+            workBytes[ix] = buffer.get(start + ix);
+        }
+        return new String(workBytes, 0, length, UTF8);
+    }
+
+    /**
+     * 要素名や属性名の終わりの位置を探します。
+     * @param start 名前の開始位置
+     * @return 名前の終了位置
+     */
+    private int scanName(int start) {
+        int ix = start;
+        while (ix < limit) {
+            byte b = buffer.get(ix);
+            if (b == '>' || b == '/' || b == '=' || isWhitespace(b)) {
+                break;
+            }
+            ++ix;
+        }
+        return ix;
+    }
+
+    /**
+     * 開始タグの属性を読み込んで、タグの終わりまで進みます。
+     */
+    private void scanAttributes() {
+        attributeCount = 0;
+        isEmptyElement = false;
+        while (pos < limit) {
+            byte b = buffer.get(pos);
+            if (b == '>') {
+                ++pos;
+                return;
+            } else if (b == '/') {
+                ++pos;
+                if (pos < limit && buffer.get(pos) == '>') {
+                    ++pos;
+                    isEmptyElement = true;
+                    return;
+                }
+            } else if (isWhitespace(b)) {
+                ++pos;
+            } else {
+                int attrNameStart = pos;
+                int attrNameEnd = scanName(pos);
+                pos = skipWhitespace(attrNameEnd);
+                if (pos >= limit || buffer.get(pos) != '=') {
+                    pos = Math.max(pos, attrNameEnd + 1);
+                    continue;
+                }
+                pos = skipWhitespace(pos + 1);
+                if (pos >= limit) {
+                    return;
+                }
+                byte quote = buffer.get(pos);
+                if (quote != '"' && quote != '\'') {
+                    continue;
+                }
+                int valueStart = pos + 1;
+                int valueEnd = indexOf(quote, valueStart);
+                pos = Math.min(valueEnd + 1, limit);
+
+                int base = attributeCount * 4;
+                if (base + 4 > attributePositions.length) {
+                    attributePositions = Arrays.copyOf(attributePositions, attributePositions.length * 2);
+                }
+                attributePositions[base] = attrNameStart;
+                attributePositions[base + 1] = attrNameEnd;
+                attributePositions[base + 2] = valueStart;
+                attributePositions[base + 3] = valueEnd;
+                ++attributeCount;
+            }
+        }
+    }
+
+    /**
+     * DOCTYPE などの宣言を読み飛ばします。内部サブセットの [ ] を考慮します。
+     */
+    private void skipDeclaration() {
+        int bracketDepth = 0;
+        byte quote = 0;
+        pos += 2;
+        while (pos < limit) {
+            byte b = buffer.get(pos++);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                ++bracketDepth;
+            } else if (b == ']') {
+                --bracketDepth;
+            } else if (b == '>' && bracketDepth <= 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 空白文字を読み飛ばした位置を返します。
+     * @param start 開始位置
+     * @return 空白文字でない最初の位置
+     */
+    private int skipWhitespace(int start) {
+        int ix = start;
+        while (ix < limit && isWhitespace(buffer.get(ix))) {
+            ++ix;
+        }
+        return ix;
+    }
+
+    /**
+     * 指定したバイトが現れる位置を探します。
+     * @param b 探すバイト
+     * @param start 探し始める位置
+     * @return 見つかった位置。見つからなければ範囲の終わり。
+     */
+    private int indexOf(int b, int start) {
+        for (int ix = start; ix < limit; ++ix) {
+            if (buffer.get(ix) == b) {
+                return ix;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 指定した ASCII 文字列が現れる位置を探します。
+     * @param str 探す文字列
+     * @param start 探し始める位置
+     * @return 見つかった位置。見つからなければ範囲の終わり。
+     */
+    private int indexOf(String str, int start) {
+        int ix = indexOf(str.charAt(0), start);
+        while (ix < limit) {
+            if (startsWith(ix, str)) {
+                return ix;
+            }
+            ix = indexOf(str.charAt(0), ix + 1);
+        }
+        return limit;
+    }
+
+    /**
+     * 指定した位置から ASCII 文字列が始まっているかどうかを調べます。
+     * @param start 調べる位置
+     * @param str 文字列
+     * @return 始まっていれば true
+     */
+    private boolean startsWith(int start, String str) {
+        if (start + str.length() > limit) {
+            return false;
+        }
+        for (int ix = 0; ix < str.length(); ++ix) {
+            if (buffer.get(start + ix) != str.charAt(ix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 指定した範囲のバイト列が、指定したバイト列と一致するかどうかを調べます。
+     * @param start 範囲の開始位置
+     * @param end 範囲の終了位置
+     * @param bytes 比較するバイト列
+     * @return 一致すれば true
+     */
+    private boolean regionEquals(int start, int end, byte[] bytes) {
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int ix = 0; ix < bytes.length; ++ix) {
+            if (buffer.get(start + ix) != bytes[ix]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * XML の空白文字かどうかを調べます。
+     * @param b 調べるバイト
+     * @return 空白文字なら true
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
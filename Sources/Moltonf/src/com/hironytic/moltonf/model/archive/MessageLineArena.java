@@ -0,0 +1,247 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 1 つの period に含まれるメッセージの行を、1 つの文字配列にまとめて保持するクラス。
+ *
+ * 各要素のメッセージの行のリストは、この文字配列の中の位置と長さだけを持ち、
+ * get() が呼ばれたときに String を作成します。
+ * 短い行は同じ内容のものが既に追加されていればその位置を共有します。
+ * 読み込みが終わったら trim() を呼んで、以降は追加しないでください。
+ */
+final class MessageLineArena {
+
+    /** 同じ内容の行を共有する対象とする行の長さの上限 */
+    private static final int MAX_SHARED_LENGTH = 64;
+
+    /** 文字配列 */
+    private char[] chars = new char[4096];
+
+    /** 文字配列の使用済みの長さ */
+    private int length = 0;
+
+    /**
+     * 共有する行のハッシュ表 (オープンアドレス法)。
+     * 各エントリは (開始位置 + 1) で、0 なら空き。trim() の後は null。
+     */
+    private int[] sharedStarts = new int[256];
+
+    /** 共有する行のハッシュ表の各エントリの長さ */
+    private int[] sharedLengths = new int[256];
+
+    /** 共有する行の数 */
+    private int sharedCount = 0;
+
+    /**
+     * コンストラクタ
+     */
+    MessageLineArena() {
+    }
+
+    /**
+     * 行のリストの内容を追加し、それを参照するリストを返します。
+     * @param lines 行のリスト
+     * @return 追加した内容を参照する行のリスト
+     */
+    List<String> addLines(List<String> lines) {
+        int[] bounds = new int[lines.size() * 2];
+        for (int ix = 0; ix < lines.size(); ++ix) {
+            String line = lines.get(ix);
+            bounds[ix * 2] = addLine(line);
+            bounds[ix * 2 + 1] = line.length();
+        }
+        return new Lines(this, bounds);
+    }
+
+    /**
+     * 読み込みが終わった後に、余分な領域を解放します。
+     */
+    void trim() {
+        if (chars.length != length) {
+            chars = Arrays.copyOf(chars, length);
+        }
+        sharedStarts = null;
+        sharedLengths = null;
+    }
+
+    /**
+     * 文字配列の大きさを返します。
+     * @return 文字配列の大きさ (文字数)
+     */
+    int getCapacity() {
+        return chars.length;
+    }
+
+    /**
+     * 1 行を追加して、その開始位置を返します。
+     * @param line 行
+     * @return 文字配列中の開始位置
+     */
+    private int addLine(String line) {
+        int lineLength = line.length();
+        int slot = -1;
+        if (lineLength <= MAX_SHARED_LENGTH) {
+            // 同じ内容の行があれば共有する
+            int mask = sharedStarts.length - 1;
+            for (slot = line.hashCode() & mask; sharedStarts[slot] != 0; slot = (slot + 1) & mask) {
+                if (sharedLengths[slot] == lineLength && regionEquals(sharedStarts[slot] - 1, line)) {
+                    return sharedStarts[slot] - 1;
+                }
+            }
+        }
+
+        if (length + lineLength > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + lineLength));
+        }
+        int start = length;
+        line.getChars(0, lineLength, chars, start);
+        length += lineLength;
+
+        if (slot >= 0) {
+            sharedStarts[slot] = start + 1;
+            sharedLengths[slot] = lineLength;
+            ++sharedCount;
+            if (sharedCount * 2 > sharedStarts.length) {
+                rehash();
+            }
+        }
+        return start;
+    }
+
+    /**
+     * 共有する行のハッシュ表を 2 倍の大きさに作り直します。
+     */
+    private void rehash() {
+        int[] newStarts = new int[sharedStarts.length * 2];
+        int[] newLengths = new int[sharedStarts.length * 2];
+        int mask = newStarts.length - 1;
+        for (int ix = 0; ix < sharedStarts.length; ++ix) {
+            if (sharedStarts[ix] != 0) {
+                int start = sharedStarts[ix] - 1;
+                int slot = hashCode(start, sharedLengths[ix]) & mask;
+                while (newStarts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newStarts[slot] = sharedStarts[ix];
+                newLengths[slot] = sharedLengths[ix];
+            }
+        }
+        sharedStarts = newStarts;
+        sharedLengths = newLengths;
+    }
+
+    /**
+     * 文字配列の指定範囲について、String#hashCode() と同じハッシュ値を計算します。
+     * @param start 開始位置
+     * @param count 長さ
+     * @return ハッシュ値
+     */
+    private int hashCode(int start, int count) {
+        int hash = 0;
+        for (int ix = start; ix < start + count; ++ix) {
+            hash = 31 * hash + chars[ix];
+        }
+        return hash;
+    }
+
+    /**
+     * 文字配列の指定位置からの内容が、文字列と一致するかどうかを調べます。
+     * @param start 開始位置
+     * @param line 文字列
+     * @return 一致すれば true
+     */
+    private boolean regionEquals(int start, String line) {
+        for (int ix = 0; ix < line.length(); ++ix) {
+            if (chars[start + ix] != line.charAt(ix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * MessageLineArena の内容を参照するメッセージの行のリスト
+     */
+    static final class Lines extends AbstractList<String> implements RandomAccess {
+
+        /** 内容を保持している MessageLineArena */
+        private final MessageLineArena arena;
+
+        /** 各行の開始位置と長さを交互に並べた配列 */
+        private final int[] bounds;
+
+        /**
+         * コンストラクタ
+         * @param arena 内容を保持している MessageLineArena
+         * @param bounds 各行の開始位置と長さを交互に並べた配列
+         */
+        Lines(MessageLineArena arena, int[] bounds) {
+            this.arena = arena;
+            this.bounds = bounds;
+        }
+
+        /**
+         * @see java.util.AbstractList#get(int)
+         */
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return new String(arena.chars, bounds[index * 2], bounds[index * 2 + 1]);
+        }
+
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+            return bounds.length / 2;
+        }
+
+        /**
+         * 内容を保持している MessageLineArena を返します。
+         * @return MessageLineArena
+         */
+        MessageLineArena getArena() {
+            return arena;
+        }
+
+        /**
+         * 各行の開始位置と長さを交互に並べた配列の長さを返します。
+         * @return 配列の長さ
+         */
+        int getBoundsLength() {
+            return bounds.length;
+        }
+    }
+}
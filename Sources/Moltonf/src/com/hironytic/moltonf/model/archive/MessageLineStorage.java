@@ -0,0 +1,46 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+/**
+ * 読み込んだメッセージの行をどのように保持するかを表す列挙型
+ */
+public enum MessageLineStorage {
+    /** 行ごとに String として保持します */
+    STRING,
+
+    /** 行ごとに String として保持し、同じ内容の短い行は Story 全体で 1 つのオブジェクトを共有します */
+    POOLED_STRING,
+
+    /** period ごとに 1 つの文字配列にまとめて保持し、各行は位置と長さで参照します */
+    ARENA,
+
+    /**
+     * period ごとに、メッセージの行を含む要素の内容を項目ごとの配列にまとめて保持します。
+     * 要素は ColumnarElementList が返す変更できないビューになります。
+     */
+    COLUMNAR,
+}
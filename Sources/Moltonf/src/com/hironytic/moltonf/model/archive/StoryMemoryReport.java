@@ -0,0 +1,344 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryPeriod;
+import com.hironytic.moltonf.model.Talk;
+import com.hironytic.moltonf.model.columnar.ColumnarElementList;
+import com.hironytic.moltonf.util.TimePart;
+
+/**
+ * 読み込んだ Story の要素とメッセージの行が占めるメモリ量を見積もった結果。
+ *
+ * 要素のオブジェクトの大きさは BasicTalk、BasicStoryEvent のフィールド構成をもとに見積もります。
+ * 同じオブジェクトを複数の要素が共有している場合は 1 回だけ数えます。
+ * 見積もりは、参照が 4 バイトの 64 ビット VM で、文字列の 1 文字が 2 バイトであることを前提にしています。
+ * 遅延読み込みの period は、その時点でメモリ上に存在しているものだけを数えます。
+ */
+public class StoryMemoryReport {
+
+    /** オブジェクトのヘッダの大きさ */
+    private static final int OBJECT_HEADER_SIZE = 12;
+
+    /** 配列のヘッダの大きさ */
+    private static final int ARRAY_HEADER_SIZE = 16;
+
+    /** 参照の大きさ */
+    private static final int REFERENCE_SIZE = 4;
+
+    /** String オブジェクト自体の大きさ (文字の配列を除く) */
+    private static final int STRING_SIZE = 24;
+
+    /** BasicTalk オブジェクトの大きさ */
+    private static final int TALK_SIZE = 40;
+
+    /** BasicStoryEvent オブジェクトの大きさ */
+    private static final int STORY_EVENT_SIZE = 24;
+
+    /** TimePart オブジェクトの大きさ */
+    private static final int TIME_PART_SIZE = 16;
+
+    /** period の数 */
+    private int periodCount = 0;
+
+    /** メモリ上に存在している period の数 */
+    private int loadedPeriodCount = 0;
+
+    /** 要素の数 */
+    private int elementCount = 0;
+
+    /** メッセージの行の数 */
+    private int lineCount = 0;
+
+    /** メッセージの行の文字数の合計 */
+    private long charCount = 0;
+
+    /** 行を保持している String オブジェクトの数 */
+    private int stringCount = 0;
+
+    /** 行を保持している MessageLineArena の数 */
+    private int arenaCount = 0;
+
+    /** 行を保持している String オブジェクトの大きさの合計 */
+    private long stringBytes = 0;
+
+    /** 行を保持している MessageLineArena の大きさの合計 */
+    private long arenaBytes = 0;
+
+    /** 行のリストの大きさの合計 */
+    private long listBytes = 0;
+
+    /** 要素のオブジェクトとそのリストの大きさの合計 */
+    private long elementBytes = 0;
+
+    /** 要素の内容を項目ごとに保持している配列の大きさの合計 */
+    private long columnBytes = 0;
+
+    /**
+     * コンストラクタ
+     */
+    private StoryMemoryReport() {
+    }
+
+    /**
+     * Story のメッセージの行が占めるメモリ量を見積もります。
+     * @param story 対象の Story
+     * @return 見積もった結果
+     */
+    public static StoryMemoryReport measure(Story story) {
+        StoryMemoryReport report = new StoryMemoryReport();
+        Map<Object, Boolean> counted = new IdentityHashMap<Object, Boolean>();
+        List<StoryPeriod> periods = story.getPeriods();
+        if (periods != null) {
+            for (StoryPeriod period : periods) {
+                ++report.periodCount;
+                List<StoryElement> elements;
+                if (period instanceof LazyStoryPeriod) {
+                    elements = ((LazyStoryPeriod)period).getLoadedStoryElements();
+                } else {
+                    elements = period.getStoryElements();
+                }
+                if (elements instanceof ColumnarElementList) {
+                    // 各行の String は作らずに数える
+                    ColumnarElementList columns = (ColumnarElementList)elements;
+                    ++report.loadedPeriodCount;
+                    report.elementCount += columns.size();
+                    report.lineCount += columns.getLineCount();
+                    report.charCount += columns.getCharCount();
+                    report.columnBytes += columns.getEstimatedArrayBytes();
+                } else if (elements != null) {
+                    ++report.loadedPeriodCount;
+                    report.elementBytes += align(OBJECT_HEADER_SIZE + 4 * 2 + REFERENCE_SIZE)
+                            + align(ARRAY_HEADER_SIZE + (long)REFERENCE_SIZE * elements.size());
+                    for (StoryElement element : elements) {
+                        ++report.elementCount;
+                        report.measureElement(element, counted);
+                        report.measureLines(element.getMessageLines(), counted);
+                    }
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * 1 つの要素のオブジェクトを数えます。
+     * @param element 要素
+     * @param counted 既に数えたオブジェクト
+     */
+    private void measureElement(StoryElement element, Map<Object, Boolean> counted) {
+        if (element instanceof Talk) {
+            elementBytes += TALK_SIZE;
+            TimePart time = ((Talk)element).getTime();
+            if (time != null && counted.put(time, Boolean.TRUE) == null) {
+                elementBytes += TIME_PART_SIZE;
+            }
+        } else {
+            elementBytes += STORY_EVENT_SIZE;
+        }
+    }
+
+    /**
+     * 1 つの要素のメッセージの行のリストを数えます。
+     * @param lines メッセージの行のリスト
+     * @param counted 既に数えたオブジェクト
+     */
+    private void measureLines(List<String> lines, Map<Object, Boolean> counted) {
+        if (lines == null) {
+            return;
+        }
+        lineCount += lines.size();
+        if (lines instanceof MessageLineArena.Lines) {
+            MessageLineArena.Lines arenaLines = (MessageLineArena.Lines)lines;
+            for (String line : lines) {
+                charCount += line.length();
+            }
+            listBytes += align(OBJECT_HEADER_SIZE + REFERENCE_SIZE * 2)
+                    + align(ARRAY_HEADER_SIZE + 4L * arenaLines.getBoundsLength());
+            MessageLineArena arena = arenaLines.getArena();
+            if (counted.put(arena, Boolean.TRUE) == null) {
+                ++arenaCount;
+                arenaBytes += align(OBJECT_HEADER_SIZE + REFERENCE_SIZE * 3 + 4 * 2)
+                        + align(ARRAY_HEADER_SIZE + 2L * arena.getCapacity());
+            }
+        } else {
+            if (lines instanceof ArrayList) {
+                listBytes += align(OBJECT_HEADER_SIZE + 4 * 2 + REFERENCE_SIZE);
+            } else {
+                listBytes += align(OBJECT_HEADER_SIZE + REFERENCE_SIZE);
+            }
+            listBytes += align(ARRAY_HEADER_SIZE + (long)REFERENCE_SIZE * lines.size());
+            for (String line : lines) {
+                charCount += line.length();
+                if (counted.put(line, Boolean.TRUE) == null) {
+                    ++stringCount;
+                    stringBytes += STRING_SIZE + align(ARRAY_HEADER_SIZE + 2L * line.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * オブジェクトの大きさを 8 バイト境界に切り上げます。
+     * @param size 大きさ
+     * @return 切り上げた大きさ
+     */
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * period の数を返します。
+     * @return period の数
+     */
+    public int getPeriodCount() {
+        return periodCount;
+    }
+
+    /**
+     * 見積もりの対象とした、メモリ上に存在している period の数を返します。
+     * @return period の数
+     */
+    public int getLoadedPeriodCount() {
+        return loadedPeriodCount;
+    }
+
+    /**
+     * 要素の数を返します。
+     * @return 要素の数
+     */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * メッセージの行の数を返します。
+     * @return 行の数
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * メッセージの行の文字数の合計を返します。
+     * @return 文字数
+     */
+    public long getCharCount() {
+        return charCount;
+    }
+
+    /**
+     * 行を保持している String オブジェクトの数を返します。
+     * 共有されているものは 1 つとして数えます。
+     * @return String オブジェクトの数
+     */
+    public int getStringCount() {
+        return stringCount;
+    }
+
+    /**
+     * 行を保持している MessageLineArena の数を返します。
+     * @return MessageLineArena の数
+     */
+    public int getArenaCount() {
+        return arenaCount;
+    }
+
+    /**
+     * 行を保持している String オブジェクトの大きさの合計を返します。
+     * @return 大きさ (バイト)
+     */
+    public long getStringBytes() {
+        return stringBytes;
+    }
+
+    /**
+     * 行を保持している MessageLineArena の大きさの合計を返します。
+     * @return 大きさ (バイト)
+     */
+    public long getArenaBytes() {
+        return arenaBytes;
+    }
+
+    /**
+     * 行のリストの大きさの合計を返します。
+     * @return 大きさ (バイト)
+     */
+    public long getListBytes() {
+        return listBytes;
+    }
+
+    /**
+     * 要素のオブジェクトとそのリストの大きさの合計を返します。
+     * @return 大きさ (バイト)
+     */
+    public long getElementBytes() {
+        return elementBytes;
+    }
+
+    /**
+     * 要素の内容を項目ごとに保持している配列の大きさの合計を返します。
+     * メッセージの行以外の項目も含みます。
+     * @return 大きさ (バイト)
+     */
+    public long getColumnBytes() {
+        return columnBytes;
+    }
+
+    /**
+     * 要素とメッセージの行が占めるメモリ量の合計を返します。
+     * @return 大きさ (バイト)
+     */
+    public long getTotalBytes() {
+        return stringBytes + arenaBytes + listBytes + elementBytes + columnBytes;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "StoryMemoryReport [periods=" + loadedPeriodCount + "/" + periodCount
+                + ", elements=" + elementCount
+                + ", lines=" + lineCount
+                + ", chars=" + charCount
+                + ", strings=" + stringCount
+                + ", arenas=" + arenaCount
+                + ", stringBytes=" + stringBytes
+                + ", arenaBytes=" + arenaBytes
+                + ", listBytes=" + listBytes
+                + ", elementBytes=" + elementBytes
+                + ", columnBytes=" + columnBytes
+                + ", totalBytes=" + getTotalBytes() + "]";
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ArchivedStoryLoader#reloadIncrementally() で Story を差分更新した結果。
+ * どの period の内容が変わり、どの period が新たに追加されたかを保持します。
+ */
+public class StoryUpdate {
+
+    /** village 要素の属性が変わったかどうか */
+    private boolean isVillageChanged = false;
+
+    /** 内容が変わった既存の period のインデックスのリスト */
+    private final List<Integer> changedPeriodIndexList = new ArrayList<Integer>();
+
+    /** 追加された最初の period のインデックス */
+    private int firstAddedPeriodIndex = 0;
+
+    /** 追加された period の数 */
+    private int addedPeriodCount = 0;
+
+    /**
+     * コンストラクタ
+     */
+    StoryUpdate() {
+    }
+
+    /**
+     * 何らかの変更があったかどうかを返します。
+     * @return 変更があれば true
+     */
+    public boolean isModified() {
+        return isVillageChanged || !changedPeriodIndexList.isEmpty() || addedPeriodCount > 0;
+    }
+
+    /**
+     * village 要素の属性 (村の名前や状態など) が変わったかどうかを返します。
+     * @return 変わっていれば true
+     */
+    public boolean isVillageChanged() {
+        return isVillageChanged;
+    }
+
+    /**
+     * 内容が変わった既存の period のインデックスのリストを返します。
+     * @return インデックスのリスト (昇順)
+     */
+    public List<Integer> getChangedPeriodIndexList() {
+        return Collections.unmodifiableList(changedPeriodIndexList);
+    }
+
+    /**
+     * 追加された最初の period のインデックスを返します。
+     * @return インデックス
+     */
+    public int getFirstAddedPeriodIndex() {
+        return firstAddedPeriodIndex;
+    }
+
+    /**
+     * 追加された period の数を返します。
+     * @return 追加された period の数
+     */
+    public int getAddedPeriodCount() {
+        return addedPeriodCount;
+    }
+
+    /**
+     * 指定した period の内容が変わったか、新たに追加されたものかどうかを返します。
+     * @param periodIndex period のインデックス
+     * @return 変わったか追加されたものなら true
+     */
+    public boolean isPeriodChanged(int periodIndex) {
+        if (addedPeriodCount > 0 && periodIndex >= firstAddedPeriodIndex) {
+            return periodIndex < firstAddedPeriodIndex + addedPeriodCount;
+        }
+        return changedPeriodIndexList.contains(periodIndex);
+    }
+
+    /**
+     * village 要素の属性が変わったかどうかをセットします。
+     * @param isVillageChanged 変わっていれば true
+     */
+    void setVillageChanged(boolean isVillageChanged) {
+        this.isVillageChanged = isVillageChanged;
+    }
+
+    /**
+     * 内容が変わった既存の period を追加します。
+     * @param periodIndex period のインデックス
+     */
+    void addChangedPeriod(int periodIndex) {
+        changedPeriodIndexList.add(periodIndex);
+    }
+
+    /**
+     * 追加された period の範囲をセットします。
+     * @param firstAddedPeriodIndex 追加された最初の period のインデックス
+     * @param addedPeriodCount 追加された period の数
+     */
+    void setAddedPeriods(int firstAddedPeriodIndex, int addedPeriodCount) {
+        this.firstAddedPeriodIndex = firstAddedPeriodIndex;
+        this.addedPeriodCount = addedPeriodCount;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.archive;
+
+/**
+ * 同じ内容の文字列を 1 つのオブジェクトにまとめるためのプール。
+ *
+ * String#intern() と異なり、1 つの Story を読み込む間だけ使うことを想定しています。
+ * 空行や「●」のような短い行が何度も現れるので、それらを共有してメモリを節約します。
+ * 登録する文字列の長さと数には上限があり、上限を超えた文字列はそのまま返します。
+ * 複数のスレッドから同時に使うことができます。
+ */
+public class StringPool {
+
+    /** 登録する文字列の数の既定の上限 */
+    public static final int DEFAULT_MAX_SIZE = 16384;
+
+    /** 登録する文字列の長さの既定の上限 */
+    public static final int DEFAULT_MAX_LENGTH = 64;
+
+    /** 登録する文字列の数の上限 */
+    private final int maxSize;
+
+    /** 登録する文字列の長さの上限 */
+    private final int maxLength;
+
+    /** 文字列のハッシュ表 (オープンアドレス法) */
+    private String[] table = new String[64];
+
+    /** 登録されている文字列の数 */
+    private int size = 0;
+
+    /** 登録済みの文字列が見つかった回数 */
+    private long hitCount = 0;
+
+    /** 登録済みの文字列が見つからなかった回数 */
+    private long missCount = 0;
+
+    /**
+     * 既定の上限でプールを構築します。
+     */
+    public StringPool() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * 上限を指定してプールを構築します。
+     * @param maxSize 登録する文字列の数の上限
+     * @param maxLength 登録する文字列の長さの上限
+     */
+    public StringPool(int maxSize, int maxLength) {
+        this.maxSize = maxSize;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 文字列と同じ内容の、プールに登録済みの文字列を返します。
+     * 登録されていなければ、その文字列を登録して返します。
+     * @param str 文字列
+     * @return プールに登録済みの文字列。上限を超えて登録できなければ str そのもの。
+     */
+    public synchronized String intern(String str) {
+        if (str == null || str.length() > maxLength) {
+            return str;
+        }
+
+        int mask = table.length - 1;
+        for (int ix = str.hashCode() & mask; ; ix = (ix + 1) & mask) {
+            String entry = table[ix];
+            if (entry == null) {
+                ++missCount;
+                if (size < maxSize) {
+                    table[ix] = str;
+                    ++size;
+                    if (size * 2 > table.length) {
+                        rehash();
+                    }
+                }
+                return str;
+            } else if (entry.equals(str)) {
+                ++hitCount;
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * 文字配列の指定範囲と同じ内容の、プールに登録済みの文字列を返します。
+     * 登録されていれば新たな String オブジェクトを作りません。
+     * @param chars 文字配列
+     * @param start 開始位置
+     * @param length 長さ
+     * @return プールに登録済みの文字列。上限を超えて登録できなければ新たに作成した文字列。
+     */
+    public synchronized String intern(char[] chars, int start, int length) {
+        if (length > maxLength) {
+            return new String(chars, start, length);
+        }
+
+        int hash = 0;
+        for (int ix = start; ix < start + length; ++ix) {
+            hash = 31 * hash + chars[ix];
+        }
+        int mask = table.length - 1;
+        for (int ix = hash & mask; ; ix = (ix + 1) & mask) {
+            String entry = table[ix];
+            if (entry == null) {
+                ++missCount;
+                String str = new String(chars, start, length);
+                if (size < maxSize) {
+                    table[ix] = str;
+                    ++size;
+                    if (size * 2 > table.length) {
+                        rehash();
+                    }
+                }
+                return str;
+            } else if (regionEquals(entry, chars, start, length)) {
+                ++hitCount;
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * 登録されている文字列の数を返します。
+     * @return 登録されている文字列の数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 登録済みの文字列が見つかった回数を返します。
+     * @return 見つかった回数
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * 登録済みの文字列が見つからなかった回数を返します。
+     * @return 見つからなかった回数
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * ハッシュ表を 2 倍の大きさに作り直します。
+     */
+    private void rehash() {
+        String[] newTable = new String[table.length * 2];
+        int mask = newTable.length - 1;
+        for (String entry : table) {
+            if (entry != null) {
+                int ix = entry.hashCode() & mask;
+                while (newTable[ix] != null) {
+                    ix = (ix + 1) & mask;
+                }
+                newTable[ix] = entry;
+            }
+        }
+        table = newTable;
+    }
+
+    /**
+     * 文字列と文字配列の指定範囲が同じ内容かどうかを調べます。
+     * @param str 文字列
+     * @param chars 文字配列
+     * @param start 開始位置
+     * @param length 長さ
+     * @return 同じ内容なら true
+     */
+    private static boolean regionEquals(String str, char[] chars, int start, int length) {
+        if (str.length() != length) {
+            return false;
+        }
+        for (int ix = 0; ix < length; ++ix) {
+            if (str.charAt(ix) != chars[start + ix]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.columnar;
+
+import java.util.AbstractList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.hironytic.moltonf.MoltonfException;
+import com.hironytic.moltonf.model.Avatar;
+import com.hironytic.moltonf.model.EventFamily;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryEvent;
+import com.hironytic.moltonf.model.StoryPeriod;
+import com.hironytic.moltonf.model.Talk;
+import com.hironytic.moltonf.model.TalkType;
+import com.hironytic.moltonf.util.TimePart;
+
+/**
+ * 1 つの period の要素を、項目ごとのプリミティブ型の配列にまとめて保持するリスト。
+ *
+ * 要素ごとにオブジェクトを持たないので、保持に必要なメモリが少なく、
+ * 発言種別や発言者で要素を走査するときも連続したメモリを読むだけで済みます。
+ * get() で得られる Talk や StoryEvent は、呼ばれるたびに作られる軽量なビューで、内容を変更することはできません。
+ * 同じインデックスのビューどうしは equals() で等しいと判定されます。
+ */
+public class ColumnarElementList extends AbstractList<StoryElement> implements RandomAccess {
+
+    /** 要素の種類: 発言 */
+    private static final byte KIND_TALK = 0;
+
+    /** 要素の種類: 襲撃の発言 */
+    private static final byte KIND_WOLF_ATTACK = 1;
+
+    /** 要素の種類: イベント */
+    private static final byte KIND_EVENT = 2;
+
+    /** 発言種別やイベント種別がないことを表す値 */
+    private static final byte NO_CODE = -1;
+
+    /** 発言者がいないことを表す値 */
+    private static final short NO_SPEAKER = -1;
+
+    /** 時刻がないことを表す値 */
+    private static final int NO_TIME = -1;
+
+    /** 序数から TalkType を得るための配列 */
+    private static final TalkType[] TALK_TYPES = TalkType.values();
+
+    /** 序数から EventFamily を得るための配列 */
+    private static final EventFamily[] EVENT_FAMILIES = EventFamily.values();
+
+    /** 要素が所属する StoryPeriod */
+    private final StoryPeriod storyPeriod;
+
+    /** 要素の数 */
+    private final int size;
+
+    /** 各要素の種類 */
+    private final byte[] kinds;
+
+    /** 各要素の発言種別またはイベント種別の序数 */
+    private final byte[] codes;
+
+    /** 各要素の発言者の speakers でのインデックス */
+    private final short[] speakerIndices;
+
+    /** 各要素の時刻 (午前 0 時からの経過ミリ秒) */
+    private final int[] times;
+
+    /** 各要素の発言番号 */
+    private final int[] talkCounts;
+
+    /** 各要素の最初の行の lineEnds でのインデックス。最後に全体の行数が入る */
+    private final int[] messageOffsets;
+
+    /** 各行の終了位置。開始位置は 1 つ前の行の終了位置 */
+    private final int[] lineEnds;
+
+    /** 全行の文字を連結した配列 */
+    private final char[] text;
+
+    /** この period に登場する発言者 */
+    private final Avatar[] speakers;
+
+    /**
+     * 要素のリストの内容を写し取ってオブジェクトを構築します。
+     * @param storyPeriod 要素が所属する StoryPeriod
+     * @param elements 写し取る要素のリスト
+     * @throws MoltonfException Talk でも StoryEvent でもない要素が含まれている場合
+     */
+    public ColumnarElementList(StoryPeriod storyPeriod, List<StoryElement> elements) {
+        this.storyPeriod = storyPeriod;
+        this.size = elements.size();
+        kinds = new byte[size];
+        codes = new byte[size];
+        speakerIndices = new short[size];
+        times = new int[size];
+        talkCounts = new int[size];
+        messageOffsets = new int[size + 1];
+
+        // 行と文字の数を数える
+        int lineCount = 0;
+        int charCount = 0;
+        for (StoryElement element : elements) {
+            List<String> messageLines = element.getMessageLines();
+            if (messageLines != null) {
+                lineCount += messageLines.size();
+                for (String line : messageLines) {
+                    charCount += line.length();
+                }
+            }
+        }
+        lineEnds = new int[lineCount];
+        text = new char[charCount];
+
+        Map<Avatar, Integer> speakerMap = new IdentityHashMap<Avatar, Integer>();
+        int lineIndex = 0;
+        int charIndex = 0;
+        for (int ix = 0; ix < size; ++ix) {
+            StoryElement element = elements.get(ix);
+            if (element instanceof Talk) {
+                Talk talk = (Talk)element;
+                kinds[ix] = talk.isWolfAttack() ? KIND_WOLF_ATTACK : KIND_TALK;
+                TalkType talkType = talk.getTalkType();
+                codes[ix] = (talkType != null) ? (byte)talkType.ordinal() : NO_CODE;
+                speakerIndices[ix] = toSpeakerIndex(talk.getSpeaker(), speakerMap);
+                TimePart time = talk.getTime();
+                times[ix] = (time != null) ? time.getMilliseconds() : NO_TIME;
+                talkCounts[ix] = talk.getTalkCount();
+            } else if (element instanceof StoryEvent) {
+                StoryEvent storyEvent = (StoryEvent)element;
+                kinds[ix] = KIND_EVENT;
+                EventFamily eventFamily = storyEvent.getEventFamily();
+                codes[ix] = (eventFamily != null) ? (byte)eventFamily.ordinal() : NO_CODE;
+                speakerIndices[ix] = NO_SPEAKER;
+                times[ix] = NO_TIME;
+            } else {
+                throw new MoltonfException("Unsupported story element : " + element);
+            }
+
+            messageOffsets[ix] = lineIndex;
+            List<String> messageLines = element.getMessageLines();
+            if (messageLines != null) {
+                for (String line : messageLines) {
+                    line.getChars(0, line.length(), text, charIndex);
+                    charIndex += line.length();
+                    lineEnds[lineIndex] = charIndex;
+                    ++lineIndex;
+                }
+            }
+        }
+        messageOffsets[size] = lineIndex;
+
+        speakers = new Avatar[speakerMap.size()];
+        for (Map.Entry<Avatar, Integer> entry : speakerMap.entrySet()) {
+            speakers[entry.getValue()] = entry.getKey();
+        }
+    }
+
+    /**
+     * 発言者を speakers でのインデックスに変換します。
+     * @param speaker 発言者
+     * @param speakerMap これまでに登場した発言者とそのインデックスのマップ
+     * @return インデックス。発言者がいなければ NO_SPEAKER
+     */
+    private static short toSpeakerIndex(Avatar speaker, Map<Avatar, Integer> speakerMap) {
+        if (speaker == null) {
+            return NO_SPEAKER;
+        }
+        Integer index = speakerMap.get(speaker);
+        if (index == null) {
+            if (speakerMap.size() > Short.MAX_VALUE) {
+                throw new MoltonfException("Too many speakers in a period.");
+            }
+            index = speakerMap.size();
+            speakerMap.put(speaker, index);
+        }
+        return index.shortValue();
+    }
+
+    /**
+     * 指定したインデックスの要素のビューを返します。
+     * @param index インデックス
+     * @return Talk または StoryEvent のビュー
+     */
+    @Override
+    public StoryElement get(int index) {
+        checkIndex(index);
+        if (kinds[index] == KIND_EVENT) {
+            return new ColumnarStoryEvent(this, index);
+        } else {
+            return new ColumnarTalk(this, index);
+        }
+    }
+
+    /**
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 要素が所属する StoryPeriod を返します。
+     * @return StoryPeriod
+     */
+    public StoryPeriod getStoryPeriod() {
+        return storyPeriod;
+    }
+
+    /**
+     * 指定したインデックスの要素が Talk かどうかを返します。
+     * @param index インデックス
+     * @return Talk なら true
+     */
+    public boolean isTalk(int index) {
+        checkIndex(index);
+        return kinds[index] != KIND_EVENT;
+    }
+
+    /**
+     * 指定したインデックスの要素が襲撃の発言かどうかを返します。
+     * @param index インデックス
+     * @return 襲撃の発言なら true
+     */
+    public boolean isWolfAttack(int index) {
+        checkIndex(index);
+        return kinds[index] == KIND_WOLF_ATTACK;
+    }
+
+    /**
+     * 指定したインデックスの要素の発言種別を返します。
+     * @param index インデックス
+     * @return 発言種別。Talk でなければ null
+     */
+    public TalkType getTalkType(int index) {
+        checkIndex(index);
+        byte code = codes[index];
+        return (kinds[index] == KIND_EVENT || code == NO_CODE) ? null : TALK_TYPES[code];
+    }
+
+    /**
+     * 指定したインデックスの要素の発言者を返します。
+     * @param index インデックス
+     * @return 発言者。Talk でなければ null
+     */
+    public Avatar getSpeaker(int index) {
+        checkIndex(index);
+        short speakerIndex = speakerIndices[index];
+        return (speakerIndex == NO_SPEAKER) ? null : speakers[speakerIndex];
+    }
+
+    /**
+     * 指定したインデックスの要素の時刻を返します。
+     * @param index インデックス
+     * @return 時刻。Talk でなければ null
+     */
+    public TimePart getTime(int index) {
+        checkIndex(index);
+        int time = times[index];
+        return (time == NO_TIME) ? null : TimePart.valueOf(time);
+    }
+
+    /**
+     * 指定したインデックスの要素の発言番号を返します。
+     * @param index インデックス
+     * @return 発言番号
+     */
+    public int getTalkCount(int index) {
+        checkIndex(index);
+        return talkCounts[index];
+    }
+
+    /**
+     * 指定したインデックスの要素のイベント種別を返します。
+     * @param index インデックス
+     * @return イベント種別。StoryEvent でなければ null
+     */
+    public EventFamily getEventFamily(int index) {
+        checkIndex(index);
+        byte code = codes[index];
+        return (kinds[index] != KIND_EVENT || code == NO_CODE) ? null : EVENT_FAMILIES[code];
+    }
+
+    /**
+     * 指定したインデックスの要素のメッセージの行のリストを返します。
+     * @param index インデックス
+     * @return メッセージの行のリスト
+     */
+    public List<String> getMessageLines(int index) {
+        checkIndex(index);
+        return new MessageLines(messageOffsets[index], messageOffsets[index + 1]);
+    }
+
+    /**
+     * 指定したインデックスの要素のメッセージの文字数を返します。
+     * 行の文字列を作らずに求めます。
+     * @param index インデックス
+     * @return 文字数
+     */
+    public int getMessageCharCount(int index) {
+        checkIndex(index);
+        int firstLine = messageOffsets[index];
+        int endLine = messageOffsets[index + 1];
+        int start = (firstLine == 0) ? 0 : lineEnds[firstLine - 1];
+        int end = (endLine == 0) ? 0 : lineEnds[endLine - 1];
+        return end - start;
+    }
+
+    /**
+     * 全要素のメッセージの行の数を返します。
+     * @return 行の数
+     */
+    public int getLineCount() {
+        return lineEnds.length;
+    }
+
+    /**
+     * 全要素のメッセージの文字数を返します。
+     * @return 文字数
+     */
+    public int getCharCount() {
+        return text.length;
+    }
+
+    /**
+     * このオブジェクトが保持している配列の大きさの合計を見積もります。
+     * 配列のヘッダは 16 バイト、参照は 4 バイトとして計算します。
+     * @return 大きさ (バイト)
+     */
+    public long getEstimatedArrayBytes() {
+        return arrayBytes(kinds.length) + arrayBytes(codes.length)
+                + arrayBytes(2L * speakerIndices.length) + arrayBytes(4L * times.length)
+                + arrayBytes(4L * talkCounts.length) + arrayBytes(4L * messageOffsets.length)
+                + arrayBytes(4L * lineEnds.length) + arrayBytes(2L * text.length)
+                + arrayBytes(4L * speakers.length);
+    }
+
+    /**
+     * 配列の大きさを 8 バイト境界に切り上げて求めます。
+     * @param dataBytes 配列の中身の大きさ
+     * @return 配列の大きさ
+     */
+    private static long arrayBytes(long dataBytes) {
+        return (16 + dataBytes + 7) & ~7L;
+    }
+
+    /**
+     * インデックスが範囲内かどうかを調べます。
+     * @param index インデックス
+     * @throws IndexOutOfBoundsException 範囲外の場合
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * 1 つの要素のメッセージの行のリスト
+     */
+    private class MessageLines extends AbstractList<String> implements RandomAccess {
+
+        /** 最初の行の lineEnds でのインデックス */
+        private final int firstLine;
+
+        /** 最後の行の次の lineEnds でのインデックス */
+        private final int endLine;
+
+        /**
+         * コンストラクタ
+         * @param firstLine 最初の行の lineEnds でのインデックス
+         * @param endLine 最後の行の次の lineEnds でのインデックス
+         */
+        public MessageLines(int firstLine, int endLine) {
+            this.firstLine = firstLine;
+            this.endLine = endLine;
+        }
+
+        /**
+         * @see java.util.AbstractList#get(int)
+         */
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            int lineIndex = firstLine + index;
+            int start = (lineIndex == 0) ? 0 : lineEnds[lineIndex - 1];
+            return new String(text, start, lineEnds[lineIndex] - start);
+        }
+
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+            return endLine - firstLine;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.columnar;
+
+import java.util.List;
+
+import com.hironytic.moltonf.MoltonfException;
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryPeriod;
+
+/**
+ * ColumnarElementList の 1 つの要素を参照するビューの基底クラス
+ */
+abstract class ColumnarStoryElement implements StoryElement {
+
+    /** 内容を保持しているリスト */
+    protected final ColumnarElementList elementList;
+
+    /** リスト中でのインデックス */
+    protected final int index;
+
+    /**
+     * コンストラクタ
+     * @param elementList 内容を保持しているリスト
+     * @param index リスト中でのインデックス
+     */
+    protected ColumnarStoryElement(ColumnarElementList elementList, int index) {
+        this.elementList = elementList;
+        this.index = index;
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryElement#getStoryPeriod()
+     */
+    @Override
+    public StoryPeriod getStoryPeriod() {
+        return elementList.getStoryPeriod();
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryElement#getStory()
+     */
+    @Override
+    public Story getStory() {
+        StoryPeriod storyPeriod = getStoryPeriod();
+        return (storyPeriod != null) ? storyPeriod.getStory() : null;
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryElement#getMessageLines()
+     */
+    @Override
+    public List<String> getMessageLines() {
+        return elementList.getMessageLines(index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryElement#setStoryPeriod(com.hironytic.moltonf.model.StoryPeriod)
+     */
+    @Override
+    public void setStoryPeriod(StoryPeriod storyPeriod) {
+        throw newModificationException();
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryElement#setMessageLines(java.util.List)
+     */
+    @Override
+    public void setMessageLines(List<String> messageLines) {
+        throw newModificationException();
+    }
+
+    /**
+     * 変更しようとしたときに投げる例外を作成します。
+     * @return 例外
+     */
+    protected static MoltonfException newModificationException() {
+        return new MoltonfException("Don't modify columnar story element.", new UnsupportedOperationException("Modification is not allowed."));
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(elementList) * 31 + index;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        ColumnarStoryElement other = (ColumnarStoryElement)obj;
+        return elementList == other.elementList && index == other.index;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.columnar;
+
+import java.util.List;
+
+import com.hironytic.moltonf.model.EventFamily;
+import com.hironytic.moltonf.model.StoryEvent;
+
+/**
+ * ColumnarElementList の 1 つのイベントを参照するビュー
+ */
+class ColumnarStoryEvent extends ColumnarStoryElement implements StoryEvent {
+
+    /**
+     * コンストラクタ
+     * @param elementList 内容を保持しているリスト
+     * @param index リスト中でのインデックス
+     */
+    ColumnarStoryEvent(ColumnarElementList elementList, int index) {
+        super(elementList, index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryEvent#getEventFamily()
+     */
+    @Override
+    public EventFamily getEventFamily() {
+        return elementList.getEventFamily(index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryEvent#setEventFamily(com.hironytic.moltonf.model.EventFamily)
+     */
+    @Override
+    public void setEventFamily(EventFamily eventFamily) {
+        throw newModificationException();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final int maxLen = 3;
+        StringBuilder builder = new StringBuilder();
+        builder.append("ColumnarStoryEvent [");
+        EventFamily eventFamily = getEventFamily();
+        if (eventFamily != null) {
+            builder.append("eventFamily=");
+            builder.append(eventFamily);
+            builder.append(", ");
+        }
+        List<String> messageLines = getMessageLines();
+        builder.append("getMessageLines()=");
+        builder.append(messageLines.subList(0, Math.min(messageLines.size(), maxLen)));
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.columnar;
+
+import java.util.List;
+
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryPeriod;
+
+/**
+ * 要素を ColumnarElementList として保持する StoryPeriod。
+ * セットされた要素のリストは、項目ごとの配列に写し取って保持します。
+ */
+public class ColumnarStoryPeriod implements StoryPeriod {
+
+    /** このオブジェクトが属する Story */
+    private Story story;
+
+    /** ストーリーを構成する要素のリスト */
+    private ColumnarElementList storyElements;
+
+    /**
+     * コンストラクタ
+     */
+    public ColumnarStoryPeriod() {
+
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryPeriod#getStory()
+     */
+    @Override
+    public Story getStory() {
+        return story;
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryPeriod#getStoryElements()
+     */
+    @Override
+    public List<StoryElement> getStoryElements() {
+        return storyElements;
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.StoryPeriod#setStory(com.hironytic.moltonf.model.Story)
+     */
+    @Override
+    public void setStory(Story story) {
+        this.story = story;
+    }
+
+    /**
+     * ストーリーを構成する要素のリストをセットします。
+     * この StoryPeriod に所属する ColumnarElementList 以外が渡された場合は、その内容を写し取ります。
+     * @param storyElements StoryElement のリスト
+     */
+    @Override
+    public void setStoryElements(List<StoryElement> storyElements) {
+        if (storyElements == null) {
+            this.storyElements = null;
+        } else if (storyElements instanceof ColumnarElementList
+                && ((ColumnarElementList)storyElements).getStoryPeriod() == this) {
+            this.storyElements = (ColumnarElementList)storyElements;
+        } else {
+            this.storyElements = new ColumnarElementList(this, storyElements);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.columnar;
+
+import java.util.List;
+
+import com.hironytic.moltonf.model.Avatar;
+import com.hironytic.moltonf.model.Talk;
+import com.hironytic.moltonf.model.TalkType;
+import com.hironytic.moltonf.util.TimePart;
+
+/**
+ * ColumnarElementList の 1 つの発言を参照するビュー
+ */
+class ColumnarTalk extends ColumnarStoryElement implements Talk {
+
+    /**
+     * コンストラクタ
+     * @param elementList 内容を保持しているリスト
+     * @param index リスト中でのインデックス
+     */
+    ColumnarTalk(ColumnarElementList elementList, int index) {
+        super(elementList, index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#getTalkType()
+     */
+    @Override
+    public TalkType getTalkType() {
+        return elementList.getTalkType(index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#getSpeaker()
+     */
+    @Override
+    public Avatar getSpeaker() {
+        return elementList.getSpeaker(index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#getTime()
+     */
+    @Override
+    public TimePart getTime() {
+        return elementList.getTime(index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#getTalkCount()
+     */
+    @Override
+    public int getTalkCount() {
+        return elementList.getTalkCount(index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#isWolfAttack()
+     */
+    @Override
+    public boolean isWolfAttack() {
+        return elementList.isWolfAttack(index);
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#setTalkType(com.hironytic.moltonf.model.TalkType)
+     */
+    @Override
+    public void setTalkType(TalkType talkType) {
+        throw newModificationException();
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#setSpeaker(com.hironytic.moltonf.model.Avatar)
+     */
+    @Override
+    public void setSpeaker(Avatar speaker) {
+        throw newModificationException();
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#setTime(com.hironytic.moltonf.util.TimePart)
+     */
+    @Override
+    public void setTime(TimePart time) {
+        throw newModificationException();
+    }
+
+    /**
+     * @see com.hironytic.moltonf.model.Talk#setTalkCount(int)
+     */
+    @Override
+    public void setTalkCount(int talkCount) {
+        throw newModificationException();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final int maxLen = 3;
+        StringBuilder builder = new StringBuilder();
+        builder.append("ColumnarTalk [");
+        Avatar speaker = getSpeaker();
+        if (speaker != null) {
+            builder.append("speaker=");
+            builder.append(speaker);
+            builder.append(", ");
+        }
+        TimePart time = getTime();
+        if (time != null) {
+            builder.append("time=");
+            builder.append(time);
+            builder.append(", ");
+        }
+        List<String> messageLines = getMessageLines();
+        builder.append("getMessageLines()=");
+        builder.append(messageLines.subList(0, Math.min(messageLines.size(), maxLen)));
+        builder.append("]");
+        return builder.toString();
+    }
+}
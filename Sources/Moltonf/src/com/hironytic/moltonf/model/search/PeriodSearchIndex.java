@@ -0,0 +1,375 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.search;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.columnar.ColumnarElementList;
+
+/**
+ * 1 つの period のメッセージの行の全文検索用索引。
+ *
+ * 日本語の文には単語の区切りがないので、文字の 1-gram と 2-gram を単位とした転置索引にしています。
+ * 各 gram について、それを含む行の番号を昇順に並べたリストを持ちます。
+ * 行の番号は period 中のすべての要素のメッセージの行に先頭から振った通し番号です。
+ * 作成した後は内容が変わらないので、複数のスレッドから同時に使うことができます。
+ */
+final class PeriodSearchIndex {
+
+    /**
+     * 1-gram のキーに付ける値。
+     * 2-gram のキーは 2 文字を上位と下位の 16 ビットに並べたもので、
+     * 1-gram のキーは上位 16 ビットを U+FFFF (文字として現れない値) にしたもの。
+     */
+    private static final int UNIGRAM_FLAG = 0xffff0000;
+
+    /** 空の int 配列 */
+    private static final int[] EMPTY_INTS = new int[0];
+
+    /** period の内容を識別する値 */
+    private final long contentKey;
+
+    /**
+     * 索引を作成したときの要素のリスト。
+     * ファイルから読み込んだ場合や、内容を識別する値で有効かどうかを判断する場合は null
+     */
+    private final List<StoryElement> sourceElements;
+
+    /** 各行が含まれる要素のインデックス */
+    private final int[] lineElements;
+
+    /** 各行の、要素のメッセージ中での行のインデックス */
+    private final int[] lineNumbers;
+
+    /** gram のキー (昇順) */
+    private final int[] gramKeys;
+
+    /** 各 gram の行のリストの postings 中での開始位置。最後に postings の長さが入る */
+    private final int[] gramOffsets;
+
+    /** 各 gram を含む行の番号を並べた配列 */
+    private final int[] postings;
+
+    /**
+     * コンストラクタ
+     * @param contentKey period の内容を識別する値
+     * @param sourceElements 索引を作成したときの要素のリスト
+     * @param lineElements 各行が含まれる要素のインデックス
+     * @param lineNumbers 各行の、要素のメッセージ中での行のインデックス
+     * @param gramKeys gram のキー
+     * @param gramOffsets 各 gram の行のリストの開始位置
+     * @param postings 各 gram を含む行の番号を並べた配列
+     */
+    private PeriodSearchIndex(long contentKey, List<StoryElement> sourceElements, int[] lineElements, int[] lineNumbers,
+            int[] gramKeys, int[] gramOffsets, int[] postings) {
+        this.contentKey = contentKey;
+        this.sourceElements = sourceElements;
+        this.lineElements = lineElements;
+        this.lineNumbers = lineNumbers;
+        this.gramKeys = gramKeys;
+        this.gramOffsets = gramOffsets;
+        this.postings = postings;
+    }
+
+    /**
+     * 要素のリストから索引を作成します。
+     * @param storyElements 要素のリスト
+     * @param contentKey period の内容を識別する値
+     * @param keepsSourceElements 要素のリストを覚えておき、有効かどうかの判断に使うなら true。
+     *          内容を識別する値で判断できる場合は、要素のリストを解放できるように false を指定します。
+     * @return 作成した索引
+     */
+    static PeriodSearchIndex build(List<StoryElement> storyElements, long contentKey, boolean keepsSourceElements) {
+        int[] lineElements = new int[256];
+        int[] lineNumbers = new int[256];
+        int lineCount = 0;
+
+        // (gram のキー, 行の番号) の組を 1 つの long にまとめて集め、並べ替えて転置する
+        long[] entries = new long[4096];
+        int entryCount = 0;
+        int elementsCount = storyElements.size();
+        for (int elementIndex = 0; elementIndex < elementsCount; ++elementIndex) {
+            List<String> messageLines = getMessageLines(storyElements, elementIndex);
+            for (int lineIndex = 0; lineIndex < messageLines.size(); ++lineIndex) {
+                String line = messageLines.get(lineIndex);
+                if (lineCount == lineElements.length) {
+                    lineElements = Arrays.copyOf(lineElements, lineCount * 2);
+                    lineNumbers = Arrays.copyOf(lineNumbers, lineCount * 2);
+                }
+                int lineId = lineCount++;
+                lineElements[lineId] = elementIndex;
+                lineNumbers[lineId] = lineIndex;
+
+                int length = line.length();
+                if (entryCount + length * 2 > entries.length) {
+                    entries = Arrays.copyOf(entries, Math.max(entries.length * 2, entryCount + length * 2));
+                }
+                for (int ix = 0; ix < length; ++ix) {
+                    char ch = line.charAt(ix);
+                    entries[entryCount++] = ((long)(UNIGRAM_FLAG | ch) << 32) | lineId;
+                    if (ix + 1 < length) {
+                        entries[entryCount++] = ((long)((ch << 16) | line.charAt(ix + 1)) << 32) | lineId;
+                    }
+                }
+            }
+        }
+        Arrays.sort(entries, 0, entryCount);
+
+        int[] gramKeys = new int[256];
+        int[] gramOffsets = new int[257];
+        int[] postings = new int[entryCount];
+        int gramCount = 0;
+        int postingCount = 0;
+        long lastEntry = 0;
+        for (int ix = 0; ix < entryCount; ++ix) {
+            long entry = entries[ix];
+            if (ix > 0 && entry == lastEntry) {
+                // 同じ行に同じ gram が複数回現れたもの
+                continue;
+            }
+            int key = (int)(entry >>> 32);
+            if (gramCount == 0 || gramKeys[gramCount - 1] != key) {
+                if (gramCount == gramKeys.length) {
+                    gramKeys = Arrays.copyOf(gramKeys, gramCount * 2);
+                    gramOffsets = Arrays.copyOf(gramOffsets, gramCount * 2 + 1);
+                }
+                gramKeys[gramCount] = key;
+                gramOffsets[gramCount] = postingCount;
+                ++gramCount;
+            }
+            postings[postingCount++] = (int)entry;
+            lastEntry = entry;
+        }
+        gramOffsets[gramCount] = postingCount;
+
+        return new PeriodSearchIndex(contentKey, keepsSourceElements ? storyElements : null,
+                Arrays.copyOf(lineElements, lineCount), Arrays.copyOf(lineNumbers, lineCount),
+                Arrays.copyOf(gramKeys, gramCount), Arrays.copyOf(gramOffsets, gramCount + 1),
+                Arrays.copyOf(postings, postingCount));
+    }
+
+    /**
+     * 要素のメッセージの行のリストを返します。
+     * @param storyElements 要素のリスト
+     * @param elementIndex 要素のインデックス
+     * @return メッセージの行のリスト
+     */
+    static List<String> getMessageLines(List<StoryElement> storyElements, int elementIndex) {
+        if (storyElements instanceof ColumnarElementList) {
+            // 要素のオブジェクトを作らずに、配列から直接取得する
+            return ((ColumnarElementList)storyElements).getMessageLines(elementIndex);
+        }
+        return storyElements.get(elementIndex).getMessageLines();
+    }
+
+    /**
+     * period の内容を識別する値を返します。
+     * @return 内容を識別する値
+     */
+    long getContentKey() {
+        return contentKey;
+    }
+
+    /**
+     * 索引を作成したときの要素のリストを返します。
+     * @return 要素のリスト。覚えていなければ null
+     */
+    List<StoryElement> getSourceElements() {
+        return sourceElements;
+    }
+
+    /**
+     * 行の数を返します。
+     * @return 行の数
+     */
+    int getLineCount() {
+        return lineElements.length;
+    }
+
+    /**
+     * 行が含まれる要素のインデックスを返します。
+     * @param lineId 行の番号
+     * @return 要素のインデックス
+     */
+    int getLineElement(int lineId) {
+        return lineElements[lineId];
+    }
+
+    /**
+     * 行の、要素のメッセージ中での行のインデックスを返します。
+     * @param lineId 行の番号
+     * @return 行のインデックス
+     */
+    int getLineNumber(int lineId) {
+        return lineNumbers[lineId];
+    }
+
+    /**
+     * 文字列を含む可能性のある行を求めます。
+     * 文字列のすべての 2-gram (1 文字なら 1-gram) を含む行を返すので、
+     * 実際に文字列を含むかどうかは行の内容を調べて確かめる必要があります。
+     * @param literal 文字列
+     * @return 行の番号の昇順の配列。空文字列なら null (すべての行が候補)
+     */
+    int[] findCandidateLines(String literal) {
+        int length = literal.length();
+        if (length == 0) {
+            return null;
+        }
+        if (length == 1) {
+            int gramIndex = Arrays.binarySearch(gramKeys, UNIGRAM_FLAG | literal.charAt(0));
+            return (gramIndex >= 0) ? Arrays.copyOfRange(postings, gramOffsets[gramIndex], gramOffsets[gramIndex + 1])
+                                    : EMPTY_INTS;
+        }
+
+        // 行のリストの短い gram から順に積をとる
+        int[] gramIndices = new int[length - 1];
+        for (int ix = 0; ix < length - 1; ++ix) {
+            int gramIndex = Arrays.binarySearch(gramKeys, (literal.charAt(ix) << 16) | literal.charAt(ix + 1));
+            if (gramIndex < 0) {
+                return EMPTY_INTS;
+            }
+            gramIndices[ix] = gramIndex;
+        }
+        Integer[] order = new Integer[gramIndices.length];
+        for (int ix = 0; ix < order.length; ++ix) {
+            order[ix] = gramIndices[ix];
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int size1 = gramOffsets[o1 + 1] - gramOffsets[o1];
+                int size2 = gramOffsets[o2 + 1] - gramOffsets[o2];
+                return (size1 < size2) ? -1 : ((size1 == size2) ? 0 : 1);
+            }
+        });
+
+        int[] result = Arrays.copyOfRange(postings, gramOffsets[order[0]], gramOffsets[order[0] + 1]);
+        int resultCount = result.length;
+        for (int ix = 1; ix < order.length && resultCount > 0; ++ix) {
+            if (order[ix].equals(order[ix - 1])) {
+                continue;
+            }
+            resultCount = intersect(result, resultCount, gramOffsets[order[ix]], gramOffsets[order[ix] + 1]);
+        }
+        return Arrays.copyOf(result, resultCount);
+    }
+
+    /**
+     * 行の番号の配列と、1 つの gram の行のリストとの積をとります。
+     * @param lines 行の番号の配列。結果で上書きされる
+     * @param linesCount 行の番号の配列の有効な長さ
+     * @param start gram の行のリストの postings 中での開始位置
+     * @param end gram の行のリストの postings 中での終了位置
+     * @return 結果の長さ
+     */
+    private int intersect(int[] lines, int linesCount, int start, int end) {
+        int resultCount = 0;
+        int pos = start;
+        for (int ix = 0; ix < linesCount && pos < end; ++ix) {
+            int line = lines[ix];
+            while (pos < end && postings[pos] < line) {
+                ++pos;
+            }
+            if (pos < end && postings[pos] == line) {
+                lines[resultCount++] = line;
+                ++pos;
+            }
+        }
+        return resultCount;
+    }
+
+    /**
+     * 索引を書き込みます。
+     * @param out 出力先
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(contentKey);
+        writeInts(out, lineElements);
+        writeInts(out, lineNumbers);
+        writeInts(out, gramKeys);
+        writeInts(out, gramOffsets);
+        writeInts(out, postings);
+    }
+
+    /**
+     * write() で書き込んだ索引を読み込みます。
+     * @param in 入力元
+     * @return 読み込んだ索引
+     * @throws IOException 読み込みに失敗した場合
+     */
+    static PeriodSearchIndex read(DataInputStream in) throws IOException {
+        long contentKey = in.readLong();
+        int[] lineElements = readInts(in);
+        int[] lineNumbers = readInts(in);
+        int[] gramKeys = readInts(in);
+        int[] gramOffsets = readInts(in);
+        int[] postings = readInts(in);
+        if (lineNumbers.length != lineElements.length || gramOffsets.length != gramKeys.length + 1
+                || gramOffsets[gramKeys.length] != postings.length) {
+            throw new IOException("broken search index");
+        }
+        return new PeriodSearchIndex(contentKey, null, lineElements, lineNumbers, gramKeys, gramOffsets, postings);
+    }
+
+    /**
+     * int の配列を書き込みます。
+     * @param out 出力先
+     * @param values 配列
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * writeInts() で書き込んだ配列を読み込みます。
+     * @param in 入力元
+     * @return 配列
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("broken search index");
+        }
+        int[] values = new int[length];
+        for (int ix = 0; ix < length; ++ix) {
+            values[ix] = in.readInt();
+        }
+        return values;
+    }
+}
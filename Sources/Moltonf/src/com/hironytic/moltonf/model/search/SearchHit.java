@@ -0,0 +1,101 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.search;
+
+import com.hironytic.moltonf.model.MessageRange;
+
+/**
+ * 全文検索で見つかった 1 箇所
+ */
+public class SearchHit {
+
+    /** period のインデックス */
+    private final int periodIndex;
+
+    /** period 中での要素のインデックス */
+    private final int elementIndex;
+
+    /** メッセージ中の範囲 */
+    private final MessageRange range;
+
+    /** 見つかった箇所を含む行 */
+    private final String lineText;
+
+    /**
+     * コンストラクタ
+     * @param periodIndex period のインデックス
+     * @param elementIndex period 中での要素のインデックス
+     * @param range メッセージ中の範囲
+     * @param lineText 見つかった箇所を含む行
+     */
+    public SearchHit(int periodIndex, int elementIndex, MessageRange range, String lineText) {
+        this.periodIndex = periodIndex;
+        this.elementIndex = elementIndex;
+        this.range = range;
+        this.lineText = lineText;
+    }
+
+    /**
+     * period のインデックスを返します。
+     * @return period のインデックス
+     */
+    public int getPeriodIndex() {
+        return periodIndex;
+    }
+
+    /**
+     * period 中での要素のインデックスを返します。
+     * @return 要素のインデックス
+     */
+    public int getElementIndex() {
+        return elementIndex;
+    }
+
+    /**
+     * メッセージ中の範囲を返します。
+     * @return メッセージ中の範囲
+     */
+    public MessageRange getRange() {
+        return range;
+    }
+
+    /**
+     * 見つかった箇所を含む行を返します。
+     * 結果の一覧に表示するためのもので、period を読み込み直さずに済みます。
+     * @return 見つかった箇所を含む行
+     */
+    public String getLineText() {
+        return lineText;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "SearchHit [periodIndex=" + periodIndex + ", elementIndex=" + elementIndex + ", range=" + range + "]";
+    }
+}
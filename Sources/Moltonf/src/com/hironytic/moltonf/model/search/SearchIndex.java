@@ -0,0 +1,450 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+
+import com.hironytic.moltonf.Moltonf;
+import com.hironytic.moltonf.model.MessageRange;
+import com.hironytic.moltonf.model.Story;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryPeriod;
+import com.hironytic.moltonf.model.archive.LazyStoryPeriod;
+
+/**
+ * ストーリー全体のメッセージの全文検索を行うクラス。
+ *
+ * period ごとに文字の n-gram による索引をバックグラウンドのスレッドで作成し、
+ * 検索の際には索引で候補の行を絞り込んでから、行の内容を調べて確かめます。
+ * 索引がまだない period は、すべての行を調べます。
+ * 索引はファイルに保存しておき、次に開いたときに内容が変わっていない period の分はそれを使います。
+ * 複数のスレッドから同時に使うことができます。
+ */
+public class SearchIndex {
+
+    /** 索引ファイルの先頭の識別子 ("MTSX") */
+    private static final int MAGIC = 0x4d545358;
+
+    /** 索引ファイルの形式のバージョン */
+    private static final int FORMAT_VERSION = 1;
+
+    /** 検索結果として返す箇所の数の上限 */
+    public static final int MAX_HIT_COUNT = 10000;
+
+    /** 索引を作成するスレッド */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SearchIndex");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /** 検索対象のストーリー */
+    private final Story story;
+
+    /** 索引ファイル。保存しないなら null */
+    private final File indexFile;
+
+    /** 各 period の索引。作成していなければ null */
+    private PeriodSearchIndex[] periodIndexes = new PeriodSearchIndex[0];
+
+    /** 索引ファイルを読み込んだかどうか。索引を作成するスレッドだけが使う */
+    private boolean isIndexFileRead = false;
+
+    /** 中止されたかどうか */
+    private volatile boolean isCancelled = false;
+
+    /**
+     * コンストラクタ
+     * @param story 検索対象のストーリー
+     * @param indexFile 索引ファイル。保存しないなら null
+     */
+    public SearchIndex(Story story, File indexFile) {
+        this.story = story;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * 検索対象のストーリーを返します。
+     * @return 検索対象のストーリー
+     */
+    public Story getStory() {
+        return story;
+    }
+
+    /**
+     * バックグラウンドのスレッドで、索引がないか内容が変わった period の索引を作成するよう要求します。
+     * 最初の要求では、まず索引ファイルを読み込みます。
+     * 作成し終えたら索引ファイルに保存します。
+     * 読み込まれていない period は、索引を作成した後で解放します。
+     */
+    public void requestBuild() {
+        final List<StoryPeriod> periodList = new ArrayList<StoryPeriod>(story.getPeriods());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                build(periodList);
+            }
+        });
+    }
+
+    /**
+     * 要求済みで、まだ始まっていない索引の作成を取りやめます。
+     * 実行中のものは period の区切りで止めます。
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * すべての period の索引が揃っているかどうかを返します。
+     * @return 揃っていれば true
+     */
+    public boolean isComplete() {
+        List<StoryPeriod> periodList = story.getPeriods();
+        for (int periodIndex = 0; periodIndex < periodList.size(); ++periodIndex) {
+            if (getValidIndex(periodIndex, periodList.get(periodIndex)) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 索引を作成します。
+     * @param periodList period のリスト
+     */
+    private void build(List<StoryPeriod> periodList) {
+        if (isCancelled) {
+            return;
+        }
+        if (!isIndexFileRead) {
+            isIndexFileRead = true;
+            readIndexFile();
+        }
+
+        boolean isModified = false;
+        for (int periodIndex = 0; periodIndex < periodList.size(); ++periodIndex) {
+            if (isCancelled) {
+                return;
+            }
+            StoryPeriod period = periodList.get(periodIndex);
+            if (getValidIndex(periodIndex, period) != null) {
+                continue;
+            }
+
+            LazyStoryPeriod lazyPeriod = (period instanceof LazyStoryPeriod) ? (LazyStoryPeriod)period : null;
+            boolean wasLoaded = (lazyPeriod == null || lazyPeriod.isLoaded());
+            PeriodSearchIndex periodIndex0;
+            try {
+                // 遅延読み込みの period は内容を識別する値で判断するので、要素のリストは覚えない
+                periodIndex0 = PeriodSearchIndex.build(period.getStoryElements(),
+                        (lazyPeriod != null) ? lazyPeriod.getContentKey() : 0, lazyPeriod == null);
+            } catch (RuntimeException ex) {
+                Moltonf.getLogger().warning("failed to build search index", ex);
+                continue;
+            }
+            if (!wasLoaded) {
+                // 途中で表示のために pin されていれば解放されない
+                lazyPeriod.evict();
+            }
+
+            synchronized (this) {
+                if (periodIndexes.length <= periodIndex) {
+                    periodIndexes = Arrays.copyOf(periodIndexes, periodList.size());
+                }
+                periodIndexes[periodIndex] = periodIndex0;
+            }
+            isModified = true;
+        }
+
+        if (isModified && indexFile != null) {
+            try {
+                writeIndexFile();
+            } catch (IOException ex) {
+                Moltonf.getLogger().warning("failed to write search index : " + indexFile.getPath(), ex);
+            }
+        }
+    }
+
+    /**
+     * period の索引が、現在の内容に対して有効であればそれを返します。
+     * @param periodIndex period のインデックス
+     * @param period period
+     * @return 索引。ないか、有効でなければ null
+     */
+    private PeriodSearchIndex getValidIndex(int periodIndex, StoryPeriod period) {
+        PeriodSearchIndex index;
+        synchronized (this) {
+            index = (periodIndex < periodIndexes.length) ? periodIndexes[periodIndex] : null;
+        }
+        if (index == null) {
+            return null;
+        }
+        if (period instanceof LazyStoryPeriod) {
+            // 読み込み直しても内容が変わらなければ使える
+            return (index.getContentKey() == ((LazyStoryPeriod)period).getContentKey()) ? index : null;
+        }
+        return (index.getSourceElements() == period.getStoryElements()) ? index : null;
+    }
+
+    /**
+     * メッセージを検索します。
+     * 前回の検索結果を渡すと、文字列を追加して絞り込んだ場合にはその結果の行だけを調べます。
+     * 読み込まれていない period は、候補の行があるときだけ読み込み、調べ終わったら解放します。
+     * 呼び出したスレッドが割り込まれたら、その時点で打ち切ります。
+     * @param query 検索の条件
+     * @param previousResult 前回の検索結果。なければ null
+     * @return 検索結果
+     */
+    public SearchResult search(SearchQuery query, SearchResult previousResult) {
+        List<StoryPeriod> periodList = new ArrayList<StoryPeriod>(story.getPeriods());
+        int periodCount = periodList.size();
+        PeriodSearchIndex[] usedIndexes = new PeriodSearchIndex[periodCount];
+        int[][] matchedLines = new int[periodCount][];
+        List<SearchHit> hitList = new ArrayList<SearchHit>();
+        if (!query.isValid()) {
+            return new SearchResult(query, hitList, false, usedIndexes, matchedLines);
+        }
+
+        boolean isNarrowing = (previousResult != null && !previousResult.isTruncated()
+                && query.isNarrowerThan(previousResult.getQuery()));
+        String literal = query.getRequiredLiteral();
+        for (int periodIndex = 0; periodIndex < periodCount; ++periodIndex) {
+            if (Thread.currentThread().isInterrupted()) {
+                return new SearchResult(query, hitList, true, usedIndexes, matchedLines);
+            }
+            StoryPeriod period = periodList.get(periodIndex);
+            LazyStoryPeriod lazyPeriod = (period instanceof LazyStoryPeriod) ? (LazyStoryPeriod)period : null;
+            boolean wasLoaded = (lazyPeriod == null || lazyPeriod.isLoaded());
+            boolean isTruncated;
+            PeriodSearchIndex index = getValidIndex(periodIndex, period);
+            if (index == null) {
+                // 索引がなければすべての行を調べる
+                isTruncated = searchAllLines(query, periodIndex, period.getStoryElements(), hitList);
+            } else {
+                int[] candidateLines;
+                if (isNarrowing && previousResult.getPeriodIndex(periodIndex) == index) {
+                    candidateLines = previousResult.getMatchedLines(periodIndex);
+                } else {
+                    candidateLines = (literal != null) ? index.findCandidateLines(literal) : null;
+                }
+                if (candidateLines != null && candidateLines.length == 0) {
+                    // 候補がなければ period を読み込むまでもない
+                    usedIndexes[periodIndex] = index;
+                    matchedLines[periodIndex] = candidateLines;
+                    continue;
+                }
+                matchedLines[periodIndex] = searchCandidateLines(query, periodIndex, period.getStoryElements(),
+                        index, candidateLines, hitList);
+                usedIndexes[periodIndex] = index;
+                isTruncated = (hitList.size() >= MAX_HIT_COUNT);
+            }
+            if (!wasLoaded) {
+                lazyPeriod.evict();
+            }
+            if (isTruncated) {
+                return new SearchResult(query, hitList, true, usedIndexes, matchedLines);
+            }
+        }
+        return new SearchResult(query, hitList, false, usedIndexes, matchedLines);
+    }
+
+    /**
+     * 索引を使わずに、period のすべての行を調べます。
+     * @param query 検索の条件
+     * @param periodIndex period のインデックス
+     * @param storyElements period の要素のリスト
+     * @param hitList 見つかった箇所を追加するリスト
+     * @return 見つかった箇所が上限に達して打ち切ったなら true
+     */
+    private static boolean searchAllLines(SearchQuery query, int periodIndex, List<StoryElement> storyElements,
+            List<SearchHit> hitList) {
+        for (int elementIndex = 0; elementIndex < storyElements.size(); ++elementIndex) {
+            List<String> messageLines = PeriodSearchIndex.getMessageLines(storyElements, elementIndex);
+            for (int lineIndex = 0; lineIndex < messageLines.size(); ++lineIndex) {
+                findInLine(query, messageLines.get(lineIndex), periodIndex, elementIndex, lineIndex, hitList);
+                if (hitList.size() >= MAX_HIT_COUNT) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 索引で絞り込んだ候補の行を調べます。
+     * 見つかった箇所が上限に達したら、そこで打ち切ります。
+     * @param query 検索の条件
+     * @param periodIndex period のインデックス
+     * @param storyElements period の要素のリスト
+     * @param index period の索引
+     * @param candidateLines 候補の行の通し番号。すべての行を調べるなら null
+     * @param hitList 見つかった箇所を追加するリスト
+     * @return 条件にマッチした行の通し番号
+     */
+    private static int[] searchCandidateLines(SearchQuery query, int periodIndex, List<StoryElement> storyElements,
+            PeriodSearchIndex index, int[] candidateLines, List<SearchHit> hitList) {
+        int candidateCount = (candidateLines != null) ? candidateLines.length : index.getLineCount();
+        int[] matched = new int[candidateCount];
+        int matchedCount = 0;
+        for (int ix = 0; ix < candidateCount && hitList.size() < MAX_HIT_COUNT; ++ix) {
+            int lineId = (candidateLines != null) ? candidateLines[ix] : ix;
+            int elementIndex = index.getLineElement(lineId);
+            int lineIndex = index.getLineNumber(lineId);
+            String line = PeriodSearchIndex.getMessageLines(storyElements, elementIndex).get(lineIndex);
+            if (findInLine(query, line, periodIndex, elementIndex, lineIndex, hitList)) {
+                matched[matchedCount++] = lineId;
+            }
+        }
+        return Arrays.copyOf(matched, matchedCount);
+    }
+
+    /**
+     * 1 行の中で条件にマッチする箇所を探して、リストに追加します。
+     * @param query 検索の条件
+     * @param line 行
+     * @param periodIndex period のインデックス
+     * @param elementIndex 要素のインデックス
+     * @param lineIndex 行のインデックス
+     * @param hitList 見つかった箇所を追加するリスト
+     * @return 見つかれば true
+     */
+    private static boolean findInLine(SearchQuery query, String line, int periodIndex, int elementIndex, int lineIndex,
+            List<SearchHit> hitList) {
+        boolean isFound = false;
+        if (query.isRegularExpression()) {
+            Matcher matcher = query.getPattern().matcher(line);
+            while (matcher.find()) {
+                if (matcher.end() > matcher.start()) {
+                    hitList.add(new SearchHit(periodIndex, elementIndex,
+                            new MessageRange(lineIndex, matcher.start(), matcher.end()), line));
+                    isFound = true;
+                }
+            }
+        } else {
+            String text = query.getText();
+            int start = line.indexOf(text);
+            while (start >= 0) {
+                hitList.add(new SearchHit(periodIndex, elementIndex,
+                        new MessageRange(lineIndex, start, start + text.length()), line));
+                isFound = true;
+                start = line.indexOf(text, start + text.length());
+            }
+        }
+        return isFound;
+    }
+
+    /**
+     * 索引ファイルを読み込みます。
+     * 読み込めなければ、索引を作成し直すので何もしません。
+     */
+    private void readIndexFile() {
+        if (indexFile == null || !indexFile.exists()) {
+            return;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    return;
+                }
+                int periodCount = in.readInt();
+                PeriodSearchIndex[] readIndexes = new PeriodSearchIndex[periodCount];
+                for (int ix = 0; ix < periodCount; ++ix) {
+                    if (in.readBoolean()) {
+                        readIndexes[ix] = PeriodSearchIndex.read(in);
+                    }
+                }
+                synchronized (this) {
+                    periodIndexes = readIndexes;
+                }
+            } catch (EOFException ex) {
+                // 壊れているものは使わない
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            Moltonf.getLogger().warning("failed to read search index : " + indexFile.getPath(), ex);
+        }
+    }
+
+    /**
+     * 索引ファイルを書き込みます。
+     * いったん一時ファイルに書き込んでから置き換えるので、途中で失敗しても壊れた索引は残りません。
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private void writeIndexFile() throws IOException {
+        PeriodSearchIndex[] writeIndexes;
+        synchronized (this) {
+            writeIndexes = periodIndexes.clone();
+        }
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(writeIndexes.length);
+            for (PeriodSearchIndex index : writeIndexes) {
+                out.writeBoolean(index != null);
+                if (index != null) {
+                    index.write(out);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (indexFile.exists() && !indexFile.delete()) {
+            tempFile.delete();
+            throw new IOException("failed to replace search index file : " + indexFile.getPath());
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            tempFile.delete();
+            throw new IOException("failed to rename search index file : " + tempFile.getPath());
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.search;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 全文検索の条件。
+ * 文字列をそのまま探すか、正規表現にマッチする箇所を探します。
+ */
+public class SearchQuery {
+
+    /** 検索する文字列 */
+    private final String text;
+
+    /** 正規表現として扱うかどうか */
+    private final boolean isRegularExpression;
+
+    /** コンパイル済みパターン。正規表現でないか、正しくない正規表現なら null */
+    private final Pattern pattern;
+
+    /** マッチする箇所が必ず含む文字列。求められなければ null */
+    private final String requiredLiteral;
+
+    /**
+     * コンストラクタ
+     * @param text 検索する文字列
+     * @param isRegularExpression 正規表現として扱うなら true
+     */
+    public SearchQuery(String text, boolean isRegularExpression) {
+        this.text = text;
+        this.isRegularExpression = isRegularExpression;
+        if (isRegularExpression) {
+            Pattern compiledPattern;
+            try {
+                compiledPattern = Pattern.compile(text);
+            } catch (PatternSyntaxException ex) {
+                compiledPattern = null;
+            }
+            pattern = compiledPattern;
+            requiredLiteral = (pattern != null) ? extractRequiredLiteral(text) : null;
+        } else {
+            pattern = null;
+            requiredLiteral = text;
+        }
+    }
+
+    /**
+     * 検索する文字列を返します。
+     * @return 検索する文字列
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * 正規表現として扱うかどうかを返します。
+     * @return 正規表現として扱うなら true
+     */
+    public boolean isRegularExpression() {
+        return isRegularExpression;
+    }
+
+    /**
+     * 検索を行える条件かどうかを調べます。
+     * @return 空文字列でなく、正規表現なら正しく解釈できれば true
+     */
+    public boolean isValid() {
+        return text.length() > 0 && (!isRegularExpression || pattern != null);
+    }
+
+    /**
+     * コンパイル済みパターンを返します。
+     * @return コンパイル済みパターン。正規表現でない場合は null
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * マッチする箇所が必ず含む文字列を返します。
+     * 索引で候補の行を絞り込むのに用います。
+     * @return 文字列。求められなければ null
+     */
+    String getRequiredLiteral() {
+        return requiredLiteral;
+    }
+
+    /**
+     * この条件にマッチする行が、必ず別の条件にもマッチするかどうかを調べます。
+     * 入力中の文字列に文字を追加したときに、前の検索結果から絞り込めるかどうかの判断に用います。
+     * @param other 別の条件
+     * @return 必ずマッチするなら true
+     */
+    boolean isNarrowerThan(SearchQuery other) {
+        return !isRegularExpression && !other.isRegularExpression && text.contains(other.text);
+    }
+
+    /**
+     * 正規表現から、マッチする箇所が必ず含む文字列を取り出します。
+     * 選択 (|) やフラグの指定を含むものは扱わず、
+     * グループの外で、繰り返しの指定によって省略されることのない文字の並びのうち、最も長いものを返します。
+     * @param regex 正規表現
+     * @return 文字列。求められなければ null
+     */
+    static String extractRequiredLiteral(String regex) {
+        if (regex.indexOf('|') >= 0 || regex.indexOf("(?") >= 0) {
+            return null;
+        }
+
+        String longest = "";
+        StringBuilder current = new StringBuilder();
+        int depth = 0;
+        int length = regex.length();
+        for (int ix = 0; ix < length; ++ix) {
+            char ch = regex.charAt(ix);
+            boolean isLiteral = false;
+            if (ch == '\\') {
+                if (ix + 1 >= length) {
+                    break;
+                }
+                char next = regex.charAt(++ix);
+                if (next == 'Q') {
+                    int end = regex.indexOf("\\E", ix + 1);
+                    String quoted = regex.substring(ix + 1, (end >= 0) ? end : length);
+                    if (depth == 0) {
+                        current.append(quoted);
+                    }
+                    ix = (end >= 0) ? end + 1 : length;
+                    continue;
+                } else if (Character.isLetterOrDigit(next)) {
+                    // 文字クラスや後方参照など。\x41 の 41 のような後続の部分も文字としては扱わない
+                    longest = longer(longest, current);
+                    ix = skipEscapeOperand(regex, ix);
+                } else {
+                    ch = next;
+                    isLiteral = true;
+                }
+            } else if (ch == '[') {
+                // 文字クラスを読み飛ばす
+                longest = longer(longest, current);
+                int classDepth = 1;
+                ++ix;
+                if (ix < length && regex.charAt(ix) == '^') {
+                    ++ix;
+                }
+                if (ix < length && regex.charAt(ix) == ']') {
+                    ++ix;
+                }
+                for (; ix < length && classDepth > 0; ++ix) {
+                    char classChar = regex.charAt(ix);
+                    if (classChar == '\\') {
+                        ++ix;
+                    } else if (classChar == '[') {
+                        ++classDepth;
+                    } else if (classChar == ']') {
+                        --classDepth;
+                    }
+                }
+                --ix;
+            } else if (ch == '(') {
+                ++depth;
+                longest = longer(longest, current);
+            } else if (ch == ')') {
+                --depth;
+                longest = longer(longest, current);
+            } else if (ch == '*' || ch == '?' || ch == '{') {
+                // 直前の文字は省略されるかもしれない
+                if (current.length() > 0) {
+                    current.setLength(current.length() - 1);
+                }
+                longest = longer(longest, current);
+                if (ch == '{') {
+                    int end = regex.indexOf('}', ix);
+                    ix = (end >= 0) ? end : length;
+                }
+            } else if (ch == '+' || ch == '.' || ch == '^' || ch == '$') {
+                longest = longer(longest, current);
+            } else {
+                isLiteral = true;
+            }
+
+            if (isLiteral) {
+                if (depth == 0) {
+                    current.append(ch);
+                } else {
+                    longest = longer(longest, current);
+                }
+            }
+        }
+        longest = longer(longest, current);
+        return (longest.length() > 0) ? longest : null;
+    }
+
+    /**
+     * 英数字によるエスケープに続く部分を読み飛ばします。
+     * 16 進数や 8 進数による文字の指定 (\xhh, \x{h...h}, &#92;uhhhh, \0nnn)、制御文字 (\cX)、
+     * Unicode のプロパティ (\p{...}, \pL)、後方参照 (\n, \k&lt;name&gt;) などが対象です。
+     * @param regex 正規表現
+     * @param ix エスケープの英数字の位置
+     * @return 読み飛ばした部分の最後の位置。続く部分がなければ ix のまま
+     */
+    private static int skipEscapeOperand(String regex, int ix) {
+        int length = regex.length();
+        char escape = regex.charAt(ix);
+        switch (escape) {
+        case 'x':
+            if (ix + 1 < length && regex.charAt(ix + 1) == '{') {
+                return skipTo(regex, ix + 1, '}');
+            }
+            return skipWhile(regex, ix, 2, "0123456789abcdefABCDEF");
+        case 'u':
+            return skipWhile(regex, ix, 4, "0123456789abcdefABCDEF");
+        case '0':
+            return skipWhile(regex, ix, 3, "01234567");
+        case 'c':
+            return Math.min(ix + 1, length - 1);
+        case 'p':
+        case 'P':
+        case 'N':
+            if (ix + 1 < length && regex.charAt(ix + 1) == '{') {
+                return skipTo(regex, ix + 1, '}');
+            }
+            return Math.min(ix + 1, length - 1);
+        case 'k':
+            if (ix + 1 < length && regex.charAt(ix + 1) == '<') {
+                return skipTo(regex, ix + 1, '>');
+            }
+            return ix;
+        default:
+            if (escape >= '1' && escape <= '9') {
+                // 後方参照の番号は続く数字も含むことがある
+                return skipWhile(regex, ix, length, "0123456789");
+            }
+            return ix;
+        }
+    }
+    
+    /**
+     * 指定した文字が現れるところまで読み飛ばします。
+     * @param regex 正規表現
+     * @param ix 読み飛ばし始める位置
+     * @param end 読み飛ばす最後の文字
+     * @return その文字の位置。なければ最後の位置
+     */
+    private static int skipTo(String regex, int ix, char end) {
+        int endIndex = regex.indexOf(end, ix);
+        return (endIndex >= 0) ? endIndex : regex.length() - 1;
+    }
+    
+    /**
+     * 指定した文字の集合に含まれる文字が続く間、最大 maxCount 文字まで読み飛ばします。
+     * @param regex 正規表現
+     * @param ix 読み飛ばし始める直前の位置
+     * @param maxCount 読み飛ばす文字の数の上限
+     * @param chars 読み飛ばす文字の集合
+     * @return 読み飛ばした最後の文字の位置。読み飛ばさなければ ix のまま
+     */
+    private static int skipWhile(String regex, int ix, int maxCount, String chars) {
+        int length = regex.length();
+        for (int count = 0; count < maxCount && ix + 1 < length && chars.indexOf(regex.charAt(ix + 1)) >= 0; ++count) {
+            ++ix;
+        }
+        return ix;
+    }
+
+    /**
+     * 文字の並びを区切って、それまでに見つかったものより長ければそれを返します。
+     * @param longest それまでに見つかった最も長い文字列
+     * @param current 区切る文字の並び。空にされる
+     * @return 長い方の文字列
+     */
+    private static String longer(String longest, StringBuilder current) {
+        String result = (current.length() > longest.length()) ? current.toString() : longest;
+        current.setLength(0);
+        return result;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "SearchQuery [text=" + text + ", isRegularExpression=" + isRegularExpression + "]";
+    }
+}
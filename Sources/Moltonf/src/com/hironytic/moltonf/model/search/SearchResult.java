@@ -0,0 +1,110 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.model.search;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 全文検索の結果
+ */
+public class SearchResult {
+
+    /** 検索の条件 */
+    private final SearchQuery query;
+
+    /** 見つかった箇所のリスト */
+    private final List<SearchHit> hitList;
+
+    /** 見つかった箇所が多すぎて、途中で打ち切ったかどうか */
+    private final boolean isTruncated;
+
+    /** 検索に用いた、各 period の索引。索引を用いなかった period は null */
+    private final PeriodSearchIndex[] periodIndexes;
+
+    /** 各 period の、マッチした箇所を含む行の番号の配列。索引を用いなかった period は null */
+    private final int[][] matchedLines;
+
+    /**
+     * コンストラクタ
+     * @param query 検索の条件
+     * @param hitList 見つかった箇所のリスト
+     * @param isTruncated 途中で打ち切ったかどうか
+     * @param periodIndexes 検索に用いた、各 period の索引
+     * @param matchedLines 各 period の、マッチした箇所を含む行の番号の配列
+     */
+    SearchResult(SearchQuery query, List<SearchHit> hitList, boolean isTruncated,
+            PeriodSearchIndex[] periodIndexes, int[][] matchedLines) {
+        this.query = query;
+        this.hitList = Collections.unmodifiableList(hitList);
+        this.isTruncated = isTruncated;
+        this.periodIndexes = periodIndexes;
+        this.matchedLines = matchedLines;
+    }
+
+    /**
+     * 検索の条件を返します。
+     * @return 検索の条件
+     */
+    public SearchQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * 見つかった箇所のリストを返します。
+     * period、要素、行、行中の位置の順に並んでいます。
+     * @return 見つかった箇所のリスト
+     */
+    public List<SearchHit> getHitList() {
+        return hitList;
+    }
+
+    /**
+     * 見つかった箇所が多すぎて、途中で打ち切ったかどうかを返します。
+     * @return 打ち切ったなら true
+     */
+    public boolean isTruncated() {
+        return isTruncated;
+    }
+
+    /**
+     * period の検索に用いた索引を返します。
+     * @param periodIndex period のインデックス
+     * @return 索引。用いなかった場合は null
+     */
+    PeriodSearchIndex getPeriodIndex(int periodIndex) {
+        return (periodIndex < periodIndexes.length) ? periodIndexes[periodIndex] : null;
+    }
+
+    /**
+     * period の、マッチした箇所を含む行の番号の配列を返します。
+     * @param periodIndex period のインデックス
+     * @return 行の番号の昇順の配列。索引を用いなかった場合は null
+     */
+    int[] getMatchedLines(int periodIndex) {
+        return (periodIndex < matchedLines.length) ? matchedLines[periodIndex] : null;
+    }
+}
@@ -53,12 +53,18 @@ public class Resources extends ListResourceBundle {
             // メインフレーム コマンド
             {"mainFrame.command.newWorkspace", "新しい観戦(N)..."},
             {"mainFrame.command.openWorkspace", "観戦データを開く(O)..."},
+            {"mainFrame.command.reloadStory", "最新の状態に更新(R)"},
             {"mainFrame.command.exit", "終了(X)"},
             {"mainFrame.command.about", "バージョン情報(A)"},
             
             // ピリオドビュー
             {"periodView.nextDay", "次の日へ"},
             
+            // ピリオドのタブ
+            {"periodTab.prologue", "プロローグ"},
+            {"periodTab.progress", "%d日目"},
+            {"periodTab.epilogue", "エピローグ"},
+            
             // ダイアログ共通
             {"dialog.buttonOk", "OK"},
             {"dialog.buttonCancel", "キャンセル"},
@@ -88,6 +94,17 @@ public class Resources extends ListResourceBundle {
             {"filterSideBar.eventFamilyFilter.announce", "アナウンス"},
             {"filterSideBar.eventFamilyFilter.extra", "特殊能力系"},
             {"filterSideBar.eventFamilyFilter.order", "操作系"},
+            {"filterSideBar.hitCount", "%s (%d)"},
+            {"filterSideBar.speakerToolTip", "%d 発言 / %d 文字"},
+            
+            // 検索 サイドバー
+            {"searchSideBar.query", "検索する文字列"},
+            {"searchSideBar.regularExpression", "正規表現"},
+            {"searchSideBar.hit", "%d日目: %s"},
+            {"searchSideBar.hitCount", "%d 件"},
+            {"searchSideBar.hitCountTruncated", "%d 件以上"},
+            {"searchSideBar.invalidPattern", "正規表現が正しくありません"},
+            {"searchSideBar.searching", "検索中..."},
             
         };
     }
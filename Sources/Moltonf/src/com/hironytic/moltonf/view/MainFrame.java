@@ -50,6 +50,9 @@ public class MainFrame extends JFrame {
     /** [ワークスペースを開く] コマンドの Action */
     private final CommandAction commandActionOpenWorkspace = new CommandAction("mainFrame.command.openWorkspace", KeyEvent.VK_O);
     
+    /** [最新の状態に更新] コマンドの Action */
+    private final CommandAction commandActionReloadStory = new CommandAction("mainFrame.command.reloadStory", KeyEvent.VK_R);
+    
     /** [終了] コマンドの Action */
     private final CommandAction commandActionExit = new CommandAction("mainFrame.command.exit", KeyEvent.VK_X);
     
@@ -96,6 +99,8 @@ public class MainFrame extends JFrame {
         menu.add(commandActionNewWorkspace);
         menu.add(commandActionOpenWorkspace);
         menu.addSeparator();
+        menu.add(commandActionReloadStory);
+        menu.addSeparator();
         menu.add(commandActionExit);
 
         // [ヘルプ]
@@ -138,6 +143,14 @@ public class MainFrame extends JFrame {
         return commandActionOpenWorkspace;
     }
 
+    /**
+     * [最新の状態に更新] コマンドの CommandAction を取得します。
+     * @return CommandAction オブジェクト
+     */
+    public CommandAction getCommandActionReloadStory() {
+        return commandActionReloadStory;
+    }
+
     /**
      * [終了] コマンドの CommandAction を取得します。
      * @return CommandAction オブジェクト
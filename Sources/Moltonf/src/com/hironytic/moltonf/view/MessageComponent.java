@@ -31,6 +31,7 @@ import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -51,13 +52,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.swing.JComponent;
 import javax.swing.event.EventListenerList;
 
 import com.hironytic.moltonf.Moltonf;
+import com.hironytic.moltonf.model.HighlightEngine;
+import com.hironytic.moltonf.model.HighlightIndex;
 import com.hironytic.moltonf.model.HighlightSetting;
 import com.hironytic.moltonf.model.Link;
 import com.hironytic.moltonf.model.MessageRange;
@@ -69,6 +70,9 @@ import com.hironytic.moltonf.view.event.LinkClickedEvent;
  */
 @SuppressWarnings("serial")
 public class MessageComponent extends JComponent implements Selectable {
+
+    /** 行の高さの倍率の既定値 */
+    public static final float DEFAULT_LINE_HEIGHT_FACTOR = 1.3f; /* TODO: G国なら1.5f */
     
     /** 表示するメッセージ */
     private List<String> messageLines;
@@ -79,15 +83,24 @@ public class MessageComponent extends JComponent implements Selectable {
     /** 強調表示設定のリスト */
     private List<HighlightSetting> highlightSettingList;
 
+    /** あらかじめ求めておいた強調表示範囲 */
+    private HighlightIndex.ElementHighlights elementHighlights;
+
     /** テキスト属性情報のリスト */
     private List<AttributedAreaInfo> attributedAreaInfoList;
     
     /** リンク情報 */
     private List<LinkInfo> linkInfoList;
     
+    /** レイアウト結果のキャッシュ。すべての MessageComponent で共有する */
+    private static final TextLayoutCache<LayoutKey, CachedLayout> layoutCache = new TextLayoutCache<LayoutKey, CachedLayout>();
+    
     /** 各行の TextLayout */
     private List<LineLayout> lineLayouts = null;
     
+    /** 現在のレイアウトを行ったときの条件 */
+    private LayoutKey layoutKey = null;
+    
     /** メッセージ表示領域の矩形 */
     private Rectangle2D.Float messageAreaRect = new Rectangle2D.Float(0, 0, 0, 0);
 
@@ -117,6 +130,9 @@ public class MessageComponent extends JComponent implements Selectable {
         /** 色 */
         private Color color = null;
         
+        /** 背景色 */
+        private Color backgroundColor = null;
+        
         /**
          * デフォルトコンストラクタ
          */
@@ -141,6 +157,18 @@ public class MessageComponent extends JComponent implements Selectable {
             this.range = range;
             this.color = color;
         }
+        
+        /**
+         * 範囲と色と背景色を指定するコンストラクタ
+         * @param range 属性の範囲
+         * @param color 色
+         * @param backgroundColor 背景色
+         */
+        public AttributedAreaInfo(MessageRange range, Color color, Color backgroundColor) {
+            this.range = range;
+            this.color = color;
+            this.backgroundColor = backgroundColor;
+        }
     
         /**
          * 属性の範囲を取得します。
@@ -157,6 +185,14 @@ public class MessageComponent extends JComponent implements Selectable {
         public Color getColor() {
             return color;
         }
+        
+        /**
+         * 背景色を取得します。
+         * @return 背景色を返します。
+         */
+        public Color getBackgroundColor() {
+            return backgroundColor;
+        }
     
         /**
          * 属性の範囲を設定します。
@@ -173,6 +209,14 @@ public class MessageComponent extends JComponent implements Selectable {
         public void setColor(Color color) {
             this.color = color;
         }
+        
+        /**
+         * 背景色をセットします。
+         * @param backgroundColor 背景色
+         */
+        public void setBackgroundColor(Color backgroundColor) {
+            this.backgroundColor = backgroundColor;
+        }
     }
     
     /**
@@ -235,7 +279,7 @@ public class MessageComponent extends JComponent implements Selectable {
     }
 
     /** 見た目の1行分のレイアウト情報 */
-    private class LineLayout {
+    private static class LineLayout {
         /** 行の上端座標 */
         private float top;
         
@@ -307,11 +351,280 @@ public class MessageComponent extends JComponent implements Selectable {
         }
     }
 
+    /**
+     * レイアウトの結果
+     */
+    private static class CachedLayout {
+        /** 見た目の1行分のレイアウト情報のリスト */
+        private final List<LineLayout> lineLayouts = new ArrayList<LineLayout>();
+        
+        /** 全体の高さ */
+        private float height = 0f;
+        
+        /**
+         * おおよそのメモリ使用量を見積もります。
+         * TextLayout は内部にグリフの情報を持つので、1文字あたり 48 バイト程度として計算します。
+         * @return メモリ使用量 (バイト)
+         */
+        public long estimateCost() {
+            long cost = 64;
+            for (LineLayout lineLayout : lineLayouts) {
+                cost += 48;
+                TextLayout textLayout = lineLayout.getTextLayout();
+                if (textLayout != null) {
+                    cost += 256 + textLayout.getCharacterCount() * 48L;
+                }
+            }
+            return cost;
+        }
+    }
+    
+    /**
+     * レイアウトの結果を左右する条件をまとめたキー。
+     * メッセージは内容で比較するので、読み込み直したりして別のオブジェクトになっても同じキーになります。
+     * 強調表示設定やリンク、属性付けの情報も内容 (範囲と色) で比較するので、
+     * 設定が変わればキーが変わり、変わらなければ同じレイアウトを使い回せます。
+     */
+    private static class LayoutKey {
+        /** メッセージ行のリスト */
+        private final List<String> messageLines;
+        
+        /** フォント */
+        private final Font font;
+        
+        /** 文字色 */
+        private final Color foreground;
+        
+        /** 表示幅 */
+        private final float width;
+        
+        /** 1行の高さの係数 */
+        private final float lineHeightFactor;
+        
+        /** FontRenderContext */
+        private final FontRenderContext fontRenderContext;
+        
+        /** 強調表示設定のリスト */
+        private final List<HighlightSetting> highlightSettingList;
+        
+        /** あらかじめ求めておいた強調表示範囲。レイアウトの結果は変わらないので比較には用いない */
+        private final HighlightIndex.ElementHighlights elementHighlights;
+        
+        /** リンク情報のリスト */
+        private final List<LinkInfo> linkInfoList;
+        
+        /** 属性付け範囲の情報のリスト */
+        private final List<AttributedAreaInfo> attributedAreaInfoList;
+        
+        /** 比較に用いる、強調表示設定、リンク、属性付けの内容 */
+        private final List<Object> attributes;
+        
+        /** ハッシュ値 */
+        private final int hash;
+        
+        /**
+         * コンストラクタ
+         * @param messageLines メッセージ行のリスト
+         * @param font フォント
+         * @param foreground 文字色
+         * @param width 表示幅
+         * @param lineHeightFactor 1行の高さの係数
+         * @param fontRenderContext FontRenderContext
+         * @param highlightSettingList 強調表示設定のリスト
+         * @param elementHighlights あらかじめ求めておいた強調表示範囲。なければ null
+         * @param linkInfoList リンク情報のリスト
+         * @param attributedAreaInfoList 属性付け範囲の情報のリスト
+         */
+        public LayoutKey(List<String> messageLines, Font font, Color foreground, float width, float lineHeightFactor,
+                FontRenderContext fontRenderContext, List<HighlightSetting> highlightSettingList,
+                HighlightIndex.ElementHighlights elementHighlights,
+                List<LinkInfo> linkInfoList, List<AttributedAreaInfo> attributedAreaInfoList) {
+            this.messageLines = messageLines;
+            this.font = font;
+            this.foreground = foreground;
+            this.width = width;
+            this.lineHeightFactor = lineHeightFactor;
+            this.fontRenderContext = fontRenderContext;
+            this.highlightSettingList = highlightSettingList;
+            this.elementHighlights = elementHighlights;
+            this.linkInfoList = linkInfoList;
+            this.attributedAreaInfoList = attributedAreaInfoList;
+            
+            attributes = new ArrayList<Object>();
+            if (highlightSettingList != null) {
+                for (HighlightSetting highlightSetting : highlightSettingList) {
+                    if (highlightSetting.isValid()) {
+                        attributes.add(highlightSetting.getPatternString());
+                        attributes.add(highlightSetting.getHighlightColor());
+                    }
+                }
+            }
+            attributes.add(null);
+            if (linkInfoList != null) {
+                for (LinkInfo linkInfo : linkInfoList) {
+                    attributes.add(linkInfo.getLink().getRange());
+                    attributes.add(linkInfo.getColor());
+                }
+            }
+            attributes.add(null);
+            if (attributedAreaInfoList != null) {
+                for (AttributedAreaInfo attrAreaInfo : attributedAreaInfoList) {
+                    attributes.add(attrAreaInfo.getRange());
+                    attributes.add(attrAreaInfo.getColor());
+                    attributes.add(attrAreaInfo.getBackgroundColor());
+                }
+            }
+            
+            int result = messageLines.hashCode();
+            result = 31 * result + ((font == null) ? 0 : font.hashCode());
+            result = 31 * result + ((foreground == null) ? 0 : foreground.hashCode());
+            result = 31 * result + Float.floatToIntBits(width);
+            result = 31 * result + Float.floatToIntBits(lineHeightFactor);
+            result = 31 * result + fontRenderContext.hashCode();
+            result = 31 * result + attributes.hashCode();
+            hash = result;
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof LayoutKey))
+                return false;
+            LayoutKey other = (LayoutKey)obj;
+            return hash == other.hash
+                    && Float.floatToIntBits(width) == Float.floatToIntBits(other.width)
+                    && Float.floatToIntBits(lineHeightFactor) == Float.floatToIntBits(other.lineHeightFactor)
+                    && isEqual(font, other.font)
+                    && isEqual(foreground, other.foreground)
+                    && fontRenderContext.equals(other.fontRenderContext)
+                    && attributes.equals(other.attributes)
+                    && (messageLines == other.messageLines || messageLines.equals(other.messageLines));
+        }
+        
+        /**
+         * null を考慮して 2 つのオブジェクトを比較します。
+         * @param obj1 オブジェクト
+         * @param obj2 比べるオブジェクト
+         * @return 等しければ true
+         */
+        private static boolean isEqual(Object obj1, Object obj2) {
+            return (obj1 == null) ? (obj2 == null) : obj1.equals(obj2);
+        }
+    }
+    
+    /**
+     * イベントディスパッチスレッド以外でレイアウトを行うための、表示に関する条件。
+     * フォントや FontRenderContext はあらかじめイベントディスパッチスレッドで取得しておきます。
+     */
+    public static class LayoutContext {
+        /** フォント */
+        private final Font font;
+        
+        /** フォントの FontMetrics */
+        private final FontMetrics fontMetrics;
+        
+        /** FontRenderContext */
+        private final FontRenderContext fontRenderContext;
+        
+        /** 1行の高さの係数 */
+        private final float lineHeightFactor;
+        
+        /**
+         * コンストラクタ
+         * @param font フォント
+         * @param fontMetrics フォントの FontMetrics
+         * @param fontRenderContext FontRenderContext
+         * @param lineHeightFactor 1行の高さの係数
+         */
+        public LayoutContext(Font font, FontMetrics fontMetrics, FontRenderContext fontRenderContext, float lineHeightFactor) {
+            this.font = font;
+            this.fontMetrics = fontMetrics;
+            this.fontRenderContext = fontRenderContext;
+            this.lineHeightFactor = lineHeightFactor;
+        }
+    }
+    
+    /**
+     * コンポーネントを作らずにレイアウトを行い、結果をキャッシュに入れておきます。
+     * 同じ条件で updateLayout() を呼び出したときには、このレイアウト結果が使われます。
+     * keepsLayout が false なら高さを求めるだけで、キャッシュにはない結果を新たに入れることはしません。
+     * すぐには表示しない要素の結果で、表示中の要素の結果がキャッシュから追い出されるのを避けるためです。
+     * イベントディスパッチスレッド以外から呼び出すことができます。
+     * @param context 表示に関する条件
+     * @param messageLines メッセージ行のリスト
+     * @param foreground 文字色
+     * @param width 表示幅
+     * @param highlightSettingList 強調表示設定のリスト
+     * @param elementHighlights あらかじめ求めておいた強調表示範囲。なければ null
+     * @param attributedAreaInfoList 属性付け範囲の情報のリスト
+     * @param keepsLayout レイアウト結果をキャッシュに入れるなら true
+     * @return メッセージを表示するのに必要な高さ
+     */
+    public static float prepareLayout(LayoutContext context, List<String> messageLines, Color foreground, float width,
+            List<HighlightSetting> highlightSettingList, HighlightIndex.ElementHighlights elementHighlights,
+            List<AttributedAreaInfo> attributedAreaInfoList, boolean keepsLayout) {
+        if (width <= 0f) {
+            return 0f;
+        }
+        LayoutKey key = new LayoutKey(messageLines, context.font, foreground, width, context.lineHeightFactor,
+                context.fontRenderContext, highlightSettingList, elementHighlights, null, attributedAreaInfoList);
+        return getLayout(key, context.fontMetrics, keepsLayout).height;
+    }
+    
+    /**
+     * レイアウト結果をキャッシュから取得します。なければレイアウトを行ってキャッシュに入れます。
+     * @param key レイアウトの条件
+     * @param fontMetrics フォントの FontMetrics
+     * @return レイアウトの結果
+     */
+    private static CachedLayout getLayout(LayoutKey key, FontMetrics fontMetrics) {
+        return getLayout(key, fontMetrics, true);
+    }
+    
+    /**
+     * レイアウト結果をキャッシュから取得します。なければレイアウトを行います。
+     * @param key レイアウトの条件
+     * @param fontMetrics フォントの FontMetrics
+     * @param keepsLayout 新たにレイアウトを行った結果をキャッシュに入れるなら true
+     * @return レイアウトの結果
+     */
+    private static CachedLayout getLayout(LayoutKey key, FontMetrics fontMetrics, boolean keepsLayout) {
+        CachedLayout layout = layoutCache.get(key);
+        if (layout == null) {
+            layout = makeLayout(key, fontMetrics);
+            if (keepsLayout) {
+                layoutCache.put(key, layout, layout.estimateCost());
+            }
+        }
+        return layout;
+    }
+    
+    /**
+     * レイアウト結果のキャッシュを取得します。
+     * 上限の設定や、統計情報の取得に用います。
+     * @return レイアウト結果のキャッシュ
+     */
+    public static TextLayoutCache<?, ?> getLayoutCache() {
+        return layoutCache;
+    }
+    
     /**
      * コンストラクタ
      */
     public MessageComponent() {
-        lineHeightFactor = 1.3f; /* TODO: G国なら1.5f */
+        lineHeightFactor = DEFAULT_LINE_HEIGHT_FACTOR;
         
         enableEvents(AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_MOTION_EVENT_MASK);
     }
@@ -332,6 +645,35 @@ public class MessageComponent extends JComponent implements Selectable {
         this.lineHeightFactor = lineHeightFactor;
     }
 
+    /**
+     * レイアウトを行わずに、メッセージを表示するのに必要な高さを見積もります。
+     * 行を折り返す位置は文字列の幅だけから求めるので、updateLayout() の結果とは多少異なることがあります。
+     * @param messageLines メッセージ行のリスト
+     * @param width 表示幅
+     * @param fontMetrics 表示に用いるフォントの FontMetrics
+     * @param lineHeightFactor 行の高さの倍率
+     * @return 高さの見積もり
+     */
+    public static float estimateAreaHeight(List<String> messageLines, float width, FontMetrics fontMetrics, float lineHeightFactor) {
+        float lineHeight = Math.round(fontMetrics.getHeight() * lineHeightFactor);
+        
+        // 最終行が空行の場合、その空行は無視する
+        int lineListSize = messageLines.size();
+        if (lineListSize > 0 && messageLines.get(lineListSize - 1).isEmpty()) {
+            --lineListSize;
+        }
+        int lineCount = 0;
+        for (int lineIndex = 0; lineIndex < lineListSize; ++lineIndex) {
+            String line = messageLines.get(lineIndex);
+            if (line.isEmpty() || width <= 0f) {
+                ++lineCount;
+            } else {
+                lineCount += Math.max(1, (int)Math.ceil(fontMetrics.stringWidth(line) / width));
+            }
+        }
+        return lineCount * lineHeight;
+    }
+    
     /**
      * このコンポーネントで表示するメッセージをセットします。
      * @param message メッセージ行のリスト
@@ -348,6 +690,15 @@ public class MessageComponent extends JComponent implements Selectable {
         this.highlightSettingList = highlightSettingList;
     }
 
+    /**
+     * あらかじめ求めておいた強調表示範囲をセットします。
+     * セットしておくと、レイアウトの際にメッセージの強調表示範囲を求め直しません。
+     * @param elementHighlights 強調表示範囲。なければ null
+     */
+    public void setElementHighlights(HighlightIndex.ElementHighlights elementHighlights) {
+        this.elementHighlights = elementHighlights;
+    }
+
     /**
      * 属性付けを行った範囲に関する情報をセットします。
      * @param attributedAreaInfoList 属性付け範囲の情報のリスト
@@ -761,47 +1112,30 @@ public class MessageComponent extends JComponent implements Selectable {
     
     /**
      * レイアウトの更新を行います。
+     * 前回と同じ条件であればそのままにし、同じ条件のレイアウト結果がキャッシュにあればそれを使います。
      * @param width 表示幅
      */
     public void updateLayout(float width) {
-        lineLayouts = null;
         areaSize.width = width;
-        areaSize.height = 0f;
 
         Graphics2D g2 = (Graphics2D)getGraphics();
         if (g2 != null && width > 0f) {
-            List<String> lineList = messageLines;
-            // 最終行が空行の場合、その空行は無視する
-            if (lineList.size() > 0 && lineList.get(lineList.size() - 1).isEmpty()) {
-                lineList = lineList.subList(0, lineList.size() - 1);
-            }
-            lineLayouts = new ArrayList<LineLayout>();
-            for (int lineIndex = 0; lineIndex < lineList.size(); ++lineIndex) {
-                String line = lineList.get(lineIndex);
-                if (line.isEmpty()) {
-                    FontMetrics fontMetrics = getFontMetrics(getFont());
-                    addLineLayout(lineIndex, 0,
-                            null,
-                            fontMetrics.getAscent(),
-                            fontMetrics.getDescent(),
-                            fontMetrics.getLeading());
-                } else {
-                    AttributedString attributedString = makeAttributedString(line, lineIndex);
-                    AttributedCharacterIterator charItr = attributedString.getIterator();
-                    FontRenderContext frContext = g2.getFontRenderContext();
-                    int startCharIndex = 0;
-                    LineBreakMeasurer measurer = new LineBreakMeasurer(charItr, frContext);
-                    while (measurer.getPosition() < line.length()) {
-                        TextLayout oneLineLayout = measurer.nextLayout(width);
-                        addLineLayout(lineIndex, startCharIndex,
-                                oneLineLayout,
-                                oneLineLayout.getAscent(),
-                                oneLineLayout.getDescent(),
-                                oneLineLayout.getLeading());
-                        startCharIndex += oneLineLayout.getCharacterCount();
-                    }
+            try {
+                LayoutKey key = new LayoutKey(messageLines, getFont(), getForeground(), width, lineHeightFactor,
+                        g2.getFontRenderContext(), highlightSettingList, elementHighlights, linkInfoList, attributedAreaInfoList);
+                if (lineLayouts == null || !key.equals(layoutKey)) {
+                    CachedLayout layout = getLayout(key, getFontMetrics(getFont()));
+                    lineLayouts = layout.lineLayouts;
+                    areaSize.height = layout.height;
+                    layoutKey = key;
                 }
+            } finally {
+                g2.dispose();
             }
+        } else {
+            lineLayouts = null;
+            layoutKey = null;
+            areaSize.height = 0f;
         }
 
         Dimension preferredSize = new Dimension();
@@ -811,39 +1145,84 @@ public class MessageComponent extends JComponent implements Selectable {
         revalidate();
     }
     
+    /**
+     * メッセージのレイアウトを行います。
+     * @param key レイアウトの条件
+     * @param fontMetrics フォントの FontMetrics
+     * @return レイアウトの結果
+     */
+    private static CachedLayout makeLayout(LayoutKey key, FontMetrics fontMetrics) {
+        CachedLayout layout = new CachedLayout();
+        HighlightIndex.ElementHighlights elementHighlights = key.elementHighlights;
+        HighlightEngine highlightEngine;
+        if (elementHighlights != null && elementHighlights.getHighlightEngine().isSameSettings(key.highlightSettingList)) {
+            highlightEngine = elementHighlights.getHighlightEngine();
+        } else {
+            elementHighlights = null;
+            highlightEngine = HighlightEngine.getInstance(key.highlightSettingList);
+        }
+        List<String> lineList = key.messageLines;
+        // 最終行が空行の場合、その空行は無視する
+        if (lineList.size() > 0 && lineList.get(lineList.size() - 1).isEmpty()) {
+            lineList = lineList.subList(0, lineList.size() - 1);
+        }
+        for (int lineIndex = 0; lineIndex < lineList.size(); ++lineIndex) {
+            String line = lineList.get(lineIndex);
+            if (line.isEmpty()) {
+                addLineLayout(layout, key.lineHeightFactor, lineIndex, 0,
+                        null,
+                        fontMetrics.getAscent(),
+                        fontMetrics.getDescent(),
+                        fontMetrics.getLeading());
+            } else {
+                AttributedString attributedString = makeAttributedString(key, highlightEngine, elementHighlights, line, lineIndex);
+                AttributedCharacterIterator charItr = attributedString.getIterator();
+                FontRenderContext frContext = key.fontRenderContext;
+                int startCharIndex = 0;
+                LineBreakMeasurer measurer = new LineBreakMeasurer(charItr, frContext);
+                while (measurer.getPosition() < line.length()) {
+                    TextLayout oneLineLayout = measurer.nextLayout(key.width);
+                    addLineLayout(layout, key.lineHeightFactor, lineIndex, startCharIndex,
+                            oneLineLayout,
+                            oneLineLayout.getAscent(),
+                            oneLineLayout.getDescent(),
+                            oneLineLayout.getLeading());
+                    startCharIndex += oneLineLayout.getCharacterCount();
+                }
+            }
+        }
+        return layout;
+    }
+    
     /**
      * 1行分の AttributedString を生成します。
+     * @param key レイアウトの条件
+     * @param highlightEngine 強調表示を行うオブジェクト
+     * @param elementHighlights あらかじめ求めておいた強調表示範囲。なければ null
      * @param line 1行分のメッセージ文字列
      * @param lineIndex 行のインデックス
      * @return 生成した AttributedString
      */
-    private AttributedString makeAttributedString(String line, int lineIndex) {
+    private static AttributedString makeAttributedString(LayoutKey key, HighlightEngine highlightEngine,
+            HighlightIndex.ElementHighlights elementHighlights, String line, int lineIndex) {
         AttributedString attributedString = new AttributedString(line);
-        attributedString.addAttribute(TextAttribute.FONT, getFont());
+        attributedString.addAttribute(TextAttribute.FONT, key.font);
         attributedString.addAttribute(TextAttribute.BACKGROUND, Paint.TRANSLUCENT);
-        attributedString.addAttribute(TextAttribute.FOREGROUND, getForeground());
+        attributedString.addAttribute(TextAttribute.FOREGROUND, key.foreground);
 
         // 強調表示
-        if (highlightSettingList != null) {
-            for (HighlightSetting highlightSetting : highlightSettingList) {
-                if (!highlightSetting.isValid()) {
-                    continue;
-                }
-                
-                Pattern pattern = highlightSetting.getPattern();
-                Matcher matcher = pattern.matcher(line);
-                while (matcher.find()) {
-                    attributedString.addAttribute(TextAttribute.FOREGROUND,
-                            highlightSetting.getHighlightColor(),
-                            matcher.start(),
-                            matcher.end());
-                }
-            }
+        HighlightEngine.SpanList spanList = (elementHighlights != null) ? elementHighlights.getLineSpans(lineIndex)
+                                                                        : highlightEngine.match(line);
+        for (int ix = 0; ix < spanList.size(); ++ix) {
+            attributedString.addAttribute(TextAttribute.FOREGROUND,
+                    highlightEngine.getHighlightSetting(spanList.getSettingIndex(ix)).getHighlightColor(),
+                    spanList.getStart(ix),
+                    spanList.getEnd(ix));
         }
         
         // リンク
-        if (linkInfoList != null) {
-            for (LinkInfo linkInfo : linkInfoList) {
+        if (key.linkInfoList != null) {
+            for (LinkInfo linkInfo : key.linkInfoList) {
                 MessageRange range = linkInfo.getLink().getRange();
                 if (range.getLineIndex() != lineIndex) {
                     continue;
@@ -857,8 +1236,8 @@ public class MessageComponent extends JComponent implements Selectable {
         }
         
         // 属性付け
-        if (attributedAreaInfoList != null) {
-            for (AttributedAreaInfo attrAreaInfo : attributedAreaInfoList) {
+        if (key.attributedAreaInfoList != null) {
+            for (AttributedAreaInfo attrAreaInfo : key.attributedAreaInfoList) {
                 if (attrAreaInfo.getRange().getLineIndex() != lineIndex) {
                     continue;
                 }
@@ -867,6 +1246,9 @@ public class MessageComponent extends JComponent implements Selectable {
                 if (attrAreaInfo.getColor() != null) {
                     attributes.put(TextAttribute.FOREGROUND, attrAreaInfo.getColor());
                 }
+                if (attrAreaInfo.getBackgroundColor() != null) {
+                    attributes.put(TextAttribute.BACKGROUND, attrAreaInfo.getBackgroundColor());
+                }
                 
                 if (!attributes.isEmpty()) {
                     attributedString.addAttributes(attributes, attrAreaInfo.getRange().getStart(), attrAreaInfo.getRange().getEnd());
@@ -879,7 +1261,9 @@ public class MessageComponent extends JComponent implements Selectable {
     
     /**
      * 見た目の1行分のレイアウトを追加します。
-     * updateLayoutから呼び出されるヘルパメソッドです。
+     * makeLayoutから呼び出されるヘルパメソッドです。
+     * @param layout 追加先のレイアウト結果
+     * @param lineHeightFactor 1行の高さの係数
      * @param lineIndex 元となる行のインデックス
      * @param startCharIndex 先頭文字の、元の行の文字インデックス
      * @param textLayout 1行の TextLayout。空行なら null。
@@ -887,7 +1271,7 @@ public class MessageComponent extends JComponent implements Selectable {
      * @param descent 行の descent
      * @param leading 行の leading
      */
-    private void addLineLayout(int lineIndex, int startCharIndex, TextLayout textLayout, float ascent, float descent, float leading) {
+    private static void addLineLayout(CachedLayout layout, float lineHeightFactor, int lineIndex, int startCharIndex, TextLayout textLayout, float ascent, float descent, float leading) {
         float fontHeight = ascent + descent + leading;
         float lineHeight = fontHeight * lineHeightFactor;
         fontHeight = Math.round(fontHeight);
@@ -897,9 +1281,9 @@ public class MessageComponent extends JComponent implements Selectable {
             lineTop += Math.round((lineHeight - fontHeight) / 2);
         }
         
-        lineLayouts.add(new LineLayout(lineIndex, startCharIndex,
-                areaSize.height + lineTop, lineHeight, textLayout));
-        areaSize.height += lineHeight;
+        layout.lineLayouts.add(new LineLayout(lineIndex, startCharIndex,
+                layout.height + lineTop, lineHeight, textLayout));
+        layout.height += lineHeight;
     }
     
     /**
@@ -28,42 +28,64 @@ package com.hironytic.moltonf.view;
 import java.awt.AWTEvent;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
 import java.awt.geom.Dimension2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
 
-import javax.swing.BoxLayout;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JViewport;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.EventListenerList;
 
 import com.hironytic.moltonf.Moltonf;
 import com.hironytic.moltonf.model.Avatar;
 import com.hironytic.moltonf.model.EventFamily;
+import com.hironytic.moltonf.model.HighlightIndex;
 import com.hironytic.moltonf.model.HighlightSetting;
 import com.hironytic.moltonf.model.Link;
 import com.hironytic.moltonf.model.MessageRange;
+import com.hironytic.moltonf.model.PeriodFilterIndex;
 import com.hironytic.moltonf.model.StoryElement;
 import com.hironytic.moltonf.model.StoryEvent;
 import com.hironytic.moltonf.model.StoryPeriod;
 import com.hironytic.moltonf.model.Talk;
 import com.hironytic.moltonf.model.TalkType;
+import com.hironytic.moltonf.model.archive.LazyStoryPeriod;
+import com.hironytic.moltonf.model.search.SearchHit;
+import com.hironytic.moltonf.view.event.LinkClickListener;
+import com.hironytic.moltonf.view.event.LinkClickedEvent;
 
 /**
  * 1単位期間分のストーリーの内容を表示するクラス。
+ *
+ * 要素ごとの高さを配列で保持しておき、ビュー (TalkView, StoryEventView) は
+ * スクロールして見えている範囲とその上下の少しの範囲にある要素の分だけを作成します。
+ * まだビューを作成していない要素の高さは見積もりで、ビューを作成してレイアウトしたときに実際の高さに置き換えます。
+ * 見えなくなった要素のビューは解放し、別の要素を表示するときに再利用します。
+ * 高さの測定は PeriodViewMeasurer でワーカースレッドに任せ、測り終わるまでは
+ * 見積もった高さのプレースホルダーを表示しておきます。
  */
 @SuppressWarnings("serial")
 public class PeriodView extends JComponent implements MoltonfView {
@@ -77,9 +99,27 @@ public class PeriodView extends JComponent implements MoltonfView {
     /** リンクの色 */
     private static final Color LINK_COLOR = new Color(0xff8800);
     
+    /** 検索で見つかった箇所の背景色 */
+    private static final Color SEARCH_HIT_BG_COLOR = new Color(0x806000);
+    
+    /** 高さを測っている途中の要素の代わりに表示するプレースホルダーの色 */
+    private static final Color PLACEHOLDER_COLOR = new Color(0x222222);
+    
+    /** プレースホルダーの周りの余白 */
+    private static final int PLACEHOLDER_MARGIN = 8;
+    
     /** StoryElement を表示するビューに対して StoryElement のインデックスを client property に設定する際のキー */
     private static final String KEY_STORY_ELEMENT_INDEX = "Moltonf.storyElementIndex";
     
+    /** 要素を表示するビューの幅 */
+    private static final int AREA_WIDTH = 500;  // TODO: 設定できるようにする
+    
+    /** 見えている範囲の上下で、あらかじめビューを作成しておく範囲の高さ */
+    private static final int OVERSCAN_HEIGHT = 400;
+    
+    /** 高さの見積もりが外れて位置が変わったときに、ビューの配置をやり直す回数の上限 */
+    private static final int MAX_LAYOUT_PASSES = 4;
+    
     /** このビューを表示するためのビューポートを持っているスクロールペイン */
     private final ScrollPane scrollPane;
     
@@ -89,6 +129,9 @@ public class PeriodView extends JComponent implements MoltonfView {
     /** 内容を再作成する必要があるかどうか */
     private boolean isRebuildContentRequired = false;
     
+    /** 内容が変わった要素以降を再作成する必要があるかどうか */
+    private boolean isRefreshContentRequired = false;
+    
     /** 表示する発言種別の組み合わせ。ただし null なら発言種別によるフィルタを行わない（すべて表示する） */
     private Set<TalkType> talkTypeFilter = null;
     
@@ -104,8 +147,57 @@ public class PeriodView extends JComponent implements MoltonfView {
     /** 強調表示設定 */
     private List<HighlightSetting> highlightSettingList;
 
+    /** 強調表示範囲の索引 */
+    private HighlightIndex highlightIndex;
+
+    /** 要素のインデックスから、その要素の中で検索で見つかった箇所の属性へのマップ */
+    private final Map<Integer, List<MessageComponent.AttributedAreaInfo>> searchHitAreaMap =
+        new HashMap<Integer, List<MessageComponent.AttributedAreaInfo>>();
+    
     /** 範囲選択用オブジェクト */
-    private RangeSelector rangeSelector = new PeriodViewRangeSelector();
+    private PeriodViewRangeSelector rangeSelector = new PeriodViewRangeSelector();
+    
+    /** 表示している要素のリスト */
+    private List<StoryElement> storyElements;
+    
+    /** 各要素の高さ。ビューを作成してレイアウトするまでは見積もり */
+    private int[] elementHeights;
+    
+    /** 各要素の高さがレイアウトして測ったものかどうか */
+    private boolean[] isElementMeasured;
+    
+    /** フィルタの評価に用いる、要素の分類 */
+    private PeriodFilterIndex filterIndex;
+    
+    /** 各要素がフィルタにマッチするかどうか */
+    private boolean[] isElementMatched;
+    
+    /** 各要素の上端の位置。フィルタにマッチしない要素の高さは 0 とする。最後の要素の次には全体の高さが入る */
+    private int[] elementTops;
+    
+    /** 各要素を表示しているビュー。作成していなければ null */
+    private JComponent[] elementViews;
+    
+    /** ビューを作成している可能性のある要素の範囲の先頭。この範囲の外のビューは常に null */
+    private int realizedFirstIndex = 0;
+    
+    /** ビューを作成している可能性のある要素の範囲の最後。範囲が空なら realizedFirstIndex より小さい */
+    private int realizedLastIndex = -1;
+    
+    /** 再利用するために取っておく TalkView */
+    private final List<TalkView> talkViewPool = new ArrayList<TalkView>();
+    
+    /** 再利用するために取っておく StoryEventView */
+    private final List<StoryEventView> storyEventViewPool = new ArrayList<StoryEventView>();
+    
+    /** ビューの配置中かどうか */
+    private boolean isLayingOut = false;
+    
+    /** 要素の高さをワーカースレッドで測るオブジェクト */
+    private final PeriodViewMeasurer measurer = new PeriodViewMeasurer(this);
+    
+    /** 要素の高さの測定を開始する必要があるかどうか */
+    private boolean isMeasureRequired = false;
     
     private MessageComponent nextDayLink;   // TODO: MoltonfView できちんと実装すれば持つ必要ない
     
@@ -124,11 +216,42 @@ public class PeriodView extends JComponent implements MoltonfView {
         }
     }
     
+    /**
+     * 次の日へのリンク
+     */
+    public static class NextDayLink extends Link {
+        
+        /**
+         * コンストラクタ
+         * @param range メッセージ中のリンク範囲
+         */
+        public NextDayLink(MessageRange range) {
+            super(range);
+        }
+    }
+    
+    /** リンクがクリックされた通知を受け取るリスナーのリスト */
+    private final EventListenerList linkClickListenerList = new EventListenerList();
+    
+    /** 次の日へのリンクがクリックされたことを、このビューのリスナーに伝えるリスナー */
+    private final LinkClickListener nextDayLinkClickListener = new LinkClickListener() {
+        @Override
+        public void linkClicked(LinkClickedEvent e) {
+            Object[] listeners = linkClickListenerList.getListenerList();
+            for (int i = listeners.length-2; i>=0; i-=2) {
+                if (listeners[i]==LinkClickListener.class) {
+                    ((LinkClickListener)listeners[i+1]).linkClicked(e);
+                }
+            }
+        }
+    };
+    
     /**
      * コンストラクタ
      */
     public PeriodView() {
-        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        // 子コンポーネントは要素の位置に合わせて自分で配置する
+        setLayout(null);
 
         // スクロールペインの中に左右センタリングするためのパネルを挟む
         JPanel contentPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 0, 0));
@@ -136,10 +259,33 @@ public class PeriodView extends JComponent implements MoltonfView {
         contentPanel.add(this);
         scrollPane = new ScrollPane(this);
         scrollPane.setViewportView(contentPanel);
+        scrollPane.getViewport().addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                layoutElementViews();
+            }
+        });
         
         enableEvents(AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_MOTION_EVENT_MASK);
     }
 
+    /**
+     * ビューの中のリンクがクリックされたことの通知を受け取るリスナーを追加します。
+     * 今のところ、次の日へのリンク ({@link NextDayLink}) だけが通知されます。
+     * @param l リスナー
+     */
+    public void addLinkClickListener(LinkClickListener l) {
+        linkClickListenerList.add(LinkClickListener.class, l);
+    }
+    
+    /**
+     * ビューの中のリンクがクリックされたことの通知を受け取るリスナーを削除します。
+     * @param l リスナー
+     */
+    public void removeLinkClickListener(LinkClickListener l) {
+        linkClickListenerList.remove(LinkClickListener.class, l);
+    }
+    
     /**
      * スクロールペインを取得します。
      * @return
@@ -158,13 +304,31 @@ public class PeriodView extends JComponent implements MoltonfView {
 
     /**
      * このビューに表示する StoryPeriod オブジェクトをセットします。
-     * @param storyPeriod StoryPeriod オブジェクト
+     * 遅延読み込みの period は、表示している間は要素が解放されないように pin しておきます。
+     * @param storyPeriod StoryPeriod オブジェクト。表示をやめるなら null
      */
     public void setStoryPeriod(StoryPeriod storyPeriod) {
+        if (this.storyPeriod != storyPeriod) {
+            searchHitAreaMap.clear();
+            if (this.storyPeriod instanceof LazyStoryPeriod) {
+                ((LazyStoryPeriod)this.storyPeriod).unpin();
+            }
+            if (storyPeriod instanceof LazyStoryPeriod) {
+                ((LazyStoryPeriod)storyPeriod).pin();
+            }
+        }
         this.storyPeriod = storyPeriod;
         isRebuildContentRequired = true;
     }
     
+    /**
+     * 表示している StoryPeriod の要素が読み込み直されたことを通知します。
+     * 次に updateView() を呼んだときに、内容が変わった要素以降だけを再作成します。
+     */
+    public void storyElementsReloaded() {
+        isRefreshContentRequired = true;
+    }
+    
     /**
      * 発言種別フィルタの設定値を取得します。
      * @return 表示する発言種別の組み合わせ。
@@ -234,8 +398,82 @@ public class PeriodView extends JComponent implements MoltonfView {
                 ((TalkView)child).setHighlightSettingList(highlightSettingList);
             }
         }
+        for (TalkView talkView : talkViewPool) {
+            talkView.setHighlightSettingList(highlightSettingList);
+        }
+        
+        // 高さは変わらないが、キャッシュに入れておくレイアウト結果が変わるので測り直す
+        requestMeasure();
     }
 
+    /**
+     * 発言の強調表示範囲の索引をセットします。
+     * 索引が強調表示設定と同じ設定で作られていれば、ビューの作成時に強調表示範囲を求め直さずに済みます。
+     * @param highlightIndex 強調表示範囲の索引。使わないなら null
+     */
+    public void setHighlightIndex(HighlightIndex highlightIndex) {
+        this.highlightIndex = highlightIndex;
+        if (highlightIndex != null && storyPeriod != null && storyElements != null) {
+            highlightIndex.requestBuild(storyPeriod);
+        }
+    }
+    
+    /**
+     * 表示中の要素のリストについて、あらかじめ求めておいた強調表示範囲を返します。
+     * @return 強調表示範囲。まだ求めていないか、索引が現在の強調表示設定のものでなければ null
+     */
+    private HighlightIndex.PeriodHighlights getPeriodHighlights() {
+        if (highlightIndex == null || storyPeriod == null || !highlightIndex.isFor(highlightSettingList)) {
+            return null;
+        }
+        return highlightIndex.getPeriodHighlights(storyPeriod, storyElements);
+    }
+
+    /**
+     * 表示している StoryPeriod の中で、検索で見つかった箇所をセットします。
+     * 見つかった箇所は背景色を変えて表示します。
+     * @param searchHitList 見つかった箇所のリスト。なければ null
+     */
+    public void setSearchHitList(List<SearchHit> searchHitList) {
+        searchHitAreaMap.clear();
+        if (searchHitList != null) {
+            for (SearchHit hit : searchHitList) {
+                List<MessageComponent.AttributedAreaInfo> areaList = searchHitAreaMap.get(hit.getElementIndex());
+                if (areaList == null) {
+                    areaList = new ArrayList<MessageComponent.AttributedAreaInfo>();
+                    searchHitAreaMap.put(hit.getElementIndex(), areaList);
+                }
+                areaList.add(new MessageComponent.AttributedAreaInfo(hit.getRange(), null, SEARCH_HIT_BG_COLOR));
+            }
+        }
+        
+        // 背景色だけなので高さは変わらない。表示中のビューだけ更新する
+        if (elementViews != null) {
+            int lastIndex = Math.min(realizedLastIndex, elementViews.length - 1);
+            for (int ix = realizedFirstIndex; ix <= lastIndex; ++ix) {
+                if (elementViews[ix] != null) {
+                    setSearchHitArea(elementViews[ix], ix);
+                    ((MoltonfView)elementViews[ix]).updateView();
+                }
+            }
+            repaint();
+        }
+    }
+    
+    /**
+     * 要素を表示するビューに、検索で見つかった箇所の属性をセットします。
+     * @param view 要素を表示するビュー
+     * @param index 要素のインデックス
+     */
+    private void setSearchHitArea(JComponent view, int index) {
+        List<MessageComponent.AttributedAreaInfo> areaList = searchHitAreaMap.get(index);
+        if (view instanceof TalkView) {
+            ((TalkView)view).setMessageAttributedAreaInfoList(areaList);
+        } else if (view instanceof StoryEventView) {
+            ((StoryEventView)view).setMessageAttributedAreaInfoList(areaList);
+        }
+    }
+    
     /**
      * @see javax.swing.JComponent#setFont(java.awt.Font)
      */
@@ -243,13 +481,37 @@ public class PeriodView extends JComponent implements MoltonfView {
     public void setFont(Font font) {
         super.setFont(font);
         
-        for (Component child : getComponents()) {
-            if (child instanceof MoltonfView) {
-                ((MoltonfView)child).setFont(font);
-            } else if (child instanceof MessageComponent) {
-                ((MessageComponent)child).setFont(font);
+        // フォントが変わると高さも変わるので、ビューは作り直し、高さは見積もり直す
+        releaseAllElementViews();
+        talkViewPool.clear();
+        storyEventViewPool.clear();
+        if (nextDayLink != null) {
+            nextDayLink.setFont(font);
+        }
+        reestimateElementHeights();
+    }
+    
+    /**
+     * 顔アイコンの画像が変わったことを通知します。
+     * 発言の高さが変わるので、次に updateView() を呼んだときに測り直します。
+     */
+    public void faceIconsChanged() {
+        releaseAllElementViews();
+        reestimateElementHeights();
+    }
+    
+    /**
+     * すべての要素の高さを見積もり直し、測り直すようにします。
+     */
+    private void reestimateElementHeights() {
+        if (storyElements != null) {
+            for (int ix = 0; ix < elementHeights.length; ++ix) {
+                elementHeights[ix] = estimateElementHeight(ix);
+                isElementMeasured[ix] = false;
             }
+            updateElementTops();
         }
+        requestMeasure();
     }
 
     /**
@@ -273,17 +535,15 @@ public class PeriodView extends JComponent implements MoltonfView {
      * @return 見えている先頭の StoryElement のインデックス。見つからなければ -1。
      */
     public int getFirstVisibleStoryElementIndex() {
-        Point topLeft = getScrollPosition();
-        topLeft.x = 0;
-        Component component = getComponentAt(topLeft);
-        if (component instanceof JComponent) {
-            Integer index = (Integer)((JComponent)component).getClientProperty(KEY_STORY_ELEMENT_INDEX);
-            if (index != null) {
-                return index;
-            }
+        if (storyElements == null) {
+            return -1;
         }
         
-        return -1;
+        int index = findElementAt(getScrollPosition().y);
+        while (index < elementHeights.length && !isElementMatched[index]) {
+            ++index;
+        }
+        return (index < elementHeights.length) ? index : -1;
     }
 
     /**
@@ -291,210 +551,478 @@ public class PeriodView extends JComponent implements MoltonfView {
      * @param index StoryElement のインデックス
      */
     public void scrollToStoryElement(int index) {
-        // TODO:
-    }
-    
-    /**
-     * 発言種別が発言系のフィルタにマッチするかどうか調べます。
-     * @param talkType 発言種別 
-     * @return マッチするなら true を返します。
-     */
-    private boolean isMatchFilterOfTalk(TalkType talkType) {
-        boolean isMatch = false;
-        if (talkTypeFilter == null) {
-            isMatch = true;
-        } else if (talkTypeFilter.contains(talkType)) {
-            isMatch = true;
+        if (storyElements == null || index < 0 || index >= elementHeights.length) {
+            return;
         }
-        return isMatch;
+        
+        JViewport viewport = scrollPane.getViewport();
+        Point viewPos = viewport.getViewPosition();
+        viewPos.y = getY() + elementTops[index];
+        viewport.setViewPosition(viewPos);
     }
     
     /**
-     * イベント種別がイベント系のフィルタにマッチするかどうか調べます。
-     * @param eventFamily イベント種別
-     * @return マッチするなら true を返します。
+     * 現在のフィルタにマッチする要素を求めます。
+     * @return マッチする要素のインデックスのビットを立てた BitSet
      */
-    private boolean isMatchFilterOfEvent(EventFamily eventFamily) {
-        boolean isMatch = false;
-        if (eventFamilyFilter == null) {
-            isMatch = true;
-        } else if (eventFamilyFilter.contains(eventFamily)) {
-            isMatch = true;
-        }
-        return isMatch;
+    private BitSet evaluateFilter() {
+        return filterIndex.evaluate(talkTypeFilter, eventFamilyFilter, speakerFilter);
     }
     
     /**
-     * 発言者が発言者フィルタにマッチするかどうか調べます。
-     * @param speaker 発言者
-     * @return マッチするなら true を返します。
+     * フィルタの評価に用いる、表示中の要素の分類を返します。
+     * フィルタの各項目に該当する要素の数を調べるのに用います。
+     * @return 要素の分類。表示する period がなければ null
      */
-    private boolean isMatchFilterOfSpeaker(Avatar speaker) {
-        boolean isMatch = false;
-        if (speakerFilter == null) {
-            isMatch = true;
-        } else if (speakerFilter.contains(speaker)) {
-            isMatch = true;
-        }
-        return isMatch;
+    public PeriodFilterIndex getFilterIndex() {
+        return filterIndex;
     }
     
     /**
      * 内容を再作成します。
+     * 各要素の高さを見積もるだけで、ビューは layoutElementViews() で見えている範囲の分だけ作成します。
      */
     private void rebuildContent() {
-        ResourceBundle res = Moltonf.getResource();
-        
+        requestMeasure();
+        releaseAllElementViews();
         removeAll();
+        nextDayLink = null;
 
-        if (storyPeriod == null)
+        if (storyPeriod == null) {
+            storyElements = null;
+            elementHeights = null;
+            isElementMeasured = null;
+            isElementMatched = null;
+            filterIndex = null;
+            elementTops = null;
+            elementViews = null;
             return;
+        }
         
-        List<StoryElement> storyElements = storyPeriod.getStoryElements();
+        storyElements = storyPeriod.getStoryElements();
         int elementsCount = storyElements.size();
+        elementHeights = new int[elementsCount];
+        isElementMeasured = new boolean[elementsCount];
+        isElementMatched = new boolean[elementsCount];
+        elementTops = new int[elementsCount + 1];
+        elementViews = new JComponent[elementsCount];
+        filterIndex = new PeriodFilterIndex(storyElements);
+        BitSet matchedBits = evaluateFilter();
         for (int ix = 0; ix < elementsCount; ++ix) {
-            JComponent storyElementComponent = null;
-            boolean isVisible = false;
-            StoryElement element = storyElements.get(ix);
-            if (element instanceof Talk) {
-                Talk talk = (Talk)element;
-                TalkView talkView = new TalkView();
-                add(talkView);
-                storyElementComponent = talkView;
-                talkView.setTalk(talk);
-                talkView.setAreaWidth(500); //TODO:
-                talkView.setHighlightSettingList(highlightSettingList);
-                talkView.setFont(getFont());
-                talkView.setRangeSelector(rangeSelector);
-                TalkType talkType = talk.getTalkType();
-                Avatar speaker = talk.getSpeaker();
-                if (isMatchFilterOfTalk(talkType) && isMatchFilterOfSpeaker(speaker)) {
-                    isVisible = true;
-                }
-            } else if (element instanceof StoryEvent) {
-                StoryEvent storyEvent = (StoryEvent)element;
-                StoryEventView storyEventView = new StoryEventView();
-                add(storyEventView);
-                storyElementComponent = storyEventView;
-                storyEventView.setStoryEvent(storyEvent);
-                storyEventView.setAreaWidth(500); // TODO:
-                storyEventView.setFont(getFont());
-                storyEventView.setRangeSelector(rangeSelector);
-                EventFamily eventFamily = storyEvent.getEventFamily();
-                if (isMatchFilterOfEvent(eventFamily)) {
-                    isVisible = true;
-                }
-            }
-            
-            if (storyElementComponent != null) {
-                // インデックスを記憶させておく
-                storyElementComponent.putClientProperty(KEY_STORY_ELEMENT_INDEX, ix);
-                
-                storyElementComponent.setVisible(isVisible);
-            }
+            elementHeights[ix] = estimateElementHeight(ix);
+            isElementMatched[ix] = matchedBits.get(ix);
         }
+        updateElementTops();
+        
+        if (highlightIndex != null) {
+            highlightIndex.requestBuild(storyPeriod);
+        }
+        
+        addNextDayLink();
+    }
+    
+    /**
+     * 読み込み直した要素のリストに合わせて、内容が変わった要素以降だけを再作成します。
+     * 先頭から内容が同じ要素は、ビューと測った高さをそのまま使います。
+     */
+    private void refreshContent() {
+        if (storyPeriod == null || storyElements == null) {
+            rebuildContent();
+            return;
+        }
+        requestMeasure();
+        
+        List<StoryElement> newStoryElements = storyPeriod.getStoryElements();
+        int keepCount = 0;
+        int commonCount = Math.min(storyElements.size(), newStoryElements.size());
+        while (keepCount < commonCount
+                && isSameContent(storyElements.get(keepCount), newStoryElements.get(keepCount))) {
+            ++keepCount;
+        }
+        
+        for (int ix = keepCount; ix < elementViews.length; ++ix) {
+            releaseElementView(ix);
+        }
+        int elementsCount = newStoryElements.size();
+        storyElements = newStoryElements;
+        elementHeights = Arrays.copyOf(elementHeights, elementsCount);
+        isElementMeasured = Arrays.copyOf(isElementMeasured, elementsCount);
+        isElementMatched = Arrays.copyOf(isElementMatched, elementsCount);
+        elementTops = new int[elementsCount + 1];
+        elementViews = Arrays.copyOf(elementViews, elementsCount);
+        filterIndex = new PeriodFilterIndex(filterIndex, keepCount, storyElements);
+        BitSet matchedBits = evaluateFilter();
+        for (int ix = keepCount; ix < elementsCount; ++ix) {
+            elementHeights[ix] = estimateElementHeight(ix);
+            isElementMeasured[ix] = false;
+            isElementMatched[ix] = matchedBits.get(ix);
+        }
+        updateElementTops();
+        
+        if (highlightIndex != null) {
+            highlightIndex.requestBuild(storyPeriod);
+        }
+    }
+    
+    /**
+     * 次の日へのリンクを追加します。
+     */
+    private void addNextDayLink() {
+        ResourceBundle res = Moltonf.getResource();
         
         // 次の日へリンク
         // TODO: エピには出さないようにする
-        // TODO: リンクのクラスについて要検討 今はとにかく表示するだけ。というか今のはいろいろダメ。MoltonfView実装のJComponent継承クラスを1つ作る。
-        class CommandLink extends Link {
-            CommandLink(MessageRange range) {
-                super(range);
-            }
-        }
+        // TODO: MoltonfView実装のJComponent継承クラスを1つ作る。
         nextDayLink = new MessageComponent();
         String nextDayString = res.getString("periodView.nextDay");
         nextDayLink.setMessage(Arrays.asList(nextDayString));
         nextDayLink.setFont(getFont());
-        nextDayLink.setLinkInfoList(Arrays.asList(new MessageComponent.LinkInfo(new CommandLink(new MessageRange(0, 0, nextDayString.length())), LINK_COLOR)));
+        nextDayLink.setLinkInfoList(Arrays.asList(new MessageComponent.LinkInfo(new NextDayLink(new MessageRange(0, 0, nextDayString.length())), LINK_COLOR)));
+        nextDayLink.addLinkClickListener(nextDayLinkClickListener);
         add(nextDayLink);
     }
     
     /**
-     * フィルタリング状態を再構成します。
+     * 要素の高さを、ビューを作らずに見積もります。
+     * @param index 要素のインデックス
+     * @return 高さの見積もり
      */
-    private void rebuildFilter() {
-        // スクロール位置があまり変わらないようにするため
-        // 元のスクロール位置にあるコンポーネントを記憶しておく
-        int firstComponentIndex = -1;
-        int firstComponentY = 0;
-        Point topLeft = getScrollPosition();
-        topLeft.x = 0;
-        int componentCount = getComponentCount();
-        for (int ix = 0; ix < componentCount; ++ix) {
-            Component comp = getComponent(ix);
-            if (comp.isVisible() && comp.contains(topLeft.x - comp.getX(), topLeft.y - comp.getY())) {
-                firstComponentIndex = ix;
-                firstComponentY = topLeft.y - comp.getY();
-                break;
-            }
-        }
-        
-        JComponent scrollToComponent = null;
-        JComponent lastComponent = null;
-        int scrollToComponentTop =  0;
-        
-        if (storyPeriod == null)
+    private int estimateElementHeight(int index) {
+        StoryElement element = storyElements.get(index);
+        FontMetrics fontMetrics = getFontMetrics(getFont());
+        float height;
+        if (element instanceof Talk) {
+            height = TalkView.estimateAreaHeight((Talk)element, AREA_WIDTH, fontMetrics);
+        } else if (element instanceof StoryEvent) {
+            height = StoryEventView.estimateAreaHeight((StoryEvent)element, AREA_WIDTH, fontMetrics);
+        } else {
+            height = 0;
+        }
+        return (int)Math.ceil(height);
+    }
+    
+    /**
+     * 各要素の高さとフィルタにマッチするかどうかから、各要素の上端の位置を計算し直します。
+     */
+    private void updateElementTops() {
+        int top = 0;
+        for (int ix = 0; ix < elementHeights.length; ++ix) {
+            elementTops[ix] = top;
+            if (isElementMatched[ix]) {
+                top += elementHeights[ix];
+            }
+        }
+        elementTops[elementHeights.length] = top;
+    }
+    
+    /**
+     * 指定した位置を含む要素のインデックスを返します。
+     * @param y 位置
+     * @return 下端が y より下にある最初の要素のインデックス。なければ要素の数。
+     */
+    private int findElementAt(int y) {
+        int low = 0;
+        int high = elementHeights.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (elementTops[mid + 1] > y) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * 見えている範囲とその上下 OVERSCAN_HEIGHT の範囲にある要素のビューを作成して配置し、
+     * 範囲から外れた要素のビューは解放します。
+     * ビューを作成して測った高さが見積もりと異なれば位置を計算し直し、見えている範囲より上で
+     * 高さが変わった分だけスクロール位置をずらして、見えている内容が動かないようにします。
+     */
+    private void layoutElementViews() {
+        if (isLayingOut) {
             return;
+        }
         
-        List<StoryElement> storyElements = storyPeriod.getStoryElements();
-        for (int ix = 0; ix < componentCount; ++ix) {
-            JComponent comp = (JComponent)getComponent(ix);
-            Integer storyElementIndex = (Integer)comp.getClientProperty(KEY_STORY_ELEMENT_INDEX);
-            if (storyElementIndex != null) {
-                boolean isVisible = false;
-                StoryElement element = storyElements.get(storyElementIndex);
-                if (element instanceof Talk) {
-                    Talk talk = (Talk)element;
-                    TalkType talkType = talk.getTalkType();
-                    Avatar speaker = talk.getSpeaker();
-                    if (isMatchFilterOfTalk(talkType) && isMatchFilterOfSpeaker(speaker)) {
-                        isVisible = true;
-                    }
-                } else if (element instanceof StoryEvent) {
-                    StoryEvent storyEvent = (StoryEvent)element;
-                    EventFamily eventFamily = storyEvent.getEventFamily();
-                    if (isMatchFilterOfEvent(eventFamily)) {
-                        isVisible = true;
-                    }
+        isLayingOut = true;
+        try {
+            for (int pass = 0; pass < MAX_LAYOUT_PASSES; ++pass) {
+                if (!doLayoutElementViews()) {
+                    break;
                 }
-                comp.setVisible(isVisible);
+            }
+        } finally {
+            isLayingOut = false;
+        }
+    }
+    
+    /**
+     * ビューの作成と配置を 1 回行います。(内部メソッド)
+     * @return 測った高さが見積もりと異なっていて、配置をやり直す必要があれば true
+     */
+    private boolean doLayoutElementViews() {
+        if (storyElements == null) {
+            updateContentSize();
+            return false;
+        }
+        
+        // ビューをレイアウトするには表示可能になっている必要がある
+        Rectangle visibleRect = getVisibleRect();
+        int elementsCount = elementViews.length;
+        int firstIndex = 0;
+        int lastIndex = -1;
+        if (isDisplayable() && visibleRect.height > 0) {
+            firstIndex = findElementAt(visibleRect.y - OVERSCAN_HEIGHT);
+            lastIndex = Math.min(findElementAt(visibleRect.y + visibleRect.height + OVERSCAN_HEIGHT), elementsCount - 1);
+        }
+        
+        // ビューがあるのは前回の範囲の中だけなので、そこだけを調べて範囲外になったものを解放する
+        boolean isViewChanged = false;
+        int prevLastIndex = Math.min(realizedLastIndex, elementsCount - 1);
+        for (int ix = realizedFirstIndex; ix <= prevLastIndex; ++ix) {
+            if (elementViews[ix] != null && (ix < firstIndex || ix > lastIndex || !isElementMatched[ix])) {
+                releaseElementView(ix);
+                isViewChanged = true;
+            }
+        }
+        
+        boolean isHeightChanged = false;
+        int scrollDelta = 0;
+        for (int ix = firstIndex; ix <= lastIndex; ++ix) {
+            if (!isElementMatched[ix] || elementViews[ix] != null) {
+                continue;
+            }
+            if (!isElementMeasured[ix] && measurer.isMeasuring()) {
+                // 測り終わるまではプレースホルダーを表示しておく
+                continue;
             }
             
-            // 更新前のスクロールして見えている先頭にあったもの以降で
-            // 表示されたものが見えるようにスクロールする
-            if (scrollToComponent == null && 
-                    ix >= firstComponentIndex &&
-                    comp.isVisible()) {
-                scrollToComponent = comp;
-                if (ix == firstComponentIndex) {
-                    scrollToComponentTop = firstComponentY;
+            JComponent view = createElementView(ix);
+            isViewChanged = true;
+            int height = view.getPreferredSize().height;
+            isElementMeasured[ix] = true;
+            if (height != elementHeights[ix]) {
+                if (elementTops[ix] < visibleRect.y) {
+                    scrollDelta += height - elementHeights[ix];
                 }
+                elementHeights[ix] = height;
+                isHeightChanged = true;
             }
-            
-            lastComponent = comp;
-        }
-        
-        revalidate();
-        
-        // スクロール位置を復元
-        if (scrollToComponent == null) {
-            scrollToComponent = lastComponent;
-        }
-        if (scrollToComponent != null) {
-            final JComponent scrollComponent = scrollToComponent;
-            final int top = scrollToComponentTop;
-            SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    int viewTop = scrollComponent.getY() + top;
-                    JViewport viewport = PeriodView.this.getScrollPane().getViewport();
-                    Point viewPos = viewport.getViewPosition();
-                    viewPos.y = viewTop;
-                    viewport.setViewPosition(viewPos);
+        }
+        if (isHeightChanged) {
+            updateElementTops();
+        }
+        realizedFirstIndex = firstIndex;
+        realizedLastIndex = lastIndex;
+        
+        for (int ix = firstIndex; ix <= lastIndex; ++ix) {
+            JComponent view = elementViews[ix];
+            if (view != null) {
+                view.setBounds(0, elementTops[ix], AREA_WIDTH, elementHeights[ix]);
+            }
+        }
+        updateContentSize();
+        
+        if (isViewChanged) {
+            rangeSelector.updateSelection();
+            repaint();
+        }
+        
+        if (scrollDelta != 0) {
+            scrollPane.validate();
+            JViewport viewport = scrollPane.getViewport();
+            Point viewPos = viewport.getViewPosition();
+            viewPos.y += scrollDelta;
+            viewport.setViewPosition(viewPos);
+        }
+        return isHeightChanged;
+    }
+    
+    /**
+     * 全体の大きさを更新し、次の日へのリンクを最後の要素の下に配置します。
+     */
+    private void updateContentSize() {
+        int contentHeight = (elementTops != null) ? elementTops[elementTops.length - 1] : 0;
+        if (nextDayLink != null) {
+            Dimension linkSize = nextDayLink.getPreferredSize();
+            nextDayLink.setBounds(0, contentHeight, linkSize.width, linkSize.height);
+            contentHeight += linkSize.height;
+        }
+        
+        Dimension size = new Dimension(AREA_WIDTH, contentHeight);
+        if (!size.equals(getPreferredSize())) {
+            setPreferredSize(size);
+            revalidate();
+        }
+    }
+    
+    /**
+     * 要素を表示するビューを作成して追加します。
+     * 解放されたビューがあれば、それを再利用します。
+     * @param index 要素のインデックス
+     * @return 作成したビュー
+     */
+    private JComponent createElementView(int index) {
+        StoryElement element = storyElements.get(index);
+        JComponent view;
+        if (element instanceof Talk) {
+            TalkView talkView;
+            if (talkViewPool.isEmpty()) {
+                talkView = new TalkView();
+                talkView.setAreaWidth(AREA_WIDTH);
+                talkView.setHighlightSettingList(highlightSettingList);
+                talkView.setFont(getFont());
+                talkView.setRangeSelector(rangeSelector);
+            } else {
+                talkView = talkViewPool.remove(talkViewPool.size() - 1);
+            }
+            HighlightIndex.PeriodHighlights periodHighlights = getPeriodHighlights();
+            talkView.setElementHighlights((periodHighlights != null)
+                    ? new HighlightIndex.ElementHighlights(highlightIndex.getHighlightEngine(), periodHighlights, index)
+                    : null);
+            talkView.setTalk((Talk)element);
+            view = talkView;
+        } else {
+            StoryEventView storyEventView;
+            if (storyEventViewPool.isEmpty()) {
+                storyEventView = new StoryEventView();
+                storyEventView.setAreaWidth(AREA_WIDTH);
+                storyEventView.setFont(getFont());
+                storyEventView.setRangeSelector(rangeSelector);
+            } else {
+                storyEventView = storyEventViewPool.remove(storyEventViewPool.size() - 1);
+            }
+            storyEventView.setStoryEvent((StoryEvent)element);
+            view = storyEventView;
+        }
+        
+        setSearchHitArea(view, index);
+        
+        // インデックスを記憶させておく
+        view.putClientProperty(KEY_STORY_ELEMENT_INDEX, index);
+        add(view);
+        ((MoltonfView)view).updateView();
+        elementViews[index] = view;
+        return view;
+    }
+    
+    /**
+     * 要素を表示しているビューを取り除いて、再利用できるように取っておきます。
+     * @param index 要素のインデックス
+     */
+    private void releaseElementView(int index) {
+        JComponent view = elementViews[index];
+        if (view == null) {
+            return;
+        }
+        
+        elementViews[index] = null;
+        ((Selectable)view).clearSelection();
+        remove(view);
+        view.putClientProperty(KEY_STORY_ELEMENT_INDEX, null);
+        if (view instanceof TalkView) {
+            TalkView talkView = (TalkView)view;
+            talkView.setTalk(null);
+            talkViewPool.add(talkView);
+        } else if (view instanceof StoryEventView) {
+            StoryEventView storyEventView = (StoryEventView)view;
+            storyEventView.setStoryEvent(null);
+            storyEventViewPool.add(storyEventView);
+        }
+    }
+    
+    /**
+     * すべての要素のビューを取り除きます。
+     */
+    private void releaseAllElementViews() {
+        if (elementViews == null) {
+            return;
+        }
+        int lastIndex = Math.min(realizedLastIndex, elementViews.length - 1);
+        for (int ix = realizedFirstIndex; ix <= lastIndex; ++ix) {
+            releaseElementView(ix);
+        }
+        realizedFirstIndex = 0;
+        realizedLastIndex = -1;
+    }
+    
+    /**
+     * 2 つの要素が同じ内容かどうかを調べます。
+     * 読み込み直した要素は別のオブジェクトになるので、表示に関わる項目を比べます。
+     * @param element1 要素
+     * @param element2 比べる要素
+     * @return 同じ内容なら true
+     */
+    private static boolean isSameContent(StoryElement element1, StoryElement element2) {
+        if (element1 instanceof Talk && element2 instanceof Talk) {
+            Talk talk1 = (Talk)element1;
+            Talk talk2 = (Talk)element2;
+            if (talk1.getTalkType() != talk2.getTalkType()
+                    || talk1.getSpeaker() != talk2.getSpeaker()
+                    || talk1.getTalkCount() != talk2.getTalkCount()
+                    || talk1.isWolfAttack() != talk2.isWolfAttack()
+                    || talk1.getTime().getMilliseconds() != talk2.getTime().getMilliseconds()) {
+                return false;
+            }
+        } else if (element1 instanceof StoryEvent && element2 instanceof StoryEvent) {
+            if (((StoryEvent)element1).getEventFamily() != ((StoryEvent)element2).getEventFamily()) {
+                return false;
+            }
+        } else {
+            return false;
+        }
+        return element1.getMessageLines().equals(element2.getMessageLines());
+    }
+    
+    /**
+     * フィルタリング状態を再構成します。
+     */
+    private void rebuildFilter() {
+        if (storyElements == null)
+            return;
+        requestMeasure();
+        
+        // スクロール位置があまり変わらないようにするため
+        // 元のスクロール位置にある要素を記憶しておく
+        int scrollY = getScrollPosition().y;
+        int firstElementIndex = findElementAt(scrollY);
+        int firstElementY = (firstElementIndex < elementHeights.length) ? scrollY - elementTops[firstElementIndex] : 0;
+        
+        // マッチするかどうかが変わった要素だけを更新する
+        BitSet matchedBits = evaluateFilter();
+        for (int ix = 0; ix < elementHeights.length; ++ix) {
+            boolean isMatched = matchedBits.get(ix);
+            if (isElementMatched[ix] != isMatched) {
+                isElementMatched[ix] = isMatched;
+                if (!isMatched) {
+                    releaseElementView(ix);
                 }
-            });
+            }
         }
+        updateElementTops();
+        
+        // 更新前のスクロールして見えている先頭にあったもの以降で
+        // 表示されたものが見えるようにスクロールする
+        int scrollToIndex = firstElementIndex;
+        while (scrollToIndex < elementHeights.length && !isElementMatched[scrollToIndex]) {
+            ++scrollToIndex;
+        }
+        int scrollToTop = elementTops[scrollToIndex];
+        if (scrollToIndex == firstElementIndex) {
+            scrollToTop += firstElementY;
+        }
+        final int top = scrollToTop;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                int viewTop = getY() + top;
+                JViewport viewport = PeriodView.this.getScrollPane().getViewport();
+                Point viewPos = viewport.getViewPosition();
+                viewPos.y = viewTop;
+                viewport.setViewPosition(viewPos);
+            }
+        });
     }
     
     /**
@@ -504,24 +1032,130 @@ public class PeriodView extends JComponent implements MoltonfView {
     public void updateView() {
         if (isRebuildContentRequired) {
             isRebuildContentRequired = false;
+            isRefreshContentRequired = false;
             isRebuildFilterRequired = false;
             rebuildContent();
         }
         
+        if (isRefreshContentRequired) {
+            isRefreshContentRequired = false;
+            refreshContent();
+        }
+        
         if (isRebuildFilterRequired) {
             isRebuildFilterRequired = false;
             rebuildFilter();
         }
         
-        for (Component child : getComponents()) {
-            if (child instanceof MoltonfView) {
-                ((MoltonfView)child).updateView();
+        if (nextDayLink != null) {
+            nextDayLink.updateLayout(AREA_WIDTH);
+        }
+        if (isMeasureRequired) {
+            startMeasuring();
+        }
+        layoutElementViews();
+    }
+    
+    /**
+     * 実行中の要素の高さの測定を中止し、次の updateView() で測り直すようにします。
+     */
+    private void requestMeasure() {
+        measurer.cancel();
+        isMeasureRequired = true;
+    }
+    
+    /**
+     * フィルタにマッチしていてまだ測っていない要素について、高さの測定を開始します。
+     * 見えている位置にある要素から順に測ります。
+     */
+    private void startMeasuring() {
+        if (storyElements == null || !isDisplayable()) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D)getGraphics();
+        if (g2 == null) {
+            return;
+        }
+        isMeasureRequired = false;
+        
+        FontRenderContext fontRenderContext;
+        try {
+            fontRenderContext = g2.getFontRenderContext();
+        } finally {
+            g2.dispose();
+        }
+        Font font = getFont();
+        MessageComponent.LayoutContext context = new MessageComponent.LayoutContext(
+                font, getFontMetrics(font), fontRenderContext, MessageComponent.DEFAULT_LINE_HEIGHT_FACTOR);
+        
+        int elementsCount = elementHeights.length;
+        int firstIndex = Math.min(findElementAt(getVisibleRect().y), elementsCount);
+        int[] indices = new int[elementsCount];
+        int indicesCount = 0;
+        for (int offset = 0; offset < elementsCount; ++offset) {
+            int ix = (firstIndex + offset) % elementsCount;
+            if (isElementMatched[ix] && !isElementMeasured[ix]) {
+                indices[indicesCount++] = ix;
             }
         }
-        if (nextDayLink != null) {
-            nextDayLink.updateLayout(500);  // TODO: 500
+        measurer.start(storyElements, Arrays.copyOf(indices, indicesCount), firstIndex, AREA_WIDTH, context,
+                highlightSettingList, highlightIndex, getPeriodHighlights());
+    }
+    
+    /**
+     * ワーカースレッドで要素の高さを測り終えたときに、イベントディスパッチスレッドで呼び出されます。
+     * 高さを置き換えて配置し直し、見えている範囲より上で高さが変わった分だけスクロール位置をずらします。
+     * @param indices 測った要素のインデックスの配列
+     * @param heights 測った高さの配列。測れなかった要素は -1
+     */
+    void storyElementsMeasured(int[] indices, int[] heights) {
+        if (storyElements == null) {
+            return;
+        }
+        
+        int scrollTop = getVisibleRect().y;
+        int scrollDelta = 0;
+        boolean isHeightChanged = false;
+        for (int k = 0; k < indices.length; ++k) {
+            int ix = indices[k];
+            if (ix >= elementHeights.length || isElementMeasured[ix]) {
+                continue;
+            }
+            
+            isElementMeasured[ix] = true;
+            int height = heights[k];
+            if (height >= 0 && height != elementHeights[ix]) {
+                if (isElementMatched[ix] && elementTops[ix] < scrollTop) {
+                    scrollDelta += height - elementHeights[ix];
+                }
+                elementHeights[ix] = height;
+                isHeightChanged = true;
+            }
+        }
+        if (isHeightChanged) {
+            updateElementTops();
+        }
+        layoutElementViews();
+        
+        if (scrollDelta != 0) {
+            scrollPane.validate();
+            JViewport viewport = scrollPane.getViewport();
+            Point viewPos = viewport.getViewPosition();
+            viewPos.y += scrollDelta;
+            viewport.setViewPosition(viewPos);
         }
     }
+    
+    /**
+     * @see javax.swing.JComponent#removeNotify()
+     */
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        
+        // 表示されなくなったら測定は中止し、また表示されたときに測り直す
+        requestMeasure();
+    }
 
     /**
      * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
@@ -540,21 +1174,36 @@ public class PeriodView extends JComponent implements MoltonfView {
         Color oldColor = g2d.getColor();
         g2d.setColor(BG_COLOR);
         g2d.fill(paintRect);
+        
+        // 高さを測っている途中の要素のプレースホルダー
+        if (storyElements != null) {
+            g2d.setColor(PLACEHOLDER_COLOR);
+            int paintTop = (int)paintRect.getMinY();
+            int paintBottom = (int)Math.ceil(paintRect.getMaxY());
+            for (int ix = findElementAt(paintTop); ix < elementHeights.length && elementTops[ix] < paintBottom; ++ix) {
+                if (isElementMatched[ix] && elementViews[ix] == null && elementHeights[ix] > 0) {
+                    g2d.fillRoundRect(PLACEHOLDER_MARGIN, elementTops[ix] + PLACEHOLDER_MARGIN,
+                            AREA_WIDTH - PLACEHOLDER_MARGIN * 2, Math.max(0, elementHeights[ix] - PLACEHOLDER_MARGIN * 2),
+                            PLACEHOLDER_MARGIN, PLACEHOLDER_MARGIN);
+                }
+            }
+        }
         g2d.setColor(oldColor);
     }
     
     /**
      * PeriodView 用の範囲選択用オブジェクトの実装
+     * 選択範囲は要素のインデックスで覚えておき、ビューを作成したときにも反映します。
      */
     private class PeriodViewRangeSelector implements RangeSelector {
-        /** 開始点の子コンポーネントのインデックス */
-        private int startChildIndex = -1;
+        /** 開始点の要素のインデックス */
+        private int startElementIndex = -1;
         
         /** 開始点の座標。PeriodView の座標系です。*/
         private Point2D startPt = null;
         
-        /** 終了点の子コンポーネントのインデックス */
-        private int endChildIndex = -1;
+        /** 終了点の要素のインデックス */
+        private int endElementIndex = -1;
         
         /** 終了点の座標。PeriodView の座標系です。*/
         private Point2D endPt = null;
@@ -589,48 +1238,51 @@ public class PeriodView extends JComponent implements MoltonfView {
         }
 
         /**
-         * 指定された位置にある子コンポーネントのインデックスを返します。
+         * 指定された位置にある要素のインデックスを返します。
          * @param point 位置
-         * @return 子コンポーネントのインデックス。
-         *         その位置に可視の子コンポーネントが見つからなければ -1 を返します。
+         * @return 要素のインデックス。
+         *         その位置に表示されている要素が見つからなければ、最後に表示されている要素のインデックスを返します。
+         *         表示されている要素がなければ -1 を返します。
          */
-        private int getChildComponent(Point2D point) {
-            // コンポーネントは上から順に並んでいるという前提
-            int lastItemIndex = -1;
-            int componentCount = getComponentCount();
-            for (int ix = 0; ix < componentCount; ++ix) {
-                Component comp = getComponent(ix);
-                if (comp.isVisible()) {
-                    lastItemIndex = ix;
-                    if (comp.getY() + comp.getHeight() >= point.getY()) {
-                        return ix;
-                    }
-                }
+        private int getElementIndexAt(Point2D point) {
+            if (storyElements == null) {
+                return -1;
+            }
+            
+            int index = findElementAt((int)point.getY());
+            while (index < elementHeights.length && !isElementMatched[index]) {
+                ++index;
+            }
+            if (index < elementHeights.length) {
+                return index;
             }
             
             // 見つからなければ最後のアイテムで
-            return lastItemIndex;
+            for (index = elementHeights.length - 1; index >= 0; --index) {
+                if (isElementMatched[index]) {
+                    return index;
+                }
+            }
+            return -1;
         }
         
         /**
          * 選択範囲を消去します。
          */
         private void doClearSelection() {
-            if (startChildIndex < 0 || endChildIndex < 0) {
+            if (startElementIndex < 0 || endElementIndex < 0) {
                 return;
             }
             
-            int startIx = (startChildIndex < endChildIndex) ? startChildIndex : endChildIndex;
-            int endIx = (startChildIndex < endChildIndex) ? endChildIndex : startChildIndex;
-            for (int ix = startIx; ix <= endIx; ++ix) {
-                Component child = getComponent(ix);
-                if (child instanceof Selectable) {
-                    Selectable selectableChild = (Selectable)child;
-                    selectableChild.clearSelection();
+            if (elementViews != null) {
+                for (JComponent view : elementViews) {
+                    if (view != null) {
+                        ((Selectable)view).clearSelection();
+                    }
                 }
             }
             startPt = null;
-            startChildIndex = -1;
+            startElementIndex = -1;
         }
         
         /**
@@ -642,9 +1294,9 @@ public class PeriodView extends JComponent implements MoltonfView {
             doClearSelection();
             
             startPt = ViewUtilities.convertPoint(component, pt, PeriodView.this);
-            startChildIndex = getChildComponent(startPt);
+            startElementIndex = getElementIndexAt(startPt);
             endPt = null;
-            endChildIndex = -1;
+            endElementIndex = -1;
         }
 
         /**
@@ -657,25 +1309,33 @@ public class PeriodView extends JComponent implements MoltonfView {
                 return;
             }
             
-            int prevEndChildIndex = endChildIndex;
-            
             endPt = ViewUtilities.convertPoint(component, pt, PeriodView.this);
-            endChildIndex = getChildComponent(endPt);
+            endElementIndex = getElementIndexAt(endPt);
+            updateSelection();
+        }
+        
+        /**
+         * 作成されているビューに選択範囲を反映します。
+         */
+        public void updateSelection() {
+            if (startPt == null || endPt == null || startElementIndex < 0 || endElementIndex < 0 || elementViews == null) {
+                return;
+            }
             
-            int startIx = (-1 == prevEndChildIndex) ? startChildIndex : prevEndChildIndex;
-            int endIx = endChildIndex;
-            if (startIx > endIx) {
-                int tempIx = endIx;
-                endIx = startIx;
-                startIx = tempIx;
-            }
-            for (int ix = startIx; ix <= endIx; ++ix) {
-                Component child = getComponent(ix);
-                if (child instanceof Selectable) {
-                    Selectable selectableChild = (Selectable)child;
-                    Point2D childStart = ViewUtilities.convertPoint(PeriodView.this, startPt, child);
-                    Point2D childEnd = ViewUtilities.convertPoint(PeriodView.this, endPt, child);
-                    selectableChild.selectRange(childStart, childEnd);
+            int startIx = Math.min(startElementIndex, endElementIndex);
+            int endIx = Math.max(startElementIndex, endElementIndex);
+            for (int ix = 0; ix < elementViews.length; ++ix) {
+                JComponent view = elementViews[ix];
+                if (view == null) {
+                    continue;
+                }
+                Selectable selectableView = (Selectable)view;
+                if (ix >= startIx && ix <= endIx) {
+                    Point2D viewStart = ViewUtilities.convertPoint(PeriodView.this, startPt, view);
+                    Point2D viewEnd = ViewUtilities.convertPoint(PeriodView.this, endPt, view);
+                    selectableView.selectRange(viewStart, viewEnd);
+                } else {
+                    selectableView.clearSelection();
                 }
             }
         }
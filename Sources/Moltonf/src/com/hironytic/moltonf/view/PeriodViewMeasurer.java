@@ -0,0 +1,251 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.view;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import com.hironytic.moltonf.model.HighlightIndex;
+import com.hironytic.moltonf.model.HighlightSetting;
+import com.hironytic.moltonf.model.StoryElement;
+import com.hironytic.moltonf.model.StoryEvent;
+import com.hironytic.moltonf.model.Talk;
+
+/**
+ * PeriodView に表示する要素の高さを、ワーカースレッドでレイアウトを行って求めるクラス。
+ *
+ * 要素はいくつかずつまとめてワーカースレッドのプールで測り、まとまりごとに
+ * イベントディスパッチスレッドで PeriodView#storyElementsMeasured() に通知します。
+ * 見えている要素の前後 LAYOUT_KEEP_RANGE 個までのレイアウト結果は MessageComponent のキャッシュに入るので、
+ * その後でビューを作成したときにはイベントディスパッチスレッドでレイアウトを行わずに済みます。
+ * それより離れた要素は高さだけを求め、レイアウト結果はキャッシュに入れません。
+ * 要素の多い日で、すぐには表示しない要素のレイアウト結果が、見えている要素の分をキャッシュから追い出すのを避けるためです。
+ * start() や cancel() を呼び出すと、それまでに開始した測定の結果は捨てられます。
+ * start(), cancel(), isMeasuring() はイベントディスパッチスレッドから呼び出してください。
+ */
+class PeriodViewMeasurer {
+
+    /** 1 回にまとめて測って通知する要素の数 */
+    private static final int BATCH_SIZE = 32;
+    
+    /** レイアウト結果をキャッシュに入れる、見えている要素の前後の要素の数 */
+    private static final int LAYOUT_KEEP_RANGE = 100;
+    
+    /** 測定を行うワーカースレッドのプール */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger(0);
+                
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PeriodViewMeasurer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+    
+    /** 結果を通知する PeriodView */
+    private final PeriodView periodView;
+    
+    /** 測定の世代。start() や cancel() のたびに増やし、古い世代の結果は捨てる */
+    private final AtomicInteger generation = new AtomicInteger(0);
+    
+    /** 開始した測定の Future */
+    private final List<Future<?>> futureList = new ArrayList<Future<?>>();
+    
+    /** 結果をまだ通知していないまとまりの数 */
+    private int pendingBatchCount = 0;
+    
+    /**
+     * コンストラクタ
+     * @param periodView 結果を通知する PeriodView
+     */
+    public PeriodViewMeasurer(PeriodView periodView) {
+        this.periodView = periodView;
+    }
+    
+    /**
+     * 測定を開始します。
+     * 要素は指定した順に測るので、見えている要素を先頭にしておきます。
+     * @param storyElements 要素のリスト
+     * @param indices 測る要素のインデックスの配列
+     * @param visibleIndex 見えている要素のインデックス。この前後の要素だけレイアウト結果をキャッシュに入れる
+     * @param areaWidth ビューの幅
+     * @param context 表示に関する条件
+     * @param highlightSettingList 強調表示設定のリスト
+     * @param highlightIndex 強調表示範囲の索引。なければ null
+     * @param periodHighlights あらかじめ求めておいた要素のリストの強調表示範囲。なければ null
+     */
+    public void start(List<StoryElement> storyElements, int[] indices, int visibleIndex, float areaWidth,
+            MessageComponent.LayoutContext context, List<HighlightSetting> highlightSettingList,
+            HighlightIndex highlightIndex, HighlightIndex.PeriodHighlights periodHighlights) {
+        cancel();
+        
+        int currentGeneration = generation.get();
+        for (int offset = 0; offset < indices.length; offset += BATCH_SIZE) {
+            int[] batchIndices = Arrays.copyOfRange(indices, offset, Math.min(offset + BATCH_SIZE, indices.length));
+            futureList.add(executor.submit(new MeasureTask(currentGeneration, storyElements, batchIndices,
+                    visibleIndex, areaWidth, context, highlightSettingList, highlightIndex, periodHighlights)));
+            ++pendingBatchCount;
+        }
+    }
+    
+    /**
+     * 測定を中止します。
+     * まだ始まっていないものは取り消し、実行中のものは結果を捨てます。
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        for (Future<?> future : futureList) {
+            future.cancel(false);
+        }
+        futureList.clear();
+        pendingBatchCount = 0;
+    }
+    
+    /**
+     * 測定中かどうかを返します。
+     * @return 結果をまだ通知していない要素があれば true
+     */
+    public boolean isMeasuring() {
+        return pendingBatchCount > 0;
+    }
+    
+    /**
+     * 要素のまとまりを測るタスク
+     */
+    private class MeasureTask implements Runnable {
+        /** 測定の世代 */
+        private final int taskGeneration;
+        
+        /** 要素のリスト */
+        private final List<StoryElement> storyElements;
+        
+        /** 測る要素のインデックスの配列 */
+        private final int[] indices;
+        
+        /** 見えている要素のインデックス */
+        private final int visibleIndex;
+        
+        /** ビューの幅 */
+        private final float areaWidth;
+        
+        /** 表示に関する条件 */
+        private final MessageComponent.LayoutContext context;
+        
+        /** 強調表示設定のリスト */
+        private final List<HighlightSetting> highlightSettingList;
+        
+        /** 強調表示範囲の索引 */
+        private final HighlightIndex highlightIndex;
+        
+        /** あらかじめ求めておいた強調表示範囲 */
+        private final HighlightIndex.PeriodHighlights periodHighlights;
+        
+        /**
+         * コンストラクタ
+         * @param taskGeneration 測定の世代
+         * @param storyElements 要素のリスト
+         * @param indices 測る要素のインデックスの配列
+         * @param visibleIndex 見えている要素のインデックス
+         * @param areaWidth ビューの幅
+         * @param context 表示に関する条件
+         * @param highlightSettingList 強調表示設定のリスト
+         * @param highlightIndex 強調表示範囲の索引
+         * @param periodHighlights あらかじめ求めておいた強調表示範囲
+         */
+        public MeasureTask(int taskGeneration, List<StoryElement> storyElements, int[] indices, int visibleIndex, float areaWidth,
+                MessageComponent.LayoutContext context, List<HighlightSetting> highlightSettingList,
+                HighlightIndex highlightIndex, HighlightIndex.PeriodHighlights periodHighlights) {
+            this.taskGeneration = taskGeneration;
+            this.storyElements = storyElements;
+            this.indices = indices;
+            this.visibleIndex = visibleIndex;
+            this.areaWidth = areaWidth;
+            this.context = context;
+            this.highlightSettingList = highlightSettingList;
+            this.highlightIndex = highlightIndex;
+            this.periodHighlights = periodHighlights;
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            final int[] heights = new int[indices.length];
+            for (int ix = 0; ix < indices.length; ++ix) {
+                if (generation.get() != taskGeneration) {
+                    return;
+                }
+                
+                try {
+                    StoryElement element = storyElements.get(indices[ix]);
+                    boolean keepsLayout = Math.abs(indices[ix] - visibleIndex) <= LAYOUT_KEEP_RANGE;
+                    float height;
+                    if (element instanceof Talk) {
+                        HighlightIndex.ElementHighlights elementHighlights = null;
+                        if (periodHighlights != null) {
+                            elementHighlights = new HighlightIndex.ElementHighlights(
+                                    highlightIndex.getHighlightEngine(), periodHighlights, indices[ix]);
+                        }
+                        height = TalkView.measureAreaHeight((Talk)element, areaWidth, context,
+                                highlightSettingList, elementHighlights, keepsLayout);
+                    } else if (element instanceof StoryEvent) {
+                        height = StoryEventView.measureAreaHeight((StoryEvent)element, areaWidth, context, keepsLayout);
+                    } else {
+                        height = 0;
+                    }
+                    heights[ix] = (int)Math.ceil(height);
+                } catch (RuntimeException ex) {
+                    // 測れなかったものは、ビューを作成したときに測る
+                    heights[ix] = -1;
+                }
+            }
+            
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation.get() != taskGeneration) {
+                        return;
+                    }
+                    --pendingBatchCount;
+                    periodView.storyElementsMeasured(indices, heights);
+                }
+            });
+        }
+    }
+}
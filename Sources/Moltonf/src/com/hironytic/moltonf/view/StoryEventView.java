@@ -29,6 +29,7 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
@@ -37,9 +38,11 @@ import java.awt.Stroke;
 import java.awt.geom.Dimension2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.List;
 
 import javax.swing.JComponent;
 
+import com.hironytic.moltonf.model.EventFamily;
 import com.hironytic.moltonf.model.StoryEvent;
 
 /**
@@ -117,6 +120,15 @@ public class StoryEventView extends JComponent implements MoltonfView, Selectabl
         this.storyEvent = storyEvent;
     }
     
+    /**
+     * メッセージの一部に付ける属性の情報をセットします。
+     * セットしたあとに、updateView() を呼び出すことでレイアウトが整います。
+     * @param attributedAreaInfoList 属性の情報のリスト。なければ null
+     */
+    public void setMessageAttributedAreaInfoList(List<MessageComponent.AttributedAreaInfo> attributedAreaInfoList) {
+        eventMessageComponent.setAttributedAreaInfoList(attributedAreaInfoList);
+    }
+    
     /**
      * このビューの幅をセットします。
      * セットしたあとに、updateView() を呼び出すことでレイアウトが整います。
@@ -131,8 +143,17 @@ public class StoryEventView extends JComponent implements MoltonfView, Selectabl
      * @return 文字色
      */
     private Color getMessageTextColor() {
+        return getMessageTextColor(getStoryEvent().getEventFamily());
+    }
+    
+    /**
+     * イベントの種類に応じたメッセージの文字色を返します。
+     * @param eventFamily イベントの種類
+     * @return 文字色
+     */
+    private static Color getMessageTextColor(EventFamily eventFamily) {
         Color color;
-        switch (getStoryEvent().getEventFamily()) {
+        switch (eventFamily) {
         case ANNOUNCE:
             color = MESSAGE_TEXT_COLOR_ANNOUNCE;
             break;
@@ -227,6 +248,49 @@ public class StoryEventView extends JComponent implements MoltonfView, Selectabl
         revalidate();
     }
 
+    /**
+     * イベントを表示したときのビューの高さを、ビューを作らずにレイアウトを行って求めます。
+     * keepsLayout が true ならレイアウト結果はキャッシュに入るので、後で同じ条件で updateView() を呼び出したときにはそれが使われます。
+     * イベントディスパッチスレッド以外から呼び出すことができます。
+     * @param storyEvent イベント
+     * @param areaWidth ビューの幅
+     * @param context 表示に関する条件
+     * @param keepsLayout レイアウト結果をキャッシュに入れるなら true
+     * @return ビューの高さ
+     */
+    public static float measureAreaHeight(StoryEvent storyEvent, float areaWidth, MessageComponent.LayoutContext context,
+            boolean keepsLayout) {
+        float messageHeight = MessageComponent.prepareLayout(context,
+                storyEvent.getMessageLines(), getMessageTextColor(storyEvent.getEventFamily()),
+                areaWidth - (VIEW_PADDING_LEFT + MESSAGE_PADDING_LEFT + MESSAGE_PADDING_RIGHT + VIEW_PADDING_RIGHT),
+                null, null, null, keepsLayout);
+        return VIEW_PADDING_TOP +
+               MESSAGE_PADDING_TOP +
+               messageHeight +
+               MESSAGE_PADDING_BOTTOM +
+               VIEW_PADDING_BOTTOM;
+    }
+    
+    /**
+     * イベントを表示したときのビューの高さを、レイアウトを行わずに見積もります。
+     * updateView() と同じ計算を、MessageComponent#estimateAreaHeight() による見積もりで行います。
+     * @param storyEvent イベント
+     * @param areaWidth ビューの幅
+     * @param fontMetrics 表示に用いるフォントの FontMetrics
+     * @return 高さの見積もり
+     */
+    public static float estimateAreaHeight(StoryEvent storyEvent, float areaWidth, FontMetrics fontMetrics) {
+        float messageHeight = MessageComponent.estimateAreaHeight(
+                storyEvent.getMessageLines(),
+                areaWidth - (VIEW_PADDING_LEFT + MESSAGE_PADDING_LEFT + MESSAGE_PADDING_RIGHT + VIEW_PADDING_RIGHT),
+                fontMetrics, MessageComponent.DEFAULT_LINE_HEIGHT_FACTOR);
+        return VIEW_PADDING_TOP +
+               MESSAGE_PADDING_TOP +
+               messageHeight +
+               MESSAGE_PADDING_BOTTOM +
+               VIEW_PADDING_BOTTOM;
+    }
+    
     /**
      * @see javax.swing.JComponent#setFont(java.awt.Font)
      */
@@ -28,6 +28,7 @@ package com.hironytic.moltonf.view;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
@@ -48,6 +49,7 @@ import java.util.List;
 
 import javax.swing.JComponent;
 
+import com.hironytic.moltonf.model.HighlightIndex;
 import com.hironytic.moltonf.model.HighlightSetting;
 import com.hironytic.moltonf.model.MessageRange;
 import com.hironytic.moltonf.model.Talk;
@@ -186,6 +188,24 @@ public class TalkView extends JComponent implements MoltonfView, Selectable {
         talkMessageComponent.setHighlightSettingList(highlightSettingList);
     }
     
+    /**
+     * あらかじめ求めておいた発言の強調表示範囲をセットします。
+     * @param elementHighlights 強調表示範囲。なければ null
+     */
+    public void setElementHighlights(HighlightIndex.ElementHighlights elementHighlights) {
+        talkMessageComponent.setElementHighlights(elementHighlights);
+    }
+    
+    /**
+     * メッセージの一部に付ける属性の情報をセットします。
+     * セットしたあとに、updateView() を呼び出すことでレイアウトが整います。
+     * @param attributedAreaInfoList 属性の情報のリスト。なければ null
+     */
+    public void setMessageAttributedAreaInfoList(List<MessageComponent.AttributedAreaInfo> attributedAreaInfoList) {
+        talkMessageComponent.setAttributedAreaInfoList(attributedAreaInfoList);
+        isUpdateRequired = true;
+    }
+    
     /**
      * このビューの幅をセットします。
      * セットしたあとに、updateView() を呼び出すことでレイアウトが整います。
@@ -200,8 +220,17 @@ public class TalkView extends JComponent implements MoltonfView, Selectable {
      * @return 文字色
      */
     private Color getMessageTextColor() {
+        return getMessageTextColor(talk.getTalkType());
+    }
+    
+    /**
+     * 発言の種類に応じたメッセージの文字色を返します。
+     * @param talkType 発言の種類
+     * @return 文字色
+     */
+    private static Color getMessageTextColor(TalkType talkType) {
         Color color;
-        switch (talk.getTalkType()) {
+        switch (talkType) {
         case PUBLIC:
             color = MESSAGE_TEXT_COLOR_PUBLIC;
             break;
@@ -252,6 +281,15 @@ public class TalkView extends JComponent implements MoltonfView, Selectable {
      * @return 顔アイコン画像
      */
     private Image getFaceIconImage() {
+        return getFaceIconImage(talk);
+    }
+    
+    /**
+     * 発言者の顔アイコン画像を得ます
+     * @param talk 発言
+     * @return 顔アイコン画像
+     */
+    private static Image getFaceIconImage(Talk talk) {
         if (talk.getTalkType() == TalkType.GRAVE) {
             return talk.getStory().getGraveIconImage();
         } else {
@@ -377,23 +415,10 @@ public class TalkView extends JComponent implements MoltonfView, Selectable {
         areaSize.height = 0f;
         
         // 発言情報 (発言者名、発言時刻など)
-        int start, end;
-        StringBuilder infoTextBuilder = new StringBuilder();
-        String speakerName = talk.getSpeaker().getFullName();
-        infoTextBuilder.append(speakerName);
-        TimePart time = talk.getTime();
-        String timeString = String.format("%02d:%02d", time.getHourPart(), time.getMinutePart());
-        infoTextBuilder.append(" ");
-        start = infoTextBuilder.length();
-        infoTextBuilder.append(timeString);
-        end = start + timeString.length();
-        talkInfoComponent.setMessage(Collections.singletonList(infoTextBuilder.toString()));  // TODO: 発言回数なども
+        String infoText = getInfoText(talk);
+        talkInfoComponent.setMessage(Collections.singletonList(infoText));  // TODO: 発言回数なども
         talkInfoComponent.setForeground(INFO_TEXT_COLOR);
-        talkInfoComponent.setAttributedAreaInfoList(Arrays.asList(
-            new MessageComponent.AttributedAreaInfo(
-                    new MessageRange(0, start, end),
-                    INFO_TIME_TEXT_COLOR)
-        ));
+        talkInfoComponent.setAttributedAreaInfoList(getInfoAttributedAreaInfoList(talk, infoText));
         talkInfoComponent.updateLayout(areaSize.width - (VIEW_PADDING_LEFT + VIEW_PADDING_RIGHT));
         Dimension2D infoAreaSize = talkInfoComponent.getAreaSize();
         Rectangle2D infoAreaRect = new Rectangle2D.Float(
@@ -445,6 +470,94 @@ public class TalkView extends JComponent implements MoltonfView, Selectable {
         revalidate();
     }
     
+    /**
+     * 発言情報 (発言者名、発言時刻など) の文字列を作成します。
+     * @param talk 発言
+     * @return 発言情報の文字列
+     */
+    private static String getInfoText(Talk talk) {
+        StringBuilder infoTextBuilder = new StringBuilder();
+        infoTextBuilder.append(talk.getSpeaker().getFullName());
+        TimePart time = talk.getTime();
+        infoTextBuilder.append(" ");
+        infoTextBuilder.append(String.format("%02d:%02d", time.getHourPart(), time.getMinutePart()));
+        return infoTextBuilder.toString();
+    }
+    
+    /**
+     * 発言情報の属性付け範囲の情報のリストを作成します。
+     * @param talk 発言
+     * @param infoText getInfoText() で作成した発言情報の文字列
+     * @return 属性付け範囲の情報のリスト
+     */
+    private static List<MessageComponent.AttributedAreaInfo> getInfoAttributedAreaInfoList(Talk talk, String infoText) {
+        int start = talk.getSpeaker().getFullName().length() + 1;
+        int end = infoText.length();
+        return Arrays.asList(
+            new MessageComponent.AttributedAreaInfo(
+                    new MessageRange(0, start, end),
+                    INFO_TIME_TEXT_COLOR)
+        );
+    }
+    
+    /**
+     * 発言を表示したときのビューの高さを、ビューを作らずにレイアウトを行って求めます。
+     * keepsLayout が true ならレイアウト結果はキャッシュに入るので、後で同じ条件で updateView() を呼び出したときにはそれが使われます。
+     * イベントディスパッチスレッド以外から呼び出すことができます。
+     * @param talk 発言
+     * @param areaWidth ビューの幅
+     * @param context 表示に関する条件
+     * @param highlightSettingList 強調表示設定のリスト
+     * @param elementHighlights あらかじめ求めておいた強調表示範囲。なければ null
+     * @param keepsLayout レイアウト結果をキャッシュに入れるなら true
+     * @return ビューの高さ
+     */
+    public static float measureAreaHeight(Talk talk, float areaWidth, MessageComponent.LayoutContext context,
+            List<HighlightSetting> highlightSettingList, HighlightIndex.ElementHighlights elementHighlights,
+            boolean keepsLayout) {
+        String infoText = getInfoText(talk);
+        float infoHeight = MessageComponent.prepareLayout(context,
+                Collections.singletonList(infoText), INFO_TEXT_COLOR,
+                areaWidth - (VIEW_PADDING_LEFT + VIEW_PADDING_RIGHT),
+                null, null, getInfoAttributedAreaInfoList(talk, infoText), keepsLayout);
+        float messageHeight = MessageComponent.prepareLayout(context,
+                talk.getMessageLines(), getMessageTextColor(talk.getTalkType()),
+                areaWidth - (VIEW_PADDING_LEFT + MESSAGE_LEFT + MESSAGE_PADDING_LEFT + MESSAGE_PADDING_RIGHT + VIEW_PADDING_RIGHT),
+                highlightSettingList, elementHighlights, null, keepsLayout);
+        Image faceIconImage = getFaceIconImage(talk);
+        float faceIconHeight = (faceIconImage != null) ? faceIconImage.getHeight(nullObserver) : 0f;
+        return infoHeight +
+               VIEW_PADDING_TOP +
+               Math.max(MESSAGE_PADDING_TOP + messageHeight + MESSAGE_PADDING_BOTTOM, faceIconHeight) +
+               VIEW_PADDING_BOTTOM;
+    }
+    
+    /**
+     * 発言を表示したときのビューの高さを、レイアウトを行わずに見積もります。
+     * updateView() と同じ計算を、MessageComponent#estimateAreaHeight() による見積もりで行います。
+     * @param talk 発言
+     * @param areaWidth ビューの幅
+     * @param fontMetrics 表示に用いるフォントの FontMetrics
+     * @return 高さの見積もり
+     */
+    public static float estimateAreaHeight(Talk talk, float areaWidth, FontMetrics fontMetrics) {
+        float lineHeightFactor = MessageComponent.DEFAULT_LINE_HEIGHT_FACTOR;
+        float infoHeight = MessageComponent.estimateAreaHeight(
+                Collections.singletonList(talk.getSpeaker().getFullName()),
+                areaWidth - (VIEW_PADDING_LEFT + VIEW_PADDING_RIGHT),
+                fontMetrics, lineHeightFactor);
+        float messageHeight = MessageComponent.estimateAreaHeight(
+                talk.getMessageLines(),
+                areaWidth - (VIEW_PADDING_LEFT + MESSAGE_LEFT + MESSAGE_PADDING_LEFT + MESSAGE_PADDING_RIGHT + VIEW_PADDING_RIGHT),
+                fontMetrics, lineHeightFactor);
+        Image faceIconImage = getFaceIconImage(talk);
+        float faceIconHeight = (faceIconImage != null) ? faceIconImage.getHeight(nullObserver) : 0f;
+        return infoHeight +
+               VIEW_PADDING_TOP +
+               Math.max(MESSAGE_PADDING_TOP + messageHeight + MESSAGE_PADDING_BOTTOM, faceIconHeight) +
+               VIEW_PADDING_BOTTOM;
+    }
+    
     /**
      * @see javax.swing.JComponent#setFont(java.awt.Font)
      */
@@ -0,0 +1,215 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.view;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * テキストのレイアウト結果を保持する LRU キャッシュ。
+ *
+ * 各エントリにはおおよそのメモリ使用量 (コスト) を指定して登録し、
+ * コストの合計が上限を超えたら、最も長い間使われていないものから破棄します。
+ * 複数のスレッドから同時に使うことができます。
+ * @param <K> キーの型
+ * @param <V> レイアウト結果の型
+ */
+public class TextLayoutCache<K, V> {
+
+    /** コストの合計の既定の上限 (バイト) */
+    public static final long DEFAULT_MAX_COST = 8L * 1024 * 1024;
+    
+    /** エントリのマップ。アクセス順に並ぶ */
+    private final LinkedHashMap<K, Entry<V>> entryMap = new LinkedHashMap<K, Entry<V>>(256, 0.75f, true);
+    
+    /** コストの合計の上限 */
+    private long maxCost;
+    
+    /** 登録されているエントリのコストの合計 */
+    private long totalCost = 0;
+    
+    /** 見つかった回数 */
+    private long hitCount = 0;
+    
+    /** 見つからなかった回数 */
+    private long missCount = 0;
+    
+    /** 破棄したエントリの数 */
+    private long evictionCount = 0;
+    
+    /**
+     * キャッシュのエントリ
+     * @param <V> レイアウト結果の型
+     */
+    private static class Entry<V> {
+        /** レイアウト結果 */
+        private final V value;
+        
+        /** コスト */
+        private final long cost;
+        
+        /**
+         * コンストラクタ
+         * @param value レイアウト結果
+         * @param cost コスト
+         */
+        public Entry(V value, long cost) {
+            this.value = value;
+            this.cost = cost;
+        }
+    }
+    
+    /**
+     * 既定の上限でキャッシュを構築します。
+     */
+    public TextLayoutCache() {
+        this(DEFAULT_MAX_COST);
+    }
+    
+    /**
+     * コストの合計の上限を指定してキャッシュを構築します。
+     * @param maxCost コストの合計の上限 (バイト)
+     */
+    public TextLayoutCache(long maxCost) {
+        this.maxCost = maxCost;
+    }
+    
+    /**
+     * キーに対応するレイアウト結果を取得します。
+     * @param key キー
+     * @return レイアウト結果。なければ null。
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entryMap.get(key);
+        if (entry == null) {
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return entry.value;
+    }
+    
+    /**
+     * レイアウト結果を登録します。
+     * コストが上限より大きいものは登録しません。
+     * @param key キー
+     * @param value レイアウト結果
+     * @param cost コスト (おおよそのメモリ使用量をバイト単位で)
+     */
+    public synchronized void put(K key, V value, long cost) {
+        Entry<V> oldEntry = entryMap.remove(key);
+        if (oldEntry != null) {
+            totalCost -= oldEntry.cost;
+        }
+        if (cost > maxCost) {
+            return;
+        }
+        
+        entryMap.put(key, new Entry<V>(value, cost));
+        totalCost += cost;
+        trim();
+    }
+    
+    /**
+     * すべてのエントリを破棄します。
+     */
+    public synchronized void clear() {
+        entryMap.clear();
+        totalCost = 0;
+    }
+    
+    /**
+     * コストの合計の上限を取得します。
+     * @return コストの合計の上限 (バイト)
+     */
+    public synchronized long getMaxCost() {
+        return maxCost;
+    }
+    
+    /**
+     * コストの合計の上限を設定します。
+     * 登録済みのエントリが上限を超えていれば、古いものから破棄します。
+     * @param maxCost コストの合計の上限 (バイト)
+     */
+    public synchronized void setMaxCost(long maxCost) {
+        this.maxCost = maxCost;
+        trim();
+    }
+    
+    /**
+     * 登録されているエントリのコストの合計を取得します。
+     * @return コストの合計 (バイト)
+     */
+    public synchronized long getTotalCost() {
+        return totalCost;
+    }
+    
+    /**
+     * 登録されているエントリの数を取得します。
+     * @return エントリの数
+     */
+    public synchronized int size() {
+        return entryMap.size();
+    }
+    
+    /**
+     * レイアウト結果が見つかった回数を取得します。
+     * @return 見つかった回数
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    /**
+     * レイアウト結果が見つからなかった回数を取得します。
+     * @return 見つからなかった回数
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+    
+    /**
+     * 上限を超えたために破棄したエントリの数を取得します。
+     * @return 破棄したエントリの数
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    /**
+     * コストの合計が上限以下になるまで、最も長い間使われていないエントリから破棄します。
+     */
+    private void trim() {
+        Iterator<Map.Entry<K, Entry<V>>> it = entryMap.entrySet().iterator();
+        while (totalCost > maxCost && it.hasNext()) {
+            Entry<V> entry = it.next().getValue();
+            it.remove();
+            totalCost -= entry.cost;
+            ++evictionCount;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.view.event;
+
+import java.util.EventObject;
+
+import com.hironytic.moltonf.model.search.SearchHit;
+import com.hironytic.moltonf.model.search.SearchQuery;
+
+/**
+ * 全文検索の操作が行われたときの情報を保持するイベント
+ */
+@SuppressWarnings("serial")
+public class SearchEvent extends EventObject {
+    
+    /** 検索の条件 */
+    private SearchQuery query;
+    
+    /** 選択された箇所 */
+    private SearchHit hit;
+    
+    /**
+     * コンストラクタ
+     * @param source イベントが最初に発生したオブジェクト
+     */
+    public SearchEvent(Object source) {
+        super(source);
+    }
+    
+    /**
+     * 検索の条件を返します。
+     * @return 検索の条件
+     */
+    public SearchQuery getQuery() {
+        return query;
+    }
+    
+    /**
+     * 選択された箇所を返します。
+     * {@link SearchListener#searchHitSelected(SearchEvent)} の通知でのみ有効です。
+     * @return 選択された箇所
+     */
+    public SearchHit getHit() {
+        return hit;
+    }
+    
+    /**
+     * 検索の条件をセットします。
+     * @param query 検索の条件
+     */
+    public void setQuery(SearchQuery query) {
+        this.query = query;
+    }
+    
+    /**
+     * 選択された箇所をセットします。
+     * @param hit 選択された箇所
+     */
+    public void setHit(SearchHit hit) {
+        this.hit = hit;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "SearchEvent [query=" + query + ", hit=" + hit + "]";
+    }
+}
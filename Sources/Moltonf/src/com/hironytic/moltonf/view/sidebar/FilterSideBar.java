@@ -44,6 +44,7 @@ import javax.swing.event.EventListenerList;
 import com.hironytic.moltonf.Moltonf;
 import com.hironytic.moltonf.model.Avatar;
 import com.hironytic.moltonf.model.EventFamily;
+import com.hironytic.moltonf.model.StoryStatistics;
 import com.hironytic.moltonf.model.TalkType;
 import com.hironytic.moltonf.util.DialogHelper;
 import com.hironytic.moltonf.view.event.FilterChangeListener;
@@ -58,6 +59,15 @@ public class FilterSideBar extends SideBar {
     /** チェックボックスに発言者を関連づけるキー */
     private static final String KEY_SPEAKER = "Moltonf.speaker";
     
+    /** チェックボックスに元のラベル文字列を関連づけるキー */
+    private static final String KEY_LABEL = "Moltonf.label";
+    
+    /** 発言の数を表示するときの書式 */
+    private final String hitCountFormat;
+    
+    /** 人物の発言の数と文字数を表示するツールチップの書式 */
+    private final String speakerToolTipFormat;
+    
     /** 発言者フィルタのペイン */
     private Box speakerFilterPane;
     
@@ -85,6 +95,15 @@ public class FilterSideBar extends SideBar {
     /** speakerFilter が変更されたかどうか */
     private boolean isSpeakerFilterModified = false;
     
+    /** 発言の集計結果 */
+    private StoryStatistics statistics;
+    
+    /** 発言の数を表示する period のインデックス */
+    private int periodIndex = -1;
+    
+    /** 発言の数が変更されたかどうか */
+    private boolean isHitCountModified = false;
+    
     /** 通常発言チェックボックス */
     private JCheckBox cbTalkPublic;
     
@@ -118,6 +137,8 @@ public class FilterSideBar extends SideBar {
      */
     public FilterSideBar() {
         ResourceBundle res = Moltonf.getResource();
+        hitCountFormat = res.getString("filterSideBar.hitCount");
+        speakerToolTipFormat = res.getString("filterSideBar.speakerToolTip");
         setContent(createContent(res));
     }
     
@@ -186,6 +207,18 @@ public class FilterSideBar extends SideBar {
         isSpeakerFilterModified = true;
     }
 
+    /**
+     * 各チェックボックスに表示する発言の数を得るための、集計結果をセットします。
+     * このあとに updateView() を呼び出すと実際の内容に反映されます。
+     * @param statistics 発言の集計結果。数を表示しないなら null
+     * @param periodIndex 発言の数を表示する period のインデックス
+     */
+    public void setStatistics(StoryStatistics statistics, int periodIndex) {
+        this.statistics = statistics;
+        this.periodIndex = periodIndex;
+        isHitCountModified = true;
+    }
+
     /**
      * フィルタの状態が変化したことの通知を受け取るリスナーを追加します。
      * @param l リスナー
@@ -300,10 +333,21 @@ public class FilterSideBar extends SideBar {
      */
     private JCheckBox createFilterCheckBox(String label, ActionListener listener) {
         JCheckBox checkBox = new JCheckBox(label);
+        checkBox.putClientProperty(KEY_LABEL, label);
         checkBox.addActionListener(listener);
         return checkBox;
     }
     
+    /**
+     * チェックボックスのラベルに、発言の数を表示します。
+     * @param checkBox チェックボックス
+     * @param hitCount 発言の数。数を表示しないなら負の値
+     */
+    private void setHitCount(JCheckBox checkBox, int hitCount) {
+        String label = (String)checkBox.getClientProperty(KEY_LABEL);
+        checkBox.setText((hitCount >= 0) ? String.format(hitCountFormat, label, hitCount) : label);
+    }
+    
     /**
      * サイドバーの内容を作成します。
      * @param res リソースオブジェクト
@@ -375,6 +419,7 @@ public class FilterSideBar extends SideBar {
                     speakerFilterPane.add(cbSpeaker);
                 }
             }
+            isHitCountModified = true;
             isNeedRevalidate = true;
         }
         
@@ -405,6 +450,29 @@ public class FilterSideBar extends SideBar {
             }
         }
         
+        // 発言の数
+        if (isHitCountModified) {
+            isHitCountModified = false;
+            boolean isShowCount = (statistics != null && statistics.isCounted(periodIndex));
+            setHitCount(cbTalkPublic, isShowCount ? statistics.getTalkCount(periodIndex, TalkType.PUBLIC) : -1);
+            setHitCount(cbTalkWolf, isShowCount ? statistics.getTalkCount(periodIndex, TalkType.WOLF) : -1);
+            setHitCount(cbTalkPrivate, isShowCount ? statistics.getTalkCount(periodIndex, TalkType.PRIVATE) : -1);
+            setHitCount(cbTalkGrave, isShowCount ? statistics.getTalkCount(periodIndex, TalkType.GRAVE) : -1);
+            for (JCheckBox cbSpeaker : cbSpeakerList) {
+                Avatar speaker = (Avatar)cbSpeaker.getClientProperty(KEY_SPEAKER);
+                if (isShowCount) {
+                    int talkCount = statistics.getTalkCount(periodIndex, speaker);
+                    setHitCount(cbSpeaker, talkCount);
+                    cbSpeaker.setToolTipText(String.format(speakerToolTipFormat,
+                            talkCount, statistics.getCharCount(periodIndex, speaker)));
+                } else {
+                    setHitCount(cbSpeaker, -1);
+                    cbSpeaker.setToolTipText(null);
+                }
+            }
+            isNeedRevalidate = true;
+        }
+        
         if (isNeedRevalidate) {
             revalidate();
         }
@@ -0,0 +1,392 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonf.view.sidebar;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Collections;
+import java.util.List;
+import java.util.ResourceBundle;
+
+import javax.swing.AbstractListModel;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+import com.hironytic.moltonf.Moltonf;
+import com.hironytic.moltonf.model.search.SearchHit;
+import com.hironytic.moltonf.model.search.SearchQuery;
+import com.hironytic.moltonf.model.search.SearchResult;
+import com.hironytic.moltonf.util.DialogHelper;
+import com.hironytic.moltonf.view.event.SearchEvent;
+import com.hironytic.moltonf.view.event.SearchListener;
+
+/**
+ * サイドバー「検索」のクラス
+ */
+@SuppressWarnings("serial")
+public class SearchSideBar extends SideBar {
+
+    /** 見つかった箇所の前に表示する文字数 */
+    private static final int EXCERPT_BEFORE_LENGTH = 8;
+    
+    /** 見つかった箇所の一覧に表示する行の最大の文字数 */
+    private static final int EXCERPT_MAX_LENGTH = 40;
+    
+    /** 見つかった箇所の一覧の表示の書式 */
+    private final String hitFormat;
+    
+    /** 見つかった箇所の数の表示の書式 */
+    private final String hitCountFormat;
+    
+    /** 見つかった箇所が多すぎて打ち切ったときの表示の書式 */
+    private final String hitCountTruncatedFormat;
+    
+    /** 正規表現が正しくないときの表示 */
+    private final String invalidPatternText;
+    
+    /** 検索中の表示 */
+    private final String searchingText;
+    
+    /** 検索結果 */
+    private SearchResult searchResult;
+    
+    /** 検索中かどうか */
+    private boolean isSearching = false;
+    
+    /** 検索結果か検索中かどうかが変更されたかどうか */
+    private boolean isSearchResultModified = false;
+    
+    /** 検索する文字列を入力するテキストフィールド */
+    private JTextField tfQuery;
+    
+    /** 正規表現で検索するかどうかのチェックボックス */
+    private JCheckBox cbRegularExpression;
+    
+    /** 検索の状態を表示するラベル */
+    private JLabel lblStatus;
+    
+    /** 見つかった箇所の一覧 */
+    @SuppressWarnings("rawtypes")
+    private JList lstHit;
+    
+    /** 見つかった箇所の一覧のモデル */
+    private final HitListModel hitListModel = new HitListModel();
+    
+    /** 見つかった箇所の一覧を更新している最中かどうか */
+    private boolean isUpdatingHitList = false;
+    
+    /** 検索の操作の通知を受け取るリスナーのリスト */
+    private final EventListenerList searchListenerList = new EventListenerList();
+    
+    /**
+     * 見つかった箇所の一覧のモデル
+     * 検索結果のリストをそのまま参照します。
+     */
+    @SuppressWarnings("rawtypes")
+    private static class HitListModel extends AbstractListModel {
+        
+        /** 見つかった箇所のリスト */
+        private List<SearchHit> hitList = Collections.emptyList();
+        
+        /**
+         * 見つかった箇所のリストをセットします。
+         * @param hitList 見つかった箇所のリスト
+         */
+        public void setHitList(List<SearchHit> hitList) {
+            int oldSize = this.hitList.size();
+            this.hitList = Collections.emptyList();
+            if (oldSize > 0) {
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            }
+            this.hitList = hitList;
+            if (!hitList.isEmpty()) {
+                fireIntervalAdded(this, 0, hitList.size() - 1);
+            }
+        }
+        
+        /**
+         * @see javax.swing.ListModel#getElementAt(int)
+         */
+        @Override
+        public Object getElementAt(int index) {
+            return hitList.get(index);
+        }
+
+        /**
+         * @see javax.swing.ListModel#getSize()
+         */
+        @Override
+        public int getSize() {
+            return hitList.size();
+        }
+    }
+    
+    /**
+     * コンストラクタ
+     */
+    public SearchSideBar() {
+        ResourceBundle res = Moltonf.getResource();
+        hitFormat = res.getString("searchSideBar.hit");
+        hitCountFormat = res.getString("searchSideBar.hitCount");
+        hitCountTruncatedFormat = res.getString("searchSideBar.hitCountTruncated");
+        invalidPatternText = res.getString("searchSideBar.invalidPattern");
+        searchingText = res.getString("searchSideBar.searching");
+        setContent(createContent(res));
+    }
+    
+    /**
+     * 現在入力されている検索の条件を返します。
+     * @return 検索の条件
+     */
+    public SearchQuery getQuery() {
+        return new SearchQuery(tfQuery.getText(), cbRegularExpression.isSelected());
+    }
+    
+    /**
+     * 検索結果をセットします。
+     * このあとに updateView() を呼び出すと実際の内容に反映されます。
+     * @param searchResult 検索結果。なければ null
+     */
+    public void setSearchResult(SearchResult searchResult) {
+        this.searchResult = searchResult;
+        isSearchResultModified = true;
+    }
+    
+    /**
+     * 検索中かどうかをセットします。
+     * このあとに updateView() を呼び出すと実際の内容に反映されます。
+     * @param isSearching 検索中なら true
+     */
+    public void setSearching(boolean isSearching) {
+        this.isSearching = isSearching;
+        isSearchResultModified = true;
+    }
+    
+    /**
+     * 検索の操作の通知を受け取るリスナーを追加します。
+     * @param l リスナー
+     */
+    public void addSearchListener(SearchListener l) {
+        searchListenerList.add(SearchListener.class, l);
+    }
+
+    /**
+     * 検索の操作の通知を受け取るリスナーを削除します。
+     * @param l リスナー
+     */
+    public void removeSearchListener(SearchListener l) {
+        searchListenerList.remove(SearchListener.class, l);
+    }
+    
+    /**
+     * 検索の条件が変化したことを通知します。
+     */
+    private void fireSearchQueryChanged() {
+        Object[] listeners = searchListenerList.getListenerList();
+        SearchEvent searchEvent = null;
+        for (int i = listeners.length-2; i>=0; i-=2) {
+            if (listeners[i]==SearchListener.class) {
+                if (searchEvent == null) {
+                    searchEvent = new SearchEvent(this);
+                    searchEvent.setQuery(getQuery());
+                }
+                ((SearchListener)listeners[i+1]).searchQueryChanged(searchEvent);
+            }
+        }
+    }
+    
+    /**
+     * 見つかった箇所が選択されたことを通知します。
+     * @param hit 選択された箇所
+     */
+    private void fireSearchHitSelected(SearchHit hit) {
+        Object[] listeners = searchListenerList.getListenerList();
+        SearchEvent searchEvent = null;
+        for (int i = listeners.length-2; i>=0; i-=2) {
+            if (listeners[i]==SearchListener.class) {
+                if (searchEvent == null) {
+                    searchEvent = new SearchEvent(this);
+                    searchEvent.setQuery((searchResult != null) ? searchResult.getQuery() : null);
+                    searchEvent.setHit(hit);
+                }
+                ((SearchListener)listeners[i+1]).searchHitSelected(searchEvent);
+            }
+        }
+    }
+    
+    /** 検索する文字列のテキストフィールドのドキュメントリスナー */
+    private final DocumentListener queryDocumentListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            fireSearchQueryChanged();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            fireSearchQueryChanged();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+    
+    /** 正規表現チェックボックスのアクションリスナー */
+    private final ActionListener regularExpressionCheckBoxActionListener = new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            fireSearchQueryChanged();
+        }
+    };
+    
+    /** 見つかった箇所の一覧の選択リスナー */
+    private final ListSelectionListener hitListSelectionListener = new ListSelectionListener() {
+        @Override
+        public void valueChanged(ListSelectionEvent e) {
+            if (e.getValueIsAdjusting() || isUpdatingHitList) {
+                return;
+            }
+            SearchHit hit = (SearchHit)lstHit.getSelectedValue();
+            if (hit != null) {
+                fireSearchHitSelected(hit);
+            }
+        }
+    };
+    
+    /** 見つかった箇所の一覧のセルレンダラー */
+    private final DefaultListCellRenderer hitListCellRenderer = new DefaultListCellRenderer() {
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Component getListCellRendererComponent(JList list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            SearchHit hit = (SearchHit)value;
+            String text = String.format(hitFormat, hit.getPeriodIndex(), getExcerpt(hit));
+            return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+        }
+    };
+    
+    /**
+     * 見つかった箇所の前後を行から切り出します。
+     * @param hit 見つかった箇所
+     * @return 切り出した文字列
+     */
+    private static String getExcerpt(SearchHit hit) {
+        String line = hit.getLineText();
+        int start = Math.max(0, hit.getRange().getStart() - EXCERPT_BEFORE_LENGTH);
+        int end = Math.min(line.length(), start + EXCERPT_MAX_LENGTH);
+        return line.substring(start, end);
+    }
+    
+    /**
+     * サイドバーの内容を作成します。
+     * @param res リソースオブジェクト
+     * @return 作成した内容を返します。
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private JComponent createContent(ResourceBundle res) {
+        tfQuery = new JTextField();
+        tfQuery.setAlignmentX(Component.LEFT_ALIGNMENT);
+        tfQuery.setMaximumSize(new Dimension(Integer.MAX_VALUE, tfQuery.getPreferredSize().height));
+        tfQuery.getDocument().addDocumentListener(queryDocumentListener);
+        
+        cbRegularExpression = new JCheckBox(res.getString("searchSideBar.regularExpression"));
+        cbRegularExpression.addActionListener(regularExpressionCheckBoxActionListener);
+        
+        lblStatus = new JLabel(" ");
+        
+        lstHit = new JList(hitListModel);
+        lstHit.setAlignmentX(Component.LEFT_ALIGNMENT);
+        lstHit.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        lstHit.setCellRenderer(hitListCellRenderer);
+        lstHit.setFixedCellHeight(lstHit.getFontMetrics(lstHit.getFont()).getHeight() + 2);
+        lstHit.addListSelectionListener(hitListSelectionListener);
+        
+        // サイドバーの内容
+        Box content = new Box(BoxLayout.Y_AXIS);
+        content.add(new JLabel(res.getString("searchSideBar.query")));
+        content.add(DialogHelper.createVertivalRigidArea(1));
+        content.add(tfQuery);
+        content.add(cbRegularExpression);
+        content.add(lblStatus);
+        content.add(DialogHelper.createVertivalRigidArea(1));
+        content.add(lstHit);
+        return content;
+    }
+    
+    /**
+     * @see com.hironytic.moltonf.view.MoltonfView#updateView()
+     */
+    @Override
+    public void updateView() {
+        if (!isSearchResultModified) {
+            return;
+        }
+        isSearchResultModified = false;
+        
+        // 状態
+        String status;
+        if (isSearching) {
+            status = searchingText;
+        } else if (searchResult == null || searchResult.getQuery().getText().length() == 0) {
+            status = " ";
+        } else if (!searchResult.getQuery().isValid()) {
+            status = invalidPatternText;
+        } else if (searchResult.isTruncated()) {
+            status = String.format(hitCountTruncatedFormat, searchResult.getHitList().size());
+        } else {
+            status = String.format(hitCountFormat, searchResult.getHitList().size());
+        }
+        lblStatus.setText(status);
+        
+        // 見つかった箇所の一覧
+        if (!isSearching) {
+            isUpdatingHitList = true;
+            try {
+                lstHit.clearSelection();
+                hitListModel.setHitList((searchResult != null)
+                        ? searchResult.getHitList() : Collections.<SearchHit>emptyList());
+            } finally {
+                isUpdatingHitList = false;
+            }
+        }
+        
+        revalidate();
+    }
+}
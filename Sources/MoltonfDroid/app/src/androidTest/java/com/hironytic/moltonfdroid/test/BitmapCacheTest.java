@@ -0,0 +1,36 @@
+package com.hironytic.moltonfdroid.test;
+
+import com.hironytic.moltonfdroid.util.BitmapCache;
+
+import junit.framework.TestCase;
+
+public class BitmapCacheTest extends TestCase {
+
+    public void testNoDownsampling() {
+        assertEquals(1, BitmapCache.calculateInSampleSize(60, 60, 60, 60));
+        assertEquals(1, BitmapCache.calculateInSampleSize(100, 100, 60, 60));
+        assertEquals(1, BitmapCache.calculateInSampleSize(30, 30, 60, 60));
+    }
+
+    public void testDownsampling() {
+        assertEquals(2, BitmapCache.calculateInSampleSize(120, 120, 60, 60));
+        assertEquals(4, BitmapCache.calculateInSampleSize(400, 400, 60, 60));
+        assertEquals(8, BitmapCache.calculateInSampleSize(500, 500, 60, 60));
+        assertEquals(8, BitmapCache.calculateInSampleSize(1024, 1024, 80, 80));
+    }
+
+    public void testKeepsShorterSideLargeEnough() {
+        assertEquals(2, BitmapCache.calculateInSampleSize(1000, 200, 60, 60));
+        assertEquals(2, BitmapCache.calculateInSampleSize(200, 1000, 60, 60));
+    }
+
+    public void testInvalidRequestSize() {
+        assertEquals(1, BitmapCache.calculateInSampleSize(500, 500, 0, 60));
+        assertEquals(1, BitmapCache.calculateInSampleSize(500, 500, 60, -1));
+    }
+
+    public void testKey() {
+        assertEquals("http://example.com/a.jpg@60x60", BitmapCache.makeKey("http://example.com/a.jpg", 60, 60));
+        assertFalse(BitmapCache.makeKey("a", 60, 60).equals(BitmapCache.makeKey("a", 80, 80)));
+    }
+}
@@ -0,0 +1,107 @@
+package com.hironytic.moltonfdroid.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import com.hironytic.moltonfdroid.model.HighlightEngine;
+import com.hironytic.moltonfdroid.model.HighlightSetting;
+
+import junit.framework.TestCase;
+
+public class HighlightEngineTest extends TestCase {
+
+    public void testLiteral() {
+        HighlightEngine engine = new HighlightEngine(settings("★", "●"));
+        HighlightEngine.SpanList spanList = engine.match("a★b●●c");
+        assertEquals(2, spanList.size());
+        assertSpan(1, 2, 0, spanList, 0);
+        assertSpan(3, 5, 1, spanList, 1);
+    }
+
+    public void testRegex() {
+        HighlightEngine engine = new HighlightEngine(settings("【.*?】", "a+b"));
+        HighlightEngine.SpanList spanList = engine.match("x【c】aab");
+        assertEquals(2, spanList.size());
+        assertSpan(1, 4, 0, spanList, 0);
+        assertSpan(4, 7, 1, spanList, 1);
+    }
+
+    public void testPriority() {
+        HighlightEngine engine = new HighlightEngine(settings("【.*?】", "★"));
+        HighlightEngine.SpanList spanList = engine.match("【★】");
+        assertEquals(3, spanList.size());
+        assertSpan(0, 1, 0, spanList, 0);
+        assertSpan(1, 2, 1, spanList, 1);
+        assertSpan(2, 3, 0, spanList, 2);
+    }
+
+    public void testOverlappingLiteral() {
+        HighlightEngine engine = new HighlightEngine(settings("aa", "ab"));
+        assertSameAsMatcher(engine, settings("aa", "ab"), "aaab");
+        assertSameAsMatcher(engine, settings("aa", "ab"), "aaaaab");
+    }
+
+    public void testBackReference() {
+        List<HighlightSetting> settingList = settings("(\\w)\\1", "x");
+        assertSameAsMatcher(new HighlightEngine(settingList), settingList, "aabxcc");
+    }
+
+    public void testInvalidSetting() {
+        List<HighlightSetting> settingList = settings("★", "(", "☆");
+        HighlightEngine engine = new HighlightEngine(settingList);
+        assertEquals(2, engine.getSettingCount());
+        HighlightEngine.SpanList spanList = engine.match("☆");
+        assertEquals(1, spanList.size());
+        assertSame(settingList.get(2), engine.getHighlightSetting(spanList.getSettingIndex(0)));
+    }
+
+    public void testEmpty() {
+        assertEquals(0, new HighlightEngine(null).match("abc").size());
+        assertEquals(0, new HighlightEngine(settings("★")).match("").size());
+    }
+
+    public void testInstance() {
+        List<HighlightSetting> settingList = settings("★");
+        HighlightEngine engine = HighlightEngine.getInstance(settingList);
+        assertSame(engine, HighlightEngine.getInstance(settingList));
+        settingList.get(0).setPatternString("☆");
+        assertNotSame(engine, HighlightEngine.getInstance(settingList));
+    }
+
+    private List<HighlightSetting> settings(String... patternStrings) {
+        List<HighlightSetting> settingList = new ArrayList<HighlightSetting>();
+        for (String patternString : patternStrings) {
+            HighlightSetting setting = new HighlightSetting();
+            setting.setPatternString(patternString);
+            setting.setHighlightColor(0xff000000 | settingList.size());
+            settingList.add(setting);
+        }
+        return settingList;
+    }
+
+    private void assertSpan(int start, int end, int settingIndex, HighlightEngine.SpanList spanList, int index) {
+        assertEquals(start, spanList.getStart(index));
+        assertEquals(end, spanList.getEnd(index));
+        assertEquals(settingIndex, spanList.getSettingIndex(index));
+    }
+
+    private void assertSameAsMatcher(HighlightEngine engine, List<HighlightSetting> settingList, String line) {
+        int[] expected = new int[line.length()];
+        Arrays.fill(expected, -1);
+        for (int settingIndex = 0; settingIndex < settingList.size(); ++settingIndex) {
+            Matcher matcher = settingList.get(settingIndex).getPattern().matcher(line);
+            while (matcher.find()) {
+                Arrays.fill(expected, matcher.start(), matcher.end(), settingIndex);
+            }
+        }
+        int[] actual = new int[line.length()];
+        Arrays.fill(actual, -1);
+        HighlightEngine.SpanList spanList = engine.match(line);
+        for (int ix = 0; ix < spanList.size(); ++ix) {
+            Arrays.fill(actual, spanList.getStart(ix), spanList.getEnd(ix), spanList.getSettingIndex(ix));
+        }
+        assertTrue(Arrays.equals(expected, actual));
+    }
+}
@@ -0,0 +1,69 @@
+package com.hironytic.moltonfdroid.test;
+
+import com.hironytic.moltonfdroid.util.TimeParser;
+import com.hironytic.moltonfdroid.util.TimePart;
+
+import junit.framework.TestCase;
+
+public class TimeParserTest extends TestCase {
+
+    public void testTime() {
+        assertTime(8, 15, 0, 0, TimeParser.parse("08:15:00"));
+        assertTime(8, 15, 0, 0, TimeParser.parse("08:15:00+09:00"));
+        assertTime(8, 15, 0, 0, TimeParser.parse("08:15:00Z"));
+        assertTime(23, 59, 59, 0, TimeParser.parse("23:59:59-14:00"));
+    }
+
+    public void testFraction() {
+        assertTime(8, 15, 0, 500, TimeParser.parse("08:15:00.5"));
+        assertTime(8, 15, 0, 120, TimeParser.parse("08:15:00.12+09:00"));
+        assertTime(8, 15, 0, 123, TimeParser.parse("08:15:00.123456"));
+        assertNull(TimeParser.parse("08:15:00."));
+    }
+
+    public void testDateTime() {
+        assertTime(12, 34, 56, 0, TimeParser.parse("2010-02-28T12:34:56"));
+        assertTime(1, 2, 3, 400, TimeParser.parse("2012-02-29T01:02:03.4+09:00"));
+        assertTime(12, 0, 0, 0, TimeParser.parse("-0044-03-15T12:00:00"));
+        assertNull(TimeParser.parse("2011-02-29T01:02:03"));
+        assertNull(TimeParser.parse("1900-02-29T00:00:00"));
+        assertNull(TimeParser.parse("0000-01-01T00:00:00"));
+        assertNull(TimeParser.parse("2010-13-01T00:00:00"));
+    }
+
+    public void testEndOfDay() {
+        assertTime(0, 0, 0, 0, TimeParser.parse("24:00:00"));
+        assertNull(TimeParser.parse("24:00:01"));
+        assertNull(TimeParser.parse("24:00:00.1"));
+    }
+
+    public void testInvalid() {
+        assertNull(TimeParser.parse(""));
+        assertNull(TimeParser.parse("1:00:00"));
+        assertNull(TimeParser.parse("08:60:00"));
+        assertNull(TimeParser.parse("08:15:00+14:01"));
+        assertNull(TimeParser.parse("08:15:00+9:00"));
+        assertNull(TimeParser.parse("08:15:00+09:00x"));
+        assertNull(TimeParser.parse("-08:15:00"));
+    }
+
+    public void testWhitespace() {
+        assertTime(8, 15, 0, 0, TimeParser.parse(" 08:15:00\n"));
+    }
+
+    public void testRange() {
+        assertTime(8, 15, 0, 0, TimeParser.parse("time=08:15:00;", 5, 13));
+    }
+
+    public void testCache() {
+        assertSame(TimeParser.parse("08:15:00"), TimeParser.parse("08:15:00+09:00"));
+    }
+
+    private void assertTime(int hour, int minute, int second, int millisecond, TimePart timePart) {
+        assertNotNull(timePart);
+        assertEquals(hour, timePart.getHourPart());
+        assertEquals(minute, timePart.getMinutePart());
+        assertEquals(second, timePart.getSecondPart());
+        assertEquals(millisecond, timePart.getMilliSecondPart());
+    }
+}
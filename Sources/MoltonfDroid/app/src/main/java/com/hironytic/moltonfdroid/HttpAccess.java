@@ -27,7 +27,6 @@ package com.hironytic.moltonfdroid;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Method;
 import java.net.URI;
 
 import org.apache.http.HttpEntity;
@@ -36,22 +35,40 @@ import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 
-import android.os.Build;
-
 import com.hironytic.moltonfdroid.util.Proc1;
 
 /**
  * HTTP プロトコルでデータにアクセスするためのクラス。
+ * HttpClient はアプリ内で 1 つを共有し、接続はホストごとに再利用します。
+ * 複数のスレッドから同時に呼び出すことができます。
  */
 public class HttpAccess {
 
     private static final String USER_AGENT_FORMAT = "MoltonfDroid/%s (http://moltonf.hironytic.com/, moltonf@hironytic.com)";
     
+    /** 全体で同時に使う接続の最大数 */
+    private static final int MAX_TOTAL_CONNECTIONS = 8;
+    
+    /** ホストごとに同時に使う接続の最大数 */
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+    
+    /** 共有する HttpClient。まだ作成していなければ null */
+    private static HttpClient sharedHttpClient = null;
+    
     /**
      * コンストラクタ
      */
@@ -62,63 +79,77 @@ public class HttpAccess {
      * 指定した URI のデータを GET メソッドで取得するための InputStream を返します。
      * @param uri データの URI
      * @param getProc 取得したデータを処理するコールバック
-     * @throws MoltonfException エラー発生時USER_AGENT_FORMAT
+     * @throws MoltonfException エラー発生時
      */
     public static void doGet(URI uri, Proc1<InputStream> getProc) throws MoltonfException {
         HttpGet httpGet = new HttpGet(uri);
-        HttpClient httpClient = createHttpClient();
+        HttpClient httpClient = getHttpClient();
         try {
             HttpResponse httpResponse = httpClient.execute(httpGet);
             StatusLine statusLine = httpResponse.getStatusLine();
             int statusCode = statusLine.getStatusCode();
+            HttpEntity httpEntity = httpResponse.getEntity();
             if (statusCode / 100 == 2) {
-                HttpEntity httpEntity = httpResponse.getEntity();
                 if (httpEntity != null) {
                     InputStream inStream = httpEntity.getContent();
-                    getProc.perform(inStream);
-                    inStream.close();
+                    try {
+                        getProc.perform(inStream);
+                    } finally {
+                        // 読み残しがあっても閉じれば接続は共有の HttpClient に戻る
+                        inStream.close();
+                    }
                 }
             } else {
                 Moltonf.getInstance().getLogger().info("HTTP GET error : " + statusLine.toString());
+                if (httpEntity != null) {
+                    httpEntity.consumeContent();
+                }
             }
         } catch (IOException ex) {
             httpGet.abort();
             throw new MoltonfException("failed to HTTP GET", ex);
-        } finally {
-            httpClient.getConnectionManager().shutdown();
+        } catch (RuntimeException ex) {
+            httpGet.abort();
+            throw ex;
+        }
+    }
+    
+    /**
+     * 共有する HttpClient を返します。まだ作成していなければ作成します。
+     * @return HttpClient
+     */
+    private static synchronized HttpClient getHttpClient() {
+        if (sharedHttpClient == null) {
+            sharedHttpClient = createHttpClient();
         }
+        return sharedHttpClient;
     }
     
     /**
-     * HttpClient を生成します。
+     * 複数のスレッドから使える HttpClient を生成します。
      * @return HttpClient
      */
     private static HttpClient createHttpClient() {
         String userAgent = String.format(USER_AGENT_FORMAT, Moltonf.getInstance().getVersionString());
         
-        HttpClient httpClient = null;
-        if (Build.VERSION.SDK_INT >= 8) {
-            try {
-                Class<?> clazz = Class.forName("android.net.http.AndroidHttpClient");
-                Method method = clazz.getMethod("newInstance", new Class[]{String.class});
-                httpClient = (HttpClient)method.invoke(null, new Object[]{userAgent});
-                HttpParams params = httpClient.getParams();
-                HttpClientParams.setRedirecting(params, true);  // リダイレクトを follow するようにしておく            
-            } catch (Exception ex) {
-            }
-        }
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setUserAgent(params, userAgent);
+        HttpClientParams.setRedirecting(params, true);  // リダイレクトを follow するようにしておく
         
-        if (httpClient == null) {
-            httpClient = new DefaultHttpClient();
-            HttpParams params = httpClient.getParams();
-            HttpProtocolParams.setUserAgent(params, userAgent);
-            
-            // 以下の設定は AndroidHttpClient に合わせてある
-            HttpConnectionParams.setStaleCheckingEnabled(params, false);
-            HttpConnectionParams.setConnectionTimeout(params, 20 * 1000);
-            HttpConnectionParams.setSoTimeout(params, 20 * 1000);
-            HttpConnectionParams.setSocketBufferSize(params, 8192);
-        }
-        return httpClient;
+        // 以下の設定は AndroidHttpClient に合わせてある
+        HttpConnectionParams.setStaleCheckingEnabled(params, false);
+        HttpConnectionParams.setConnectionTimeout(params, 20 * 1000);
+        HttpConnectionParams.setSoTimeout(params, 20 * 1000);
+        HttpConnectionParams.setSocketBufferSize(params, 8192);
+        
+        // 顔アイコンを同じホストから並行して取得できるようにする
+        ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+        
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+        ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+        return new DefaultHttpClient(connectionManager, params);
     }
 }
@@ -25,7 +25,7 @@
 
 package com.hironytic.moltonfdroid;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -34,22 +34,61 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.hironytic.moltonfdroid.model.Avatar;
 import com.hironytic.moltonfdroid.model.Story;
+import com.hironytic.moltonfdroid.util.BitmapCache;
 import com.hironytic.moltonfdroid.util.BitmapHolder;
 import com.hironytic.moltonfdroid.util.Proc1;
 import com.hironytic.moltonfdroid.util.SmartUtils;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 
 /**
  * Story 内の画像を読み込んで各 BitmapHolder にセットするタスク
+ * 画像は一定数のスレッドで並行して読み込み、読み込めたものから順に BitmapHolder にセットします。
+ * 同じ URI の画像は 1 回だけ読み込みます。
+ * 画像は表示する大きさに合わせて縮小してデコードし、アプリ全体で共有する BitmapCache にも保持します。
  */
 public class LoadStoryImageTask extends AsyncTask<Story, LoadStoryImageTask.ProgressData, Void>{
+    /** 画像を並行して読み込むスレッドの数 */
+    private static final int LOADER_THREAD_COUNT = 4;
+    
+    /** 画像を読み込むスレッド */
+    private static final ExecutorService loaderExecutor = Executors.newFixedThreadPool(LOADER_THREAD_COUNT, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "LoadStoryImage");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
+    /** 同じ URI の画像を読み込む BitmapHolder をまとめたもの */
+    private static class ImageRequest {
+        /** 画像を保存するときのファイル名の元になる名前 */
+        public String imageName;
+        
+        /** 画像の URI */
+        public URI imageUri;
+        
+        /** 画像を格納する BitmapHolder のリスト */
+        public List<BitmapHolder> bitmapHolderList = new ArrayList<BitmapHolder>();
+    }
+    
     /** 1つの画像を読み込む度に UI スレッドを呼び出す際の引数 */
     protected static class ProgressData {
         /** 画像を格納する BitmapHolder */
@@ -59,11 +98,15 @@ public class LoadStoryImageTask extends AsyncTask<Story, LoadStoryImageTask.Prog
         public Bitmap loadedBitmap;
     }
 
+    /** アイコンを表示する大きさ（ピクセル） */
+    private final int iconSize;
+    
     /**
      * コンストラクタ
-     * @param app アプリケーションオブジェクト
+     * @param iconSize アイコンを表示する大きさ（ピクセル）
      */
-    public LoadStoryImageTask() {
+    public LoadStoryImageTask(int iconSize) {
+        this.iconSize = iconSize;
     }
     
     /**
@@ -73,35 +116,103 @@ public class LoadStoryImageTask extends AsyncTask<Story, LoadStoryImageTask.Prog
     protected Void doInBackground(Story... params) {
         Story story = params[0];
         
-        // 墓アイコン画像
-        loadImage(story.getGraveIconHolder(), "grave", story.getGraveIconUri());
-        if (isCancelled()) {
-            return null;
-        }
-        
-        // アバターのアイコン画像
+        // 墓アイコン画像とアバターのアイコン画像を、同じ URI ごとにまとめる
+        Map<URI, ImageRequest> requestMap = new LinkedHashMap<URI, ImageRequest>();
+        addImageRequest(requestMap, story.getGraveIconHolder(), "grave", story.getGraveIconUri());
         List<Avatar> avatarList = story.getAvatarList();
         for (Avatar avatar : avatarList) {
-            loadImage(avatar.getFaceIconHolder(), avatar.getAvatarId(), avatar.getFaceIconUri());
-            if (isCancelled()) {
-                return null;
+            addImageRequest(requestMap, avatar.getFaceIconHolder(), avatar.getAvatarId(), avatar.getFaceIconUri());
+        }
+        
+        // 並行して読み込み、読み込めたものから順にセットする
+        CompletionService<ImageRequest> completionService = new ExecutorCompletionService<ImageRequest>(loaderExecutor);
+        Map<Future<ImageRequest>, ImageRequest> futureMap = new LinkedHashMap<Future<ImageRequest>, ImageRequest>();
+        for (final ImageRequest request : requestMap.values()) {
+            Future<ImageRequest> future = completionService.submit(new Callable<ImageRequest>() {
+                @Override
+                public ImageRequest call() throws Exception {
+                    if (!isCancelled()) {
+                        Bitmap bitmap = loadImage(request.imageName, request.imageUri);
+                        if (bitmap != null && !isCancelled()) {
+                            for (BitmapHolder bitmapHolder : request.bitmapHolderList) {
+                                ProgressData data = new ProgressData();
+                                data.bitmapHolder = bitmapHolder;
+                                data.loadedBitmap = bitmap;
+                                publishProgress(data);
+                            }
+                        }
+                    }
+                    return request;
+                }
+            });
+            futureMap.put(future, request);
+        }
+        
+        try {
+            for (int remaining = futureMap.size(); remaining > 0; --remaining) {
+                Future<ImageRequest> future = completionService.take();
+                futureMap.remove(future);
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    Moltonf.getInstance().getLogger().warning("failed to load image", ex.getCause());
+                }
+                if (isCancelled()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            // キャンセルされた
+        } finally {
+            // まだ始まっていないものは読み込まない
+            for (Future<ImageRequest> future : futureMap.keySet()) {
+                future.cancel(true);
             }
         }
 
         return null;
     }
-
+    
     /**
-     * 画像を読み込みます。
-     * @param bitmapHolder 
-     * @param imageName
-     * @param imageUri
+     * 読み込む画像の一覧に追加します。
+     * 同じ URI の画像が既にあれば、その BitmapHolder のリストに加えます。
+     * @param requestMap URI から読み込む画像へのマップ
+     * @param bitmapHolder 画像を格納する BitmapHolder
+     * @param imageName 画像を保存するときのファイル名の元になる名前
+     * @param imageUri 画像の URI
      */
-    private void loadImage(final BitmapHolder bitmapHolder, String imageName, URI imageUri) {
+    private void addImageRequest(Map<URI, ImageRequest> requestMap, BitmapHolder bitmapHolder, String imageName, URI imageUri) {
         // bitmapHolder がすでに画像を持っていたら読み込まなくてもいい
-        if (bitmapHolder.hasBitmap()) {
+        if (imageUri == null || bitmapHolder.hasBitmap()) {
             return;
         }
+        
+        ImageRequest request = requestMap.get(imageUri);
+        if (request == null) {
+            request = new ImageRequest();
+            request.imageName = imageName;
+            request.imageUri = imageUri;
+            requestMap.put(imageUri, request);
+        }
+        request.bitmapHolderList.add(bitmapHolder);
+    }
+
+    /**
+     * 画像を読み込みます。
+     * 読み込み用のスレッドから呼び出されます。
+     * 以前にデコードした画像がキャッシュにあれば、それを返します。
+     * @param imageName 画像を保存するときのファイル名の元になる名前
+     * @param imageUri 画像の URI
+     * @return 読み込んだ画像。読み込めなければ null
+     */
+    private Bitmap loadImage(String imageName, URI imageUri) {
+        BitmapCache bitmapCache = Moltonf.getInstance().getBitmapCache();
+        final String cacheKey = BitmapCache.makeKey(imageUri.toString(), iconSize, iconSize);
+        Bitmap cachedBitmap = bitmapCache.get(cacheKey);
+        if (cachedBitmap != null) {
+            return cachedBitmap;
+        }
+        
 
         // ファイルとして既に画像が存在していればそれを読み込む。
         // 存在していなければ HTTP 経由でとりにいく。その際に、読み込んだ画像をファイルに落とす
@@ -109,85 +220,71 @@ public class LoadStoryImageTask extends AsyncTask<Story, LoadStoryImageTask.Prog
         try {
             imageUrl = imageUri.toURL();
         } catch (MalformedURLException ex) {
-            return;
+            return null;
+        } catch (IllegalArgumentException ex) {
+            return null;
         }
         String extension = getExtension(imageUrl);
         final String iconFileName = (extension == null) ? imageName : imageName + "." + extension;
         File iconFileForRead = getIconFile(iconFileName, false);
         if (iconFileForRead != null) {
-            Bitmap bitmap = BitmapFactory.decodeFile(iconFileForRead.getAbsolutePath());
+            Bitmap bitmap = BitmapCache.decodeFile(iconFileForRead.getAbsolutePath(), iconSize, iconSize);
             if (bitmap != null) {
-                ProgressData data = new ProgressData();
-                data.bitmapHolder = bitmapHolder;
-                data.loadedBitmap = bitmap;
-                publishProgress(data);
-                return;
+                bitmapCache.put(cacheKey, bitmap);
+                return bitmap;
             }
         }
         
         // 読み込めなければとりにいく
+        final Bitmap[] loadedBitmap = new Bitmap[1];
         try {
             HttpAccess.doGet(imageUri, new Proc1<InputStream>() {
                 @Override
                 public void perform(InputStream arg) {
-                    BufferedInputStream inStream = new BufferedInputStream(arg);
+                    // アイコンは小さいので、いったんすべて読み込んでから保存とデコードに使う
+                    byte[] imageData;
                     try {
-                        inStream.mark(8192);
-                        
-                        // ファイルに落とす
-                        boolean isSaved = false;
-                        File iconFileForWrite = getIconFile(iconFileName, true);                        
-                        if (iconFileForWrite != null) {
-                            try {
-                                final int BUFFER_SIZE = 4096;
-                                byte[] data = new byte[BUFFER_SIZE];
-                                OutputStream fileOutStream = new FileOutputStream(iconFileForWrite);
-                                try {
-                                    int readSize = inStream.read(data);
-                                    while (readSize > 0) {
-                                        fileOutStream.write(data, 0, readSize);
-                                        readSize = inStream.read(data);
-                                    }
-                                    isSaved = true;
-                                } finally {
-                                    fileOutStream.close();
-                                }
-                            } catch (IOException ex) {
-                                Moltonf.getInstance().getLogger().warning("failed to write downloaded image", ex);
-                            }
+                        final int BUFFER_SIZE = 4096;
+                        byte[] data = new byte[BUFFER_SIZE];
+                        ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
+                        int readSize = arg.read(data);
+                        while (readSize >= 0) {
+                            byteOutStream.write(data, 0, readSize);
+                            readSize = arg.read(data);
                         }
-                        
-                        // ビットマップ生成
-                        Bitmap bitmap = null;
+                        imageData = byteOutStream.toByteArray();
+                    } catch (IOException ex) {
+                        Moltonf.getInstance().getLogger().warning("failed to read downloaded image", ex);
+                        return;
+                    }
+                    
+                    // ファイルに落とす
+                    File iconFileForWrite = getIconFile(iconFileName, true);
+                    if (iconFileForWrite != null) {
                         try {
-                            inStream.reset();
-                            bitmap = BitmapFactory.decodeStream(inStream);
-                        } catch (IOException ex) {
-                            // 画像がリミット以上に大きかった場合など
-                            // ファイルに落とすのに成功しているならファイルを読み込む。
-                            if (isSaved) {
-                                bitmap = BitmapFactory.decodeFile(iconFileForWrite.getAbsolutePath());
+                            OutputStream fileOutStream = new FileOutputStream(iconFileForWrite);
+                            try {
+                                fileOutStream.write(imageData);
+                            } finally {
+                                fileOutStream.close();
                             }
-                        }
-                        
-                        if (bitmap != null) {
-                            ProgressData data = new ProgressData();
-                            data.bitmapHolder = bitmapHolder;
-                            data.loadedBitmap = bitmap;
-                            publishProgress(data);
-                        }
-                    } finally {
-                        try {
-                            inStream.close();
                         } catch (IOException ex) {
-                            // ignore
+                            Moltonf.getInstance().getLogger().warning("failed to write downloaded image", ex);
                         }
                     }
+                    
+                    // ビットマップ生成
+                    Bitmap bitmap = BitmapCache.decodeByteArray(imageData, iconSize, iconSize);
+                    if (bitmap != null) {
+                        Moltonf.getInstance().getBitmapCache().put(cacheKey, bitmap);
+                    }
+                    loadedBitmap[0] = bitmap;
                 }
             });
         } catch (MoltonfException ex) {
             Moltonf.getInstance().getLogger().warning("failed to load image", ex);
         }
+        return loadedBitmap[0];
     }
     
     /**
@@ -33,6 +33,7 @@ import android.content.Context;
 import android.graphics.Color;
 
 import com.hironytic.moltonfdroid.model.HighlightSetting;
+import com.hironytic.moltonfdroid.util.BitmapCache;
 import com.hironytic.moltonfdroid.util.Logger;
 
 /**
@@ -55,6 +56,9 @@ public class Moltonf {
     /** ログ出力用オブジェクト */
     private Logger logger = new Logger(LOGGER_TAG);
     
+    /** アイコンなどのデコード済みの画像のキャッシュ。ワークスペースをまたいで共有する */
+    private final BitmapCache bitmapCache = new BitmapCache(BitmapCache.getDefaultMaxSize());
+    
     /**
      * コンストラクタ
      */
@@ -77,6 +81,14 @@ public class Moltonf {
         return logger;
     }
 
+    /**
+     * デコード済みの画像のキャッシュを返します。
+     * @return 画像のキャッシュ
+     */
+    public BitmapCache getBitmapCache() {
+        return bitmapCache;
+    }
+
     /**
      * MoltonfDroid アプリケーションのバージョン文字列を得ます。
      * @return バージョン文字列
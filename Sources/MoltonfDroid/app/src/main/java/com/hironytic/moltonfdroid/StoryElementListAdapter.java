@@ -28,14 +28,11 @@ package com.hironytic.moltonfdroid;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
@@ -48,10 +45,12 @@ import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.hironytic.moltonfdroid.model.HighlightEngine;
 import com.hironytic.moltonfdroid.model.HighlightSetting;
 import com.hironytic.moltonfdroid.model.StoryElement;
 import com.hironytic.moltonfdroid.model.StoryEvent;
 import com.hironytic.moltonfdroid.model.Talk;
+import com.hironytic.moltonfdroid.util.BitmapCache;
 import com.hironytic.moltonfdroid.util.BitmapHolder;
 import com.hironytic.moltonfdroid.util.Proc1;
 import com.hironytic.moltonfdroid.util.TimePart;
@@ -119,10 +118,30 @@ public class StoryElementListAdapter extends ArrayAdapter<StoryElement> implemen
 
         inflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         res = context.getResources();
-        defaultFaceIcon = BitmapFactory.decodeResource(res, R.drawable.default_face);
+        defaultFaceIcon = getDefaultFaceIcon(res);
         this.highlightSettingList = highlightSettingList;
     }
 
+    /**
+     * デフォルトの顔アイコンを返します。
+     * 一度デコードしたものはアプリ全体で共有する BitmapCache から返します。
+     * @param res リソース
+     * @return デフォルトの顔アイコン
+     */
+    private static Bitmap getDefaultFaceIcon(Resources res) {
+        int iconSize = res.getDimensionPixelSize(R.dimen.face_icon_size);
+        BitmapCache bitmapCache = Moltonf.getInstance().getBitmapCache();
+        String cacheKey = BitmapCache.makeKey("resource:default_face", iconSize, iconSize);
+        Bitmap bitmap = bitmapCache.get(cacheKey);
+        if (bitmap == null) {
+            bitmap = BitmapCache.decodeResource(res, R.drawable.default_face, iconSize, iconSize);
+            if (bitmap != null) {
+                bitmapCache.put(cacheKey, bitmap);
+            }
+        }
+        return bitmap;
+    }
+    
     /**
      * これ以上このオブジェクトを利用しないときに呼び出します。
      */
@@ -308,6 +327,7 @@ public class StoryElementListAdapter extends ArrayAdapter<StoryElement> implemen
      */
     private CharSequence makeMessageSequence(StoryElement storyElement) {
         SpannableStringBuilder buf = new SpannableStringBuilder();
+        HighlightEngine highlightEngine = HighlightEngine.getInstance(highlightSettingList);
         boolean isFirstLine = true;
         for (String line : storyElement.getMessageLines()) {
             if (!isFirstLine) {
@@ -316,19 +336,11 @@ public class StoryElementListAdapter extends ArrayAdapter<StoryElement> implemen
             int lineStart = buf.length();
             buf.append(line);
             
-            if (highlightSettingList != null) {
-                for (HighlightSetting highlightSetting : highlightSettingList) {
-                    if (!highlightSetting.isValid()) {
-                        continue;
-                    }
-                    
-                    Pattern pattern = highlightSetting.getPattern();
-                    Matcher matcher = pattern.matcher(line);
-                    while (matcher.find()) {
-                        buf.setSpan(new ForegroundColorSpan(highlightSetting.getHighlightColor()),
-                                matcher.start() + lineStart, matcher.end() + lineStart, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    }
-                }
+            HighlightEngine.SpanList spanList = highlightEngine.match(line);
+            for (int ix = 0; ix < spanList.size(); ++ix) {
+                int color = highlightEngine.getHighlightSetting(spanList.getSettingIndex(ix)).getHighlightColor();
+                buf.setSpan(new ForegroundColorSpan(color),
+                        spanList.getStart(ix) + lineStart, spanList.getEnd(ix) + lineStart, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
             }
             
             isFirstLine = false;
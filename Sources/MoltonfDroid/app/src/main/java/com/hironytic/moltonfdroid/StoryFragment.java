@@ -266,7 +266,8 @@ public class StoryFragment extends Fragment {
         
         if (!isRecreated) {
             // バックグラウンドで画像を用意
-            loadStoryImageTask = new LoadStoryImageTask();
+            int iconSize = getResources().getDimensionPixelSize(R.dimen.face_icon_size);
+            loadStoryImageTask = new LoadStoryImageTask(iconSize);
             loadStoryImageTask.execute(story);
         }
 
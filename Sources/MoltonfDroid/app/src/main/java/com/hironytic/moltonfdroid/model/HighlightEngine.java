@@ -0,0 +1,634 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonfdroid.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 複数の強調表示設定をまとめて、1 行の中で強調表示する範囲を求めるクラス。
+ *
+ * 正規表現の特殊文字を含まない設定 (「★」や「●」など) は Aho-Corasick 法のオートマトンにまとめ、
+ * それ以外の設定は 1 つの正規表現にまとめて、それぞれ行を 1 回走査するだけで済むようにします。
+ * 結果は各設定の Pattern で個別に Matcher#find() を繰り返したときと同じで、
+ * 範囲が重なる場合はリストの後ろにある設定が優先されます。
+ * 一度作成したオブジェクトは変更されないので、複数のスレッドから同時に使うことができます。
+ */
+public class HighlightEngine {
+
+    /** 正規表現の特殊文字 */
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+    
+    /** 強調表示設定がないときのオブジェクト */
+    private static final HighlightEngine EMPTY = new HighlightEngine(null);
+    
+    /** 最後に作成したオブジェクト */
+    private static HighlightEngine lastEngine = null;
+    
+    /** 有効な強調表示設定の配列 */
+    private final HighlightSetting[] settings;
+    
+    /** 作成したときの強調表示設定の内容。設定が変わったかどうかを調べるのに用いる */
+    private final List<Object> signature;
+    
+    /** オートマトンの各状態の遷移に用いる文字 (状態ごとに昇順) */
+    private char[][] gotoChars;
+    
+    /** オートマトンの各状態の遷移先 */
+    private int[][] gotoStates;
+    
+    /** オートマトンの各状態の失敗時の遷移先 */
+    private int[] failureStates;
+    
+    /** オートマトンの各状態で見つかる文字列の、literalSettingIndices のインデックス */
+    private int[][] outputs;
+    
+    /** オートマトンの初期状態から遷移できる文字 */
+    private final BitSet firstChars = new BitSet();
+    
+    /** オートマトンで探す各文字列の、強調表示設定のインデックス */
+    private int[] literalSettingIndices;
+    
+    /** オートマトンで探す各文字列の長さ */
+    private int[] literalLengths;
+    
+    /** 正規表現をまとめたパターン。なければ null */
+    private Pattern mergedPattern = null;
+    
+    /** mergedPattern の中で各正規表現を囲むグループの番号 */
+    private int[] mergedGroups;
+    
+    /** mergedPattern の中の各正規表現の、強調表示設定のインデックス */
+    private int[] mergedSettingIndices;
+    
+    /** まとめられずに個別に探す正規表現の、強調表示設定のインデックス */
+    private int[] separateSettingIndices;
+    
+    /**
+     * 強調表示する範囲のリスト。
+     * 範囲は重ならず、開始位置の順に並んでいます。
+     */
+    public static class SpanList {
+        /** 空のリスト */
+        public static final SpanList EMPTY = new SpanList(new int[0], 0, 0);
+        
+        /** 各範囲の開始位置、終了位置、強調表示設定のインデックスを順に並べた配列 */
+        private final int[] spans;
+        
+        /** 最初の範囲の、配列中の位置 */
+        private final int offset;
+        
+        /** 範囲の数 */
+        private final int size;
+        
+        /**
+         * コンストラクタ
+         * @param spans 各範囲の開始位置、終了位置、強調表示設定のインデックスを順に並べた配列
+         * @param offset 最初の範囲の、配列中の位置
+         * @param size 範囲の数
+         */
+        SpanList(int[] spans, int offset, int size) {
+            this.spans = spans;
+            this.offset = offset;
+            this.size = size;
+        }
+        
+        /**
+         * 範囲の数を返します。
+         * @return 範囲の数
+         */
+        public int size() {
+            return size;
+        }
+        
+        /**
+         * 範囲の開始位置を返します。
+         * @param index 範囲のインデックス
+         * @return 開始位置
+         */
+        public int getStart(int index) {
+            return spans[offset + index * 3];
+        }
+        
+        /**
+         * 範囲の終了位置を返します。
+         * @param index 範囲のインデックス
+         * @return 終了位置 (この位置の文字は含みません)
+         */
+        public int getEnd(int index) {
+            return spans[offset + index * 3 + 1];
+        }
+        
+        /**
+         * 範囲を強調表示する設定のインデックスを返します。
+         * @param index 範囲のインデックス
+         * @return HighlightEngine#getHighlightSetting(int) に渡すインデックス
+         */
+        public int getSettingIndex(int index) {
+            return spans[offset + index * 3 + 2];
+        }
+    }
+    
+    /**
+     * 強調表示設定のリストに対応するオブジェクトを返します。
+     * 前回と同じ内容の設定であれば、前回作成したものを返します。
+     * @param highlightSettingList 強調表示設定のリスト
+     * @return HighlightEngine
+     */
+    public static synchronized HighlightEngine getInstance(List<HighlightSetting> highlightSettingList) {
+        List<Object> signature = makeSignature(highlightSettingList);
+        if (signature.isEmpty()) {
+            return EMPTY;
+        }
+        if (lastEngine == null || !lastEngine.signature.equals(signature)) {
+            lastEngine = new HighlightEngine(highlightSettingList, signature);
+        }
+        return lastEngine;
+    }
+    
+    /**
+     * 強調表示設定のリストからオブジェクトを構築します。
+     * @param highlightSettingList 強調表示設定のリスト
+     */
+    public HighlightEngine(List<HighlightSetting> highlightSettingList) {
+        this(highlightSettingList, makeSignature(highlightSettingList));
+    }
+    
+    /**
+     * 強調表示設定のリストからオブジェクトを構築します。
+     * @param highlightSettingList 強調表示設定のリスト
+     * @param signature 強調表示設定の内容
+     */
+    private HighlightEngine(List<HighlightSetting> highlightSettingList, List<Object> signature) {
+        this.signature = signature;
+        
+        List<HighlightSetting> validSettingList = new ArrayList<HighlightSetting>();
+        if (highlightSettingList != null) {
+            for (HighlightSetting highlightSetting : highlightSettingList) {
+                if (highlightSetting.isValid()) {
+                    validSettingList.add(highlightSetting);
+                }
+            }
+        }
+        settings = validSettingList.toArray(new HighlightSetting[validSettingList.size()]);
+        
+        List<Integer> literalList = new ArrayList<Integer>();
+        List<Integer> regexList = new ArrayList<Integer>();
+        for (int ix = 0; ix < settings.length; ++ix) {
+            String patternString = settings[ix].getPatternString();
+            if (isLiteral(patternString)) {
+                // 空文字列は強調表示する文字がないので無視する
+                if (!patternString.isEmpty()) {
+                    literalList.add(ix);
+                }
+            } else {
+                regexList.add(ix);
+            }
+        }
+        buildAutomaton(literalList);
+        buildMergedPattern(regexList);
+    }
+    
+    /**
+     * 強調表示設定の内容を、比較できる形で取り出します。
+     * @param highlightSettingList 強調表示設定のリスト
+     * @return 強調表示設定の内容
+     */
+    private static List<Object> makeSignature(List<HighlightSetting> highlightSettingList) {
+        List<Object> signature = new ArrayList<Object>();
+        if (highlightSettingList != null) {
+            for (HighlightSetting highlightSetting : highlightSettingList) {
+                if (highlightSetting.isValid()) {
+                    signature.add(highlightSetting.getPatternString());
+                    signature.add(highlightSetting.getHighlightColor());
+                }
+            }
+        }
+        return signature;
+    }
+    
+    /**
+     * 正規表現の特殊文字を含まない文字列かどうかを調べます。
+     * @param patternString パターン文字列
+     * @return 特殊文字を含まなければ true
+     */
+    private static boolean isLiteral(String patternString) {
+        for (int ix = 0; ix < patternString.length(); ++ix) {
+            if (REGEX_META_CHARS.indexOf(patternString.charAt(ix)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 特殊文字を含まない設定の文字列から、Aho-Corasick 法のオートマトンを作成します。
+     * @param literalList 特殊文字を含まない設定のインデックスのリスト
+     */
+    private void buildAutomaton(List<Integer> literalList) {
+        literalSettingIndices = new int[literalList.size()];
+        literalLengths = new int[literalList.size()];
+        
+        // まずはトライ木を作る
+        List<StringBuilder> stateChars = new ArrayList<StringBuilder>();
+        List<List<Integer>> stateTargets = new ArrayList<List<Integer>>();
+        List<List<Integer>> stateOutputs = new ArrayList<List<Integer>>();
+        stateChars.add(new StringBuilder());
+        stateTargets.add(new ArrayList<Integer>());
+        stateOutputs.add(new ArrayList<Integer>());
+        for (int literalIndex = 0; literalIndex < literalList.size(); ++literalIndex) {
+            int settingIndex = literalList.get(literalIndex);
+            String literal = settings[settingIndex].getPatternString();
+            literalSettingIndices[literalIndex] = settingIndex;
+            literalLengths[literalIndex] = literal.length();
+            
+            int state = 0;
+            for (int ix = 0; ix < literal.length(); ++ix) {
+                char ch = literal.charAt(ix);
+                int charIndex = stateChars.get(state).indexOf(String.valueOf(ch));
+                if (charIndex >= 0) {
+                    state = stateTargets.get(state).get(charIndex);
+                } else {
+                    int newState = stateChars.size();
+                    stateChars.add(new StringBuilder());
+                    stateTargets.add(new ArrayList<Integer>());
+                    stateOutputs.add(new ArrayList<Integer>());
+                    stateChars.get(state).append(ch);
+                    stateTargets.get(state).add(newState);
+                    state = newState;
+                }
+            }
+            stateOutputs.get(state).add(literalIndex);
+        }
+        
+        // 遷移を探しやすいように文字の順に並べておく
+        int stateCount = stateChars.size();
+        gotoChars = new char[stateCount][];
+        gotoStates = new int[stateCount][];
+        for (int state = 0; state < stateCount; ++state) {
+            String chars = stateChars.get(state).toString();
+            char[] sortedChars = chars.toCharArray();
+            Arrays.sort(sortedChars);
+            int[] targets = new int[sortedChars.length];
+            for (int ix = 0; ix < sortedChars.length; ++ix) {
+                targets[ix] = stateTargets.get(state).get(chars.indexOf(sortedChars[ix]));
+            }
+            gotoChars[state] = sortedChars;
+            gotoStates[state] = targets;
+        }
+        for (char ch : gotoChars[0]) {
+            firstChars.set(ch);
+        }
+        
+        // 幅優先で失敗時の遷移先を求め、その状態で見つかる文字列も引き継ぐ
+        failureStates = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int queueHead = 0;
+        int queueTail = 0;
+        for (int target : gotoStates[0]) {
+            failureStates[target] = 0;
+            queue[queueTail++] = target;
+        }
+        while (queueHead < queueTail) {
+            int state = queue[queueHead++];
+            for (int ix = 0; ix < gotoChars[state].length; ++ix) {
+                char ch = gotoChars[state][ix];
+                int target = gotoStates[state][ix];
+                int failure = failureStates[state];
+                int next;
+                while ((next = findGoto(failure, ch)) < 0 && failure != 0) {
+                    failure = failureStates[failure];
+                }
+                failureStates[target] = (next >= 0) ? next : 0;
+                stateOutputs.get(target).addAll(stateOutputs.get(failureStates[target]));
+                queue[queueTail++] = target;
+            }
+        }
+        
+        outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; ++state) {
+            List<Integer> outputList = stateOutputs.get(state);
+            outputs[state] = new int[outputList.size()];
+            for (int ix = 0; ix < outputList.size(); ++ix) {
+                outputs[state][ix] = outputList.get(ix);
+            }
+        }
+    }
+    
+    /**
+     * オートマトンの遷移先を探します。
+     * @param state 状態
+     * @param ch 文字
+     * @return 遷移先の状態。遷移できなければ -1
+     */
+    private int findGoto(int state, char ch) {
+        int ix = Arrays.binarySearch(gotoChars[state], ch);
+        return (ix >= 0) ? gotoStates[state][ix] : -1;
+    }
+    
+    /**
+     * 特殊文字を含む設定の正規表現を 1 つのパターンにまとめます。
+     * 各正規表現を、キャプチャするグループを持つ先読み (?=(...)?) で囲んで並べることで、
+     * 1 回の走査で各位置から始まるそれぞれのマッチを得られるようにします。
+     * 後方参照や \G を含むものや、まとめるとコンパイルできないものは個別に探します。
+     * @param regexList 特殊文字を含む設定のインデックスのリスト
+     */
+    private void buildMergedPattern(List<Integer> regexList) {
+        List<Integer> mergedList = new ArrayList<Integer>();
+        List<Integer> separateList = new ArrayList<Integer>();
+        StringBuilder mergedPatternString = new StringBuilder();
+        List<Integer> groupList = new ArrayList<Integer>();
+        int groupNumber = 1;
+        for (int settingIndex : regexList) {
+            HighlightSetting highlightSetting = settings[settingIndex];
+            String patternString = highlightSetting.getPatternString();
+            if (!isMergeable(patternString)) {
+                separateList.add(settingIndex);
+                continue;
+            }
+            
+            mergedPatternString.append("(?=(").append(patternString).append(")?)");
+            mergedList.add(settingIndex);
+            groupList.add(groupNumber);
+            groupNumber += 1 + highlightSetting.getPattern().matcher("").groupCount();
+        }
+        
+        if (!mergedList.isEmpty()) {
+            try {
+                mergedPattern = Pattern.compile(mergedPatternString.toString());
+            } catch (PatternSyntaxException ex) {
+                mergedPattern = null;
+                separateList.addAll(mergedList);
+                mergedList.clear();
+                groupList.clear();
+            }
+        }
+        
+        mergedSettingIndices = toIntArray(mergedList);
+        mergedGroups = toIntArray(groupList);
+        separateSettingIndices = toIntArray(separateList);
+        Arrays.sort(separateSettingIndices);
+    }
+    
+    /**
+     * 正規表現を他の正規表現とまとめられるかどうかを調べます。
+     * グループの番号が変わると意味が変わるもの (後方参照) と、
+     * 直前のマッチの位置に依存するもの (\G) はまとめられません。
+     * @param patternString 正規表現
+     * @return まとめられるなら true
+     */
+    private static boolean isMergeable(String patternString) {
+        for (int ix = 0; ix < patternString.length() - 1; ++ix) {
+            if (patternString.charAt(ix) == '\\') {
+                char next = patternString.charAt(ix + 1);
+                if ((next >= '1' && next <= '9') || next == 'k' || next == 'G') {
+                    return false;
+                }
+                ++ix;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Integer のリストを int の配列に変換します。
+     * @param list リスト
+     * @return 配列
+     */
+    private static int[] toIntArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int ix = 0; ix < array.length; ++ix) {
+            array[ix] = list.get(ix);
+        }
+        return array;
+    }
+    
+    /**
+     * 強調表示設定のリストが、このオブジェクトを作成したときと同じ内容かどうかを調べます。
+     * @param highlightSettingList 強調表示設定のリスト
+     * @return 有効な設定のパターンと色が同じなら true
+     */
+    public boolean isSameSettings(List<HighlightSetting> highlightSettingList) {
+        return signature.equals(makeSignature(highlightSettingList));
+    }
+    
+    /**
+     * 有効な強調表示設定の数を返します。
+     * @return 有効な強調表示設定の数
+     */
+    public int getSettingCount() {
+        return settings.length;
+    }
+    
+    /**
+     * 強調表示設定を返します。
+     * @param settingIndex SpanList#getSettingIndex(int) が返すインデックス
+     * @return 強調表示設定
+     */
+    public HighlightSetting getHighlightSetting(int settingIndex) {
+        return settings[settingIndex];
+    }
+    
+    /**
+     * 強調表示設定が 1 つもないかどうかを返します。
+     * @return 有効な強調表示設定がなければ true
+     */
+    public boolean isEmpty() {
+        return settings.length == 0;
+    }
+    
+    /**
+     * 1 行の中で強調表示する範囲を求めます。
+     * @param line 行
+     * @return 強調表示する範囲のリスト
+     */
+    public SpanList match(CharSequence line) {
+        if (settings.length == 0 || line.length() == 0) {
+            return SpanList.EMPTY;
+        }
+        
+        MatchState matchState = new MatchState(line.length());
+        matchLiterals(line, matchState);
+        matchMergedPattern(line, matchState);
+        for (int settingIndex : separateSettingIndices) {
+            Matcher matcher = settings[settingIndex].getPattern().matcher(line);
+            while (matcher.find()) {
+                matchState.addMatch(settingIndex, matcher.start(), matcher.end());
+            }
+        }
+        return matchState.toSpanList();
+    }
+    
+    /**
+     * オートマトンで特殊文字を含まない設定の文字列を探します。
+     * 各設定について、前に見つかった範囲と重なるものは Matcher#find() と同じく無視します。
+     * @param line 行
+     * @param matchState 見つかった範囲を記録するオブジェクト
+     */
+    private void matchLiterals(CharSequence line, MatchState matchState) {
+        if (literalLengths.length == 0) {
+            return;
+        }
+        
+        int length = line.length();
+        int state = 0;
+        for (int ix = 0; ix < length; ++ix) {
+            char ch = line.charAt(ix);
+            if (state == 0 && !firstChars.get(ch)) {
+                continue;
+            }
+            
+            int next;
+            while ((next = findGoto(state, ch)) < 0 && state != 0) {
+                state = failureStates[state];
+            }
+            state = (next >= 0) ? next : 0;
+            for (int literalIndex : outputs[state]) {
+                int settingIndex = literalSettingIndices[literalIndex];
+                int start = ix + 1 - literalLengths[literalIndex];
+                if (start >= matchState.getLastEnd(settingIndex)) {
+                    matchState.addMatch(settingIndex, start, ix + 1);
+                }
+            }
+        }
+    }
+    
+    /**
+     * まとめた正規表現で、特殊文字を含む設定の正規表現を探します。
+     * 各位置で得られたマッチのうち、その設定で前に見つかった範囲と重ならないものを採用します。
+     * @param line 行
+     * @param matchState 見つかった範囲を記録するオブジェクト
+     */
+    private void matchMergedPattern(CharSequence line, MatchState matchState) {
+        if (mergedPattern == null) {
+            return;
+        }
+        
+        Matcher matcher = mergedPattern.matcher(line);
+        while (matcher.find()) {
+            for (int ix = 0; ix < mergedGroups.length; ++ix) {
+                int start = matcher.start(mergedGroups[ix]);
+                if (start < 0) {
+                    continue;
+                }
+                int settingIndex = mergedSettingIndices[ix];
+                int end = matcher.end(mergedGroups[ix]);
+                if (end > start && start >= matchState.getLastEnd(settingIndex)) {
+                    matchState.addMatch(settingIndex, start, end);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 1 行分の、見つかった範囲を記録するクラス
+     */
+    private class MatchState {
+        /** 行の長さ */
+        private final int length;
+        
+        /** 各文字を強調表示する設定のインデックス。なければ -1。まだ何も見つかっていなければ null */
+        private int[] owners = null;
+        
+        /** 各設定で最後に見つかった範囲の終了位置 */
+        private final int[] lastEnds;
+        
+        /**
+         * コンストラクタ
+         * @param length 行の長さ
+         */
+        public MatchState(int length) {
+            this.length = length;
+            lastEnds = new int[settings.length];
+        }
+        
+        /**
+         * 設定で最後に見つかった範囲の終了位置を返します。
+         * @param settingIndex 設定のインデックス
+         * @return 終了位置。まだ見つかっていなければ 0
+         */
+        public int getLastEnd(int settingIndex) {
+            return lastEnds[settingIndex];
+        }
+        
+        /**
+         * 見つかった範囲を記録します。
+         * 他の設定の範囲と重なる文字は、インデックスの大きい (リストの後ろにある) 設定のものにします。
+         * @param settingIndex 設定のインデックス
+         * @param start 開始位置
+         * @param end 終了位置
+         */
+        public void addMatch(int settingIndex, int start, int end) {
+            if (owners == null) {
+                owners = new int[length];
+                Arrays.fill(owners, -1);
+            }
+            for (int ix = start; ix < end; ++ix) {
+                if (owners[ix] < settingIndex) {
+                    owners[ix] = settingIndex;
+                }
+            }
+            lastEnds[settingIndex] = end;
+        }
+        
+        /**
+         * 記録した範囲から SpanList を作成します。
+         * @return 強調表示する範囲のリスト
+         */
+        public SpanList toSpanList() {
+            if (owners == null) {
+                return SpanList.EMPTY;
+            }
+            
+            int[] spans = new int[12];
+            int size = 0;
+            int ix = 0;
+            while (ix < length) {
+                int owner = owners[ix];
+                int start = ix;
+                while (ix < length && owners[ix] == owner) {
+                    ++ix;
+                }
+                if (owner < 0) {
+                    continue;
+                }
+                if (size * 3 + 3 > spans.length) {
+                    spans = Arrays.copyOf(spans, spans.length * 2);
+                }
+                spans[size * 3] = start;
+                spans[size * 3 + 1] = ix;
+                spans[size * 3 + 2] = owner;
+                ++size;
+            }
+            return new SpanList(spans, 0, size);
+        }
+    }
+}
@@ -42,7 +42,6 @@ import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
 import com.hironytic.moltonfdroid.MoltonfException;
-import com.hironytic.moltonfdroid.util.QName;
 
 /**
  * プレイデータアーカイブXMLファイルをパッケージ化されたプレイデータアーカイブXMLファイル群に変換するクラス
@@ -98,8 +97,8 @@ public class ArchiveToPackageConverter {
             staxReader.setInput(archiveReader);
             for (int eventType = staxReader.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = staxReader.next()) {
                 if (eventType == XmlPullParser.START_TAG) {
-                    QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                    if (SchemaConstants.NAME_VILLAGE.contains(elemName)) {
+                    int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                    if (elemCode == SchemaNameTable.ELEM_VILLAGE) {
                         convertVillageElement(staxReader);
                     } else {
                         throw new MoltonfException("Not a bbs play-data archive.");
@@ -143,8 +142,8 @@ public class ArchiveToPackageConverter {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_PERIOD.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_PERIOD) {
                     convertPeriodElement(staxReader, villageSerializer);
                 } else {
                     convertGeneralElement(staxReader, villageSerializer);
@@ -61,8 +61,8 @@ import com.hironytic.moltonfdroid.model.basic.BasicStoryEvent;
 import com.hironytic.moltonfdroid.model.basic.BasicStoryPeriod;
 import com.hironytic.moltonfdroid.model.basic.BasicTalk;
 import com.hironytic.moltonfdroid.model.basic.BasicWolfAttackTalk;
-import com.hironytic.moltonfdroid.util.QName;
 import com.hironytic.moltonfdroid.util.SmartUtils;
+import com.hironytic.moltonfdroid.util.TimeParser;
 import com.hironytic.moltonfdroid.util.TimePart;
 
 /**
@@ -93,8 +93,8 @@ public class ArchivedStory extends BasicStory implements Story {
             try {
                 for (int eventType = staxReader.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = staxReader.next()) {
                     if (eventType == XmlPullParser.START_TAG) {
-                        QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                        if (SchemaConstants.NAME_VILLAGE.contains(elemName)) {
+                        int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                        if (elemCode == SchemaNameTable.ELEM_VILLAGE) {
                             loadVillageElement(staxReader);
                         } else {
                             throw new MoltonfException("Not a bbs play-data archive.");
@@ -127,8 +127,8 @@ public class ArchivedStory extends BasicStory implements Story {
     private void loadVillageElement(XmlPullParser staxReader) throws XmlPullParserException, IOException {
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_BASE.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_BASE) {
                 String baseUriString = staxReader.getAttributeValue(ix);
                 if (!SmartUtils.isStringEmpty(baseUriString)) {
                     try {
@@ -137,13 +137,13 @@ public class ArchivedStory extends BasicStory implements Story {
                         baseUri = null;
                     }
                 }
-            } else if (SchemaConstants.NAME_STATE.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_STATE) {
                 String villageStateString = staxReader.getAttributeValue(ix);
                 setVillageState(toVillageState(villageStateString));
-            } else if (SchemaConstants.NAME_FULL_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FULL_NAME) {
                 String villageFullName = staxReader.getAttributeValue(ix);
                 setVillageFullName(villageFullName);
-            } else if (SchemaConstants.NAME_GRAVE_ICON_URI.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_GRAVE_ICON_URI) {
                 String graveIconUriString = staxReader.getAttributeValue(ix);
                 URI graveIconUri;
                 try {
@@ -167,10 +167,10 @@ public class ArchivedStory extends BasicStory implements Story {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_AVATAR_LIST.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_AVATAR_LIST) {
                     setAvatarList(loadAvatarList(staxReader));
-                } else if (SchemaConstants.NAME_PERIOD.contains(elemName)) {
+                } else if (elemCode == SchemaNameTable.ELEM_PERIOD) {
                     periodList.add(loadPeriod(staxReader));
                 } else {
                     skipElement(staxReader);
@@ -219,8 +219,8 @@ public class ArchivedStory extends BasicStory implements Story {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_AVATAR.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_AVATAR) {
                     avatarList.add(loadAvatar(staxReader));
                 } else {
                     skipElement(staxReader);
@@ -244,14 +244,14 @@ public class ArchivedStory extends BasicStory implements Story {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 avatar.setAvatarId(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_FULL_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FULL_NAME) {
                 avatar.setFullName(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_SHORT_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_SHORT_NAME) {
                 avatar.setShortName(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_FACE_ICON_URI.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FACE_ICON_URI) {
                 String faceIconUriString = staxReader.getAttributeValue(ix);
                 URI faceIconUri;
                 try {
@@ -296,11 +296,11 @@ public class ArchivedStory extends BasicStory implements Story {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_TYPE.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_TYPE) {
                 String periodTypeString = staxReader.getAttributeValue(ix);
                 period.setPeriodType(toPeriodType(periodTypeString));
-            } else if (SchemaConstants.NAME_DAY.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_DAY) {
                 String dayString = staxReader.getAttributeValue(ix);
                 try {
                     int day = Integer.parseInt(dayString);
@@ -311,45 +311,17 @@ public class ArchivedStory extends BasicStory implements Story {
             }
         }
         
-        @SuppressWarnings("unchecked")
-        final List<QName> eventAnnounceGroup = SmartUtils.concatLists(
-            SchemaConstants.NAME_START_ENTRY, SchemaConstants.NAME_ON_STAGE,
-            SchemaConstants.NAME_START_MIRROR, SchemaConstants.NAME_OPEN_ROLE,
-            SchemaConstants.NAME_MURDERED, SchemaConstants.NAME_START_ASSAULT,
-            SchemaConstants.NAME_SURVIVOR, SchemaConstants.NAME_COUNTING,
-            SchemaConstants.NAME_SUDDEN_DEATH, SchemaConstants.NAME_NO_MURDER,
-            SchemaConstants.NAME_WIN_VILLAGE, SchemaConstants.NAME_WIN_WOLF,
-            SchemaConstants.NAME_WIN_HAMSTER, SchemaConstants.NAME_PLAYER_LIST,
-            SchemaConstants.NAME_PANIC
-        );
-
-        @SuppressWarnings("unchecked")
-        final List<QName> eventOrderGroup = SmartUtils.concatLists(
-            SchemaConstants.NAME_ASK_ENTRY, SchemaConstants.NAME_ASK_COMMIT,
-            SchemaConstants.NAME_NO_COMMENT, SchemaConstants.NAME_STAY_EPILOGUE,
-            SchemaConstants.NAME_GAME_OVER
-        );
-
-        @SuppressWarnings("unchecked")
-        final List<QName> eventExtraGroup = SmartUtils.concatLists(
-            SchemaConstants.NAME_JUDGE, SchemaConstants.NAME_GUARD
-        );
-        
         // 子ノード
         for (int eventType = staxReader.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = staxReader.next()) {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_TALK.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_TALK) {
                     elementList.add(loadTalk(staxReader, period));
-                } else if (eventAnnounceGroup.contains(elemName)) {
-                    elementList.add(loadStoryEvent(staxReader, period, EventFamily.ANNOUNCE));
-                } else if (eventOrderGroup.contains(elemName)) {
-                    elementList.add(loadStoryEvent(staxReader, period, EventFamily.ORDER));
-                } else if (eventExtraGroup.contains(elemName)) {
-                    elementList.add(loadStoryEvent(staxReader, period, EventFamily.EXTRA));
-                } else if (SchemaConstants.NAME_ASSAULT.contains(elemName)) {
+                } else if (SchemaNameTable.toEventFamily(elemCode) != null) {
+                    elementList.add(loadStoryEvent(staxReader, period, SchemaNameTable.toEventFamily(elemCode)));
+                } else if (elemCode == SchemaNameTable.ELEM_ASSAULT) {
                     elementList.add(loadAssault(staxReader, period));
                 } else {
                     skipElement(staxReader);
@@ -395,19 +367,19 @@ public class ArchivedStory extends BasicStory implements Story {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_TYPE.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_TYPE) {
                 String talkTypeString = staxReader.getAttributeValue(ix);
                 talk.setTalkType(toTalkType(talkTypeString));
-            } else if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 // スキーマとして avatarList が先に登場することが保証されているので
                 // 正しいデータならこの時点で avatarMap は作成済み。
                 String avatarId = staxReader.getAttributeValue(ix);
                 Avatar avatar = avatarMap.get(avatarId);
                 talk.setSpeaker(avatar);
-            } else if (SchemaConstants.NAME_TIME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_TIME) {
                 String timeString = staxReader.getAttributeValue(ix);
-                TimePart timePart = parseTime(timeString);
+                TimePart timePart = TimeParser.parse(timeString);
                 talk.setTime(timePart);
             }
         }
@@ -419,8 +391,8 @@ public class ArchivedStory extends BasicStory implements Story {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_LI.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi(staxReader));
                 } else {
                     skipElement(staxReader);
@@ -469,18 +441,17 @@ public class ArchivedStory extends BasicStory implements Story {
         storyEvent.setEventFamily(eventFamily);
 
         List<String> messageLines = new ArrayList<String>();
-        QName storyEventElemName = new QName(staxReader.getNamespace(), staxReader.getName());
+        boolean isPlayerList = (SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName()) == SchemaNameTable.ELEM_PLAYER_LIST);
         
         // 子ノード
         for (int eventType = staxReader.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = staxReader.next()) {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_LI.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi(staxReader));
-                } else if (SchemaConstants.NAME_PLAYER_LIST.contains(storyEventElemName) &&
-                        SchemaConstants.NAME_PLAYER_INFO.contains(elemName)) {
+                } else if (isPlayerList && elemCode == SchemaNameTable.ELEM_PLAYER_INFO) {
                     loadPlayerInfo(staxReader);
                 } else {
                     skipElement(staxReader);
@@ -508,10 +479,10 @@ public class ArchivedStory extends BasicStory implements Story {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 avatarId = staxReader.getAttributeValue(ix);
-            } else if (SchemaConstants.NAME_ROLE.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_ROLE) {
                 roleString = staxReader.getAttributeValue(ix);
             }
             if (avatarId != null && roleString != null) {
@@ -576,16 +547,16 @@ public class ArchivedStory extends BasicStory implements Story {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_BY_WHOM.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_BY_WHOM) {
                 // スキーマとして avatarList が先に登場することが保証されているので
                 // 正しいデータならこの時点で avatarMap は作成済み。
                 String avatarId = staxReader.getAttributeValue(ix);
                 Avatar avatar = avatarMap.get(avatarId);
                 talk.setSpeaker(avatar);
-            } else if (SchemaConstants.NAME_TIME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_TIME) {
                 String timeString = staxReader.getAttributeValue(ix);
-                TimePart timePart = parseTime(timeString);
+                TimePart timePart = TimeParser.parse(timeString);
                 talk.setTime(timePart);
             }
         }
@@ -597,8 +568,8 @@ public class ArchivedStory extends BasicStory implements Story {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_LI.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi(staxReader));
                 } else {
                     skipElement(staxReader);
@@ -626,8 +597,8 @@ public class ArchivedStory extends BasicStory implements Story {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_RAWDATA.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_RAWDATA) {
                     loadRawdata(staxReader, buf);
                 } else {
                     skipElement(staxReader);
@@ -669,76 +640,6 @@ public class ArchivedStory extends BasicStory implements Story {
         }
     }
     
-    /**
-     * 時刻文字列を解析します。
-     * @param timeString 時刻文字列
-     * @return 解析結果を格納した TimePart オブジェクト
-     */
-    private TimePart parseTime(String timeString) {
-// DatatypeFactory は Level-8 の API なので使えない。
-//        if (datatypeFactory == null) {
-//            try {
-//                datatypeFactory = DatatypeFactory.newInstance();
-//            } catch (DatatypeConfigurationException ex) {
-//                throw new MoltonfException(ex);
-//            }
-//        }
-//        
-//        XMLGregorianCalendar xmlCalendar;
-//        try {
-//            xmlCalendar = datatypeFactory.newXMLGregorianCalendar(timeString);
-//        } catch (IllegalArgumentException ex) {
-//            return null;
-//        }
-//        
-//        int hour = xmlCalendar.getHour();
-//        if (hour == DatatypeConstants.FIELD_UNDEFINED) {
-//            hour = 0;
-//        }
-//        int minute = xmlCalendar.getMinute();
-//        if (minute == DatatypeConstants.FIELD_UNDEFINED) {
-//            minute = 0;
-//        }
-//        int second = xmlCalendar.getSecond();
-//        if (second == DatatypeConstants.FIELD_UNDEFINED) {
-//            second = 0;
-//        }
-//        int millisecond = xmlCalendar.getMillisecond();
-//        if (millisecond == DatatypeConstants.FIELD_UNDEFINED) {
-//            millisecond = 0;
-//        }
-//        return new TimePart(hour, minute, second, millisecond);
-        
-        // ある程度適当に解析
-        // hh ':' mm ':' ss ('.' s+)? (zzzzzz)?
-        //        -- see http://www.w3.org/TR/xmlschema-2/#dateTime
-        if (timeString.length() < 8) {
-            return null;
-        }
-        try {
-            int hour = Integer.parseInt(timeString.substring(0, 2));
-            int minute = Integer.parseInt(timeString.substring(3, 5));
-            int second = Integer.parseInt(timeString.substring(6, 8));
-            int millisecond = 0;
-            if (timeString.length() > 8 && timeString.charAt(8) == '.') {
-                int ix = 9;
-                for (int factor = 1000; factor > 0; factor /= 10) {
-                    if (timeString.length() < ix) {
-                        break;
-                    }
-                    char ch = timeString.charAt(ix);
-                    if (ch < '0' || ch > '9') {
-                        break;
-                    }
-                    millisecond += (int)(ch - '0') * factor;
-                }
-            }
-            return new TimePart(hour, minute, second, millisecond);
-        } catch (NumberFormatException ex) {
-            return null;
-        }
-    }    
-
     /**
      * 現在の要素以下をスキップします
      * @throws XmlPullParserException 読み込み中にエラーが発生した場合
@@ -50,7 +50,6 @@ import com.hironytic.moltonfdroid.model.StoryPeriod;
 import com.hironytic.moltonfdroid.model.VillageState;
 import com.hironytic.moltonfdroid.model.basic.BasicAvatar;
 import com.hironytic.moltonfdroid.model.basic.BasicStory;
-import com.hironytic.moltonfdroid.util.QName;
 import com.hironytic.moltonfdroid.util.SmartUtils;
 import com.hironytic.moltonfdroid.util.XmlUtils;
 
@@ -111,8 +110,8 @@ public class PackagedStory extends BasicStory implements Story {
             try {
                 for (int eventType = staxReader.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = staxReader.next()) {
                     if (eventType == XmlPullParser.START_TAG) {
-                        QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                        if (SchemaConstants.NAME_VILLAGE.contains(elemName)) {
+                        int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                        if (elemCode == SchemaNameTable.ELEM_VILLAGE) {
                             loadVillageElement(staxReader, villageFile);
                         } else {
                             throw new MoltonfException("Not a bbs play-data archive.");
@@ -159,8 +158,8 @@ public class PackagedStory extends BasicStory implements Story {
     private void loadVillageElement(XmlPullParser staxReader, File villageFile) throws XmlPullParserException, IOException {
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_BASE.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_BASE) {
                 String baseUriString = staxReader.getAttributeValue(ix);
                 if (!SmartUtils.isStringEmpty(baseUriString)) {
                     try {
@@ -169,13 +168,13 @@ public class PackagedStory extends BasicStory implements Story {
                         baseUri = null;
                     }
                 }
-            } else if (SchemaConstants.NAME_STATE.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_STATE) {
                 String villageStateString = staxReader.getAttributeValue(ix);
                 setVillageState(toVillageState(villageStateString));
-            } else if (SchemaConstants.NAME_FULL_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FULL_NAME) {
                 String villageFullName = staxReader.getAttributeValue(ix);
                 setVillageFullName(villageFullName);
-            } else if (SchemaConstants.NAME_GRAVE_ICON_URI.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_GRAVE_ICON_URI) {
                 String graveIconUriString = staxReader.getAttributeValue(ix);
                 URI graveIconUri;
                 try {
@@ -199,10 +198,10 @@ public class PackagedStory extends BasicStory implements Story {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_AVATAR_LIST.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_AVATAR_LIST) {
                     setAvatarList(loadAvatarList(staxReader));
-                } else if (SchemaConstants.NAME_PERIOD.contains(elemName)) {
+                } else if (elemCode == SchemaNameTable.ELEM_PERIOD) {
                     StoryPeriod period = PackagedStoryPeriod.loadVillagePeriod(villageFile, staxReader);
                     period.setStory(this);
                     periodList.add(period);
@@ -253,8 +252,8 @@ public class PackagedStory extends BasicStory implements Story {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_AVATAR.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_AVATAR) {
                     avatarList.add(loadAvatar(staxReader));
                 } else {
                     XmlUtils.skipElement(staxReader);
@@ -278,14 +277,14 @@ public class PackagedStory extends BasicStory implements Story {
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 avatar.setAvatarId(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_FULL_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FULL_NAME) {
                 avatar.setFullName(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_SHORT_NAME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_SHORT_NAME) {
                 avatar.setShortName(staxReader.getAttributeValue(ix));
-            } else if (SchemaConstants.NAME_FACE_ICON_URI.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_FACE_ICON_URI) {
                 String faceIconUriString = staxReader.getAttributeValue(ix);
                 URI faceIconUri;
                 try {
@@ -55,8 +55,7 @@ import com.hironytic.moltonfdroid.model.basic.BasicStoryEvent;
 import com.hironytic.moltonfdroid.model.basic.BasicStoryPeriod;
 import com.hironytic.moltonfdroid.model.basic.BasicTalk;
 import com.hironytic.moltonfdroid.model.basic.BasicWolfAttackTalk;
-import com.hironytic.moltonfdroid.util.QName;
-import com.hironytic.moltonfdroid.util.SmartUtils;
+import com.hironytic.moltonfdroid.util.TimeParser;
 import com.hironytic.moltonfdroid.util.TimePart;
 import com.hironytic.moltonfdroid.util.XmlUtils;
 
@@ -117,8 +116,8 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
             try {
                 for (int eventType = staxReader.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = staxReader.next()) {
                     if (eventType == XmlPullParser.START_TAG) {
-                        QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                        if (SchemaConstants.NAME_PERIOD.contains(elemName)) {
+                        int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                        if (elemCode == SchemaNameTable.ELEM_PERIOD) {
                             loadPeriod(staxReader, false, null);
                         } else {
                             throw new MoltonfException("Not a bbs play-data archive.");
@@ -158,11 +157,11 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_TYPE.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_TYPE) {
                 String periodTypeString = staxReader.getAttributeValue(ix);
                 setPeriodType(toPeriodType(periodTypeString));
-            } else if (SchemaConstants.NAME_DAY.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_DAY) {
                 String dayString = staxReader.getAttributeValue(ix);
                 try {
                     int day = Integer.parseInt(dayString);
@@ -171,7 +170,7 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
                     Moltonf.getInstance().getLogger().warning("invalid period day: " + dayString);
                 }
             } else if (isVillage) {
-                if (SchemaConstants.NAME_XLINK_HREF.equals(attrName)) {
+                if (attrCode == SchemaNameTable.ATTR_XLINK_HREF) {
                     String periodFilePath = staxReader.getAttributeValue(ix);
                     URI periodFileURI = villageFile.getParentFile().toURI().resolve(periodFilePath);
                     this.periodFile = new File(periodFileURI);
@@ -197,44 +196,16 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
             }
         } else {
             // period-x.xmlを読み込んでいるときは子ノードをまじめに読み込む。
-            @SuppressWarnings("unchecked")
-            final List<QName> eventAnnounceGroup = SmartUtils.concatLists(
-                SchemaConstants.NAME_START_ENTRY, SchemaConstants.NAME_ON_STAGE,
-                SchemaConstants.NAME_START_MIRROR, SchemaConstants.NAME_OPEN_ROLE,
-                SchemaConstants.NAME_MURDERED, SchemaConstants.NAME_START_ASSAULT,
-                SchemaConstants.NAME_SURVIVOR, SchemaConstants.NAME_COUNTING,
-                SchemaConstants.NAME_SUDDEN_DEATH, SchemaConstants.NAME_NO_MURDER,
-                SchemaConstants.NAME_WIN_VILLAGE, SchemaConstants.NAME_WIN_WOLF,
-                SchemaConstants.NAME_WIN_HAMSTER, SchemaConstants.NAME_PLAYER_LIST,
-                SchemaConstants.NAME_PANIC
-            );
-
-            @SuppressWarnings("unchecked")
-            final List<QName> eventOrderGroup = SmartUtils.concatLists(
-                SchemaConstants.NAME_ASK_ENTRY, SchemaConstants.NAME_ASK_COMMIT,
-                SchemaConstants.NAME_NO_COMMENT, SchemaConstants.NAME_STAY_EPILOGUE,
-                SchemaConstants.NAME_GAME_OVER
-            );
-            
-            @SuppressWarnings("unchecked")
-            final List<QName> eventExtraGroup = SmartUtils.concatLists(
-                SchemaConstants.NAME_JUDGE, SchemaConstants.NAME_GUARD
-            );
-            
             for (int eventType = staxReader.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = staxReader.next()) {
                 if (eventType == XmlPullParser.END_TAG) {
                     break;
                 } else if (eventType == XmlPullParser.START_TAG) {
-                    QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                    if (SchemaConstants.NAME_TALK.contains(elemName)) {
+                    int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                    if (elemCode == SchemaNameTable.ELEM_TALK) {
                         elementList.add(loadTalk(staxReader));
-                    } else if (eventAnnounceGroup.contains(elemName)) {
-                        elementList.add(loadStoryEvent(staxReader, EventFamily.ANNOUNCE));
-                    } else if (eventOrderGroup.contains(elemName)) {
-                        elementList.add(loadStoryEvent(staxReader, EventFamily.ORDER));
-                    } else if (eventExtraGroup.contains(elemName)) {
-                        elementList.add(loadStoryEvent(staxReader, EventFamily.EXTRA));
-                    } else if (SchemaConstants.NAME_ASSAULT.contains(elemName)) {
+                    } else if (SchemaNameTable.toEventFamily(elemCode) != null) {
+                        elementList.add(loadStoryEvent(staxReader, SchemaNameTable.toEventFamily(elemCode)));
+                    } else if (elemCode == SchemaNameTable.ELEM_ASSAULT) {
                         elementList.add(loadAssault(staxReader));
                     } else {
                         XmlUtils.skipElement(staxReader);
@@ -279,18 +250,18 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_TYPE.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_TYPE) {
                 String talkTypeString = staxReader.getAttributeValue(ix);
                 talk.setTalkType(toTalkType(talkTypeString));
-            } else if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 // ここに来る時点で Story の avatarList が作成済みであることを想定
                 String avatarId = staxReader.getAttributeValue(ix);
                 Avatar avatar = getStory().getAvatar(avatarId);
                 talk.setSpeaker(avatar);
-            } else if (SchemaConstants.NAME_TIME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_TIME) {
                 String timeString = staxReader.getAttributeValue(ix);
-                TimePart timePart = XmlUtils.parseTime(timeString);
+                TimePart timePart = TimeParser.parse(timeString);
                 talk.setTime(timePart);
             }
         }
@@ -302,8 +273,8 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_LI.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi(staxReader));
                 } else {
                     XmlUtils.skipElement(staxReader);
@@ -351,18 +322,17 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
         storyEvent.setEventFamily(eventFamily);
 
         List<String> messageLines = new ArrayList<String>();
-        QName storyEventElemName = new QName(staxReader.getNamespace(), staxReader.getName());
+        boolean isPlayerList = (SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName()) == SchemaNameTable.ELEM_PLAYER_LIST);
         
         // 子ノード
         for (int eventType = staxReader.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = staxReader.next()) {
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_LI.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi(staxReader));
-                } else if (SchemaConstants.NAME_PLAYER_LIST.contains(storyEventElemName) &&
-                        SchemaConstants.NAME_PLAYER_INFO.contains(elemName)) {
+                } else if (isPlayerList && elemCode == SchemaNameTable.ELEM_PLAYER_INFO) {
                     loadPlayerInfo(staxReader);
                 } else {
                     XmlUtils.skipElement(staxReader);
@@ -390,10 +360,10 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_AVATAR_ID.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_AVATAR_ID) {
                 avatarId = staxReader.getAttributeValue(ix);
-            } else if (SchemaConstants.NAME_ROLE.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_ROLE) {
                 roleString = staxReader.getAttributeValue(ix);
             }
             if (avatarId != null && roleString != null) {
@@ -456,15 +426,15 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
         
         // 属性
         for (int ix = 0; ix < staxReader.getAttributeCount(); ++ix) {
-            QName attrName = new QName(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
-            if (SchemaConstants.NAME_BY_WHOM.equals(attrName)) {
+            int attrCode = SchemaNameTable.attributeCode(staxReader.getAttributeNamespace(ix), staxReader.getAttributeName(ix));
+            if (attrCode == SchemaNameTable.ATTR_BY_WHOM) {
                 // ここに来る時点で Story の avatarList が作成済みであることを想定
                 String avatarId = staxReader.getAttributeValue(ix);
                 Avatar avatar = getStory().getAvatar(avatarId);
                 talk.setSpeaker(avatar);
-            } else if (SchemaConstants.NAME_TIME.equals(attrName)) {
+            } else if (attrCode == SchemaNameTable.ATTR_TIME) {
                 String timeString = staxReader.getAttributeValue(ix);
-                TimePart timePart = XmlUtils.parseTime(timeString);
+                TimePart timePart = TimeParser.parse(timeString);
                 talk.setTime(timePart);
             }
         }
@@ -476,8 +446,8 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_LI.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_LI) {
                     messageLines.add(loadLi(staxReader));
                 } else {
                     XmlUtils.skipElement(staxReader);
@@ -505,8 +475,8 @@ public class PackagedStoryPeriod extends BasicStoryPeriod implements StoryPeriod
             if (eventType == XmlPullParser.END_TAG) {
                 break;
             } else if (eventType == XmlPullParser.START_TAG) {
-                QName elemName = new QName(staxReader.getNamespace(), staxReader.getName());
-                if (SchemaConstants.NAME_RAWDATA.contains(elemName)) {
+                int elemCode = SchemaNameTable.elementCode(staxReader.getNamespace(), staxReader.getName());
+                if (elemCode == SchemaNameTable.ELEM_RAWDATA) {
                     loadRawdata(staxReader, buf);
                 } else {
                     XmlUtils.skipElement(staxReader);
@@ -0,0 +1,263 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2010,2011 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonfdroid.model.archived;
+
+import java.util.List;
+
+import com.hironytic.moltonfdroid.model.EventFamily;
+import com.hironytic.moltonfdroid.util.QName;
+
+/**
+ * 共通アーカイブ基盤用スキーマの要素名と属性名を、小さな整数のコードに変換するための表。
+ *
+ * 要素や属性が現れるたびに QName を生成して比較する代わりに、
+ * (名前空間 URI, ローカル名) からコードを引いて分岐するために用います。
+ * 表はローカル名のハッシュ値によるオープンアドレス法で構成していて、検索時にオブジェクトを生成しません。
+ * 401 と 501 のどちらの名前空間の要素も同じコードになります。
+ */
+final class SchemaNameTable {
+
+    /** コード：未知の要素または属性 */
+    public static final int UNKNOWN = 0;
+
+    /*
+     * 要素のコード
+     */
+    public static final int ELEM_VILLAGE = 1;
+    public static final int ELEM_AVATAR_LIST = 2;
+    public static final int ELEM_AVATAR = 3;
+    public static final int ELEM_PERIOD = 4;
+    public static final int ELEM_TALK = 5;
+    public static final int ELEM_ASSAULT = 6;
+    public static final int ELEM_LI = 7;
+    public static final int ELEM_RAWDATA = 8;
+    public static final int ELEM_PLAYER_LIST = 9;
+    public static final int ELEM_PLAYER_INFO = 10;
+
+    /** ANNOUNCE 種別のイベントを表す要素のコードの開始値 */
+    private static final int ELEM_EVENT_ANNOUNCE_BASE = 32;
+
+    /** ORDER 種別のイベントを表す要素のコードの開始値 */
+    private static final int ELEM_EVENT_ORDER_BASE = 64;
+
+    /** EXTRA 種別のイベントを表す要素のコードの開始値 */
+    private static final int ELEM_EVENT_EXTRA_BASE = 96;
+
+    /** 要素のコードの上限 (これ未満) */
+    private static final int ELEM_CODE_LIMIT = 128;
+
+    /*
+     * 属性のコード
+     */
+    public static final int ATTR_BASE = 1;
+    public static final int ATTR_STATE = 2;
+    public static final int ATTR_FULL_NAME = 3;
+    public static final int ATTR_GRAVE_ICON_URI = 4;
+    public static final int ATTR_AVATAR_ID = 5;
+    public static final int ATTR_SHORT_NAME = 6;
+    public static final int ATTR_FACE_ICON_URI = 7;
+    public static final int ATTR_TYPE = 8;
+    public static final int ATTR_TIME = 9;
+    public static final int ATTR_BY_WHOM = 10;
+    public static final int ATTR_ROLE = 11;
+    public static final int ATTR_DAY = 12;
+    public static final int ATTR_XLINK_HREF = 13;
+
+    /** 要素の表 */
+    private static final NameTable ELEMENTS = new NameTable();
+
+    /** 属性の表 */
+    private static final NameTable ATTRIBUTES = new NameTable();
+
+    /** 要素のコードからイベントの種別への対応 */
+    private static final EventFamily[] EVENT_FAMILIES = new EventFamily[ELEM_CODE_LIMIT];
+
+    static {
+        ELEMENTS.put(SchemaConstants.NAME_VILLAGE, ELEM_VILLAGE);
+        ELEMENTS.put(SchemaConstants.NAME_AVATAR_LIST, ELEM_AVATAR_LIST);
+        ELEMENTS.put(SchemaConstants.NAME_AVATAR, ELEM_AVATAR);
+        ELEMENTS.put(SchemaConstants.NAME_PERIOD, ELEM_PERIOD);
+        ELEMENTS.put(SchemaConstants.NAME_TALK, ELEM_TALK);
+        ELEMENTS.put(SchemaConstants.NAME_ASSAULT, ELEM_ASSAULT);
+        ELEMENTS.put(SchemaConstants.NAME_LI, ELEM_LI);
+        ELEMENTS.put(SchemaConstants.NAME_RAWDATA, ELEM_RAWDATA);
+        ELEMENTS.put(SchemaConstants.NAME_PLAYER_INFO, ELEM_PLAYER_INFO);
+
+        int code = ELEM_EVENT_ANNOUNCE_BASE;
+        putEvent(SchemaConstants.NAME_START_ENTRY, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_ON_STAGE, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_START_MIRROR, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_OPEN_ROLE, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_MURDERED, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_START_ASSAULT, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_SURVIVOR, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_COUNTING, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_SUDDEN_DEATH, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_NO_MURDER, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_WIN_VILLAGE, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_WIN_WOLF, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_WIN_HAMSTER, code++, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_PLAYER_LIST, ELEM_PLAYER_LIST, EventFamily.ANNOUNCE);
+        putEvent(SchemaConstants.NAME_PANIC, code++, EventFamily.ANNOUNCE);
+
+        code = ELEM_EVENT_ORDER_BASE;
+        putEvent(SchemaConstants.NAME_ASK_ENTRY, code++, EventFamily.ORDER);
+        putEvent(SchemaConstants.NAME_ASK_COMMIT, code++, EventFamily.ORDER);
+        putEvent(SchemaConstants.NAME_NO_COMMENT, code++, EventFamily.ORDER);
+        putEvent(SchemaConstants.NAME_STAY_EPILOGUE, code++, EventFamily.ORDER);
+        putEvent(SchemaConstants.NAME_GAME_OVER, code++, EventFamily.ORDER);
+
+        code = ELEM_EVENT_EXTRA_BASE;
+        putEvent(SchemaConstants.NAME_JUDGE, code++, EventFamily.EXTRA);
+        putEvent(SchemaConstants.NAME_GUARD, code++, EventFamily.EXTRA);
+
+        ATTRIBUTES.put(SchemaConstants.NAME_BASE, ATTR_BASE);
+        ATTRIBUTES.put(SchemaConstants.NAME_STATE, ATTR_STATE);
+        ATTRIBUTES.put(SchemaConstants.NAME_FULL_NAME, ATTR_FULL_NAME);
+        ATTRIBUTES.put(SchemaConstants.NAME_GRAVE_ICON_URI, ATTR_GRAVE_ICON_URI);
+        ATTRIBUTES.put(SchemaConstants.NAME_AVATAR_ID, ATTR_AVATAR_ID);
+        ATTRIBUTES.put(SchemaConstants.NAME_SHORT_NAME, ATTR_SHORT_NAME);
+        ATTRIBUTES.put(SchemaConstants.NAME_FACE_ICON_URI, ATTR_FACE_ICON_URI);
+        ATTRIBUTES.put(SchemaConstants.NAME_TYPE, ATTR_TYPE);
+        ATTRIBUTES.put(SchemaConstants.NAME_TIME, ATTR_TIME);
+        ATTRIBUTES.put(SchemaConstants.NAME_BY_WHOM, ATTR_BY_WHOM);
+        ATTRIBUTES.put(SchemaConstants.NAME_ROLE, ATTR_ROLE);
+        ATTRIBUTES.put(SchemaConstants.NAME_DAY, ATTR_DAY);
+        ATTRIBUTES.put(SchemaConstants.NAME_XLINK_HREF, ATTR_XLINK_HREF);
+    }
+
+    /**
+     * コンストラクタ
+     */
+    private SchemaNameTable() {
+    }
+
+    /**
+     * イベントを表す要素を表に登録します。
+     * @param names 要素の QName のリスト
+     * @param elemCode 要素のコード
+     * @param eventFamily イベントの種別
+     */
+    private static void putEvent(List<QName> names, int elemCode, EventFamily eventFamily) {
+        ELEMENTS.put(names, elemCode);
+        EVENT_FAMILIES[elemCode] = eventFamily;
+    }
+
+    /**
+     * 要素名からコードを得ます。
+     * @param namespaceUri 名前空間 URI
+     * @param localName ローカル名
+     * @return 要素のコード。未知の要素なら UNKNOWN。
+     */
+    public static int elementCode(String namespaceUri, String localName) {
+        return ELEMENTS.get(namespaceUri, localName);
+    }
+
+    /**
+     * 属性名からコードを得ます。
+     * @param namespaceUri 名前空間 URI。名前空間に属さない場合は null または空文字列。
+     * @param localName ローカル名
+     * @return 属性のコード。未知の属性なら UNKNOWN。
+     */
+    public static int attributeCode(String namespaceUri, String localName) {
+        return ATTRIBUTES.get(namespaceUri, localName);
+    }
+
+    /**
+     * 要素のコードから、その要素が表すイベントの種別を得ます。
+     * @param elemCode 要素のコード
+     * @return イベントの種別。イベントを表す要素でなければ null。
+     */
+    public static EventFamily toEventFamily(int elemCode) {
+        return EVENT_FAMILIES[elemCode];
+    }
+
+    /**
+     * ローカル名のハッシュ値で引くオープンアドレス法の表
+     */
+    private static class NameTable {
+
+        /** 表の大きさ (2 のべき乗) */
+        private static final int SIZE = 256;
+
+        /** ローカル名 */
+        private final String[] localNames = new String[SIZE];
+
+        /** 名前空間 URI (名前空間に属さない場合は空文字列) */
+        private final String[] namespaceUris = new String[SIZE];
+
+        /** コード */
+        private final int[] codes = new int[SIZE];
+
+        /**
+         * 表に登録します。
+         * @param names 同じコードに対応させる QName のリスト
+         * @param code コード
+         */
+        public void put(List<QName> names, int code) {
+            for (QName name : names) {
+                put(name, code);
+            }
+        }
+
+        /**
+         * 表に登録します。
+         * @param name QName
+         * @param code コード
+         */
+        public void put(QName name, int code) {
+            int ix = name.getLocalName().hashCode() & (SIZE - 1);
+            while (localNames[ix] != null) {
+                ix = (ix + 1) & (SIZE - 1);
+            }
+            localNames[ix] = name.getLocalName();
+            namespaceUris[ix] = name.getNamespaceUri();
+            codes[ix] = code;
+        }
+
+        /**
+         * 表を引きます。
+         * @param namespaceUri 名前空間 URI
+         * @param localName ローカル名
+         * @return コード。登録されていなければ UNKNOWN。
+         */
+        public int get(String namespaceUri, String localName) {
+            if (namespaceUri == null) {
+                namespaceUri = "";
+            }
+            int ix = localName.hashCode() & (SIZE - 1);
+            String entry;
+            while ((entry = localNames[ix]) != null) {
+                if ((entry == localName || entry.equals(localName))
+                        && (namespaceUris[ix] == namespaceUri || namespaceUris[ix].equals(namespaceUri))) {
+                    return codes[ix];
+                }
+                ix = (ix + 1) & (SIZE - 1);
+            }
+            return UNKNOWN;
+        }
+    }
+}
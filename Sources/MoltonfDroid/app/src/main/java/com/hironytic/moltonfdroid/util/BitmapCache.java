@@ -0,0 +1,181 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2011 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonfdroid.util;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+
+/**
+ * デコード済みの画像をメモリに保持しておくキャッシュ。
+ * 保持する画像の合計サイズには上限があり、超えたら最近使われていないものから手放します。
+ * 複数のスレッドから同時に使うことができます。
+ * 
+ * 画像は表示する大きさに合わせて縮小してデコードするので、
+ * キーには画像の元と大きさの両方を含めてください。
+ */
+public class BitmapCache {
+    /** 使えるメモリのうち、キャッシュに割り当てる割合の逆数 */
+    private static final int MEMORY_FRACTION = 8;
+    
+    /** 画像を保持するキャッシュ。サイズの単位はキロバイト */
+    private final LruCache<String, Bitmap> lruCache;
+    
+    /**
+     * コンストラクタ
+     * @param maxSize 保持する画像の合計サイズの上限（キロバイト）
+     */
+    public BitmapCache(int maxSize) {
+        lruCache = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return Math.max(1, value.getRowBytes() * value.getHeight() / 1024);
+            }
+        };
+    }
+    
+    /**
+     * 使えるメモリの量から決めた、保持する画像の合計サイズの上限を返します。
+     * @return 合計サイズの上限（キロバイト）
+     */
+    public static int getDefaultMaxSize() {
+        return (int)(Runtime.getRuntime().maxMemory() / 1024 / MEMORY_FRACTION);
+    }
+    
+    /**
+     * キャッシュのキーを作ります。
+     * @param source 画像の元を表す文字列。URI など
+     * @param width 表示する幅（ピクセル）
+     * @param height 表示する高さ（ピクセル）
+     * @return キー
+     */
+    public static String makeKey(String source, int width, int height) {
+        return source + "@" + width + "x" + height;
+    }
+    
+    /**
+     * 保持している画像を返します。
+     * @param key キー
+     * @return 画像。保持していなければ null
+     */
+    public Bitmap get(String key) {
+        return lruCache.get(key);
+    }
+    
+    /**
+     * 画像を保持します。
+     * @param key キー
+     * @param bitmap 画像
+     */
+    public void put(String key, Bitmap bitmap) {
+        lruCache.put(key, bitmap);
+    }
+    
+    /**
+     * 保持している画像をすべて手放します。
+     */
+    public void evictAll() {
+        lruCache.evictAll();
+    }
+    
+    /**
+     * 表示する大きさを下回らない範囲で、最も小さくなる縮小率を求めます。
+     * @param width 画像の幅（ピクセル）
+     * @param height 画像の高さ（ピクセル）
+     * @param reqWidth 表示する幅（ピクセル）
+     * @param reqHeight 表示する高さ（ピクセル）
+     * @return BitmapFactory.Options#inSampleSize に指定する 2 のべき乗の値
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+    
+    /**
+     * ファイルから、表示する大きさに合わせて縮小した画像をデコードします。
+     * @param path ファイルのパス
+     * @param reqWidth 表示する幅（ピクセル）
+     * @param reqHeight 表示する高さ（ピクセル）
+     * @return 画像。デコードできなければ null
+     */
+    public static Bitmap decodeFile(String path, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(path, options);
+    }
+    
+    /**
+     * バイト列から、表示する大きさに合わせて縮小した画像をデコードします。
+     * @param data 画像のバイト列
+     * @param reqWidth 表示する幅（ピクセル）
+     * @param reqHeight 表示する高さ（ピクセル）
+     * @return 画像。デコードできなければ null
+     */
+    public static Bitmap decodeByteArray(byte[] data, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+    
+    /**
+     * リソースから、表示する大きさに合わせて縮小した画像をデコードします。
+     * @param res リソース
+     * @param resId 画像のリソース ID
+     * @param reqWidth 表示する幅（ピクセル）
+     * @param reqHeight 表示する高さ（ピクセル）
+     * @return 画像。デコードできなければ null
+     */
+    public static Bitmap decodeResource(Resources res, int resId, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(res, resId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeResource(res, resId, options);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Moltonf
+ *
+ * Copyright (c) 2011 Hironori Ichimiya <hiron@hironytic.com>
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hironytic.moltonfdroid.util;
+
+/**
+ * xsd:time 型、xsd:dateTime 型の文字列から時刻部分を取り出すパーサ
+ *
+ * 文字列を 1 文字ずつ直接読むので、途中でオブジェクトを生成しません。
+ * 結果の TimePart は TimePart.valueOf() で得るので、同じ時刻なら同じオブジェクトが返ります。
+ * タイムゾーンは書式の検査のみ行い、時刻はタイムゾーンで補正せずにそのまま返します。
+ *     -- see http://www.w3.org/TR/xmlschema-2/#time
+ *     -- see http://www.w3.org/TR/xmlschema-2/#dateTime
+ */
+public class TimeParser {
+
+    private TimeParser() {
+    }
+
+    /**
+     * xsd:time 型または xsd:dateTime 型の文字列を解析します。
+     * @param text 解析する文字列
+     * @return 解析結果を格納した TimePart オブジェクト。書式が正しくない場合は null
+     */
+    public static TimePart parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * xsd:time 型または xsd:dateTime 型の文字列を解析します。
+     * @param text 解析する文字列を含む文字の並び
+     * @param start 解析する範囲の開始位置
+     * @param end 解析する範囲の終了位置 (この位置の文字は含まない)
+     * @return 解析結果を格納した TimePart オブジェクト。書式が正しくない場合は null
+     */
+    public static TimePart parse(CharSequence text, int start, int end) {
+        // 前後の空白は取り除く (whiteSpace="collapse")
+        while (start < end && isWhitespace(text.charAt(start))) {
+            ++start;
+        }
+        while (end > start && isWhitespace(text.charAt(end - 1))) {
+            --end;
+        }
+
+        // '-'? yyyy '-' mm '-' dd 'T' の部分があれば読み飛ばす
+        int pos = start;
+        if (pos < end && text.charAt(pos) == '-') {
+            ++pos;
+        }
+        if (pos + 2 < end && isDigit(text.charAt(pos + 2))) {
+            pos = skipDate(text, pos, end);
+            if (pos < 0) {
+                return null;
+            }
+        } else if (pos != start) {
+            // 時刻の前に '-' は付かない
+            return null;
+        }
+
+        // hh ':' mm ':' ss
+        if (end - pos < 8 || text.charAt(pos + 2) != ':' || text.charAt(pos + 5) != ':') {
+            return null;
+        }
+        int hour = parseTwoDigits(text, pos);
+        int minute = parseTwoDigits(text, pos + 3);
+        int second = parseTwoDigits(text, pos + 6);
+        if (hour < 0 || hour > 24 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+        pos += 8;
+
+        // ('.' s+)?
+        int millisecond = 0;
+        boolean isFractionZero = true;
+        if (pos < end && text.charAt(pos) == '.') {
+            ++pos;
+            int fractionStart = pos;
+            int factor = 100;
+            while (pos < end && isDigit(text.charAt(pos))) {
+                int digit = text.charAt(pos) - '0';
+                if (digit != 0) {
+                    isFractionZero = false;
+                }
+                // ミリ秒より細かい桁は切り捨て
+                millisecond += digit * factor;
+                factor /= 10;
+                ++pos;
+            }
+            if (pos == fractionStart) {
+                return null;
+            }
+        }
+
+        // 24 時は 24:00:00 のみ許される
+        if (hour == 24 && (minute != 0 || second != 0 || !isFractionZero)) {
+            return null;
+        }
+
+        // (zzzzzz)?
+        if (pos < end) {
+            if (!isTimezone(text, pos, end)) {
+                return null;
+            }
+        }
+
+        return TimePart.valueOf(hour, minute, second, millisecond);
+    }
+
+    /**
+     * yyyy '-' mm '-' dd 'T' の部分を読み飛ばします。
+     * @param text 解析する文字列
+     * @param pos 年の最初の数字の位置
+     * @param end 解析する範囲の終了位置
+     * @return 'T' の次の位置。書式が正しくない場合は -1
+     */
+    private static int skipDate(CharSequence text, int pos, int end) {
+        // 年は 4 桁以上。5 桁以上なら先頭は 0 以外。
+        // 桁数に上限はないので、うるう年の判定に必要な 400 の剰余だけを求める。
+        int yearStart = pos;
+        int yearMod400 = 0;
+        boolean isYearZero = true;
+        while (pos < end && isDigit(text.charAt(pos))) {
+            int digit = text.charAt(pos) - '0';
+            if (digit != 0) {
+                isYearZero = false;
+            }
+            yearMod400 = (yearMod400 * 10 + digit) % 400;
+            ++pos;
+        }
+        int yearLength = pos - yearStart;
+        if (yearLength < 4 || (yearLength > 4 && text.charAt(yearStart) == '0') || isYearZero) {
+            return -1;
+        }
+
+        if (end - pos < 7 || text.charAt(pos) != '-' || text.charAt(pos + 3) != '-' || text.charAt(pos + 6) != 'T') {
+            return -1;
+        }
+        int month = parseTwoDigits(text, pos + 1);
+        int day = parseTwoDigits(text, pos + 4);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(yearMod400, month)) {
+            return -1;
+        }
+        return pos + 7;
+    }
+
+    /**
+     * タイムゾーンの部分 ('Z' | ('+' | '-') hh ':' mm) が正しいかどうかを調べます。
+     * @param text 解析する文字列
+     * @param pos タイムゾーンの開始位置
+     * @param end 解析する範囲の終了位置
+     * @return 正しければ true
+     */
+    private static boolean isTimezone(CharSequence text, int pos, int end) {
+        char ch = text.charAt(pos);
+        if (ch == 'Z') {
+            return (end - pos == 1);
+        }
+        if ((ch != '+' && ch != '-') || end - pos != 6 || text.charAt(pos + 3) != ':') {
+            return false;
+        }
+        int hour = parseTwoDigits(text, pos + 1);
+        int minute = parseTwoDigits(text, pos + 4);
+        if (hour < 0 || minute < 0 || minute > 59) {
+            return false;
+        }
+        return (hour < 14 || (hour == 14 && minute == 0));
+    }
+
+    /**
+     * 指定した月の日数を返します。
+     * @param yearMod400 年を 400 で割った余り
+     * @param month 月 (1 - 12)
+     * @return 日数
+     */
+    private static int daysInMonth(int yearMod400, int month) {
+        switch (month) {
+        case 2:
+            if (yearMod400 % 4 == 0 && (yearMod400 % 100 != 0 || yearMod400 == 0)) {
+                return 29;
+            } else {
+                return 28;
+            }
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * 2 桁の数字を読み取ります。
+     * @param text 解析する文字列
+     * @param pos 1 桁目の位置
+     * @return 読み取った値。数字でなければ -1
+     */
+    private static int parseTwoDigits(CharSequence text, int pos) {
+        char ch1 = text.charAt(pos);
+        char ch2 = text.charAt(pos + 1);
+        if (!isDigit(ch1) || !isDigit(ch2)) {
+            return -1;
+        }
+        return (ch1 - '0') * 10 + (ch2 - '0');
+    }
+
+    /**
+     * 数字かどうかを調べます。
+     * @param ch 調べる文字
+     * @return 数字なら true
+     */
+    private static boolean isDigit(char ch) {
+        return (ch >= '0' && ch <= '9');
+    }
+
+    /**
+     * XML の空白文字かどうかを調べます。
+     * @param ch 調べる文字
+     * @return 空白文字なら true
+     */
+    private static boolean isWhitespace(char ch) {
+        return (ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r');
+    }
+}
@@ -30,8 +30,23 @@ package com.hironytic.moltonfdroid.util;
  */
 public class TimePart {
 
+    /** 1 日のミリ秒 */
+    private static final int MILLISECONDS_IN_A_DAY = 60 * 60 * 1000 * 24;
+    
+    /** キャッシュのサイズ (2 のべき乗) */
+    private static final int CACHE_SIZE = 2048;
+    
+    /** ハッシュ値からキャッシュのインデックスを得るためのシフト量 */
+    private static final int CACHE_SHIFT = 32 - 11;
+    
+    /**
+     * valueOf() で返したオブジェクトのキャッシュ。
+     * 経過ミリ秒のハッシュ値で場所を決め、衝突したら上書きします。
+     */
+    private static final TimePart[] cache = new TimePart[CACHE_SIZE];
+    
     /** 午前 0 時を起点とした経過ミリ秒 */
-    private int milliseconds;
+    private final int milliseconds;
     
     /**
      * 時、分、秒、ミリ秒を指定してオブジェクトを構築します。
@@ -49,11 +64,51 @@ public class TimePart {
      * @param milliseconds 経過ミリ秒 例えば 60000 と指定すると 0 時 1 分 0 秒 000 を表します。
      */
     public TimePart(int milliseconds) {
-        final int MILLISECONDS_IN_A_DAY = 60 * 60 * 1000 * 24;
-        this.milliseconds = milliseconds % MILLISECONDS_IN_A_DAY;
-        if (this.milliseconds < 0) {
-            this.milliseconds += MILLISECONDS_IN_A_DAY;
+        this.milliseconds = normalize(milliseconds);
+    }
+    
+    /**
+     * 時、分、秒、ミリ秒を指定して TimePart オブジェクトを得ます。
+     * 同じ時刻に対しては、なるべく同じオブジェクトを返します。
+     * @param hour 時
+     * @param minute 分
+     * @param second 秒
+     * @param millisecond ミリ秒
+     * @return TimePart オブジェクト
+     */
+    public static TimePart valueOf(int hour, int minute, int second, int millisecond) {
+        return valueOf((((hour * 60 + minute) * 60) + second) * 1000 + millisecond);
+    }
+    
+    /**
+     * 経過ミリ秒を指定して TimePart オブジェクトを得ます。
+     * 同じ時刻に対しては、なるべく同じオブジェクトを返します。
+     * @param milliseconds 経過ミリ秒
+     * @return TimePart オブジェクト
+     */
+    public static TimePart valueOf(int milliseconds) {
+        int normalized = normalize(milliseconds);
+        int index = (normalized * 0x9E3779B9) >>> CACHE_SHIFT;
+        TimePart timePart = cache[index];
+        if (timePart == null || timePart.milliseconds != normalized) {
+            // 複数のスレッドから同時に書き込まれても、どちらかが残るだけなので問題ない
+            timePart = new TimePart(normalized);
+            cache[index] = timePart;
+        }
+        return timePart;
+    }
+    
+    /**
+     * 経過ミリ秒を 0 以上 1 日未満の範囲に収めます。
+     * @param milliseconds 経過ミリ秒
+     * @return 範囲に収めた経過ミリ秒
+     */
+    private static int normalize(int milliseconds) {
+        int result = milliseconds % MILLISECONDS_IN_A_DAY;
+        if (result < 0) {
+            result += MILLISECONDS_IN_A_DAY;
         }
+        return result;
     }
     
     /**
@@ -52,74 +52,4 @@ public class XmlUtils {
             }
         }
     }
-    
-    /**
-     * xsd:time 型の時刻文字列を解析します。
-     * @param timeString 時刻文字列
-     * @return 解析結果を格納した TimePart オブジェクト
-     */
-    public static TimePart parseTime(String timeString) {
-// DatatypeFactory は Level-8 の API なので使えない。
-//        if (datatypeFactory == null) {
-//            try {
-//                datatypeFactory = DatatypeFactory.newInstance();
-//            } catch (DatatypeConfigurationException ex) {
-//                throw new MoltonfException(ex);
-//            }
-//        }
-//        
-//        XMLGregorianCalendar xmlCalendar;
-//        try {
-//            xmlCalendar = datatypeFactory.newXMLGregorianCalendar(timeString);
-//        } catch (IllegalArgumentException ex) {
-//            return null;
-//        }
-//        
-//        int hour = xmlCalendar.getHour();
-//        if (hour == DatatypeConstants.FIELD_UNDEFINED) {
-//            hour = 0;
-//        }
-//        int minute = xmlCalendar.getMinute();
-//        if (minute == DatatypeConstants.FIELD_UNDEFINED) {
-//            minute = 0;
-//        }
-//        int second = xmlCalendar.getSecond();
-//        if (second == DatatypeConstants.FIELD_UNDEFINED) {
-//            second = 0;
-//        }
-//        int millisecond = xmlCalendar.getMillisecond();
-//        if (millisecond == DatatypeConstants.FIELD_UNDEFINED) {
-//            millisecond = 0;
-//        }
-//        return new TimePart(hour, minute, second, millisecond);
-        
-        // ある程度適当に解析
-        // hh ':' mm ':' ss ('.' s+)? (zzzzzz)?
-        //        -- see http://www.w3.org/TR/xmlschema-2/#dateTime
-        if (timeString.length() < 8) {
-            return null;
-        }
-        try {
-            int hour = Integer.parseInt(timeString.substring(0, 2));
-            int minute = Integer.parseInt(timeString.substring(3, 5));
-            int second = Integer.parseInt(timeString.substring(6, 8));
-            int millisecond = 0;
-            if (timeString.length() > 8 && timeString.charAt(8) == '.') {
-                int ix = 9;
-                for (int factor = 1000; factor > 0; factor /= 10) {
-                    if (timeString.length() < ix) {
-                        break;
-                    }
-                    char ch = timeString.charAt(ix);
-                    if (ch < '0' || ch > '9') {
-                        break;
-                    }
-                    millisecond += (int)(ch - '0') * factor;
-                }
-            }
-            return new TimePart(hour, minute, second, millisecond);
-        } catch (NumberFormatException ex) {
-            return null;
-        }
-    }    
 }